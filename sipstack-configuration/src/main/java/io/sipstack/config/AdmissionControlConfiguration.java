@@ -0,0 +1,104 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * Admission control is about rejecting new work, i.e., new INVITEs and REGISTERs, early and
+ * cheaply when the stack is overloaded so that the work already in progress gets to
+ * finish. Anything that belongs to an ongoing transaction or dialog (responses, ACK, BYE,
+ * CANCEL etc) is always let through.
+ *
+ * The new requests are rejected with a 503 Service Unavailable, asking the client to
+ * retry after a number of seconds, as soon as any of the thresholds below is crossed.
+ * A threshold of zero means that it is not checked.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class AdmissionControlConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    @JsonProperty
+    private int maxCallsPerSecond = 0;
+
+    @JsonProperty
+    private Duration maxEventLoopLag = Duration.ZERO;
+
+    @JsonProperty
+    private int maxTransactions = 0;
+
+    @JsonProperty
+    private int retryAfter = 5;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The max number of new INVITEs and REGISTERs we accept per second.
+     *
+     * @return
+     */
+    public int getMaxCallsPerSecond() {
+        return maxCallsPerSecond;
+    }
+
+    public void setMaxCallsPerSecond(final int maxCallsPerSecond) {
+        ensureArgument(maxCallsPerSecond >= 0, "The max calls per second cannot be negative");
+        this.maxCallsPerSecond = maxCallsPerSecond;
+    }
+
+    /**
+     * How far behind an event loop is allowed to be before we stop accepting
+     * new INVITEs and REGISTERs on the channels it serves.
+     *
+     * @return
+     */
+    public Duration getMaxEventLoopLag() {
+        return maxEventLoopLag;
+    }
+
+    public void setMaxEventLoopLag(final Duration maxEventLoopLag) {
+        ensureArgument(maxEventLoopLag == null || !maxEventLoopLag.isNegative(), "The max event loop lag cannot be negative");
+        this.maxEventLoopLag = maxEventLoopLag;
+    }
+
+    /**
+     * The max number of transactions in the transaction store before we stop
+     * accepting new INVITEs and REGISTERs.
+     *
+     * @return
+     */
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    public void setMaxTransactions(final int maxTransactions) {
+        ensureArgument(maxTransactions >= 0, "The max number of transactions cannot be negative");
+        this.maxTransactions = maxTransactions;
+    }
+
+    /**
+     * The value of the Retry-After header (in seconds) of the 503 responses. Zero
+     * means that no Retry-After header is included.
+     *
+     * @return
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(final int retryAfter) {
+        ensureArgument(retryAfter >= 0, "The Retry-After value cannot be negative");
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,76 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * Protects the stack from peers that aren't reading what we send them. A channel becomes
+ * unwritable once more than the high-water mark is waiting to be written to it and stays
+ * so until it gets below the low-water mark again. While unwritable, writes are queued up
+ * to max-queued-writes and anything beyond that is dropped.
+ *
+ * The defaults are the water marks of Netty itself.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class BackPressureConfiguration {
+
+    public static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+    public static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+
+    public static final int DEFAULT_MAX_QUEUED_WRITES = 1024;
+
+    @JsonProperty
+    private int lowWaterMark = DEFAULT_LOW_WATER_MARK;
+
+    @JsonProperty
+    private int highWaterMark = DEFAULT_HIGH_WATER_MARK;
+
+    @JsonProperty
+    private int maxQueuedWrites = DEFAULT_MAX_QUEUED_WRITES;
+
+    /**
+     * Once a channel has become unwritable, it stays so until there is less than
+     * this many bytes waiting to be written to it.
+     *
+     * @return the low-water mark in bytes.
+     */
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public void setLowWaterMark(final int lowWaterMark) {
+        ensureArgument(lowWaterMark >= 0, "The low-water mark cannot be negative");
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * A channel becomes unwritable once more than this many bytes are waiting to be written to it.
+     *
+     * @return the high-water mark in bytes.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(final int highWaterMark) {
+        ensureArgument(highWaterMark >= 0, "The high-water mark cannot be negative");
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * The max number of writes to hold back per channel while it is unwritable.
+     *
+     * @return
+     */
+    public int getMaxQueuedWrites() {
+        return maxQueuedWrites;
+    }
+
+    public void setMaxQueuedWrites(final int maxQueuedWrites) {
+        ensureArgument(maxQueuedWrites >= 1, "The max number of queued writes must be at least one");
+        this.maxQueuedWrites = maxQueuedWrites;
+    }
+}
@@ -37,6 +37,11 @@ public class Configuration {
     @JsonProperty
     private HektorConfiguration hektor = new HektorConfiguration();
 
+    @Valid
+    @NotNull
+    @JsonProperty
+    private EventLoopConfiguration eventLoops = new EventLoopConfiguration();
+
     /**
      * Set the SIP specific configuration.
      * 
@@ -59,6 +64,15 @@ public class Configuration {
         return hektor;
     }
 
+    /**
+     * Get the configuration of the event loops serving the network interfaces.
+     *
+     * @return
+     */
+    public EventLoopConfiguration getEventLoopConfiguration() {
+        return eventLoops;
+    }
+
     /**
      * @return the name
      */
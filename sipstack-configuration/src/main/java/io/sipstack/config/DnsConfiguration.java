@@ -0,0 +1,141 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * Configures how we locate SIP servers through DNS as described by RFC 3263, i.e.,
+ * NAPTR records to find the transport, SRV records to find the host and port and
+ * finally A records to find the IP address.
+ *
+ * All lookups are cached for as long as the TTL of the records allow (within the
+ * configured min and max) and lookups that didn't find anything are cached for the
+ * negative TTL so that we don't keep hammering the DNS servers about names that
+ * don't exist.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class DnsConfiguration {
+
+    @JsonProperty
+    private boolean naptr = true;
+
+    @JsonProperty
+    private boolean srv = true;
+
+    @JsonProperty
+    private boolean cache = true;
+
+    @JsonProperty
+    private List<String> servers = new ArrayList<>();
+
+    @JsonProperty
+    private Duration queryTimeout = Duration.ofSeconds(5);
+
+    @JsonProperty
+    private Duration minTtl = Duration.ZERO;
+
+    @JsonProperty
+    private Duration maxTtl = Duration.ofHours(1);
+
+    @JsonProperty
+    private Duration negativeTtl = Duration.ofSeconds(30);
+
+    /**
+     * Whether or not to do NAPTR lookups when neither transport nor port has been
+     * specified. If not, we go straight to SRV.
+     *
+     * @return
+     */
+    public boolean isNaptr() {
+        return naptr;
+    }
+
+    public void setNaptr(final boolean naptr) {
+        this.naptr = naptr;
+    }
+
+    /**
+     * Whether or not to do SRV lookups when the port hasn't been specified. If not,
+     * we go straight to A records and the default port of the transport.
+     *
+     * @return
+     */
+    public boolean isSrv() {
+        return srv;
+    }
+
+    public void setSrv(final boolean srv) {
+        this.srv = srv;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    public void setCache(final boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * The DNS servers to use, as ip or ip:port. If none are configured, the
+     * ones configured for the system are used.
+     *
+     * @return
+     */
+    public List<String> getServers() {
+        return servers;
+    }
+
+    public void setServers(final List<String> servers) {
+        this.servers = servers == null ? new ArrayList<>() : servers;
+    }
+
+    public Duration getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public void setQueryTimeout(final Duration queryTimeout) {
+        ensureArgument(queryTimeout != null && !queryTimeout.isNegative() && !queryTimeout.isZero(),
+                "The query timeout must be greater than zero");
+        this.queryTimeout = queryTimeout;
+    }
+
+    public Duration getMinTtl() {
+        return minTtl;
+    }
+
+    public void setMinTtl(final Duration minTtl) {
+        ensureArgument(minTtl != null && !minTtl.isNegative(), "The min TTL cannot be negative");
+        this.minTtl = minTtl;
+    }
+
+    public Duration getMaxTtl() {
+        return maxTtl;
+    }
+
+    public void setMaxTtl(final Duration maxTtl) {
+        ensureArgument(maxTtl != null && !maxTtl.isNegative(), "The max TTL cannot be negative");
+        this.maxTtl = maxTtl;
+    }
+
+    /**
+     * For how long we remember that a name didn't exist, or didn't have any
+     * records of the type we asked for.
+     *
+     * @return
+     */
+    public Duration getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public void setNegativeTtl(final Duration negativeTtl) {
+        ensureArgument(negativeTtl != null && !negativeTtl.isNegative(), "The negative TTL cannot be negative");
+        this.negativeTtl = negativeTtl;
+    }
+}
@@ -0,0 +1,154 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Describes the event loop topology of the stack, i.e., which groups of event loops
+ * are serving which sockets.
+ *
+ * By default there is a small boss group that only accepts new TCP connections, one
+ * group serving all the UDP sockets and one group serving all the TCP connections. That
+ * way a flood of TCP connections will not starve the UDP traffic (and vice versa).
+ *
+ * On top of that, each network interface can be given its own UDP and/or TCP group, which
+ * is typically what you want if e.g. your public interface is facing a lot of
+ * untrusted traffic while your private interface is connected to a few trusted
+ * but very busy trunks. Those groups are configured under the name of the interface:
+ *
+ * <pre>
+ * eventLoops:
+ *     boss:
+ *         threads: 1
+ *     udp:
+ *         threads: 4
+ *         ioRatio: 70
+ *     tcp:
+ *         threads: 4
+ *     interfaces:
+ *         public:
+ *             udp:
+ *                 threads: 2
+ * </pre>
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class EventLoopConfiguration {
+
+    @JsonProperty
+    private EventLoopGroupConfiguration boss = new EventLoopGroupConfiguration(1, EventLoopGroupConfiguration.DEFAULT_IO_RATIO);
+
+    @JsonProperty
+    private EventLoopGroupConfiguration udp = new EventLoopGroupConfiguration();
+
+    @JsonProperty
+    private EventLoopGroupConfiguration tcp = new EventLoopGroupConfiguration();
+
+    @JsonProperty
+    private Map<String, InterfaceEventLoopConfiguration> interfaces = new HashMap<>();
+
+    /**
+     * The group accepting new incoming TCP connections. One thread is plenty unless
+     * you are listening on a lot of TCP ports.
+     *
+     * @return
+     */
+    public EventLoopGroupConfiguration getBoss() {
+        return boss;
+    }
+
+    public void setBoss(final EventLoopGroupConfiguration boss) {
+        this.boss = ensureNotNull(boss, "The boss group configuration cannot be null");
+    }
+
+    /**
+     * The group shared by all UDP sockets of the interfaces that do not have a group of their own.
+     *
+     * @return
+     */
+    public EventLoopGroupConfiguration getUdp() {
+        return udp;
+    }
+
+    public void setUdp(final EventLoopGroupConfiguration udp) {
+        this.udp = ensureNotNull(udp, "The UDP group configuration cannot be null");
+    }
+
+    /**
+     * The group shared by all TCP connections of the interfaces that do not have a group of their own.
+     *
+     * @return
+     */
+    public EventLoopGroupConfiguration getTcp() {
+        return tcp;
+    }
+
+    public void setTcp(final EventLoopGroupConfiguration tcp) {
+        this.tcp = ensureNotNull(tcp, "The TCP group configuration cannot be null");
+    }
+
+    /**
+     * Check whether the given network interface has been configured to have
+     * its own UDP group.
+     *
+     * @param interfaceName
+     * @return
+     */
+    public boolean hasDedicatedUdp(final String interfaceName) {
+        final InterfaceEventLoopConfiguration config = interfaces.get(interfaceName);
+        return config != null && config.udp != null;
+    }
+
+    /**
+     * Check whether the given network interface has been configured to have
+     * its own TCP group.
+     *
+     * @param interfaceName
+     * @return
+     */
+    public boolean hasDedicatedTcp(final String interfaceName) {
+        final InterfaceEventLoopConfiguration config = interfaces.get(interfaceName);
+        return config != null && config.tcp != null;
+    }
+
+    /**
+     * Get the UDP group configuration for the given network interface, which is
+     * the shared UDP configuration unless the interface has a group of its own.
+     *
+     * @param interfaceName
+     * @return
+     */
+    public EventLoopGroupConfiguration getUdp(final String interfaceName) {
+        return hasDedicatedUdp(interfaceName) ? interfaces.get(interfaceName).udp : udp;
+    }
+
+    /**
+     * Get the TCP group configuration for the given network interface, which is
+     * the shared TCP configuration unless the interface has a group of its own.
+     *
+     * @param interfaceName
+     * @return
+     */
+    public EventLoopGroupConfiguration getTcp(final String interfaceName) {
+        return hasDedicatedTcp(interfaceName) ? interfaces.get(interfaceName).tcp : tcp;
+    }
+
+    /**
+     * The per network interface event loop groups. Any transport that isn't
+     * configured will use the shared group.
+     */
+    public static class InterfaceEventLoopConfiguration {
+
+        @JsonProperty
+        private EventLoopGroupConfiguration udp;
+
+        @JsonProperty
+        private EventLoopGroupConfiguration tcp;
+
+    }
+
+}
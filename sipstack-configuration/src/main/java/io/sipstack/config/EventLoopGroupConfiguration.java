@@ -0,0 +1,68 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * The configuration of a single group of event loops, i.e., how many threads it has
+ * and how those threads split their time between doing IO and running the tasks
+ * (such as timers) that have been scheduled on them.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class EventLoopGroupConfiguration {
+
+    /**
+     * The default io ratio, which is the same as the default in Netty.
+     */
+    public static final int DEFAULT_IO_RATIO = 50;
+
+    @JsonProperty
+    private int threads;
+
+    @JsonProperty
+    private int ioRatio = DEFAULT_IO_RATIO;
+
+    public EventLoopGroupConfiguration() {
+        // left empty intentionally
+    }
+
+    public EventLoopGroupConfiguration(final int threads, final int ioRatio) {
+        setThreads(threads);
+        setIoRatio(ioRatio);
+    }
+
+    /**
+     * The number of threads, i.e. event loops, in this group. Zero, which is the default,
+     * means that we will use as many threads as there are cores.
+     *
+     * @return
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(final int threads) {
+        ensureArgument(threads >= 0, "The number of threads cannot be negative");
+        this.threads = threads;
+    }
+
+    /**
+     * The percentage of the time each event loop should spend on IO compared to running
+     * its other tasks. The default is 50, meaning that the same amount of time is spent
+     * on both. If your event loops are busy doing a lot of IO, such as a loop serving a
+     * single busy UDP socket, you may want to bump this up.
+     *
+     * @return
+     */
+    public int getIoRatio() {
+        return ioRatio;
+    }
+
+    public void setIoRatio(final int ioRatio) {
+        ensureArgument(ioRatio > 0 && ioRatio <= 100, "The io ratio must be between 1 and 100");
+        this.ioRatio = ioRatio;
+    }
+
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.time.Duration;
 
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
 import static io.sipstack.config.KeepAliveConfiguration.KEEP_ALIVE_MODE.ACTIVE;
 import static io.sipstack.config.KeepAliveConfiguration.KEEP_ALIVE_MODE.NONE;
 import static io.sipstack.config.KeepAliveConfiguration.KEEP_ALIVE_MODE.PASSIVE;
@@ -22,9 +24,15 @@ public class FlowConfiguration {
     @JsonProperty
     private int defaultStorageSize = 1000;
 
+    @JsonProperty
+    private Duration idleSweepPeriod = Duration.ofSeconds(2);
+
     @JsonProperty("keepAlive")
     private KeepAliveConfiguration keepAliveConfiguration = new KeepAliveConfiguration();
 
+    @JsonProperty
+    private FlowScaleOutConfiguration scaleOut = new FlowScaleOutConfiguration();
+
     /**
      *
      * @return
@@ -37,6 +45,16 @@ public class FlowConfiguration {
         return keepAliveConfiguration;
     }
 
+    /**
+     * Controls whether and when we open up additional flows to a remote
+     * endpoint that is too busy to be served by a single flow.
+     *
+     * @return
+     */
+    public FlowScaleOutConfiguration getScaleOut() {
+        return scaleOut;
+    }
+
     /**
      * Convenience method for checking if the keep-alive (ping) mode is set to
      * active.
@@ -97,4 +115,23 @@ public class FlowConfiguration {
         defaultStorageSize = size;
     }
 
+    /**
+     * Flows don't have timers of their own for detecting that they have been idle
+     * for too long. Instead, all flows are checked by a sweeper that walks through
+     * a portion of them every second so that every flow has been checked once
+     * within this period. Hence, this is also how late (at most) a flow may find
+     * out that it has been idle for too long.
+     *
+     * @return
+     */
+    public Duration getIdleSweepPeriod() {
+        return idleSweepPeriod;
+    }
+
+    public void setIdleSweepPeriod(final Duration period) {
+        ensureArgument(period != null && !period.isNegative() && !period.isZero(),
+                "The idle sweep period must be greater than zero");
+        idleSweepPeriod = period;
+    }
+
 }
@@ -0,0 +1,108 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * When a single connection oriented flow (e.g. TCP) to a remote endpoint
+ * gets too busy we can open up additional flows to the same endpoint and spread
+ * the traffic across them. Once the load drops again, the extra flows are
+ * retired and eventually closed.
+ *
+ * A flow is considered busy if it either has taken more than
+ * {@link #getMessagesPerSecond()} messages over the last second or if it has more
+ * than {@link #getOutstandingWrites()} writes that haven't made it out on
+ * the network yet. Only when all the flows to the endpoint are busy will
+ * we open another one.
+ *
+ * By default, the max number of flows is one, i.e., we never scale out.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class FlowScaleOutConfiguration {
+
+    @JsonProperty
+    private int maxFlows = 1;
+
+    @JsonProperty
+    private int messagesPerSecond = 0;
+
+    @JsonProperty
+    private int outstandingWrites = 0;
+
+    @JsonProperty
+    private Duration retireAfter = Duration.ofSeconds(32);
+
+    /**
+     * The max number of flows we will open to the same remote endpoint.
+     *
+     * @return
+     */
+    public int getMaxFlows() {
+        return maxFlows;
+    }
+
+    public void setMaxFlows(final int maxFlows) {
+        ensureArgument(maxFlows >= 1, "The max number of flows must be at least one");
+        this.maxFlows = maxFlows;
+    }
+
+    /**
+     * The number of messages per second (in and out) a flow can take before it
+     * is considered busy. Zero means that the message rate isn't considered.
+     *
+     * @return
+     */
+    public int getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(final int messagesPerSecond) {
+        ensureArgument(messagesPerSecond >= 0, "The messages per second cannot be negative");
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * The number of writes that can be outstanding on a flow before it is
+     * considered busy. Zero means that outstanding writes aren't considered.
+     *
+     * @return
+     */
+    public int getOutstandingWrites() {
+        return outstandingWrites;
+    }
+
+    public void setOutstandingWrites(final int outstandingWrites) {
+        ensureArgument(outstandingWrites >= 0, "The outstanding writes cannot be negative");
+        this.outstandingWrites = outstandingWrites;
+    }
+
+    /**
+     * Once an extra flow has been retired no new traffic will be directed to it
+     * but the transactions already using it must be allowed to finish so it is
+     * only closed after it has been idle for this long. Default is 32 seconds,
+     * which is the time it takes for a transaction to time out (64 * T1).
+     *
+     * @return
+     */
+    public Duration getRetireAfter() {
+        return retireAfter;
+    }
+
+    public void setRetireAfter(final Duration retireAfter) {
+        ensureArgument(retireAfter != null && !retireAfter.isNegative(), "The retire after cannot be negative");
+        this.retireAfter = retireAfter;
+    }
+
+    /**
+     * Convenience method for checking whether scaling out is at all enabled.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return maxFlows > 1 && (messagesPerSecond > 0 || outstandingWrites > 0);
+    }
+}
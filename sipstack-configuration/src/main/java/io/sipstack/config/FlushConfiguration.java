@@ -0,0 +1,53 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * How the flushes on every channel are consolidated so that the messages written
+ * while processing a read, or in a burst of timers, go out to the socket in one go
+ * rather than one syscall per message.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class FlushConfiguration {
+
+    @JsonProperty
+    private FlushPolicyConfiguration read =
+            new FlushPolicyConfiguration(FlushPolicyConfiguration.DEFAULT_MAX_PENDING_FLUSHES, Duration.ZERO);
+
+    @JsonProperty
+    private FlushPolicyConfiguration timer =
+            new FlushPolicyConfiguration(FlushPolicyConfiguration.DEFAULT_MAX_PENDING_FLUSHES, Duration.ofMillis(1));
+
+    /**
+     * The policy for the flushes while a read is in progress. By default we flush
+     * every 64 flushes and when the read is complete.
+     *
+     * @return
+     */
+    public FlushPolicyConfiguration getRead() {
+        return read;
+    }
+
+    public void setRead(final FlushPolicyConfiguration read) {
+        this.read = ensureNotNull(read, "The read flush policy cannot be null");
+    }
+
+    /**
+     * The policy for all other flushes, such as those from timers. By default we
+     * flush every 64 flushes or after at most a millisecond.
+     *
+     * @return
+     */
+    public FlushPolicyConfiguration getTimer() {
+        return timer;
+    }
+
+    public void setTimer(final FlushPolicyConfiguration timer) {
+        this.timer = ensureNotNull(timer, "The timer flush policy cannot be null");
+    }
+}
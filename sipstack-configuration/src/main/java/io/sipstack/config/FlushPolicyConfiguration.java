@@ -0,0 +1,66 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * When a held back flush should be let through to the socket, which is as soon as
+ * we have held back max-pending-flushes flushes or when the oldest of them has been
+ * waiting for max-delay, whichever comes first.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class FlushPolicyConfiguration {
+
+    public static final int DEFAULT_MAX_PENDING_FLUSHES = 64;
+
+    @JsonProperty
+    private int maxPendingFlushes = DEFAULT_MAX_PENDING_FLUSHES;
+
+    @JsonProperty
+    private Duration maxDelay = Duration.ZERO;
+
+    public FlushPolicyConfiguration() {
+        // left empty intentionally
+    }
+
+    public FlushPolicyConfiguration(final int maxPendingFlushes, final Duration maxDelay) {
+        setMaxPendingFlushes(maxPendingFlushes);
+        setMaxDelay(maxDelay);
+    }
+
+    /**
+     * The max number of flushes to hold back before actually flushing. One means
+     * that every flush goes straight out to the socket.
+     *
+     * @return
+     */
+    public int getMaxPendingFlushes() {
+        return maxPendingFlushes;
+    }
+
+    public void setMaxPendingFlushes(final int maxPendingFlushes) {
+        ensureArgument(maxPendingFlushes >= 1, "The max number of pending flushes must be at least one");
+        this.maxPendingFlushes = maxPendingFlushes;
+    }
+
+    /**
+     * For how long the first held back flush may wait. Zero means that it waits until
+     * the event loop has finished what it is currently doing.
+     *
+     * @return
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(final Duration maxDelay) {
+        ensureNotNull(maxDelay, "The max delay cannot be null");
+        ensureArgument(!maxDelay.isNegative(), "The max delay cannot be negative");
+        this.maxDelay = maxDelay;
+    }
+}
@@ -31,14 +31,39 @@ public class NetworkInterfaceConfiguration {
 
     private final List<Transport> transports;
 
+    /**
+     * Whether or not to use the native epoll transport (Linux only) for this interface.
+     * If native epoll isn't available we will fall back to NIO.
+     */
+    @JsonProperty
+    private final boolean epoll;
+
+    /**
+     * When using epoll, this is the number of UDP channels that will be bound to the
+     * same port (through SO_REUSEPORT), each one served by its own event loop. Zero
+     * means one per available processor.
+     */
+    @JsonProperty
+    private final int udpChannels;
+
     /**
      * 
      */
     public NetworkInterfaceConfiguration(final String name, final SipURI listen, final SipURI vipAddress, final List<Transport> transports) {
+        this(name, listen, vipAddress, transports, false, 0);
+    }
+
+    public NetworkInterfaceConfiguration(final String name, final SipURI listen, final SipURI vipAddress,
+                                         final List<Transport> transports, final boolean epoll, final int udpChannels) {
+        if (udpChannels < 0) {
+            throw new IllegalArgumentException("The number of UDP channels cannot be negative");
+        }
         this.name = name;
         this.listen = listen;
         this.vipAddress = vipAddress;
         this.transports = transports;
+        this.epoll = epoll;
+        this.udpChannels = udpChannels;
     }
 
     public NetworkInterfaceConfiguration(final String name, final SipURI listen, final SipURI vipAddress, final Transport ... transports) {
@@ -87,4 +112,16 @@ public class NetworkInterfaceConfiguration {
         return this.vipAddress;
     }
 
+    public boolean isEpoll() {
+        return this.epoll;
+    }
+
+    /**
+     * @return the number of UDP channels to bind when using epoll or zero if that
+     *         should be decided based on the number of available processors.
+     */
+    public int getUdpChannels() {
+        return this.udpChannels;
+    }
+
 }
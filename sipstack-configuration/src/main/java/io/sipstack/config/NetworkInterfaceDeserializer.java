@@ -37,6 +37,8 @@ public class NetworkInterfaceDeserializer extends JsonDeserializer<NetworkInterf
         final JsonNode listenNode = node.get("listen");
         final JsonNode vipNode = node.get("vipAddress");
         final JsonNode transportNode = node.get("transport");
+        final JsonNode epollNode = node.get("epoll");
+        final JsonNode udpChannelsNode = node.get("udpChannels");
 
         if (nameNode == null) {
             throw new IllegalArgumentException("You must specify the name of the Network Interface");
@@ -69,8 +71,11 @@ public class NetworkInterfaceDeserializer extends JsonDeserializer<NetworkInterf
             }
         }
 
+        final boolean epoll = epollNode != null && epollNode.asBoolean();
+        final int udpChannels = udpChannelsNode != null ? udpChannelsNode.asInt() : 0;
+
         return new NetworkInterfaceConfiguration(nameNode.asText(), listenAddress, vipAddress,
-                Collections.unmodifiableList(transports));
+                Collections.unmodifiableList(transports), epoll, udpChannels);
     }
 
     private static Buffer ensureSipURI(final String value) {
@@ -0,0 +1,154 @@
+package io.sipstack.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Rate limiting is about protecting everyone else from a single remote endpoint (ip:port
+ * and transport) that is flooding us, which otherwise could starve every other endpoint
+ * sharing the same event loop. Unlike admission control, which is about the stack as a
+ * whole being overloaded, the limits here apply to each remote endpoint on its own.
+ *
+ * Every remote endpoint gets two token buckets, one for all the messages it sends us and
+ * one for the new transactions, i.e., requests other than ACK, it sends us. Each bucket
+ * is refilled at the configured rate per second and can hold up to the configured burst
+ * so that an endpoint may go above the rate for a short while. A rate of zero means that
+ * the bucket isn't checked.
+ *
+ * What happens to a message that exceeds the limits is up to the {@link Policy}.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class RateLimitConfiguration {
+
+    public enum Policy {
+        /**
+         * Silently drop the message.
+         */
+        DROP,
+
+        /**
+         * Reject requests with a 503 Service Unavailable (responses are dropped).
+         */
+        REJECT,
+
+        /**
+         * Close the connection to the remote endpoint. Since there is no such thing
+         * for UDP, messages over UDP are dropped.
+         */
+        CLOSE
+    }
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    @JsonProperty
+    private int messagesPerSecond = 0;
+
+    @JsonProperty
+    private int messageBurst = 0;
+
+    @JsonProperty
+    private int transactionsPerSecond = 0;
+
+    @JsonProperty
+    private int transactionBurst = 0;
+
+    @JsonProperty
+    private Policy policy = Policy.DROP;
+
+    @JsonProperty
+    private int retryAfter = 5;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The max number of messages per second we accept from a single remote endpoint.
+     *
+     * @return
+     */
+    public int getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(final int messagesPerSecond) {
+        ensureArgument(messagesPerSecond >= 0, "The messages per second cannot be negative");
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * The max number of messages a remote endpoint may send us in one go, above the rate.
+     * Zero means the same as the rate, i.e., one second worth of messages.
+     *
+     * @return
+     */
+    public int getMessageBurst() {
+        return messageBurst > 0 ? messageBurst : messagesPerSecond;
+    }
+
+    public void setMessageBurst(final int messageBurst) {
+        ensureArgument(messageBurst >= 0, "The message burst cannot be negative");
+        this.messageBurst = messageBurst;
+    }
+
+    /**
+     * The max number of new transactions per second we accept from a single remote endpoint.
+     *
+     * @return
+     */
+    public int getTransactionsPerSecond() {
+        return transactionsPerSecond;
+    }
+
+    public void setTransactionsPerSecond(final int transactionsPerSecond) {
+        ensureArgument(transactionsPerSecond >= 0, "The transactions per second cannot be negative");
+        this.transactionsPerSecond = transactionsPerSecond;
+    }
+
+    /**
+     * The max number of new transactions a remote endpoint may start in one go, above the
+     * rate. Zero means the same as the rate, i.e., one second worth of transactions.
+     *
+     * @return
+     */
+    public int getTransactionBurst() {
+        return transactionBurst > 0 ? transactionBurst : transactionsPerSecond;
+    }
+
+    public void setTransactionBurst(final int transactionBurst) {
+        ensureArgument(transactionBurst >= 0, "The transaction burst cannot be negative");
+        this.transactionBurst = transactionBurst;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(final Policy policy) {
+        this.policy = ensureNotNull(policy, "The policy cannot be null");
+    }
+
+    /**
+     * The value of the Retry-After header (in seconds) of the 503 responses when
+     * the policy is {@link Policy#REJECT}. Zero means that no Retry-After header
+     * is included.
+     *
+     * @return
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(final int retryAfter) {
+        ensureArgument(retryAfter >= 0, "The Retry-After value cannot be negative");
+        this.retryAfter = retryAfter;
+    }
+}
@@ -32,6 +32,9 @@ public class SipConfiguration {
     @JsonProperty
     private final TransportLayerConfiguration transport = new TransportLayerConfiguration();
 
+    @JsonProperty
+    private final DnsConfiguration dns = new DnsConfiguration();
+
     @JsonProperty
     private int workerThreads = 4;
 
@@ -65,6 +68,10 @@ public class SipConfiguration {
         return transport;
     }
 
+    public DnsConfiguration getDns() {
+        return dns;
+    }
+
     /**
      * @return the workerThreads
      */
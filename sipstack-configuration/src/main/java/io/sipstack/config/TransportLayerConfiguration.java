@@ -31,10 +31,38 @@ public class TransportLayerConfiguration {
     @JsonProperty
     private FlowConfiguration flow = new FlowConfiguration();
 
+    @JsonProperty
+    private AdmissionControlConfiguration admission = new AdmissionControlConfiguration();
+
+    @JsonProperty
+    private RateLimitConfiguration rateLimit = new RateLimitConfiguration();
+
+    @JsonProperty
+    private FlushConfiguration flush = new FlushConfiguration();
+
+    @JsonProperty
+    private BackPressureConfiguration backPressure = new BackPressureConfiguration();
+
     public FlowConfiguration getFlow() {
         return flow;
     }
 
+    public AdmissionControlConfiguration getAdmission() {
+        return admission;
+    }
+
+    public RateLimitConfiguration getRateLimit() {
+        return rateLimit;
+    }
+
+    public FlushConfiguration getFlush() {
+        return flush;
+    }
+
+    public BackPressureConfiguration getBackPressure() {
+        return backPressure;
+    }
+
     public boolean getForceRPort() {
         return forceRPort;
     }
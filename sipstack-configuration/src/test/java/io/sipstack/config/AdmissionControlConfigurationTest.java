@@ -0,0 +1,40 @@
+package io.sipstack.config;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class AdmissionControlConfigurationTest extends ConfigTestBase {
+
+    @Test
+    public void testDefaults() throws Exception {
+        final AdmissionControlConfiguration config = new TransportLayerConfiguration().getAdmission();
+        assertThat(config.isEnabled(), is(false));
+        assertThat(config.getMaxCallsPerSecond(), is(0));
+        assertThat(config.getMaxEventLoopLag(), is(Duration.ZERO));
+        assertThat(config.getMaxTransactions(), is(0));
+        assertThat(config.getRetryAfter(), is(5));
+    }
+
+    @Test
+    public void testLoadAdmissionControlConfiguration() throws Exception {
+        final AdmissionControlConfiguration config =
+                loadConfiguration(AdmissionControlConfiguration.class, "AdmissionControlConfigurationTest01.yaml");
+        assertThat(config.isEnabled(), is(true));
+        assertThat(config.getMaxCallsPerSecond(), is(200));
+        assertThat(config.getMaxEventLoopLag(), is(Duration.ofMillis(250)));
+        assertThat(config.getMaxTransactions(), is(50000));
+        assertThat(config.getRetryAfter(), is(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCallsPerSecond() throws Exception {
+        new AdmissionControlConfiguration().setMaxCallsPerSecond(-1);
+    }
+}
@@ -33,6 +33,30 @@ public class ConfigurationTest extends ConfigTestBase {
         assertThat(network.hasTLS(), is(false));
         assertThat(network.hasWS(), is(false));
         assertThat(network.hasSCTP(), is(false));
+
+        // the max queued writes isn't in the file so it keeps its default
+        final BackPressureConfiguration backPressure = sip.getTransport().getBackPressure();
+        assertThat(backPressure.getLowWaterMark(), is(8192));
+        assertThat(backPressure.getHighWaterMark(), is(16384));
+        assertThat(backPressure.getMaxQueuedWrites(), is(BackPressureConfiguration.DEFAULT_MAX_QUEUED_WRITES));
+    }
+
+    @Test
+    public void testBackPressureDefaults() throws Exception {
+        final BackPressureConfiguration backPressure = new SipConfiguration().getTransport().getBackPressure();
+        assertThat(backPressure.getLowWaterMark(), is(32 * 1024));
+        assertThat(backPressure.getHighWaterMark(), is(64 * 1024));
+        assertThat(backPressure.getMaxQueuedWrites(), is(1024));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackPressureNoQueuedWrites() throws Exception {
+        new BackPressureConfiguration().setMaxQueuedWrites(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackPressureNegativeWaterMark() throws Exception {
+        new BackPressureConfiguration().setLowWaterMark(-1);
     }
 
     @Test
@@ -52,6 +76,8 @@ public class ConfigurationTest extends ConfigTestBase {
         assertThat(network.hasTLS(), is(true));
         assertThat(network.hasWS(), is(false));
         assertThat(network.hasSCTP(), is(false));
+        assertThat(network.isEpoll(), is(false));
+        assertThat(network.getUdpChannels(), is(0));
 
         network = sip.getNetworkInterfaces().get(1);
         assertThat(network.getName(), is("private"));
@@ -63,6 +89,8 @@ public class ConfigurationTest extends ConfigTestBase {
         assertThat(network.hasTLS(), is(false));
         assertThat(network.hasWS(), is(false));
         assertThat(network.hasSCTP(), is(false));
+        assertThat(network.isEpoll(), is(true));
+        assertThat(network.getUdpChannels(), is(4));
 
         network = sip.getNetworkInterfaces().get(2);
         assertThat(network.getName(), is("local"));
@@ -0,0 +1,61 @@
+package io.sipstack.config;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class EventLoopConfigurationTest extends ConfigTestBase {
+
+    @Test
+    public void testDefaults() throws Exception {
+        final EventLoopConfiguration config = new EventLoopConfiguration();
+        assertThat(config.getBoss().getThreads(), is(1));
+        assertThat(config.getUdp().getThreads(), is(0));
+        assertThat(config.getUdp().getIoRatio(), is(EventLoopGroupConfiguration.DEFAULT_IO_RATIO));
+        assertThat(config.getTcp().getThreads(), is(0));
+        assertThat(config.hasDedicatedUdp("default"), is(false));
+        assertThat(config.hasDedicatedTcp("default"), is(false));
+        assertThat(config.getUdp("default") == config.getUdp(), is(true));
+    }
+
+    @Test
+    public void testLoadEventLoopConfiguration() throws Exception {
+        final EventLoopConfiguration config =
+                loadConfiguration(EventLoopConfiguration.class, "EventLoopConfigurationTest01.yaml");
+
+        assertThat(config.getBoss().getThreads(), is(2));
+        assertThat(config.getUdp().getThreads(), is(4));
+        assertThat(config.getUdp().getIoRatio(), is(80));
+        assertThat(config.getTcp().getThreads(), is(8));
+        assertThat(config.getTcp().getIoRatio(), is(50));
+
+        assertThat(config.hasDedicatedUdp("public"), is(true));
+        assertThat(config.hasDedicatedTcp("public"), is(false));
+        assertThat(config.getUdp("public").getThreads(), is(1));
+        assertThat(config.getUdp("public").getIoRatio(), is(90));
+        assertThat(config.getTcp("public").getThreads(), is(8));
+
+        assertThat(config.hasDedicatedUdp("private"), is(false));
+        assertThat(config.hasDedicatedTcp("private"), is(true));
+        assertThat(config.getUdp("private").getThreads(), is(4));
+        assertThat(config.getTcp("private").getThreads(), is(3));
+
+        // an interface we know nothing about uses the shared groups
+        assertThat(config.getUdp("local").getThreads(), is(4));
+        assertThat(config.getTcp("local").getThreads(), is(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIoRatioOutOfRange() throws Exception {
+        new EventLoopGroupConfiguration(1, 101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreads() throws Exception {
+        new EventLoopGroupConfiguration().setThreads(-1);
+    }
+}
@@ -0,0 +1,45 @@
+package io.sipstack.config;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlushConfigurationTest extends ConfigTestBase {
+
+    @Test
+    public void testDefaults() throws Exception {
+        final FlushConfiguration config = new TransportLayerConfiguration().getFlush();
+        assertThat(config.getRead().getMaxPendingFlushes(), is(64));
+        assertThat(config.getRead().getMaxDelay(), is(Duration.ZERO));
+        assertThat(config.getTimer().getMaxPendingFlushes(), is(64));
+        assertThat(config.getTimer().getMaxDelay(), is(Duration.ofMillis(1)));
+    }
+
+    /**
+     * Anything not in the file keeps its default.
+     */
+    @Test
+    public void testLoadFlushConfiguration() throws Exception {
+        final FlushConfiguration config = loadConfiguration(FlushConfiguration.class, "FlushConfigurationTest01.yaml");
+        assertThat(config.getRead().getMaxPendingFlushes(), is(16));
+        assertThat(config.getRead().getMaxDelay(), is(Duration.ZERO));
+        assertThat(config.getTimer().getMaxPendingFlushes(), is(32));
+        assertThat(config.getTimer().getMaxDelay(), is(Duration.ofMillis(5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoPendingFlushes() throws Exception {
+        new FlushPolicyConfiguration().setMaxPendingFlushes(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxDelay() throws Exception {
+        new FlushPolicyConfiguration().setMaxDelay(Duration.ofMillis(-1));
+    }
+}
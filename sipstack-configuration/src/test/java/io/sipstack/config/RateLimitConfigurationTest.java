@@ -0,0 +1,44 @@
+package io.sipstack.config;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class RateLimitConfigurationTest extends ConfigTestBase {
+
+    @Test
+    public void testDefaults() throws Exception {
+        final RateLimitConfiguration config = new TransportLayerConfiguration().getRateLimit();
+        assertThat(config.isEnabled(), is(false));
+        assertThat(config.getMessagesPerSecond(), is(0));
+        assertThat(config.getMessageBurst(), is(0));
+        assertThat(config.getTransactionsPerSecond(), is(0));
+        assertThat(config.getTransactionBurst(), is(0));
+        assertThat(config.getPolicy(), is(RateLimitConfiguration.Policy.DROP));
+        assertThat(config.getRetryAfter(), is(5));
+    }
+
+    @Test
+    public void testLoadRateLimitConfiguration() throws Exception {
+        final RateLimitConfiguration config =
+                loadConfiguration(RateLimitConfiguration.class, "RateLimitConfigurationTest01.yaml");
+        assertThat(config.isEnabled(), is(true));
+        assertThat(config.getMessagesPerSecond(), is(200));
+        assertThat(config.getMessageBurst(), is(400));
+        assertThat(config.getTransactionsPerSecond(), is(20));
+
+        // not configured so defaults to the rate
+        assertThat(config.getTransactionBurst(), is(20));
+        assertThat(config.getPolicy(), is(RateLimitConfiguration.Policy.REJECT));
+        assertThat(config.getRetryAfter(), is(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMessagesPerSecond() throws Exception {
+        new RateLimitConfiguration().setMessagesPerSecond(-1);
+    }
+}
@@ -12,25 +12,34 @@ import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
 import io.hektor.core.ActorRef;
 import io.hektor.core.Hektor;
 import io.hektor.core.RoutingLogic;
-import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.pkts.packet.sip.impl.PreConditions;
 import io.sipstack.actor.HashWheelScheduler;
 import io.sipstack.actor.InternalScheduler;
 import io.sipstack.application.ApplicationController;
 import io.sipstack.application.ApplicationInstanceCreator;
 import io.sipstack.cli.CommandLineArgs;
+import io.sipstack.config.AdmissionControlConfiguration;
+import io.sipstack.config.BackPressureConfiguration;
 import io.sipstack.config.Configuration;
+import io.sipstack.config.FlushConfiguration;
+import io.sipstack.config.FlushPolicyConfiguration;
 import io.sipstack.config.NetworkInterfaceConfiguration;
 import io.sipstack.config.NetworkInterfaceDeserializer;
 import io.sipstack.config.SipConfiguration;
 import io.sipstack.event.Event;
+import io.sipstack.net.dns.DefaultSipResolver;
+import io.sipstack.net.dns.SipResolver;
 import io.sipstack.net.netty.NettyNetworkLayer;
 import io.sipstack.netty.codec.sip.Clock;
 import io.sipstack.netty.codec.sip.ConnectionId;
+import io.sipstack.netty.codec.sip.FlushPolicy;
+import io.sipstack.netty.codec.sip.SipMessageStreamDecoder;
 import io.sipstack.netty.codec.sip.event.impl.SipMessageIOEventImpl;
 import io.sipstack.netty.codec.sip.SystemClock;
 import io.sipstack.transaction.impl.DefaultTransactionLayer;
+import io.sipstack.transport.impl.AdmissionControlHandler;
 import io.sipstack.transport.impl.DefaultTransportLayer;
 import io.sipstack.utils.Generics;
 import org.slf4j.Logger;
@@ -41,6 +50,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author jonas@jonasborjesson.com
@@ -139,11 +149,23 @@ public abstract class Application<T extends Configuration> {
             final List<NetworkInterfaceConfiguration> ifs = sipConfig.getNetworkInterfaces();
             final NettyNetworkLayer.Builder networkBuilder = NettyNetworkLayer.with(ifs);
 
-            final EventLoopGroup boosGroup = new NioEventLoopGroup();
-            final EventLoopGroup udpTcpGroup = new NioEventLoopGroup();
-            networkBuilder.withBossEventLoopGroup(boosGroup);
-            networkBuilder.withUDPEventLoopGroup(udpTcpGroup);
-            networkBuilder.withTCPEventLoopGroup(udpTcpGroup);
+            // separate UDP and TCP event loops (and per interface ones if so configured)
+            networkBuilder.withEventLoopConfiguration(config.getEventLoopConfiguration());
+
+            // the transport layer knows how to deal with batches of messages
+            // so let the TCP decoders pass up everything from a read in one go.
+            networkBuilder.withPipelinedStreamDecoding(SipMessageStreamDecoder.DEFAULT_MAX_MESSAGES_PER_READ);
+
+            // flush once per read batch (or every so many messages) and let the
+            // writes from timers, such as retransmissions, wait a little while.
+            final FlushConfiguration flush = sipConfig.getTransport().getFlush();
+            networkBuilder.withFlushConsolidation(toFlushPolicy(flush.getRead()), toFlushPolicy(flush.getTimer()));
+
+            // a peer that doesn't read what we send it must not be able to make us
+            // buffer without limit.
+            final BackPressureConfiguration backPressure = sipConfig.getTransport().getBackPressure();
+            networkBuilder.withBackPressure(backPressure.getLowWaterMark(), backPressure.getHighWaterMark(),
+                    backPressure.getMaxQueuedWrites());
 
             // The internal scheduler is used to schedule
             // internal which primarily are  as SIP timers.
@@ -156,12 +178,23 @@ public abstract class Application<T extends Configuration> {
             // Transport layer is responsible for managing connections,
             // i.e. Flows.
             final DefaultTransportLayer transportLayer = new DefaultTransportLayer(sipConfig.getTransport(), clock, scheduler);
-            networkBuilder.withHandler("transport-layer", transportLayer);
+            transportLayer.registerMetrics(environment.getMetricRegistry());
 
             // The transaction layer is responsible for transaction
             // management and is typically always present in a
             // SIP stack.
             final DefaultTransactionLayer transactionLayer = new DefaultTransactionLayer(transportLayer, clock, scheduler,sipConfig.getTransaction());
+
+            // Admission control sits in front of the transport layer and turns
+            // new INVITEs and REGISTERs away with a 503 when we are overloaded.
+            final AdmissionControlConfiguration admission = sipConfig.getTransport().getAdmission();
+            if (admission.isEnabled()) {
+                networkBuilder.withHandler("admission-control", new AdmissionControlHandler(admission, clock,
+                        transactionLayer::getTransactionCount, transactionLayer::hasTransaction));
+            }
+
+            networkBuilder.withHandler("transport-layer", transportLayer);
+            networkBuilder.withEncodeListener(transportLayer);
             networkBuilder.withHandler("transaction-layer", transactionLayer);
 
             // DefaultTransactionUserLayer transactionUserLayer = new DefaultTransactionUserLayer(consumer);
@@ -180,12 +213,27 @@ public abstract class Application<T extends Configuration> {
             // netty chain.
             transportLayer.useNetworkLayer(server);
 
-            server.start();
-
-            // controller.start(stack.getTransactionUserLayer());
-
-            // will wait until server shuts down again.
-            server.sync();
+            // DNS lookups (RFC 3263) for flows to host names are asynchronous and all
+            // the queries go out over a single channel on its own small event loop.
+            final NioEventLoopGroup dnsGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("sipstack-dns", true));
+            final SipResolver resolver = DefaultSipResolver.create(dnsGroup.next(), sipConfig.getDns(), clock,
+                    transport -> server.getListeningPoint(transport).isPresent());
+            transportLayer.useResolver(resolver);
+
+            try {
+                server.start();
+                transportLayer.start();
+
+                // controller.start(stack.getTransactionUserLayer());
+
+                // will wait until server shuts down again.
+                server.sync();
+            } finally {
+                transportLayer.stop();
+                server.stop();
+                resolver.close();
+                dnsGroup.shutdownGracefully();
+            }
 
         } catch (JsonParseException | JsonMappingException e) {
             logger.error("Unable to parse the configuration file", e);
@@ -371,6 +419,11 @@ public abstract class Application<T extends Configuration> {
         }
     }
 
+    private static FlushPolicy toFlushPolicy(final FlushPolicyConfiguration config) {
+        return FlushPolicy.consolidate(config.getMaxPendingFlushes(), config.getMaxDelay().toNanos(),
+                TimeUnit.NANOSECONDS);
+    }
+
     /**
      * If the configuration file is given on the command line then it will be used. If none is given
      * then we will try and locate a default one.
@@ -23,6 +23,14 @@ public class Environment {
         this.metricRegistry = registry;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
     public Environment addResource(final Object resource) {
         /*
         final DynamicApplicationInvoker sip = wrapSipHandler(resource);
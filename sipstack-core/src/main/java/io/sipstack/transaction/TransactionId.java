@@ -1,51 +1,60 @@
 /**
- * 
+ *
  */
 package io.sipstack.transaction;
 
-import io.pkts.buffer.Buffer;
 import io.pkts.packet.sip.SipMessage;
-import io.pkts.packet.sip.header.ViaHeader;
 import io.pkts.packet.sip.impl.PreConditions;
-
-import java.util.Arrays;
+import io.sipstack.netty.codec.sip.TransactionKey;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
 
 /**
  * @author jonas@jonasborjesson.com
  */
 public interface TransactionId {
 
+    /**
+     * Check whether the given message belongs to the transaction with this id.
+     *
+     * @param msg
+     * @return
+     */
+    boolean matches(SipMessage msg);
+
+    /**
+     * Create the transaction id by looking at the top-most Via header of the message.
+     * If you have the {@link TransactionKey} of the message, which is the case for all
+     * messages that came off of the network (see {@link SipMessageIOEvent#transactionKey()}),
+     * use {@link #create(TransactionKey)} instead.
+     *
+     * @param msg
+     * @return
+     * @throws IllegalArgumentException
+     */
     static TransactionId create(final SipMessage msg) throws IllegalArgumentException {
-        PreConditions.ensureNotNull(msg, "SIP message cannot be null");
-        final ViaHeader via = msg.getViaHeader();
-        PreConditions.ensureNotNull(via, "No Via-header found in the SIP message");
-        final Buffer branch = via.getBranch();
-        final int capacity = branch.capacity();
-        final int length = msg.isCancel() ? capacity + 7 : capacity;
-        final byte[] id = new byte[length];
-        branch.getByes(id);
-        if (msg.isCancel()) {
-            id[capacity + 0] = '-';
-            id[capacity + 1] = 'C';
-            id[capacity + 2] = 'A';
-            id[capacity + 3] = 'N';
-            id[capacity + 4] = 'C';
-            id[capacity + 5] = 'E';
-            id[capacity + 6] = 'L';
-        }
-        return new TransactionIdImpl(id);
+        return new TransactionIdImpl(TransactionKey.create(msg));
+    }
+
+    static TransactionId create(final TransactionKey key) throws IllegalArgumentException {
+        PreConditions.ensureNotNull(key, "The transaction key cannot be null");
+        return new TransactionIdImpl(key);
     }
 
     static final class TransactionIdImpl implements TransactionId {
-        private final byte[] id;
+        private final TransactionKey key;
+
+        private TransactionIdImpl(final TransactionKey key) {
+            this.key = key;
+        }
 
-        private TransactionIdImpl(final byte[] id) {
-            this.id = id;
+        @Override
+        public boolean matches(final SipMessage msg) {
+            return key.matches(msg);
         }
 
         @Override
         public String toString() {
-            return new String(id);
+            return key.toString();
         }
 
         /**
@@ -53,7 +62,7 @@ public interface TransactionId {
          */
         @Override
         public int hashCode() {
-            return Arrays.hashCode(id);
+            return key.hashCode();
         }
 
         /**
@@ -67,7 +76,7 @@ public interface TransactionId {
 
             try {
                 final TransactionIdImpl other = (TransactionIdImpl) obj;
-                return Arrays.equals(id, other.id);
+                return key.equals(other.key);
             } catch (ClassCastException | NullPointerException e) {
                 return false;
             }
@@ -16,6 +16,7 @@ import io.sipstack.net.InboundOutboundHandlerAdapter;
 import io.sipstack.netty.codec.sip.Clock;
 import io.sipstack.netty.codec.sip.Connection;
 import io.sipstack.netty.codec.sip.SystemClock;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.transaction.ClientTransaction;
 import io.sipstack.transaction.ServerTransaction;
 import io.sipstack.transaction.Transaction;
@@ -68,6 +69,26 @@ public class DefaultTransactionLayer extends InboundOutboundHandlerAdapter imple
         this.transportLayer = transportLayer;
     }
 
+    /**
+     * The number of transactions currently being tracked by this layer.
+     *
+     * @return
+     */
+    public int getTransactionCount() {
+        return transactionStore.size();
+    }
+
+    /**
+     * Check whether the transaction identified by the given key is currently known to
+     * this layer, e.g. in order to tell a retransmission from a brand new request.
+     *
+     * @param key
+     * @return
+     */
+    public boolean hasTransaction(final TransactionKey key) {
+        return transactionStore.get(TransactionId.create(key)) != null;
+    }
+
     /**
      * From ChannelInboundHandler
      */
@@ -107,8 +128,10 @@ public class DefaultTransactionLayer extends InboundOutboundHandlerAdapter imple
 
     private void processSipTransactionWriteEvent(final ChannelHandlerContext ctx, final SipTransactionEvent event) {
         final SipMessage msg = event.message();
-        final Flow flow = event.transaction().flow();
-        final DefaultTransactionHolder holder = (DefaultTransactionHolder)transactionStore.ensureTransaction(false, flow, msg);
+        final Transaction transaction = event.transaction();
+        final Flow flow = transaction.flow();
+        final DefaultTransactionHolder holder =
+                (DefaultTransactionHolder)transactionStore.ensureTransaction(false, flow, msg, transaction.id());
         try {
             invoke(ctx, flow, Event.create(msg), holder);
             checkIfTerminated(ctx, holder);
@@ -121,7 +144,8 @@ public class DefaultTransactionLayer extends InboundOutboundHandlerAdapter imple
     private void processSipFlowEvent(final ChannelHandlerContext ctx, final SipFlowEvent event) {
         final Flow flow = event.flow();
         final SipMessage msg = event.message();
-        final DefaultTransactionHolder holder = (DefaultTransactionHolder)transactionStore.ensureTransaction(true, flow, msg);
+        final TransactionId id = TransactionId.create(event.transactionKey());
+        final DefaultTransactionHolder holder = (DefaultTransactionHolder)transactionStore.ensureTransaction(true, flow, msg, id);
         try {
             invoke(ctx, flow, Event.create(msg), holder);
             checkIfTerminated(ctx, holder);
@@ -393,8 +417,7 @@ public class DefaultTransactionLayer extends InboundOutboundHandlerAdapter imple
 
         @Override
         public void send(final SipResponse response) throws IllegalArgumentException {
-            final TransactionId id = TransactionId.create(response);
-            if (!this.id.equals(id)) {
+            if (!id.matches(response)) {
                 throw new IllegalArgumentException("The message you tried to send does not belong to this transaction");
             }
 
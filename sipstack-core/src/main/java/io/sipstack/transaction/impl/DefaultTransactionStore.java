@@ -29,8 +29,8 @@ public class DefaultTransactionStore implements TransactionStore {
 
 
     @Override
-    public TransactionHolder ensureTransaction(final boolean isUpstream, final Flow flow, final SipMessage sipMsg) {
-        final TransactionId id = TransactionId.create(sipMsg);
+    public TransactionHolder ensureTransaction(final boolean isUpstream, final Flow flow, final SipMessage sipMsg,
+                                               final TransactionId id) {
         return transactions[Math.abs(id.hashCode() % stores)].computeIfAbsent(id, obj -> {
 
             if (sipMsg.isResponse()) {
@@ -70,4 +70,13 @@ public class DefaultTransactionStore implements TransactionStore {
     public void remove(final TransactionId id) {
         transactions[Math.abs(id.hashCode() % stores)].remove(id);
     }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stores; ++i) {
+            size += transactions[i].size();
+        }
+        return size;
+    }
 }
@@ -22,10 +22,34 @@ public interface TransactionStore {
      * @param msg
      * @return
      */
-    TransactionHolder ensureTransaction(boolean isUpstream, Flow flow, SipMessage msg);
+    default TransactionHolder ensureTransaction(final boolean isUpstream, final Flow flow, final SipMessage msg) {
+        return ensureTransaction(isUpstream, flow, msg, TransactionId.create(msg));
+    }
+
+    /**
+     * Same as {@link #ensureTransaction(boolean, Flow, SipMessage)} but for when the id of the
+     * transaction is already known, such as for messages coming off of the network where the
+     * decoder already extracted the {@link io.sipstack.netty.codec.sip.TransactionKey}.
+     *
+     * @param isUpstream
+     * @param flow
+     * @param msg
+     * @param id the id of the transaction the message belongs to.
+     * @return
+     */
+    TransactionHolder ensureTransaction(boolean isUpstream, Flow flow, SipMessage msg, TransactionId id);
 
     TransactionHolder get(TransactionId id);
 
     void remove(TransactionId id);
 
+    /**
+     * The number of transactions currently in the store. Note that this is only
+     * an estimate if the store is being modified concurrently, which is good enough
+     * for e.g. admission control.
+     *
+     * @return
+     */
+    int size();
+
 }
@@ -168,6 +168,30 @@ public interface Flow {
         return true;
     }
 
+    /**
+     * Whether the flow was writable at the time this snapshot was taken. A flow becomes
+     * unwritable (back-pressured) when the remote endpoint isn't reading what we are sending it
+     * fast enough. While a flow is unwritable, whatever you send is queued up to a
+     * limit and anything beyond that is dropped. Also, we stop reading from the
+     * flow until it is writable again (connection oriented transports only).
+     *
+     * @return
+     */
+    default boolean isWritable() {
+        return isValid();
+    }
+
+    /**
+     * The traffic statistics of the flow. Unlike everything else about the {@link Flow},
+     * the statistics are taken when you ask for them so you can hold on to the {@link Flow}
+     * and ask again later.
+     *
+     * @return
+     */
+    default FlowStats stats() {
+        return FlowStats.EMPTY;
+    }
+
     /**
      * If this {@link Flow} has failed then it typically has done
      * so because of a failure to connect to the remote host, in which
@@ -0,0 +1,186 @@
+package io.sipstack.transport;
+
+/**
+ * Traffic statistics for a {@link Flow} at the time the snapshot was taken. Just as
+ * the {@link Flow} itself, this is a snapshot and will not change as more traffic goes
+ * across the flow. Ask the flow for a new one if you want the current numbers.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowStats {
+
+    /**
+     * The statistics of a flow that never carried any traffic, which is what e.g.
+     * a failed flow has.
+     */
+    public static final FlowStats EMPTY = new Builder().build();
+
+    private final long messagesIn;
+    private final long messagesOut;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long requestsIn;
+    private final long responsesIn;
+    private final long requestsOut;
+    private final long responsesOut;
+    private final long pingRtt;
+    private final long backPressuredTime;
+
+    private FlowStats(final Builder builder) {
+        this.messagesIn = builder.messagesIn;
+        this.messagesOut = builder.messagesOut;
+        this.bytesIn = builder.bytesIn;
+        this.bytesOut = builder.bytesOut;
+        this.requestsIn = builder.requestsIn;
+        this.responsesIn = builder.responsesIn;
+        this.requestsOut = builder.requestsOut;
+        this.responsesOut = builder.responsesOut;
+        this.pingRtt = builder.pingRtt;
+        this.backPressuredTime = builder.backPressuredTime;
+    }
+
+    public static Builder withMessagesIn(final long messagesIn) {
+        return new Builder().withMessagesIn(messagesIn);
+    }
+
+    /**
+     * The number of messages received across the flow, which includes keep-alive
+     * traffic such as double CRLF and STUN.
+     */
+    public long getMessagesIn() {
+        return messagesIn;
+    }
+
+    /**
+     * The number of messages written to the flow, which includes keep-alive
+     * traffic such as double CRLF and STUN.
+     */
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    /**
+     * The number of bytes of the SIP messages received across the flow.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * The number of bytes of the SIP messages written to the flow. Note that messages
+     * handed to the flow as builders aren't built, and therefore don't have a size,
+     * until they are encoded so those are only counted in {@link #getMessagesOut()}.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getRequestsIn() {
+        return requestsIn;
+    }
+
+    public long getResponsesIn() {
+        return responsesIn;
+    }
+
+    public long getRequestsOut() {
+        return requestsOut;
+    }
+
+    public long getResponsesOut() {
+        return responsesOut;
+    }
+
+    /**
+     * The round-trip time, in milliseconds, of the latest SIP OPTIONS ping that got
+     * a response or -1 if we haven't pinged using SIP OPTIONS across this flow.
+     */
+    public long getPingRtt() {
+        return pingRtt;
+    }
+
+    /**
+     * The total time, in milliseconds, this flow has been back-pressured, including
+     * the time so far if it is back-pressured right now.
+     */
+    public long getBackPressuredTime() {
+        return backPressuredTime;
+    }
+
+    @Override
+    public String toString() {
+        return "in=" + messagesIn + "/" + bytesIn + "b (" + requestsIn + " req, " + responsesIn + " resp)"
+                + " out=" + messagesOut + "/" + bytesOut + "b (" + requestsOut + " req, " + responsesOut + " resp)"
+                + " pingRtt=" + pingRtt + "ms backPressured=" + backPressuredTime + "ms";
+    }
+
+    public static class Builder {
+        private long messagesIn;
+        private long messagesOut;
+        private long bytesIn;
+        private long bytesOut;
+        private long requestsIn;
+        private long responsesIn;
+        private long requestsOut;
+        private long responsesOut;
+        private long pingRtt = -1;
+        private long backPressuredTime;
+
+        private Builder() {
+        }
+
+        public Builder withMessagesIn(final long messagesIn) {
+            this.messagesIn = messagesIn;
+            return this;
+        }
+
+        public Builder withMessagesOut(final long messagesOut) {
+            this.messagesOut = messagesOut;
+            return this;
+        }
+
+        public Builder withBytesIn(final long bytesIn) {
+            this.bytesIn = bytesIn;
+            return this;
+        }
+
+        public Builder withBytesOut(final long bytesOut) {
+            this.bytesOut = bytesOut;
+            return this;
+        }
+
+        public Builder withRequestsIn(final long requestsIn) {
+            this.requestsIn = requestsIn;
+            return this;
+        }
+
+        public Builder withResponsesIn(final long responsesIn) {
+            this.responsesIn = responsesIn;
+            return this;
+        }
+
+        public Builder withRequestsOut(final long requestsOut) {
+            this.requestsOut = requestsOut;
+            return this;
+        }
+
+        public Builder withResponsesOut(final long responsesOut) {
+            this.responsesOut = responsesOut;
+            return this;
+        }
+
+        public Builder withPingRtt(final long pingRtt) {
+            this.pingRtt = pingRtt;
+            return this;
+        }
+
+        public Builder withBackPressuredTime(final long backPressuredTime) {
+            this.backPressuredTime = backPressuredTime;
+            return this;
+        }
+
+        public FlowStats build() {
+            return new FlowStats(this);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package io.sipstack.transport;
 import io.pkts.packet.sip.SipMessage;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author jonas@jonasborjesson.com
@@ -42,5 +44,15 @@ public interface TransportLayer {
 
     Flow.Builder createFlow(InetSocketAddress remoteHost) throws IllegalArgumentException;
 
+    /**
+     * Get all the flows that currently are back-pressured, i.e., flows where the remote endpoint
+     * isn't reading what we are sending fast enough (see {@link Flow#isWritable()}). This is
+     * mainly for monitoring purposes.
+     *
+     * @return
+     */
+    default List<Flow> getBackPressuredFlows() {
+        return Collections.emptyList();
+    }
 
 }
@@ -3,6 +3,7 @@ package io.sipstack.transport.event;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
 import io.pkts.packet.sip.SipResponse;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.event.impl.SipRequestBuilderFlowEventImpl;
 import io.sipstack.transport.event.impl.SipRequestFlowEventImpl;
@@ -89,6 +90,22 @@ public interface FlowEvent {
         return create(flow, message.toResponse());
     }
 
+    /**
+     * Create a new {@link SipFlowEvent} for a message that came off of the network, which
+     * means that we already have the key of the transaction it belongs to.
+     *
+     * @param flow
+     * @param event
+     * @return
+     */
+    static SipFlowEvent create(final Flow flow, final SipMessageIOEvent event) {
+        final SipMessage message = event.message();
+        if (message.isRequest()) {
+            return new SipRequestFlowEventImpl(flow, message.toRequest(), event.transactionKey());
+        }
+        return new SipResponseFlowEventImpl(flow, message.toResponse(), event.transactionKey());
+    }
+
     // =====================================
     // === SIP request flow events
     // =====================================
@@ -3,6 +3,7 @@ package io.sipstack.transport.event;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
 import io.pkts.packet.sip.SipResponse;
+import io.sipstack.netty.codec.sip.TransactionKey;
 
 /**
  * @author jonas@jonasborjesson.com
@@ -21,6 +22,14 @@ public interface SipFlowEvent extends FlowEvent {
 
     SipMessage message();
 
+    /**
+     * The key of the transaction the message belongs to. For messages that came
+     * off of the network this is the key that was created by the decoder.
+     *
+     * @return
+     */
+    TransactionKey transactionKey();
+
     default SipRequest request() {
         return message().toRequest();
     }
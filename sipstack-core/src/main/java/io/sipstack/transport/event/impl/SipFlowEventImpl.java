@@ -1,6 +1,7 @@
 package io.sipstack.transport.event.impl;
 
 import io.pkts.packet.sip.SipMessage;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.event.SipFlowEvent;
 
@@ -11,13 +12,28 @@ public class SipFlowEventImpl extends FlowEventImpl implements SipFlowEvent {
 
     private final SipMessage msg;
 
+    private TransactionKey transactionKey;
+
     public SipFlowEventImpl(final Flow flow, final SipMessage msg) {
+        this(flow, msg, null);
+    }
+
+    public SipFlowEventImpl(final Flow flow, final SipMessage msg, final TransactionKey transactionKey) {
         super(flow);
         this.msg = msg;
+        this.transactionKey = transactionKey;
     }
 
     public SipMessage message() {
         return msg;
     }
 
+    @Override
+    public TransactionKey transactionKey() {
+        if (transactionKey == null) {
+            transactionKey = TransactionKey.create(msg);
+        }
+        return transactionKey;
+    }
+
 }
@@ -1,6 +1,7 @@
 package io.sipstack.transport.event.impl;
 
 import io.pkts.packet.sip.SipRequest;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.event.SipRequestFlowEvent;
 
@@ -12,4 +13,8 @@ public class SipRequestFlowEventImpl extends SipFlowEventImpl implements SipRequ
     public SipRequestFlowEventImpl(final Flow flow, final SipRequest request) {
         super(flow, request);
     }
+
+    public SipRequestFlowEventImpl(final Flow flow, final SipRequest request, final TransactionKey transactionKey) {
+        super(flow, request, transactionKey);
+    }
 }
@@ -1,6 +1,7 @@
 package io.sipstack.transport.event.impl;
 
 import io.pkts.packet.sip.SipResponse;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.event.SipResponseFlowEvent;
 
@@ -12,4 +13,8 @@ public class SipResponseFlowEventImpl extends SipFlowEventImpl implements SipRes
     public SipResponseFlowEventImpl(final Flow flow, final SipResponse response) {
         super(flow, response);
     }
+
+    public SipResponseFlowEventImpl(final Flow flow, final SipResponse response, final TransactionKey transactionKey) {
+        super(flow, response, transactionKey);
+    }
 }
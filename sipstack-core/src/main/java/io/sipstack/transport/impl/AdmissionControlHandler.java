@@ -0,0 +1,322 @@
+package io.sipstack.transport.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.EventExecutor;
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.sipstack.config.AdmissionControlConfiguration;
+import io.sipstack.net.InboundOutboundHandlerAdapter;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+import io.sipstack.netty.codec.sip.ServiceUnavailableTemplate;
+import io.sipstack.netty.codec.sip.TransactionKey;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Sits between the decoders and the {@link DefaultTransportLayer} and rejects new
+ * INVITEs and REGISTERs with a 503 Service Unavailable before they ever make it into
+ * the stack when we are overloaded. The idea is that it is much cheaper to turn a
+ * new request away right away than to accept it, create flows and transactions for
+ * it, and then have everything that is already in progress suffer because of it.
+ *
+ * Only requests that would start something new are ever subject to admission control,
+ * i.e., INVITEs and REGISTERs without a To-tag that aren't retransmissions of a
+ * transaction we already know about. Everything else (responses, ACK, BYE, CANCEL,
+ * re-INVITEs etc) always pass since they are needed to finish the work already accepted.
+ *
+ * A new request is rejected if any of the following is true:
+ * <ul>
+ *     <li>We have already accepted the configured max number of new requests this second.</li>
+ *     <li>The event loop the request was read on is lagging behind more than configured.</li>
+ *     <li>The transaction store holds more than the configured max number of transactions.</li>
+ * </ul>
+ *
+ * The 503 is generated from a {@link ServiceUnavailableTemplate} so rejecting a request
+ * doesn't require the request to be parsed any further than it already has been.
+ *
+ * Just like the transport and transaction layers, the same instance is shared across
+ * all channels, so everything in here is thread safe.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class AdmissionControlHandler extends InboundOutboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlHandler.class);
+
+    private static final Buffer INVITE = Buffers.wrap("INVITE");
+
+    private static final Buffer REGISTER = Buffers.wrap("REGISTER");
+
+    /**
+     * How often we check how far behind an event loop is.
+     */
+    private static final long LAG_PROBE_INTERVAL_MS = 100;
+
+    private final Clock clock;
+
+    private final int maxCallsPerSecond;
+
+    private final long maxEventLoopLagNanos;
+
+    private final int maxTransactions;
+
+    private final IntSupplier transactionCount;
+
+    private final Predicate<TransactionKey> knownTransaction;
+
+    private final ServiceUnavailableTemplate template;
+
+    /**
+     * The second (upper 32 bits) and how many new requests we have accepted
+     * within that second (lower 32 bits).
+     */
+    private final AtomicLong callsThisSecond = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final ConcurrentMap<EventExecutor, LagProbe> probes = new ConcurrentHashMap<>();
+
+    private volatile boolean rejecting;
+
+    /**
+     * @param config
+     * @param clock
+     * @param transactionCount the current number of transactions in the system.
+     * @param knownTransaction used to check whether or not a request is a retransmission of
+     *                         a transaction that we already have accepted.
+     */
+    public AdmissionControlHandler(final AdmissionControlConfiguration config,
+                                   final Clock clock,
+                                   final IntSupplier transactionCount,
+                                   final Predicate<TransactionKey> knownTransaction) {
+        ensureNotNull(config, "The configuration cannot be null");
+        this.clock = ensureNotNull(clock, "The clock cannot be null");
+        this.transactionCount = ensureNotNull(transactionCount, "The transaction count supplier cannot be null");
+        this.knownTransaction = ensureNotNull(knownTransaction, "The transaction lookup cannot be null");
+        this.maxCallsPerSecond = config.getMaxCallsPerSecond();
+        this.maxTransactions = config.getMaxTransactions();
+        this.maxEventLoopLagNanos = config.getMaxEventLoopLag() == null ? 0 : config.getMaxEventLoopLag().toNanos();
+        this.template = ServiceUnavailableTemplate.create(config.getRetryAfter());
+    }
+
+    /**
+     * @return the total number of requests we have rejected so far.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Start measuring the lag of the event loop this channel belongs to, unless we
+     * already are.
+     */
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+        if (maxEventLoopLagNanos > 0) {
+            final EventExecutor executor = ctx.executor();
+            probes.computeIfAbsent(executor, e -> {
+                final LagProbe probe = new LagProbe(e);
+                probe.schedule();
+                return probe;
+            });
+        }
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        if (!(msg instanceof IOEvent)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final IOEvent event = (IOEvent) msg;
+        if (event.isSipMessageIOEvent()) {
+            final SipMessageIOEvent sipEvent = event.toSipMessageIOEvent();
+            if (admit(ctx, sipEvent)) {
+                ctx.fireChannelRead(msg);
+            }
+        } else if (event.isSipMessageBatchIOEvent()) {
+            processBatch(ctx, event.toSipMessageBatchIOEvent());
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    /**
+     * Only allocate a new batch if we actually had to reject any of the messages in it,
+     * which we typically don't.
+     */
+    private void processBatch(final ChannelHandlerContext ctx, final SipMessageBatchIOEvent batch) {
+        final List<SipMessageIOEvent> events = batch.events();
+        List<SipMessageIOEvent> admitted = null;
+        for (int i = 0; i < events.size(); ++i) {
+            final SipMessageIOEvent event = events.get(i);
+            if (admit(ctx, event)) {
+                if (admitted != null) {
+                    admitted.add(event);
+                }
+            } else if (admitted == null) {
+                admitted = new ArrayList<>(events.size());
+                admitted.addAll(events.subList(0, i));
+            }
+        }
+
+        if (admitted == null) {
+            ctx.fireChannelRead(batch);
+        } else if (admitted.size() == 1) {
+            ctx.fireChannelRead(admitted.get(0));
+        } else if (admitted.size() > 1) {
+            ctx.fireChannelRead(IOEvent.create(batch.connection(), batch.arrivalTime(), admitted));
+        }
+    }
+
+    /**
+     * Check whether the message is allowed into the stack and if not, reject it.
+     *
+     * @return true if the message should be passed on.
+     */
+    private boolean admit(final ChannelHandlerContext ctx, final SipMessageIOEvent event) {
+        final SipMessage msg = event.message();
+        if (!msg.isRequest()) {
+            return true;
+        }
+
+        final HeaderIndex index = event.headerIndex();
+        if (index.getToTagStart() != -1 || !isNewCallOrRegistration(index)) {
+            return true;
+        }
+
+        if (knownTransaction.test(event.transactionKey())) {
+            // retransmission, let the transaction deal with it
+            return true;
+        }
+
+        final String reason = checkOverload(ctx);
+        if (reason == null) {
+            if (rejecting) {
+                rejecting = false;
+                logger.info("Admission control: accepting new requests again after having rejected {} in total",
+                        rejected.get());
+            }
+            return true;
+        }
+
+        if (!rejecting) {
+            rejecting = true;
+            logger.warn("Admission control: rejecting new INVITEs and REGISTERs with 503 since {}", reason);
+        }
+
+        rejected.incrementAndGet();
+        reject(ctx, event);
+        return false;
+    }
+
+    private static boolean isNewCallOrRegistration(final HeaderIndex index) {
+        final Buffer method = index.getCSeqMethod();
+        return method != null && (method.equals(INVITE) || method.equals(REGISTER));
+    }
+
+    /**
+     * Note that the calls per second is checked last so that requests rejected
+     * for any of the other reasons doesn't eat up the budget for this second.
+     *
+     * @return the reason why we are overloaded or null if we are not.
+     */
+    private String checkOverload(final ChannelHandlerContext ctx) {
+        if (maxTransactions > 0 && transactionCount.getAsInt() >= maxTransactions) {
+            return "the max number of transactions (" + maxTransactions + ") has been reached";
+        }
+
+        if (maxEventLoopLagNanos > 0) {
+            final LagProbe probe = probes.get(ctx.executor());
+            if (probe != null && probe.lag > maxEventLoopLagNanos) {
+                return "the event loop is lagging " + TimeUnit.NANOSECONDS.toMillis(probe.lag) + " ms behind";
+            }
+        }
+
+        if (maxCallsPerSecond > 0 && !tryAcquireCall()) {
+            return "the max calls per second (" + maxCallsPerSecond + ") has been reached";
+        }
+
+        return null;
+    }
+
+    private boolean tryAcquireCall() {
+        final long second = clock.getCurrentTimeMillis() / 1000;
+        while (true) {
+            final long current = callsThisSecond.get();
+            final long next;
+            if (current >>> 32 != second) {
+                next = second << 32 | 1;
+            } else if ((int) current >= maxCallsPerSecond) {
+                return false;
+            } else {
+                next = current + 1;
+            }
+
+            if (callsThisSecond.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    private void reject(final ChannelHandlerContext ctx, final SipMessageIOEvent event) {
+        final ByteBuf response = template.encode(ctx.alloc(), event.message().toBuffer(), event.headerIndex());
+        final Connection connection = event.connection();
+        if (connection.isUDP()) {
+            ctx.write(new DatagramPacket(response, connection.getRemoteAddress()));
+        } else {
+            ctx.write(response);
+        }
+    }
+
+    /**
+     * Measures how late a task scheduled on the event loop actually gets to run, which is
+     * a good indication of how far behind the event loop is with everything else as well.
+     */
+    private static final class LagProbe implements Runnable {
+
+        private final EventExecutor executor;
+
+        private long expected;
+
+        private volatile long lag;
+
+        private LagProbe(final EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void schedule() {
+            if (executor.isShuttingDown()) {
+                return;
+            }
+            expected = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LAG_PROBE_INTERVAL_MS);
+            executor.schedule(this, LAG_PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            lag = Math.max(0, System.nanoTime() - expected);
+            schedule();
+        }
+    }
+}
@@ -5,17 +5,36 @@ import io.pkts.packet.sip.SipMessage;
 import io.sipstack.netty.codec.sip.Connection;
 import io.sipstack.netty.codec.sip.ConnectionId;
 import io.sipstack.transport.FlowState;
+import io.sipstack.transport.FlowStats;
 
 import java.net.InetSocketAddress;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * @author jonas@jonasborjesson.com
  */
 public class DefaultFlow extends InternalFlow {
 
+    private final Supplier<FlowStats> stats;
+
     public DefaultFlow(final Connection connection, final FlowState state) {
-        super(connection.id(), Optional.of(connection), state);
+        this(connection, state, true, () -> FlowStats.EMPTY);
+    }
+
+    public DefaultFlow(final Connection connection, final FlowState state, final boolean writable) {
+        this(connection, state, writable, () -> FlowStats.EMPTY);
+    }
+
+    public DefaultFlow(final Connection connection, final FlowState state, final boolean writable,
+                       final Supplier<FlowStats> stats) {
+        super(connection.id(), Optional.of(connection), state, writable);
+        this.stats = stats;
+    }
+
+    @Override
+    public FlowStats stats() {
+        return stats.get();
     }
 
 
@@ -1,8 +1,10 @@
 package io.sipstack.transport.impl;
 
+import io.netty.channel.ChannelHandlerContext;
 import io.pkts.buffer.Buffer;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
+import io.pkts.packet.sip.SipResponse;
 import io.pkts.packet.sip.address.Address;
 import io.pkts.packet.sip.address.SipURI;
 import io.pkts.packet.sip.header.FromHeader;
@@ -10,14 +12,16 @@ import io.pkts.packet.sip.header.ToHeader;
 import io.sipstack.actor.ActorSupport;
 import io.sipstack.actor.Cancellable;
 import io.sipstack.config.FlowConfiguration;
+import io.sipstack.config.KeepAliveConfiguration;
 import io.sipstack.config.KeepAliveMethodConfiguration;
 import io.sipstack.config.SipOptionsPingConfiguration;
 import io.sipstack.config.TransportLayerConfiguration;
 import io.sipstack.netty.codec.sip.Clock;
 import io.sipstack.netty.codec.sip.Connection;
 import io.sipstack.netty.codec.sip.SipTimer;
+import io.sipstack.netty.codec.sip.StunMessage;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.netty.codec.sip.event.*;
-import io.sipstack.transaction.TransactionId;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.FlowId;
 import io.sipstack.transport.FlowState;
@@ -26,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -39,6 +44,12 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultFlowActor.class);
 
+    /**
+     * The initial time, in milliseconds, we wait for the response to a ping
+     * we sent (a STUN binding request or a double CRLF).
+     */
+    private static final long PING_INITIAL_RTO = 500;
+
     private final FlowConfiguration config;
 
     private final TransportLayerConfiguration transportLayerConfiguration;
@@ -46,10 +57,29 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     private final Connection connection;
 
     /**
-     * The time when the last message was processed and is used for
-     * keeping track of whether e.g. a PING is necessary to send out.
+     * The time when the last message was processed (or when the flow was created
+     * if nothing has been processed yet) and is used for keeping track of whether
+     * e.g. a PING is necessary to send out. Read by the {@link FlowIdleSweeper}.
+     */
+    private volatile long lastMessageProcessed;
+
+    /**
+     * The time when the underlying connection became unwritable or zero
+     * if it currently is writable. Only ever updated by the transport layer.
+     */
+    private volatile long backPressuredSince;
+
+    private final FlowLoad load = new FlowLoad();
+
+    private final FlowMailbox mailbox = new FlowMailbox();
+
+    private final FlowCounters counters = new FlowCounters();
+
+    /**
+     * When the outstanding SIP OPTIONS ping was sent, which is what the
+     * round-trip time is measured from.
      */
-    private long lastMessageProcessed;
+    private long optionsSentAt;
 
     private final Clock clock;
 
@@ -57,7 +87,25 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
      * If we are using SIP OPTIONS as a ping mechanism, we need to save
      * the transaction id so we can match any potential responses.
      */
-    private TransactionId optionsTransaction;
+    private TransactionKey optionsTransaction;
+
+    /**
+     * If we are using STUN as a ping mechanism, this is the outstanding binding
+     * request so that we can match the binding response to it.
+     */
+    private StunMessage stunTransaction;
+
+    /**
+     * The number of pings that have gone unanswered while in the PING state.
+     */
+    private int pingFailures;
+
+    /**
+     * The double CRLF ping and the single CRLF pong do not carry any state so the
+     * same events are used for all the keep-alives we send across this flow.
+     */
+    private PingMessageIOEvent crlfPing;
+    private PongMessageIOEvent crlfPong;
 
     /**
      * A flow is always only mapped to a single transport and as such, there is
@@ -70,23 +118,37 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     private final FlowId flowId;
 
     /**
-     * If we are not in the ACTIVE ping mode then we will schedule a
-     * maximum lifetime timer so if we haven't received any traffic
-     * when this timer fires, we will kill the flow.
+     * If we are not in the ACTIVE ping mode then the flow has a maximum life
+     * time so if we haven't received any traffic within that time, we will
+     * kill the flow. Checked by the {@link FlowIdleSweeper}.
      */
-    private Optional<Cancellable> lifeTimeTimer = Optional.empty();
+    private volatile boolean lifeTimeTimer;
 
     /**
-     * There are several other timers we use apart from the life time timer above. These
-     * other timeouts has to do with e.g. waiting for a ping, waiting for initial anything
-     * when we are in the READY state. We would only ever have one of these timers going
-     * at any given point in time so therefore it is enough with one variable.
+     * The idle timer that currently applies, if any, which is the initial idle
+     * timeout ({@link SipTimer#Timeout1}) when we are in the READY state and the
+     * keep-alive idle timeout ({@link SipTimer#Timeout2}) when we are ACTIVE.
+     * Checked by the {@link FlowIdleSweeper}, which is why these aren't actual timers.
      *
-     * Note, the {@link DefaultFlowActor#lifeTimeTimer} and the timer for the READY state
-     * may be running at the same time so therefore we need two.
+     * Note, the {@link DefaultFlowActor#lifeTimeTimer} and the idle timer may be
+     * running at the same time so therefore we need two.
+     */
+    private volatile SipTimer idleTimer;
+
+    /**
+     * When we entered the READY state, which is what the initial idle timeout is
+     * counted from.
+     */
+    private volatile long readySince;
+
+    /**
+     * The timers used while we are waiting for a pong. These are rare and short lived
+     * so these are still actual timers.
      */
     private Optional<Cancellable> timeoutTimer = Optional.empty();
 
+    private final AtomicReference<ChannelHandlerContext> channelCtx = new AtomicReference<>();
+
     protected DefaultFlowActor(final TransportLayerConfiguration transportConfig,
                                final FlowId flowId,
                                final Connection connection,
@@ -97,6 +159,7 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
         this.connection = connection;
         this.flowId = flowId;
         this.clock = clock;
+        this.lastMessageProcessed = clock.getCurrentTimeMillis();
 
         this.keepAliveMethodConfig =
                 config.getKeepAliveConfiguration().getKeepAliveMethodConfiguration(connection.getTransport());
@@ -129,7 +192,9 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
                 when(FlowState.PING, this::onSipOptionsPing);
                 onExit(FlowState.PING, this::onExitSipOptionsPing);
             } else if (keepAliveMethodConfig.useStun()) {
-                logWarn("We are not able to use STUN as a ping mechanism for the time being");
+                onEnter(FlowState.PING, this::onEnterStunPing);
+                when(FlowState.PING, this::onStunPing);
+                onExit(FlowState.PING, this::onExitStunPing);
             }
         }
 
@@ -145,7 +210,8 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // === Always execute the following for all events
     // =====================
     private void alwaysExecute(final IOEvent event) {
-        if (event.isSipMessageIOEvent() || event.isSipMessageBuilderIOEvent()) {
+        if (event.isSipMessageIOEvent() || event.isSipMessageBuilderIOEvent()
+                || event.isPingMessageIOEvent() || event.isPongMessageIOEvent()) {
             this.lastMessageProcessed = clock.getCurrentTimeMillis();
         }
     }
@@ -155,15 +221,17 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // =====================
     private void onInit(final IOEvent event) {
 
-        // if we are not in active ping mode we need to schedule the max lifetime
-        // timer of the flow.
-        if (!config.isPingModeActive()) {
-            lifeTimeTimer = Optional.of(ctx().scheduler().schedule(SipTimer.Timeout, config.getTimeout()));
-        }
+        // if we are not in active ping mode the flow has a max lifetime
+        lifeTimeTimer = !config.isPingModeActive();
 
         if (event.isSipMessageIOEvent()) {
             processSipMessageEvent(event.toSipMessageIOEvent());
             become(FlowState.ACTIVE, "SIP message received");
+        } else if (event.isPingMessageIOEvent()) {
+            // e.g. a STUN binding request, which over UDP may very well
+            // be the first thing we see from a NAT:ed client.
+            processPing(event.toPingMessageIOEvent());
+            become(FlowState.ACTIVE, "Ping received");
         } else if (event.isConnectionIOEvent()) {
             final ConnectionIOEvent connectionEvent = event.toConnectionIOEvent();
             if (connectionEvent.isConnectionOpenedIOEvent()) {
@@ -178,11 +246,12 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // === Ready State
     // =====================
     private void onEnterReady(final IOEvent event) {
-        timeoutTimer = Optional.of(ctx().scheduler().schedule(SipTimer.Timeout1, config.getInitialIdleTimeout()));
+        readySince = clock.getCurrentTimeMillis();
+        idleTimer = SipTimer.Timeout1;
     }
 
     private void onExitReady(final IOEvent event) {
-        timeoutTimer.ifPresent(t -> t.cancel());
+        idleTimer = null;
     }
 
     private void onReady(final IOEvent event) {
@@ -204,9 +273,7 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
             // guess someone just connected and then tore down the connection again
             become(FlowState.CLOSING, "Connection closed by peer");
         } else if (event.isPingMessageIOEvent()) {
-            if (config.isPingModeActive()) {
-                sendPong();
-            }
+            processPing(event.toPingMessageIOEvent());
             become(FlowState.ACTIVE, "Ping received");
         } else if (event.isPongMessageIOEvent()) {
             // just consume. Probably won't happen. Guess if someone sends
@@ -228,8 +295,12 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
      */
     private void processSipMessageEvent(final SipMessageIOEvent event) {
         if (!config.isPingModeOff() && event.message().isOptions() && keepAliveMethodConfig.acceptSipOptions()) {
-            if (config.isPingModeActive()) {
-                sendPong();
+            // the OPTIONS never makes it to the transaction layer so we have to answer
+            // the ping ourselves or the remote side will think we are dead. Responses are
+            // simply consumed (e.g. to a ping someone else sent across this flow)
+            if (event.message().isRequest()) {
+                final SipResponse pong = event.message().toRequest().createResponse(200).build();
+                ctx().forwardDownstream(IOEvent.create(connection, pong));
             }
         } else {
             ctx().forward(event);
@@ -241,17 +312,16 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // =====================
     private void onEnterActive(final IOEvent event) {
 
-        // In active mode we will schedule a timer to ensure we get
-        // keep-alive traffic and if not, we will issue keep-alive
-        // traffic ourselves. SipTimer.Timeout2 is used for this purpose
+        // In active mode we need to ensure we get keep-alive traffic
+        // and if not, we will issue keep-alive traffic ourselves.
+        // SipTimer.Timeout2 is used for this purpose
         if (config.isPingModeActive()) {
-            final Duration duration = this.config.getKeepAliveConfiguration().getIdleTimeout();
-            timeoutTimer = Optional.of(ctx().scheduler().schedule(SipTimer.Timeout2, duration));
+            idleTimer = SipTimer.Timeout2;
         }
     }
 
     private void onExitActive(final IOEvent event) {
-        timeoutTimer.ifPresent(t -> t.cancel());
+        idleTimer = null;
     }
 
     /**
@@ -266,12 +336,14 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
         } else if (event.isSipMessageIOEvent()) {
             if (isOutstandingSipOptionsPong(event.toSipMessageIOEvent())) {
                 // absorb the 200 OK to the options and clear out the options transaction
-                optionsTransaction = null;
+                onSipOptionsPong();
             } else {
-                ctx().forward(event);
+                processSipMessageEvent(event.toSipMessageIOEvent());
             }
         } else if (event.isPingMessageIOEvent()) {
-            become(FlowState.PING);
+            // the remote side is pinging us, which doesn't affect our state
+            // other than it counts as traffic across the flow.
+            processPing(event.toPingMessageIOEvent());
         } else if (event.isPongMessageIOEvent()) {
             // just consume
         } else if (event.isSipTimerTimeout()) {
@@ -290,24 +362,22 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
         // something like flow.kill()
     }
 
+    /**
+     * The sweeper only fires the timer if the flow was idle when it checked but a message
+     * may have been processed since so check again. If so, the sweeper will simply
+     * check again later.
+     */
     private void onFlowLifeTimeTimerTimeout(final IOEvent event) {
-        final Duration duration = this.config.getTimeout();
-        final long diffInSeconds = (clock.getCurrentTimeMillis() - lastMessageProcessed) / 1000;
-        final Duration diff = duration.minusSeconds(diffInSeconds);
-        if (diff.isNegative() || diff.isZero()) {
-            become(FlowState.CLOSING, "No traffic received in " + diffInSeconds + " seconds. Closing flow");
-        } else {
-            ctx().scheduler().schedule(SipTimer.Timeout, diff);
+        final long idle = clock.getCurrentTimeMillis() - lastMessageProcessed;
+        if (idle >= config.getTimeout().toMillis()) {
+            become(FlowState.CLOSING, "No traffic received in " + idle / 1000 + " seconds. Closing flow");
         }
     }
 
     private void onSipTimerTimeout2InActive(final IOEvent event) {
-        final Duration duration = this.config.getKeepAliveConfiguration().getIdleTimeout();
-        final Duration diff = duration.minusMillis(clock.getCurrentTimeMillis() - lastMessageProcessed);
-        if (diff.isNegative() || diff.isZero()) {
+        final long idle = clock.getCurrentTimeMillis() - lastMessageProcessed;
+        if (idle >= config.getKeepAliveConfiguration().getIdleTimeout().toMillis()) {
             become(FlowState.PING, "Idle timer fired");
-        } else {
-            ctx().scheduler().schedule(SipTimer.Timeout2, diff);
         }
     }
 
@@ -371,8 +441,16 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // === When we use double CRLF as the ping
     // ============================================
     private void onEnterDblCRLFPing(final IOEvent event) {
-        // send the double CRLF as a ping
-        // start timer no 3
+        pingFailures = 0;
+        if (crlfPing == null) {
+            crlfPing = PingMessageIOEvent.create(connection, clock.getCurrentTimeMillis());
+        }
+        sendDblCRLFPing();
+    }
+
+    private void sendDblCRLFPing() {
+        schedulePingTimeout();
+        ctx().forwardDownstream(crlfPing);
     }
 
     private void onExitDblCRLFPing(final IOEvent event) {
@@ -383,9 +461,16 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     private void onDblCRLFPing(final IOEvent event) {
         if (event.isPongMessageIOEvent()) {
             become(FlowState.ACTIVE);
+        } else if (event.isPingMessageIOEvent()) {
+            processPing(event.toPingMessageIOEvent());
+            become(FlowState.ACTIVE);
         } else if (event.isSipMessageIOEvent()) {
-            ctx().forward(event);
+            processSipMessageEvent(event.toSipMessageIOEvent());
             become(FlowState.ACTIVE);
+        } else if (event.isSipTimerTimeout3()) {
+            onPingTimeout("CRLF", this::sendDblCRLFPing);
+        } else if (event.isConnectionInactiveIOEvent()) {
+            become(FlowState.CLOSING, "Remote host closed connection");
         }
     }
 
@@ -418,7 +503,8 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
                         .withBranch());
 
         final SipRequest options = builder.build();
-        optionsTransaction = TransactionId.create(options);
+        optionsTransaction = TransactionKey.create(options);
+        optionsSentAt = clock.getCurrentTimeMillis();
         ctx().forwardDownstream(IOEvent.create(connection, options));
     }
 
@@ -435,11 +521,11 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
             if (isOutstandingSipOptionsPong(event.toSipMessageIOEvent())) {
                 // reset and remember, we will NOT forward the response
                 // up the chain...
-                optionsTransaction = null;
+                onSipOptionsPong();
                 become(FlowState.ACTIVE, "Pong received");
             } else {
                 become(FlowState.ACTIVE, "Data received over the flow");
-                ctx().forward(event);
+                processSipMessageEvent(event.toSipMessageIOEvent());
             }
         } else if (event.isSipTimerTimeout3()) {
             System.err.println("Man, no pong and nothing else has been received...");
@@ -448,15 +534,105 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
 
     }
 
+    private void onSipOptionsPong() {
+        optionsTransaction = null;
+        counters.onPingRtt(clock.getCurrentTimeMillis() - optionsSentAt);
+    }
+
     private boolean isOutstandingSipOptionsPong(final SipMessageIOEvent event) {
-        final SipMessage msg = event.toSipMessageIOEvent().message();
-        return msg.isResponse() && msg.isOptions() && TransactionId.create(msg).equals(optionsTransaction);
+        final SipMessage msg = event.message();
+        return msg.isResponse() && msg.isOptions() && event.transactionKey().equals(optionsTransaction);
+    }
+
+    // ============================================
+    // === When we use STUN as ping
+    // ============================================
+    private void onEnterStunPing(final IOEvent event) {
+        pingFailures = 0;
+        stunTransaction = StunMessage.createBindingRequest();
+        sendStunPing();
+    }
+
+    /**
+     * Send, or re-send, the outstanding binding request. Just as for a STUN client
+     * transaction over UDP (RFC 5389 section 7.2.1), a retransmission is using the
+     * same transaction id.
+     */
+    private void sendStunPing() {
+        schedulePingTimeout();
+        ctx().forwardDownstream(PingMessageIOEvent.create(connection, clock.getCurrentTimeMillis(), stunTransaction));
+    }
+
+    private void onExitStunPing(final IOEvent event) {
+        timeoutTimer.ifPresent(t -> t.cancel());
+    }
+
+    private void onStunPing(final IOEvent event) {
+        if (event.isPongMessageIOEvent()) {
+            final PongMessageIOEvent pong = event.toPongMessageIOEvent();
+            if (pong.stun().map(stunTransaction::isSameTransaction).orElse(false)) {
+                stunTransaction = null;
+                become(FlowState.ACTIVE, "Pong received");
+            }
+        } else if (event.isPingMessageIOEvent()) {
+            processPing(event.toPingMessageIOEvent());
+            become(FlowState.ACTIVE, "Ping received");
+        } else if (event.isSipMessageIOEvent()) {
+            become(FlowState.ACTIVE, "Data received over the flow");
+            processSipMessageEvent(event.toSipMessageIOEvent());
+        } else if (event.isSipTimerTimeout3()) {
+            onPingTimeout("STUN", this::sendStunPing);
+        } else if (event.isConnectionInactiveIOEvent()) {
+            become(FlowState.CLOSING, "Remote host closed connection");
+        }
+    }
+
+    /**
+     * Schedule the timer for how long we wait for the pong to the ping we are about to
+     * send. The time is doubled for every ping that goes unanswered, although never
+     * beyond the configured keep-alive interval.
+     */
+    private void schedulePingTimeout() {
+        final long interval = config.getKeepAliveConfiguration().getInterval().toMillis();
+        final long rto = Math.min(PING_INITIAL_RTO << Math.min(pingFailures, 16), Math.max(interval, PING_INITIAL_RTO));
+        timeoutTimer = Optional.of(ctx().scheduler().schedule(SipTimer.Timeout3, Duration.ofMillis(rto)));
+    }
+
+    /**
+     * No pong to our ping. Every timeout counts as a failed attempt and once we have
+     * reached the max number of failed attempts we give up on the flow, unless we have
+     * been told not to enforce the pong, in which case we'll simply go back to the
+     * ACTIVE state and ping again once the flow has been idle for long enough.
+     *
+     * @param type the type of ping, only used for logging.
+     * @param resend how to send the ping again.
+     */
+    private void onPingTimeout(final String type, final Runnable resend) {
+        ++pingFailures;
+        final KeepAliveConfiguration keepAlive = config.getKeepAliveConfiguration();
+        if (pingFailures < keepAlive.getMaxFailed()) {
+            resend.run();
+        } else if (keepAlive.getEnforcePong()) {
+            close("No " + type + " pong received after " + pingFailures + " attempts");
+        } else {
+            become(FlowState.ACTIVE, "No " + type + " pong received but pongs are not enforced");
+        }
+    }
+
+    /**
+     * Close the flow. A UDP flow has no connection to tear down (closing it would close
+     * the channel every UDP flow on the listening point is using) and nothing will ever
+     * tell us that it is gone so there is no point in waiting in the CLOSING state.
+     */
+    private void close(final String reason) {
+        become(connection.isUDP() ? FlowState.CLOSED : FlowState.CLOSING, reason);
     }
 
     // =====================
     // === Closing State
     // =====================
     private void onEnterClosing(final IOEvent event) {
+        lifeTimeTimer = false;
         connection.close();
     }
 
@@ -476,7 +652,8 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     // === Closed State, which is the terminal state
     // =====================
     private void onEnterClosed(final IOEvent event) {
-        lifeTimeTimer.ifPresent(t -> t.cancel());
+        lifeTimeTimer = false;
+        idleTimer = null;
     }
 
     private void onClosed(final IOEvent event) {
@@ -484,16 +661,29 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
     }
 
     /**
-     * TODO: we need to pass in the event we got so
-     * we can actually send the correct type of pong back.
-     * Need to create and actual PingIOEvent class and I guess
-     * if we are configured to accept SIP OPTIONS as pings we
+     * Unless pings are turned off altogether, we will answer every ping that is
+     * of a type we have been configured to accept.
+     *
+     * TODO: if we are configured to accept SIP OPTIONS as pings we
      * have to turn that into a ping event and not a regular SIP
      * message. Or should we still allow someone to pass the SIP
      * options up to the application stack eventually???
      */
-    private void sendPong() {
+    private void processPing(final PingMessageIOEvent ping) {
+        if (config.isPingModeOff()) {
+            return;
+        }
 
+        final Optional<StunMessage> stun = ping.stun();
+        if (stun.isPresent() && keepAliveMethodConfig.acceptStun()) {
+            final StunMessage response = stun.get().createBindingResponse();
+            ctx().forwardDownstream(PongMessageIOEvent.create(connection, clock.getCurrentTimeMillis(), response));
+        } else if (!stun.isPresent() && keepAliveMethodConfig.acceptDoubleCRLF()) {
+            if (crlfPong == null) {
+                crlfPong = PongMessageIOEvent.create(connection, clock.getCurrentTimeMillis());
+            }
+            ctx().forwardDownstream(crlfPong);
+        }
     }
 
     @Override
@@ -503,7 +693,74 @@ public class DefaultFlowActor extends ActorSupport<IOEvent, FlowState> implement
 
     @Override
     public Flow flow() {
-        return new DefaultFlow(connection, state());
+        return new DefaultFlow(connection, state(), backPressuredSince == 0,
+                () -> counters.snapshot(backPressuredSince, clock.getCurrentTimeMillis()));
+    }
+
+    @Override
+    public void onWritabilityChanged(final boolean writable, final long now) {
+        if (writable && backPressuredSince != 0) {
+            logger.info("Flow {} is writable again after {} ms", flowId, now - backPressuredSince);
+            counters.onBackPressured(now - backPressuredSince);
+            backPressuredSince = 0;
+        } else if (!writable && backPressuredSince == 0) {
+            logger.warn("Flow {} is back-pressured, the remote endpoint isn't keeping up", flowId);
+            // zero means writable so make sure we never store it
+            backPressuredSince = Math.max(now, 1);
+        }
+    }
+
+    @Override
+    public long getBackPressuredSince() {
+        return backPressuredSince;
+    }
+
+    @Override
+    public FlowLoad load() {
+        return load;
+    }
+
+    @Override
+    public SipTimer checkIdleTimers(final long now) {
+        final long idle = now - lastMessageProcessed;
+        if (lifeTimeTimer && idle >= config.getTimeout().toMillis()) {
+            return SipTimer.Timeout;
+        }
+
+        final SipTimer timer = idleTimer;
+        if (timer == SipTimer.Timeout1 && now - readySince >= config.getInitialIdleTimeout().toMillis()) {
+            return timer;
+        }
+
+        if (timer == SipTimer.Timeout2 && idle >= config.getKeepAliveConfiguration().getIdleTimeout().toMillis()) {
+            return timer;
+        }
+
+        return null;
+    }
+
+    @Override
+    public FlowCounters counters() {
+        return counters;
+    }
+
+    @Override
+    public FlowMailbox mailbox() {
+        return mailbox;
+    }
+
+    @Override
+    public ChannelHandlerContext channelContext() {
+        return channelCtx.get();
+    }
+
+    @Override
+    public ChannelHandlerContext bindChannelContext(final ChannelHandlerContext ctx) {
+        final ChannelHandlerContext current = channelCtx.get();
+        if (current != null) {
+            return current;
+        }
+        return channelCtx.compareAndSet(null, ctx) ? ctx : channelCtx.get();
     }
 
     @Override
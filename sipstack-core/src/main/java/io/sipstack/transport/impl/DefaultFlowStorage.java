@@ -1,7 +1,6 @@
 package io.sipstack.transport.impl;
 
-import com.sun.javafx.UnmodifiableArrayList;
-import io.sipstack.config.FlowConfiguration;
+import io.sipstack.config.FlowScaleOutConfiguration;
 import io.sipstack.config.TransportLayerConfiguration;
 import io.sipstack.netty.codec.sip.Clock;
 import io.sipstack.netty.codec.sip.Connection;
@@ -9,10 +8,27 @@ import io.sipstack.netty.codec.sip.ConnectionEndpointId;
 import io.sipstack.netty.codec.sip.ConnectionId;
 import io.sipstack.transport.FlowId;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Every single message that comes in goes through {@link #ensureFlow(Connection)} and
+ * it is called from every event loop at the same time so lookups must never block.
+ *
+ * Every flow is kept in two places. The {@link ConnectionId} index is what the lookup of
+ * a flow for an incoming message uses and is a single hash lookup. The buckets keep all
+ * flows to the same remote endpoint together for those that don't care which flow they
+ * get, as long as it goes to the right place. The flows of a bucket are a copy-on-write
+ * array so reading them never takes a lock either. Only when a flow is added or removed
+ * do we lock, and then only the bucket of that particular remote endpoint.
+ *
  * @author jonas@jonasborjesson.com
  */
 public class DefaultFlowStorage implements FlowStorage {
@@ -21,107 +37,146 @@ public class DefaultFlowStorage implements FlowStorage {
 
     private final Clock clock;
 
-    private final Map<ConnectionEndpointId, FlowBucket> buckets;
+    private final ConcurrentMap<ConnectionEndpointId, FlowBucket> buckets;
 
-    private final int lockCount = Runtime.getRuntime().availableProcessors() * 2;
-    private final Object[] locks = new Object[lockCount];
+    private final ConcurrentMap<ConnectionId, FlowActor> flows;
+
+    private final AtomicInteger count = new AtomicInteger();
 
     public DefaultFlowStorage(final TransportLayerConfiguration config, final Clock clock) {
         this.config = config;
-        this.buckets = new HashMap<>(config.getFlow().getDefaultStorageSize());
         this.clock = clock;
-        for (int i = 0; i < locks.length; ++i) {
-            locks[i] = new Object();
-        }
+        final int size = config.getFlow().getDefaultStorageSize();
+        this.buckets = new ConcurrentHashMap<>(size);
+        this.flows = new ConcurrentHashMap<>(size);
     }
 
     @Override
     public List<FlowActor> getFlows(final ConnectionEndpointId remoteEndpoint) {
-        synchronized(getLock(remoteEndpoint)) {
-            final FlowBucket bucket = buckets.get(remoteEndpoint);
-            if (bucket != null) {
-                return bucket.getFlows();
-            }
-            return Collections.emptyList();
+        final FlowBucket bucket = buckets.get(remoteEndpoint);
+        if (bucket != null) {
+            return bucket.getFlows();
         }
+        return Collections.emptyList();
     }
 
+    @Override
     public FlowActor ensureFlow(final Connection connection) {
         final ConnectionId connectionId = connection.id();
+        final FlowActor flow = flows.get(connectionId);
+        if (flow != null) {
+            return flow;
+        }
+
         final ConnectionEndpointId endpointId = connectionId.getRemoteConnectionEndpointId();
-        synchronized(getLock(endpointId)) {
-            FlowBucket bucket = buckets.get(endpointId);
-            FlowActor flow = null;
-            if (bucket == null) {
-                bucket = new FlowBucket(config, endpointId);
-                buckets.put(endpointId, bucket);
-            } else {
-                flow = bucket.getFlow(connectionId);
-            }
+        while (true) {
+            final FlowBucket bucket = buckets.computeIfAbsent(endpointId,
+                    id -> new FlowBucket(config.getFlow().getScaleOut(), id));
+            synchronized (bucket) {
+                // the last flow of the bucket was removed, and the bucket with it,
+                // right before we got the lock so go get (or create) the new one.
+                if (bucket.removed) {
+                    continue;
+                }
 
-            if (flow == null) {
-                final FlowId flowId = FlowId.create(connectionId);
-                flow = new DefaultFlowActor(config, flowId, connection, clock);
-                bucket.store(connectionId, flow);
+                // someone else may have beaten us to it
+                final FlowActor existing = flows.get(connectionId);
+                if (existing != null) {
+                    return existing;
+                }
+
+                final FlowActor actor = new DefaultFlowActor(config, FlowId.create(connectionId), connection, clock);
+                bucket.store(actor);
+                flows.put(connectionId, actor);
+                count.incrementAndGet();
+                return actor;
             }
+        }
+    }
 
-            return flow;
+    @Override
+    public FlowActor get(final ConnectionEndpointId id) {
+        final FlowBucket bucket = buckets.get(id);
+        if (bucket == null) {
+            return null;
         }
 
+        return bucket.pickAnyFlow(clock.getCurrentTimeMillis());
     }
 
-    private ConnectionEndpointId createEndpointId(final Connection connection) {
-        final ConnectionId id = connection.id();
-        return ConnectionEndpointId.create(id.getProtocol(), id.getRemoteAddress());
+    @Override
+    public FlowActor get(final ConnectionId id) {
+        return flows.get(id);
     }
 
-    private Object getLock(final ConnectionEndpointId id) {
-        final int lockId = Math.abs(id.hashCode() % lockCount);
-        return locks[lockId];
+    public FlowActor get(final FlowId id) {
+        throw new RuntimeException("TODO");
     }
 
     @Override
-    public FlowActor get(final ConnectionEndpointId id) {
-        synchronized(getLock(id)) {
-            final FlowBucket bucket = buckets.get(id);
-            if (bucket == null) {
-                return null;
+    public void remove(final ConnectionId id) {
+        final FlowBucket bucket = buckets.get(id.getRemoteConnectionEndpointId());
+        if (bucket == null) {
+            return;
+        }
+
+        synchronized (bucket) {
+            final FlowActor actor = flows.get(id);
+            if (actor == null) {
+                return;
             }
 
-            return bucket.pickAnyFlow();
+            flows.remove(id, actor);
+            count.decrementAndGet();
+            if (bucket.removeFlow(actor)) {
+                bucket.removed = true;
+                buckets.remove(bucket.id, bucket);
+            }
         }
     }
 
     @Override
-    public FlowActor get(final ConnectionId id) {
-        final ConnectionEndpointId endpointId = id.getRemoteConnectionEndpointId();
-        synchronized(getLock(endpointId)) {
-            final FlowBucket bucket = buckets.get(endpointId);
-            if (bucket != null) {
-                return bucket.getFlow(id);
-            }
-            return null;
-        }
+    public int count() {
+        return count.get();
     }
 
-    public FlowActor get(final FlowId id) {
-        throw new RuntimeException("TODO");
+    @Override
+    public Iterator<FlowActor> iterator() {
+        return Collections.unmodifiableCollection(flows.values()).iterator();
     }
 
     @Override
-    public void remove(final ConnectionId id) {
-        final ConnectionEndpointId endpointId = id.getRemoteConnectionEndpointId();
-        synchronized(getLock(endpointId)) {
-            final FlowBucket bucket = buckets.get(endpointId);
-            if (bucket != null) {
-                bucket.removeFlow(id);
+    public boolean tryScaleOut(final ConnectionEndpointId id) {
+        final FlowBucket bucket = buckets.get(id);
+        if (bucket == null) {
+            return false;
+        }
+
+        synchronized (bucket) {
+            return bucket.tryScaleOut(clock.getCurrentTimeMillis());
+        }
+    }
+
+    @Override
+    public void scaleOutCompleted(final ConnectionEndpointId id) {
+        final FlowBucket bucket = buckets.get(id);
+        if (bucket != null) {
+            synchronized (bucket) {
+                bucket.scaleOutPending = false;
             }
         }
     }
 
     @Override
-    public int count() {
-        return buckets.values().stream().mapToInt(FlowBucket::count).sum();
+    public List<FlowActor> retireFlows(final ConnectionEndpointId id) {
+        final FlowBucket bucket = buckets.get(id);
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+
+        synchronized (bucket) {
+            return bucket.retireFlows(clock.getCurrentTimeMillis());
+        }
     }
 
     private static class FlowBucket {
@@ -133,65 +188,223 @@ public class DefaultFlowStorage implements FlowStorage {
          */
         private final ConnectionEndpointId id;
 
-        private final List<FlowActor> flows;
+        private final FlowScaleOutConfiguration scaleOut;
 
-        private final Random random = new Random(System.currentTimeMillis());
+        /**
+         * Never modified, only replaced (while holding the lock of the bucket),
+         * so that the flows can be read without taking the lock.
+         */
+        private volatile FlowActor[] flows = new FlowActor[0];
 
-        private FlowBucket(final TransportLayerConfiguration config, final ConnectionEndpointId id ) {
-            this.id = id;
-            // TODO: should probably be another storage size...
-            // flows = new HashMap<>(config.getFlow().getDefaultStorageSize());
-            flows = new ArrayList<>(10);
-        }
+        /**
+         * Whether we are currently waiting for an additional flow to be opened
+         * to this endpoint. Guarded by the lock of the bucket.
+         */
+        private boolean scaleOutPending;
 
-        protected int count() {
-            return flows.size();
-        }
+        /**
+         * Set once the last flow has been removed and this bucket is no longer
+         * in the storage. Guarded by the lock of the bucket.
+         */
+        private boolean removed;
 
-        public List<FlowActor> getFlows() {
-            return Collections.unmodifiableList(flows);
+        /**
+         * When we last considered whether the load had dropped enough for a flow to be retired.
+         */
+        private long lastRetireCheck;
+
+        private FlowBucket(final FlowScaleOutConfiguration scaleOut, final ConnectionEndpointId id ) {
+            this.id = id;
+            this.scaleOut = scaleOut;
         }
 
-        public FlowActor getFlow(final ConnectionId id) {
-            return flows.stream().filter(flow -> flow.connection().id().equals(id)).findFirst().orElse(null);
+        public List<FlowActor> getFlows() {
+            return Collections.unmodifiableList(Arrays.asList(flows));
         }
 
-        public void removeFlow(final ConnectionId id) {
-            for (int i = 0; i < flows.size(); ++i) {
-                if (flows.get(i).flow().id().equals(id)) {
-                    flows.remove(i);
+        /**
+         * Must be called while holding the lock of the bucket.
+         *
+         * @return true if that was the last flow of the bucket.
+         */
+        public boolean removeFlow(final FlowActor flow) {
+            final FlowActor[] current = flows;
+            for (int i = 0; i < current.length; ++i) {
+                if (current[i] == flow) {
+                    final FlowActor[] updated = new FlowActor[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    flows = updated;
+                    return updated.length == 0;
                 }
             }
+            return current.length == 0;
         }
 
-        public void store(final ConnectionId id, final FlowActor flow) {
-            flows.add(flow);
+        /**
+         * Must be called while holding the lock of the bucket.
+         */
+        public void store(final FlowActor flow) {
+            final FlowActor[] current = flows;
+            final FlowActor[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = flow;
+            flows = updated;
         }
 
         /**
          * If the user doesn't care which flow to use, as long as it
          * is "connected" to the remote endpoint (and remember, each
          * bucket is only targeting a particular remote endpoint) then
-         * choose one based on some local policy.
+         * choose the one that is the least busy.
+         *
+         * Rather than looking at every flow we pick two at random and go with the
+         * least busy of the two (the "power of two choices"), which is almost as
+         * good at spreading the load and doesn't have everyone pile onto the same
+         * flow just because it happened to be the least busy a moment ago.
          *
          * @return
          */
-        public FlowActor pickAnyFlow() {
-            final int size = flows.size();
+        public FlowActor pickAnyFlow(final long now) {
+            final FlowActor[] flows = this.flows;
+            final int size = flows.length;
             if (size == 0) {
                 return null;
             }
 
             if (size == 1) {
-                return flows.get(0);
+                return flows[0];
+            }
+
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                ++second;
+            }
+
+            final FlowActor flow = lessBusy(flows[first], flows[second], now);
+            if (!flow.load().isRetiring()) {
+                return flow;
+            }
+
+            // both were retiring, which is rare, so just go through all of them
+            FlowActor best = flow;
+            for (int i = 0; i < size; ++i) {
+                best = lessBusy(best, flows[i], now);
+            }
+            return best;
+        }
+
+        /**
+         * Flows that are retiring are only ever used if there are no other flows.
+         */
+        private static FlowActor lessBusy(final FlowActor a, final FlowActor b, final long now) {
+            final FlowLoad loadA = a.load();
+            final FlowLoad loadB = b.load();
+            if (loadA.isRetiring() != loadB.isRetiring()) {
+                return loadA.isRetiring() ? b : a;
+            }
+            return FlowLoad.compare(loadA, loadB, now) <= 0 ? a : b;
+        }
+
+        private boolean isBusy(final FlowLoad load, final long now) {
+            return scaleOut.getMessagesPerSecond() > 0 && load.getMessagesPerSecond(now) >= scaleOut.getMessagesPerSecond()
+                    || scaleOut.getOutstandingWrites() > 0 && load.getOutstandingWrites() >= scaleOut.getOutstandingWrites();
+        }
+
+        /**
+         * We only scale out if every flow that isn't retiring is busy. If there is
+         * a retiring flow we simply put that back to use rather than opening a new one.
+         */
+        public boolean tryScaleOut(final long now) {
+            if (!scaleOut.isEnabled() || scaleOutPending) {
+                return false;
+            }
+
+            int active = 0;
+            FlowActor retiring = null;
+            for (final FlowActor flow : flows) {
+                final FlowLoad load = flow.load();
+                if (load.isRetiring()) {
+                    retiring = flow;
+                } else if (!isBusy(load, now)) {
+                    return false;
+                } else {
+                    ++active;
+                }
+            }
+
+            if (active == 0) {
+                return false;
+            }
+
+            if (retiring != null) {
+                retiring.load().reinstate();
+                return false;
+            }
+
+            if (active >= scaleOut.getMaxFlows()) {
+                return false;
+            }
+
+            scaleOutPending = true;
+            return true;
+        }
+
+        /**
+         * Retire the least busy of the extra flows if the load on this endpoint
+         * would fit on one flow less with room to spare (half of the thresholds)
+         * so that we don't flip back and forth around the thresholds.
+         *
+         * This is only considered once a second.
+         */
+        public List<FlowActor> retireFlows(final long now) {
+            final FlowActor[] flows = this.flows;
+            if (!scaleOut.isEnabled() || flows.length < 2 || now - lastRetireCheck < 1000) {
+                return Collections.emptyList();
+            }
+            lastRetireCheck = now;
+
+            List<FlowActor> idle = null;
+            FlowActor leastBusyExtra = null;
+            int active = 0;
+            long totalRate = 0;
+            long totalWrites = 0;
+            final long retireAfter = scaleOut.getRetireAfter().toMillis();
+            for (final FlowActor flow : flows) {
+                final FlowLoad load = flow.load();
+                if (load.isRetiring()) {
+                    final long idleSince = Math.max(load.getRetiredSince(), load.getLastMessage());
+                    if (load.getOutstandingWrites() == 0 && now - idleSince >= retireAfter) {
+                        if (idle == null) {
+                            idle = new ArrayList<>(2);
+                        }
+                        idle.add(flow);
+                    }
+                    continue;
+                }
+
+                ++active;
+                totalRate += load.getMessagesPerSecond(now);
+                totalWrites += load.getOutstandingWrites();
+                if (load.isExtra() && (leastBusyExtra == null
+                        || FlowLoad.compare(load, leastBusyExtra.load(), now) < 0)) {
+                    leastBusyExtra = flow;
+                }
+            }
+
+            if (leastBusyExtra != null && active > 1) {
+                final int remaining = active - 1;
+                final boolean rateFits = scaleOut.getMessagesPerSecond() == 0
+                        || totalRate < (long) remaining * scaleOut.getMessagesPerSecond() / 2;
+                final boolean writesFit = scaleOut.getOutstandingWrites() == 0
+                        || totalWrites < (long) remaining * scaleOut.getOutstandingWrites() / 2;
+                if (rateFits && writesFit) {
+                    leastBusyExtra.load().retire(now);
+                }
             }
 
-            // TODO: for now, let's pick one at random but we may
-            // want to have a policy where we pick the one that
-            // is e.g. the least busy based on some criteria such
-            // as bandwidth, any congestion failures?, messages / second
-            // etc
-            return flows.get(random.nextInt(size));
+            return idle == null ? Collections.emptyList() : idle;
         }
     }
 
@@ -1,25 +1,36 @@
 package io.sipstack.transport.impl;
 
+import com.codahale.metrics.MetricRegistry;
 import gov.nist.javax.sip.message.SIPMessage;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.NetUtil;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.Transport;
 import io.pkts.packet.sip.impl.PreConditions;
 import io.sipstack.actor.GenericSingleContext;
 import io.sipstack.actor.InternalScheduler;
+import io.sipstack.config.RateLimitConfiguration;
 import io.sipstack.config.TransportLayerConfiguration;
 import io.sipstack.core.SipStack;
 import io.sipstack.core.SipTimerListener;
 import io.sipstack.event.SipTimerEvent;
+import io.sipstack.net.IllegalTransportException;
 import io.sipstack.net.InboundOutboundHandlerAdapter;
 import io.sipstack.net.ListeningPoint;
 import io.sipstack.net.NetworkLayer;
+import io.sipstack.net.dns.SipResolver;
+import io.sipstack.net.dns.SipTarget;
 import io.sipstack.netty.codec.sip.*;
 import io.sipstack.netty.codec.sip.event.ConnectionIOEvent;
+import io.sipstack.netty.codec.sip.event.ConnectionWritabilityChangedIOEvent;
 import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent;
 import io.sipstack.netty.codec.sip.event.SipMessageBuilderIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
 import io.sipstack.netty.codec.sip.event.SipRequestBuilderIOEvent;
 import io.sipstack.transaction.impl.InviteClientTransactionActor;
 import io.sipstack.transport.Flow;
@@ -29,12 +40,19 @@ import io.sipstack.transport.TransportLayer;
 import io.sipstack.transport.event.FlowEvent;
 import io.sipstack.transport.event.FlowTerminatedEvent;
 import io.sipstack.transport.event.SipBuilderFlowEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -48,7 +66,10 @@ import java.util.function.Function;
  *
  * @author jonas@jonasborjesson.com
  */
-public class DefaultTransportLayer extends InboundOutboundHandlerAdapter implements TransportLayer, SipTimerListener {
+public class DefaultTransportLayer extends InboundOutboundHandlerAdapter implements TransportLayer, SipTimerListener,
+        EncodeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultTransportLayer.class);
 
     private final TransportLayerConfiguration config;
 
@@ -59,6 +80,12 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
 
     private final InternalScheduler scheduler;
 
+    /**
+     * All the flows that currently are back-pressured. Only there so that
+     * we can tell the operator about them.
+     */
+    private final ConcurrentMap<ConnectionId, FlowActor> backPressured = new ConcurrentHashMap<>();
+
     /**
      * The {@link DefaultTransportLayer} is the only one that actually
      * cares about the underlying network since it is the only
@@ -69,6 +96,27 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
      */
     private NetworkLayer network;
 
+    /**
+     * Used for finding out where to connect to when a flow is asked to connect to
+     * a host name rather than an IP address. If there is no resolver, host names
+     * are resolved the old fashioned (blocking) way.
+     */
+    private SipResolver resolver;
+
+    /**
+     * Keeps track of which flows have been idle for too long.
+     */
+    private final FlowIdleSweeper idleSweeper;
+
+    /**
+     * Per remote endpoint rate limiting, or null if it isn't enabled.
+     */
+    private final RateLimiter rateLimiter;
+
+    private final RateLimitConfiguration.Policy rateLimitPolicy;
+
+    private final ServiceUnavailableTemplate rateLimitTemplate;
+
     public DefaultTransportLayer(final TransportLayerConfiguration config,
                                  final Clock clock,
                                  final FlowStorage flowStorage,
@@ -77,6 +125,13 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
         this.flowStorage = flowStorage;
         this.clock = clock;
         this.scheduler = scheduler;
+        this.idleSweeper = new FlowIdleSweeper(flowStorage, clock, scheduler,
+                config.getFlow().getIdleSweepPeriod(), this::onIdle);
+
+        final RateLimitConfiguration rateLimit = config.getRateLimit();
+        this.rateLimiter = rateLimit.isEnabled() ? new RateLimiter(rateLimit, clock) : null;
+        this.rateLimitPolicy = rateLimit.getPolicy();
+        this.rateLimitTemplate = ServiceUnavailableTemplate.create(rateLimit.getRetryAfter());
     }
 
     public DefaultTransportLayer(final TransportLayerConfiguration config,
@@ -89,6 +144,42 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
         this.network = network;
     }
 
+    public void useResolver(final SipResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Start keeping track of idle flows.
+     */
+    public void start() {
+        idleSweeper.start();
+        if (rateLimiter != null) {
+            rateLimiter.start(scheduler);
+        }
+    }
+
+    public void stop() {
+        idleSweeper.stop();
+        if (rateLimiter != null) {
+            rateLimiter.stop();
+        }
+    }
+
+    /**
+     * Report the traffic statistics of the flows, such as the total number of messages
+     * and which flows are the busiest, through the given registry.
+     */
+    public void registerMetrics(final MetricRegistry registry) {
+        new FlowMetrics(flowStorage, clock, FlowMetrics.DEFAULT_TOP_N).register(registry);
+    }
+
+    /**
+     * Only here for unit tests so they can sweep through the flows whenever they want to.
+     */
+    FlowIdleSweeper idleSweeper() {
+        return idleSweeper;
+    }
+
     @Override
     public void read(final ChannelHandlerContext ctx) throws Exception {
         ctx.read();
@@ -108,11 +199,20 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
         try {
             final IOEvent event = (IOEvent)msg;
 
-            if (!event.isSipMessageIOEvent()) {
+            if (event.isSipMessageBatchIOEvent()) {
+                processSipMessageBatchIOEvent(ctx, event.toSipMessageBatchIOEvent());
+                return;
+            }
+
+            if (!event.isSipMessageIOEvent() && !event.isPingMessageIOEvent() && !event.isPongMessageIOEvent()) {
                 System.err.println("Ok, don't handle any other event that sip right now");
                 return;
             }
 
+            if (!withinRateLimit(ctx, event)) {
+                return;
+            }
+
             final Connection connection = event.connection();
             final FlowActor actor = flowStorage.ensureFlow(connection);
 
@@ -122,7 +222,7 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
                 // At the end of the day, it really consumes the raw events from the
                 // low level stack. However, when we push events upstream we have to
                 // create a FlowEvent so that object also encapsulates the actual flow
-                invokeActor(true, ctx, actor, event);
+                process(true, ctx, actor, event);
             }
 
             // TODO: invoke FlowActor and then we may potentially be sending this
@@ -135,6 +235,72 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
         }
     }
 
+    /**
+     * Check whether the remote endpoint is within its rate limits (if any) and if not,
+     * deal with the message according to the configured policy. This is done before the
+     * message goes anywhere, including the flow, so a remote endpoint that is flooding us
+     * costs us as little as possible.
+     *
+     * @return true if the message should be processed.
+     */
+    private boolean withinRateLimit(final ChannelHandlerContext ctx, final IOEvent event) {
+        if (rateLimiter == null) {
+            return true;
+        }
+
+        final SipMessage msg = event.isSipMessageIOEvent() ? event.toSipMessageIOEvent().message() : null;
+        final boolean newTransaction = msg != null && msg.isRequest() && !msg.isAck();
+        final Connection connection = event.connection();
+        if (rateLimiter.tryAcquire(connection.id().getRemoteConnectionEndpointId(), newTransaction)) {
+            return true;
+        }
+
+        if (rateLimitPolicy == RateLimitConfiguration.Policy.REJECT && newTransaction) {
+            final SipMessageIOEvent sipEvent = event.toSipMessageIOEvent();
+            final ByteBuf response = rateLimitTemplate.encode(ctx.alloc(), msg.toBuffer(), sipEvent.headerIndex());
+            if (connection.isUDP()) {
+                ctx.write(new DatagramPacket(response, connection.getRemoteAddress()));
+            } else {
+                ctx.write(response);
+            }
+        } else if (rateLimitPolicy == RateLimitConfiguration.Policy.CLOSE && !connection.isUDP()) {
+            connection.close();
+        }
+
+        return false;
+    }
+
+    /**
+     * Only here for unit tests.
+     */
+    RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * All the messages in a batch were read off of the same connection so we only have
+     * to look up the flow once, unless the flow happens to terminate half way through
+     * the batch.
+     */
+    private void processSipMessageBatchIOEvent(final ChannelHandlerContext ctx, final SipMessageBatchIOEvent batch) {
+        final Connection connection = batch.connection();
+        FlowActor actor = flowStorage.ensureFlow(connection);
+        for (final SipMessageIOEvent event : batch.events()) {
+            if (actor == null) {
+                return;
+            }
+
+            if (!withinRateLimit(ctx, event)) {
+                continue;
+            }
+
+            process(true, ctx, actor, event);
+            if (actor.isTerminated()) {
+                actor = flowStorage.ensureFlow(connection);
+            }
+        }
+    }
+
     /**
      * From ChannelInboundHandler
      */
@@ -161,6 +327,11 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
     private void processConnectionIOEvent(final ChannelHandlerContext ctx, final ConnectionIOEvent event) {
         final Connection connection = event.connection();
 
+        if (event.isConnectionWritabilityChangedIOEvent()) {
+            processWritabilityChanged(event.toConnectionWritabilityChangedIOEvent());
+            return;
+        }
+
         // There are a few events that will create a new flow so if
         // receive one of those then create a new flow. See the flow
         // as outlined in the {@link FlowActor}
@@ -177,10 +348,52 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
             // At the end of the day, it really consumes the raw events from the
             // low level stack. However, when we push events upstream we have to
             // create a FlowEvent so that object also encapsulates the actual flow
-            invokeActor(true, ctx, actor, event);
+            process(true, ctx, actor, event);
+
+            // not part of a read so nothing else will flush what the actor may have written
+            ctx.flush();
+        }
+    }
+
+    /**
+     * The writability of a flow is not part of the flow state machine, the {@link FlowActor}
+     * simply keeps track of it so that it can be exposed on the {@link Flow}.
+     */
+    private void processWritabilityChanged(final ConnectionWritabilityChangedIOEvent event) {
+        final FlowActor actor = flowStorage.get(event.connection().id());
+        if (actor == null) {
+            return;
+        }
+
+        actor.onWritabilityChanged(event.isWritable(), event.arrivalTime());
+        if (event.isWritable()) {
+            backPressured.remove(event.connection().id());
+        } else {
+            backPressured.put(event.connection().id(), actor);
         }
     }
 
+    /**
+     * The encoders tell us how big the messages we wrote ended up being, which is the
+     * only place the bytes out of a flow can be counted without encoding the messages
+     * twice. Make sure to register the transport layer with the network layer as the
+     * encode listener or the bytes out will always be zero.
+     */
+    @Override
+    public void onEncoded(final Connection connection, final int bytes) {
+        final FlowActor actor = flowStorage.get(connection.id());
+        if (actor != null) {
+            actor.counters().onBytesOut(bytes);
+        }
+    }
+
+    @Override
+    public List<Flow> getBackPressuredFlows() {
+        final List<Flow> flows = new ArrayList<>(backPressured.size());
+        backPressured.values().forEach(actor -> flows.add(actor.flow()));
+        return flows;
+    }
+
     /**
      * Invoke a {@link FlowActor} for a particular event.
      *
@@ -188,53 +401,70 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
      *                 (compare with e.g. {@link InviteClientTransactionActor}) so we have to pass in the direction
      *                 since we need to know that in case the actor just does a "forward" on the event it got.
      *                 Forward means simply to pass the event in the direction it came from.
+     * Note that the actor is single threaded, this must only ever be called on the
+     * event loop of the channel the flow is bound to and with the context of that
+     * channel (see {@link #process(boolean, ChannelHandlerContext, FlowActor, IOEvent)}).
+     *
      * @param channelCtx the netty channel context
      * @param actor the actual actor
      * @param event the event we will pass onto the actor.
      */
     private void invokeActor(final boolean upstream, final ChannelHandlerContext channelCtx, final FlowActor actor, final IOEvent event) {
         try {
-            synchronized (actor) {
-                final GenericSingleContext<IOEvent> ctx = new GenericSingleContext<IOEvent>(clock, channelCtx, scheduler, actor.id(), this);
-                actor.onReceive(ctx, event);
-
-                // always favor downstream
-                ctx.downstream().ifPresent(e -> {
-                    channelCtx.writeAndFlush(e);
-                });
-
-                ctx.forward().ifPresent(e -> {
-                    if (upstream) {
-                        // Remember that the transport layer will ONLY emit FlowEvents to the
-                        // next layer. The entire architecture is based on that each layer transforms
-                        // the incoming event to something "richer" as the event goes up the pipeline.
-                        if (event.isSipMessageIOEvent()) {
-                            final SipMessage sipMsg = event.toSipMessageIOEvent().message();
-                            final Flow flow = actor.flow();
-                            final FlowEvent flowEvent = FlowEvent.create(flow, sipMsg);
-                            channelCtx.fireChannelRead(flowEvent);
-                        }
-                    } else {
-                        channelCtx.write(e);
-                    }
-                });
-
-                ctx.upstream().ifPresent(e -> {
-                    System.err.println("TODO: Received an upstream event from the Flow Actor.");
-                });
+            final FlowLoad load = actor.load();
+            if (event.isSipMessageIOEvent() || event.isSipMessageBuilderIOEvent()) {
+                load.onMessage(clock.getCurrentTimeMillis());
+            }
 
-                if (actor.isTerminated()) {
-                    flowStorage.remove(actor.flow().id());
-                    actor.stop();
-                    actor.postStop();
-                    final FlowTerminatedEvent terminatedEvent = FlowTerminatedEvent.create(actor.flow());
-                    channelCtx.fireChannelRead(terminatedEvent);
+            final FlowCounters counters = actor.counters();
+            if (upstream) {
+                counters.onRead(event);
+            }
 
-                    // Probably want to issue a life-cycle event regarding the flow
-                    // Compare with the transaction life-cycle events
+            // the timers are keyed by the connection id since that is what we look the flow up by
+            // once the timer fires (see onTimeout)
+            final GenericSingleContext<IOEvent> ctx = new GenericSingleContext<IOEvent>(clock, channelCtx, scheduler,
+                    actor.connection().id(), this);
+            actor.onReceive(ctx, event);
+
+            // always favor downstream. Note that we only write, the flush is up to
+            // whoever got us here (see e.g. channelReadComplete and onTimeout)
+            ctx.downstream().ifPresent(e -> {
+                counters.onWrite(e);
+                load.onWrite(channelCtx.write(e));
+            });
+
+            ctx.forward().ifPresent(e -> {
+                if (upstream) {
+                    // Remember that the transport layer will ONLY emit FlowEvents to the
+                    // next layer. The entire architecture is based on that each layer transforms
+                    // the incoming event to something "richer" as the event goes up the pipeline.
+                    if (event.isSipMessageIOEvent()) {
+                        final Flow flow = actor.flow();
+                        final FlowEvent flowEvent = FlowEvent.create(flow, event.toSipMessageIOEvent());
+                        channelCtx.fireChannelRead(flowEvent);
+                    }
+                } else {
+                    counters.onWrite(e);
+                    load.onWrite(channelCtx.write(e));
                 }
+            });
+
+            ctx.upstream().ifPresent(e -> {
+                System.err.println("TODO: Received an upstream event from the Flow Actor.");
+            });
+
+            if (actor.isTerminated()) {
+                flowStorage.remove(actor.flow().id());
+                backPressured.remove(actor.connection().id());
+                actor.stop();
+                actor.postStop();
+                final FlowTerminatedEvent terminatedEvent = FlowTerminatedEvent.create(actor.flow());
+                channelCtx.fireChannelRead(terminatedEvent);
+
+                // Probably want to issue a life-cycle event regarding the flow
+                // Compare with the transaction life-cycle events
             }
-
         } catch (final Throwable t) {
             // TODO: need to decide what to do.
             // Did the flow die due to this?
@@ -278,11 +508,11 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
                 if (event.isSipFlowEvent()) {
                     final SipMessage sipMsg = event.toSipFlowEvent().message();
                     final IOEvent ioEvent = IOEvent.create(actor.connection(), sipMsg);
-                    invokeActor(false, ctx, actor, ioEvent);
+                    process(false, ctx, actor, ioEvent);
                 } else if (event.isSipBuilderFlowEvent()) {
                     final SipMessage.Builder<? extends SipMessage> builder = event.toSipBuilderFlowEvent().getBuilder();
                     final SipMessageBuilderIOEvent ioEvent = IOEvent.create(actor.connection(), builder);
-                    invokeActor(false, ctx, actor, ioEvent);
+                    process(false, ctx, actor, ioEvent);
                 }
             }
         } catch (final ClassCastException e) {
@@ -310,13 +540,129 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
             final FlowActor actor = flowStorage.get(id);
             if (actor != null) {
                 final IOEvent event = io.sipstack.netty.codec.sip.event.SipTimerEvent.create(timer.timer());
-                invokeActor(true, timer.ctx(), actor, event);
+                dispatch(true, actor.bindChannelContext(timer.ctx()), actor, event);
             }
         } catch (final ClassCastException e) {
             // TODO: log error and move on?
         }
     }
 
+    /**
+     * Called by the {@link FlowIdleSweeper} for every flow that has been idle for so
+     * long that the given timer should fire. The flow hasn't necessarily seen any traffic
+     * yet, in which case there is no channel to process the timer on and the flow will
+     * be checked again on the next sweep.
+     */
+    private void onIdle(final FlowActor actor, final SipTimer timer) {
+        final ChannelHandlerContext ctx = actor.channelContext();
+        if (ctx == null) {
+            return;
+        }
+
+        final IOEvent event = io.sipstack.netty.codec.sip.event.SipTimerEvent.create(timer);
+        dispatch(true, ctx, actor, event);
+    }
+
+    /**
+     * Process an event that came in on, or is being written to, the given channel.
+     *
+     * A flow is bound to the channel it first was seen on and is only ever invoked on
+     * the event loop of that channel. Normally that is the channel the event came in on
+     * but with UDP and several channels sharing the same port (SO_REUSEPORT), all of
+     * those channels map the same remote endpoint to the same flow. The kernel picks the
+     * channel for the incoming traffic and whoever is writing to the flow picks whatever
+     * channel they are on so an event for the flow may very well show up on another
+     * channel, and event loop, than the one the flow is bound to. Those events are
+     * handed over to the channel of the flow (see {@link #dispatch}).
+     *
+     * When the event is processed right away, flushing is up to the caller just as for
+     * any other read or write.
+     */
+    private void process(final boolean upstream, final ChannelHandlerContext ctx, final FlowActor actor,
+                         final IOEvent event) {
+        final ChannelHandlerContext bound = actor.bindChannelContext(ctx);
+        if (bound == ctx) {
+            invokeActor(upstream, ctx, actor, event);
+        } else {
+            dispatch(upstream, bound, actor, event);
+        }
+    }
+
+    /**
+     * Process an event on the channel the flow is bound to from any thread, such as
+     * for a timer event. The actor is only ever invoked on the event loop of its channel
+     * so unless we already are on that event loop, the event is posted to the mailbox of
+     * the flow and processed on the event loop later.
+     *
+     * Whatever the flow wrote as a result of the event is flushed right away, e.g. a
+     * keep-alive or a retransmission. This flush is what the timer policy of the
+     * FlushConsolidationHandler (if any) applies to.
+     */
+    private void dispatch(final boolean upstream, final ChannelHandlerContext ctx, final FlowActor actor,
+                          final IOEvent event) {
+        if (ctx.executor().inEventLoop()) {
+            invokeActor(upstream, ctx, actor, event);
+            ctx.flush();
+        } else if (actor.mailbox().post(upstream, event)) {
+            ctx.executor().execute(() -> drain(ctx, actor));
+        }
+    }
+
+    /**
+     * Process the next batch of events in the mailbox of the flow. If there still are
+     * events left we go to the back of the line so that other channels on the same event
+     * loop get their turn.
+     */
+    private void drain(final ChannelHandlerContext ctx, final FlowActor actor) {
+        final boolean more = actor.mailbox().drain((upstream, event) -> {
+            // the flow may very well have died from one of the previous events
+            if (!actor.isTerminated()) {
+                invokeActor(upstream, ctx, actor, event);
+            }
+        });
+
+        ctx.flush();
+        if (more) {
+            ctx.executor().execute(() -> drain(ctx, actor));
+        }
+    }
+
+    /**
+     * When we are about to use an existing flow to a remote endpoint, check whether
+     * the flows to that endpoint are so busy that we should open yet another one, or
+     * the other way around, whether any of the extra flows we previously opened
+     * are no longer needed. This only applies to connection oriented transports since
+     * UDP only ever has a single flow to any given remote endpoint.
+     *
+     * Opening the new flow is asynchronous and the flow that was asked for is used in
+     * the meantime. Once the new connection is up, it is simply another flow to pick
+     * from in the {@link FlowStorage}.
+     */
+    private void balanceFlows(final ListeningPoint lp, final ConnectionEndpointId endpointId,
+                              final InetSocketAddress remoteAddress) {
+        flowStorage.retireFlows(endpointId).forEach(actor -> {
+            logger.info("Closing retired flow {} to {}", actor.id(), endpointId);
+            actor.connection().close();
+        });
+
+        if (!flowStorage.tryScaleOut(endpointId)) {
+            return;
+        }
+
+        logger.info("All flows to {} are busy, opening another one", endpointId);
+        lp.connect(remoteAddress).whenComplete((connection, t) -> {
+            try {
+                if (t == null) {
+                    flowStorage.ensureFlow(connection).load().markAsExtra();
+                } else {
+                    logger.warn("Unable to open an additional flow to {}", endpointId, t);
+                }
+            } finally {
+                flowStorage.scaleOutCompleted(endpointId);
+            }
+        });
+    }
+
     private class FlowBuilder implements Flow.Builder {
 
         private Consumer<Flow> onSuccess;
@@ -325,7 +671,7 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
         private final String host;
         private final InetSocketAddress remoteAddress;
         private String networkInterfaceName;
-        private int port;
+        private int port = -1;
         private Transport transport;
 
         private FlowBuilder(final String host) {
@@ -380,20 +726,62 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
 
         @Override
         public CompletableFuture<Flow> connect() throws IllegalArgumentException {
-            final int port = this.port == -1 ? defaultPort() : this.port;
+            final CompletableFuture<Flow> flowFuture;
+            if (remoteAddress != null || resolver == null || isIpAddress(host)) {
+                final int port = this.port == -1 ? defaultPort() : this.port;
+                final Transport transportToUse = transport == null ? Transport.udp : transport;
+                final InetSocketAddress remoteAddress = this.remoteAddress != null ?
+                        this.remoteAddress :
+                        new InetSocketAddress(host, port);
+                flowFuture = connect(transportToUse, remoteAddress);
+            } else {
+                // RFC 3263 - find out which transport, ip and port to use through DNS
+                // and then try the targets in order until one of them works out.
+                flowFuture = resolver.resolve(host, port, transport)
+                        .thenCompose(targets -> connect(targets, 0))
+                        .exceptionally(this::resolveFailed);
+            }
 
-            // TODO: need to ensure that the host is an actual IP-address and if not
-            // then we should resolve it or perhaps we should force the user to actually
-            // resolve it first so flows only connect to IP addresses?
-            final Transport transportToUse = transport == null ? Transport.udp : transport;
-            final InetSocketAddress remoteAddress = this.remoteAddress != null ?
-                    this.remoteAddress :
-                    new InetSocketAddress(host, port);
+            final Consumer<Flow> fn = f -> {
+                if (f.isValid() && onSuccess != null) {
+                    onSuccess.accept(f);
+                } else if (f.isCancelled() && onCancelled != null) {
+                    onCancelled.accept(f);
+                } else if (f.isFailed() && onFailure != null) {
+                    onFailure.accept(f);
+                }
+            };
+
+            flowFuture.thenAccept(fn);
+            return flowFuture;
+        }
+
+        /**
+         * Connect to the given target and if that fails, move on to the next one.
+         */
+        private CompletableFuture<Flow> connect(final List<SipTarget> targets, final int index) {
+            final SipTarget target = targets.get(index);
+            return connect(target.getTransport(), target.getAddress()).thenCompose(flow -> {
+                if (flow.isFailed() && !flow.isCancelled() && index + 1 < targets.size()) {
+                    logger.debug("Unable to connect to {}, trying next target", target);
+                    return connect(targets, index + 1);
+                }
+                return CompletableFuture.completedFuture(flow);
+            });
+        }
 
+        private CompletableFuture<Flow> connect(final Transport transportToUse, final InetSocketAddress remoteAddress) {
             // TODO: allow to choose the network interface to use as well.
-            final ListeningPoint lp = network.getListeningPoint(transportToUse).orElseThrow(() ->
-                    new RuntimeException("Guess we don't support the transport or something. "
-                            + "Create failed FlowFuture here instead"));
+            final Optional<ListeningPoint> listeningPoint = network.getListeningPoint(transportToUse);
+            if (!listeningPoint.isPresent()) {
+                // e.g. DNS pointed us to a transport we don't listen on. That is just
+                // another failed attempt so that the next target, if any, gets a go.
+                final ConnectionId connectionId =
+                        ConnectionId.create(transportToUse, new InetSocketAddress(0), remoteAddress);
+                return CompletableFuture.completedFuture(new FailureFlow(connectionId,
+                        new IllegalTransportException("No listening point for " + transportToUse)));
+            }
+            final ListeningPoint lp = listeningPoint.get();
 
             final ConnectionId connectionId =
                     ConnectionId.create(transportToUse, lp.getLocalAddress(), remoteAddress);
@@ -406,9 +794,10 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
             final ConnectionEndpointId endpointId = ConnectionEndpointId.create(transportToUse, remoteAddress);
             final FlowActor actor = flowStorage.get(endpointId);
             if (actor != null) {
-                final CompletableFuture<Flow> future = CompletableFuture.completedFuture(actor.flow());
-                invokeCallbackDirectly(actor.flow(), onSuccess);
-                return future;
+                if (transportToUse.isReliable()) {
+                    balanceFlows(lp, endpointId, remoteAddress);
+                }
+                return CompletableFuture.completedFuture(actor.flow());
             }
 
             /**
@@ -426,29 +815,29 @@ public class DefaultTransportLayer extends InboundOutboundHandlerAdapter impleme
                 return flow;
             };
 
-            final Consumer<Flow> fn = f -> {
-                if (f.isValid() && onSuccess != null) {
-                    onSuccess.accept(f);
-                } else if (f.isCancelled() && onCancelled != null) {
-                    onCancelled.accept(f);
-                } else if (f.isFailed() && onFailure != null) {
-                    onFailure.accept(f);
-                }
-            };
-
             final CompletableFuture<Connection> connectionFuture = lp.connect(remoteAddress);
-            final CompletableFuture<Flow> flowFuture = connectionFuture.handle(bfn);
-            flowFuture.thenAccept(fn);
-            return flowFuture;
+            return connectionFuture.handle(bfn);
         }
 
-        private void invokeCallbackDirectly(final Flow flow, final Consumer<Flow> callback) {
-            try {
-                callback.accept(flow);
-            } catch (final Throwable t) {
-                // TODO: do something about this... guess we should propagate the exception up the chain or something
-                t.printStackTrace();
-            }
+        /**
+         * We never got as far as to an actual address so there is no real connection id
+         * for the failed flow. Use the wildcard address with the port we were asked
+         * to use instead.
+         */
+        private Flow resolveFailed(final Throwable t) {
+            final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            logger.info("Unable to resolve {}: {}", host, cause.getMessage());
+
+            final Transport transportToUse = transport == null ? Transport.udp : transport;
+            final InetSocketAddress remote = new InetSocketAddress(this.port == -1 ? defaultPort() : this.port);
+            final InetSocketAddress local = network.getListeningPoint(transportToUse)
+                    .map(ListeningPoint::getLocalAddress)
+                    .orElse(new InetSocketAddress(0));
+            return new FailureFlow(ConnectionId.create(transportToUse, local, remote), cause);
+        }
+
+        private boolean isIpAddress(final String host) {
+            return NetUtil.isValidIpV4Address(host) || NetUtil.isValidIpV6Address(host);
         }
 
         /**
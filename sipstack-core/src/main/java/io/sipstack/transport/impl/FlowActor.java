@@ -1,7 +1,9 @@
 package io.sipstack.transport.impl;
 
+import io.netty.channel.ChannelHandlerContext;
 import io.sipstack.actor.Actor;
 import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.SipTimer;
 import io.sipstack.transport.Flow;
 import io.sipstack.transport.FlowId;
 
@@ -49,4 +51,84 @@ public interface FlowActor extends Actor {
     FlowId id();
 
     Connection connection();
+
+    /**
+     * Called by the transport layer when the underlying connection went from writable to
+     * unwritable or back again.
+     *
+     * @param writable
+     * @param now the time of the change, in millis.
+     */
+    void onWritabilityChanged(boolean writable, long now);
+
+    /**
+     * @return whether the flow currently is writable, i.e., not back-pressured.
+     */
+    default boolean isWritable() {
+        return getBackPressuredSince() == 0;
+    }
+
+    /**
+     * @return the time (in millis) when the flow became unwritable or zero if it
+     * currently is writable.
+     */
+    long getBackPressuredSince();
+
+    /**
+     * @return how busy this flow currently is, which is kept up to date by the
+     * transport layer as messages flow across it.
+     */
+    FlowLoad load();
+
+    /**
+     * The traffic counters of this flow, which are only ever updated by the transport
+     * layer as it reads and writes across the flow.
+     */
+    FlowCounters counters();
+
+    /**
+     * Check whether this flow has been idle for so long that one of its idle timers
+     * should fire, which is {@link SipTimer#Timeout} for the max life time of the flow,
+     * {@link SipTimer#Timeout1} for the initial idle timeout and {@link SipTimer#Timeout2}
+     * for when it is time to start sending keep-alive traffic.
+     *
+     * This is called by the {@link FlowIdleSweeper} from whatever thread it happens to
+     * run on so it must only look at state that is safe to read from any thread.
+     *
+     * @param now
+     * @return the timer that should fire or null if none.
+     */
+    SipTimer checkIdleTimers(long now);
+
+    /**
+     * The context of the channel the flow is bound to. All events for the flow, no matter
+     * which channel they came in on, are processed on the event loop of this channel and
+     * everything the flow writes is written to it.
+     *
+     * @return the context or null if the flow hasn't seen any traffic yet.
+     */
+    ChannelHandlerContext channelContext();
+
+    /**
+     * Bind the flow to the given channel unless it already is bound to one. A flow is
+     * bound to the channel it first is seen on and then stays there for the rest of its
+     * life. This matters for UDP with several channels sharing the same local address
+     * (SO_REUSEPORT) since all those channels produce the very same connection id
+     * and therefore the very same flow.
+     *
+     * This may be called from any thread.
+     *
+     * @param ctx
+     * @return the context of the channel the flow is bound to, which is not necessarily
+     *         the one given.
+     */
+    ChannelHandlerContext bindChannelContext(ChannelHandlerContext ctx);
+
+    /**
+     * The actor must only ever be invoked on the event loop of its channel and any
+     * event that originates from another thread is handed over through the mailbox.
+     *
+     * @return
+     */
+    FlowMailbox mailbox();
 }
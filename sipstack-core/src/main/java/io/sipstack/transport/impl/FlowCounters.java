@@ -0,0 +1,135 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
+import io.sipstack.transport.FlowStats;
+
+/**
+ * The traffic counters of a flow, which is what {@link FlowStats} snapshots are taken from.
+ *
+ * Since a flow only ever is invoked on the event loop of the channel it is bound to
+ * (see {@link FlowActor#bindChannelContext}), and that is also where its messages are
+ * encoded, there is only a single writer, which is why the counters are plain volatile
+ * fields that are simply incremented (no CAS or locking needed). Anyone can read them
+ * but a snapshot isn't atomic across the counters, which is fine for statistics.
+ *
+ * The bytes are counted as framed and as encoded, respectively, so that we never have
+ * to encode a message just to find out how big it is. The bytes out are therefore fed
+ * separately through {@link #onBytesOut(int)} once the encoder knows the size.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowCounters {
+
+    private volatile long messagesIn;
+    private volatile long messagesOut;
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+    private volatile long requestsIn;
+    private volatile long responsesIn;
+    private volatile long requestsOut;
+    private volatile long responsesOut;
+    private volatile long pingRtt = -1;
+    private volatile long backPressuredTime;
+
+    /**
+     * Register an event read off of the flow.
+     */
+    public void onRead(final IOEvent event) {
+        if (event.isSipMessageIOEvent()) {
+            final SipMessageIOEvent sipEvent = event.toSipMessageIOEvent();
+            bytesIn += sipEvent.frameLength();
+            if (sipEvent.message().isRequest()) {
+                ++requestsIn;
+            } else {
+                ++responsesIn;
+            }
+        } else if (!event.isPingMessageIOEvent() && !event.isPongMessageIOEvent()) {
+            return;
+        }
+
+        ++messagesIn;
+    }
+
+    /**
+     * Register an event written to the flow.
+     */
+    public void onWrite(final Object msg) {
+        if (!(msg instanceof IOEvent)) {
+            return;
+        }
+
+        final IOEvent event = (IOEvent) msg;
+        if (event.isSipMessageIOEvent()) {
+            if (event.toSipMessageIOEvent().message().isRequest()) {
+                ++requestsOut;
+            } else {
+                ++responsesOut;
+            }
+        } else if (event.isSipMessageBuilderIOEvent()) {
+            if (event.toSipMessageBuilderIOEvent().getBuilder().isSipRequestBuilder()) {
+                ++requestsOut;
+            } else {
+                ++responsesOut;
+            }
+        } else if (!event.isPingMessageIOEvent() && !event.isPongMessageIOEvent()) {
+            return;
+        }
+
+        ++messagesOut;
+    }
+
+    /**
+     * Register the size of a SIP message written to the flow, once encoded.
+     */
+    public void onBytesOut(final int bytes) {
+        bytesOut += bytes;
+    }
+
+    public void onPingRtt(final long rtt) {
+        pingRtt = rtt;
+    }
+
+    /**
+     * Register that the flow was back-pressured for the given amount of time.
+     */
+    public void onBackPressured(final long time) {
+        backPressuredTime += time;
+    }
+
+    public long getMessagesIn() {
+        return messagesIn;
+    }
+
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @param backPressuredSince when the flow became back-pressured or zero if it currently
+     *                           isn't. If it is, the time so far is included.
+     * @param now
+     */
+    public FlowStats snapshot(final long backPressuredSince, final long now) {
+        final long ongoing = backPressuredSince == 0 ? 0 : Math.max(0, now - backPressuredSince);
+        return FlowStats.withMessagesIn(messagesIn)
+                .withMessagesOut(messagesOut)
+                .withBytesIn(bytesIn)
+                .withBytesOut(bytesOut)
+                .withRequestsIn(requestsIn)
+                .withResponsesIn(responsesIn)
+                .withRequestsOut(requestsOut)
+                .withResponsesOut(responsesOut)
+                .withPingRtt(pingRtt)
+                .withBackPressuredTime(backPressuredTime + ongoing)
+                .build();
+    }
+}
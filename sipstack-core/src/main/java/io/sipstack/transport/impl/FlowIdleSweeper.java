@@ -0,0 +1,144 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.actor.InternalScheduler;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.SipTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Rather than every flow having its own life-time and idle timers, which with a few hundred
+ * thousand UDP flows means a few hundred thousand timers that constantly are cancelled and
+ * re-scheduled as traffic comes and goes, a single sweeper walks through all the flows
+ * and asks each one of them whether it has been idle for too long (see
+ * {@link FlowActor#checkIdleTimers(long)}). Only for those flows that actually are idle
+ * is a timer event generated.
+ *
+ * The sweeper runs once every {@link #TICK} and every time it only walks through a
+ * segment of the flows, big enough for all flows to have been checked once within
+ * the configured sweep period. That way the work is spread out evenly and no single
+ * tick has to walk through every flow.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowIdleSweeper implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowIdleSweeper.class);
+
+    /**
+     * How often the sweeper runs, which is the resolution of the scheduler anyway.
+     */
+    public static final Duration TICK = Duration.ofSeconds(1);
+
+    /**
+     * No point in walking through fewer flows than this per tick.
+     */
+    private static final int MIN_SEGMENT_SIZE = 128;
+
+    private final FlowStorage storage;
+
+    private final Clock clock;
+
+    private final InternalScheduler scheduler;
+
+    private final long ticksPerPeriod;
+
+    private final BiConsumer<FlowActor, SipTimer> onIdle;
+
+    /**
+     * Where we left off the last time. Only ever touched by the sweeper itself and
+     * it never runs concurrently with itself.
+     */
+    private Iterator<FlowActor> cursor;
+
+    private volatile boolean running;
+
+    /**
+     * @param storage
+     * @param clock
+     * @param scheduler
+     * @param period the time within which all flows must have been checked.
+     * @param onIdle called for every flow that has been idle for long enough for the given
+     *               timer to fire.
+     */
+    public FlowIdleSweeper(final FlowStorage storage, final Clock clock, final InternalScheduler scheduler,
+                           final Duration period, final BiConsumer<FlowActor, SipTimer> onIdle) {
+        this.storage = ensureNotNull(storage, "The flow storage cannot be null");
+        this.clock = ensureNotNull(clock, "The clock cannot be null");
+        this.scheduler = ensureNotNull(scheduler, "The scheduler cannot be null");
+        this.onIdle = ensureNotNull(onIdle, "The idle function cannot be null");
+        ensureNotNull(period, "The sweep period cannot be null");
+        this.ticksPerPeriod = Math.max(1, period.toMillis() / TICK.toMillis());
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            scheduler.schedule(this, TICK);
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        if (!running) {
+            return;
+        }
+
+        try {
+            sweep();
+        } catch (final Throwable t) {
+            logger.warn("Unable to sweep flows for idle timeouts", t);
+        } finally {
+            if (running) {
+                scheduler.schedule(this, TICK);
+            }
+        }
+    }
+
+    /**
+     * Check the next segment of flows.
+     *
+     * @return the number of flows that had been idle for too long.
+     */
+    public int sweep() {
+        final int count = storage.count();
+        if (count == 0) {
+            cursor = null;
+            return 0;
+        }
+
+        final int segment = (int) Math.max(MIN_SEGMENT_SIZE, (count + ticksPerPeriod - 1) / ticksPerPeriod);
+        final long now = clock.getCurrentTimeMillis();
+        if (cursor == null) {
+            cursor = storage.iterator();
+        }
+
+        int idle = 0;
+        for (int i = 0; i < segment && cursor.hasNext(); ++i) {
+            final FlowActor actor = cursor.next();
+            final SipTimer timer = actor.checkIdleTimers(now);
+            if (timer != null) {
+                ++idle;
+                onIdle.accept(actor, timer);
+            }
+        }
+
+        if (!cursor.hasNext()) {
+            // start over on the next tick so no flow is checked twice in the same tick,
+            // and so a segment that ended exactly on the last flow doesn't waste a tick
+            cursor = null;
+        }
+
+        return idle;
+    }
+}
@@ -0,0 +1,161 @@
+package io.sipstack.transport.impl;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how busy a flow is, which is what the {@link FlowStorage} uses
+ * to decide which flow to use when there are several flows to the same remote
+ * endpoint and whether or not yet another flow should be opened.
+ *
+ * The load is made up of two things: the number of writes that have been handed
+ * to the channel but haven't completed yet (which goes up when the remote side,
+ * or the network, isn't keeping up) and the number of messages (in and out)
+ * per second.
+ *
+ * The messages per second is simply the number of messages seen within the
+ * current second, or the previous one if that is higher, so that the rate doesn't
+ * drop to zero just because a new second started.
+ *
+ * Updated from whatever thread happens to process an event for the flow and
+ * read by everyone looking for a flow so everything in here is lock free.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowLoad implements ChannelFutureListener {
+
+    private final AtomicInteger outstandingWrites = new AtomicInteger();
+
+    /**
+     * The second (upper 32 bits) and the number of messages within that
+     * second (lower 32 bits).
+     */
+    private final AtomicLong window = new AtomicLong();
+
+    private volatile int previousRate;
+
+    private volatile long lastMessage;
+
+    /**
+     * Whether this flow was opened because the other flows to the same
+     * remote endpoint were too busy.
+     */
+    private volatile boolean extra;
+
+    /**
+     * When this flow was retired, i.e., when we stopped directing new traffic
+     * to it since it is about to be closed, or zero if it isn't retiring.
+     */
+    private volatile long retiredSince;
+
+    /**
+     * Register that a message was sent or received across the flow.
+     *
+     * @param now
+     */
+    public void onMessage(final long now) {
+        final long second = now / 1000;
+        while (true) {
+            final long current = window.get();
+            final long currentSecond = current >>> 32;
+            final long next = currentSecond == second ? current + 1 : second << 32 | 1;
+            if (window.compareAndSet(current, next)) {
+                if (currentSecond != second) {
+                    previousRate = currentSecond == second - 1 ? (int) current : 0;
+                }
+                break;
+            }
+        }
+        lastMessage = now;
+    }
+
+    /**
+     * Register a write that was just handed to the channel. The write is
+     * outstanding until the future completes, successfully or not.
+     *
+     * @param future
+     */
+    public void onWrite(final ChannelFuture future) {
+        outstandingWrites.incrementAndGet();
+        future.addListener(this);
+    }
+
+    @Override
+    public void operationComplete(final ChannelFuture future) {
+        outstandingWrites.decrementAndGet();
+    }
+
+    public int getOutstandingWrites() {
+        return outstandingWrites.get();
+    }
+
+    public int getMessagesPerSecond(final long now) {
+        final long second = now / 1000;
+        final long current = window.get();
+        final long currentSecond = current >>> 32;
+        if (currentSecond == second) {
+            return Math.max(previousRate, (int) current);
+        }
+        if (currentSecond == second - 1) {
+            return (int) current;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the time of the last message across this flow or zero if there
+     *         hasn't been any.
+     */
+    public long getLastMessage() {
+        return lastMessage;
+    }
+
+    public boolean isExtra() {
+        return extra;
+    }
+
+    public void markAsExtra() {
+        extra = true;
+    }
+
+    public boolean isRetiring() {
+        return retiredSince != 0;
+    }
+
+    /**
+     * @return when this flow was retired or zero if it isn't retiring.
+     */
+    public long getRetiredSince() {
+        return retiredSince;
+    }
+
+    public void retire(final long now) {
+        retiredSince = now;
+    }
+
+    /**
+     * The load went up again before a retiring flow was closed so put it back to use.
+     */
+    public void reinstate() {
+        retiredSince = 0;
+    }
+
+    /**
+     * Order two flows by how busy they are. Outstanding writes are a direct
+     * sign of a flow not keeping up so they are considered first and only if
+     * they are the same do we look at the message rate.
+     *
+     * @return a negative number if a is less busy than b, a positive number if
+     *         b is less busy than a and zero if they are equally busy.
+     */
+    public static int compare(final FlowLoad a, final FlowLoad b, final long now) {
+        final int writes = Integer.compare(a.getOutstandingWrites(), b.getOutstandingWrites());
+        if (writes != 0) {
+            return writes;
+        }
+        return Integer.compare(a.getMessagesPerSecond(now), b.getMessagesPerSecond(now));
+    }
+}
@@ -0,0 +1,114 @@
+package io.sipstack.transport.impl;
+
+import io.netty.util.internal.PlatformDependent;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link FlowActor} is only ever invoked on the event loop of the channel it is
+ * bound to, which is what allows the actor to run without any locking. Most events
+ * are generated on that event loop anyway (everything read off of the channel) but
+ * some aren't, such as timer events, the idle sweeper and, for UDP with several
+ * channels sharing the same port, traffic that came in on, or is written to, one of
+ * the other channels. Those are handed over to the event loop through the mailbox.
+ *
+ * Any thread may post to the mailbox but only the event loop drains it and the
+ * first event posted to an empty mailbox is the one that asks the event loop to
+ * drain it. The mailbox is drained in batches so that a flow that e.g. keeps
+ * getting events from other threads doesn't starve the rest of the channels on
+ * the same event loop.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowMailbox {
+
+    /**
+     * The max number of events processed every time the mailbox is drained.
+     */
+    public static final int BATCH_SIZE = 64;
+
+    /**
+     * Upstream events are queued as is and downstream events are wrapped in a
+     * {@link Downstream} so that the common case doesn't allocate anything extra.
+     */
+    private final Queue<Object> events = PlatformDependent.newMpscQueue();
+
+    /**
+     * Whether a drain of this mailbox already has been scheduled on the event loop.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Post a new upstream event to the mailbox.
+     *
+     * @param event
+     * @return true if the caller must schedule a drain of the mailbox on the
+     *         event loop, false if that already has been done.
+     */
+    public boolean post(final IOEvent event) {
+        return post(true, event);
+    }
+
+    /**
+     * Post a new event to the mailbox.
+     *
+     * @param upstream whether the event is travelling upstream (read off of the network,
+     *                 timers etc) or downstream (written to the flow).
+     * @param event
+     * @return true if the caller must schedule a drain of the mailbox on the
+     *         event loop, false if that already has been done.
+     */
+    public boolean post(final boolean upstream, final IOEvent event) {
+        events.offer(upstream ? event : new Downstream(event));
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Drain at most {@link #BATCH_SIZE} events from the mailbox. Must only be called
+     * from the event loop of the flow and only after {@link #post(boolean, IOEvent)}
+     * asked for it.
+     *
+     * @param consumer
+     * @return true if there are more events left in the mailbox, in which case the
+     *         caller must schedule another drain.
+     */
+    public boolean drain(final Consumer consumer) {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            final Object o = events.poll();
+            if (o == null) {
+                break;
+            }
+
+            if (o instanceof Downstream) {
+                consumer.accept(false, ((Downstream) o).event);
+            } else {
+                consumer.accept(true, (IOEvent) o);
+            }
+        }
+
+        scheduled.set(false);
+
+        // someone may have posted after we stopped polling but before we cleared
+        // the flag, in which case they didn't schedule a drain so we have to.
+        return !events.isEmpty() && scheduled.compareAndSet(false, true);
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(boolean upstream, IOEvent event);
+    }
+
+    private static final class Downstream {
+        private final IOEvent event;
+
+        private Downstream(final IOEvent event) {
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.sipstack.transport.impl;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.sipstack.netty.codec.sip.Clock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Aggregates the traffic counters of all the flows into a {@link MetricRegistry}, which
+ * is mainly there for capacity planning: how many flows we have, how much traffic they
+ * carry, how many of them are back-pressured right now and which flows are the busiest.
+ *
+ * Nothing is done on the path of the actual traffic. The counters are summed up when the
+ * gauges are read, which is typically done by a reporter every so often. All the gauges
+ * share the same summary, which is cached for a second, so reading all of them only walks
+ * through the flows once.
+ *
+ * Note that the totals are for the flows that currently exist. Once a flow is gone, so
+ * is its traffic.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlowMetrics {
+
+    public static final String PREFIX = "sipstack.flows";
+
+    public static final int DEFAULT_TOP_N = 10;
+
+    private final FlowStorage storage;
+
+    private final Clock clock;
+
+    private final int topN;
+
+    private final CachedGauge<Summary> summary = new CachedGauge<Summary>(1, TimeUnit.SECONDS) {
+        @Override
+        protected Summary loadValue() {
+            return summarize();
+        }
+    };
+
+    public FlowMetrics(final FlowStorage storage, final Clock clock, final int topN) {
+        this.storage = ensureNotNull(storage, "The flow storage cannot be null");
+        this.clock = ensureNotNull(clock, "The clock cannot be null");
+        ensureArgument(topN > 0, "The number of busiest flows to report must be greater than zero");
+        this.topN = topN;
+    }
+
+    public void register(final MetricRegistry registry) {
+        registry.register(MetricRegistry.name(PREFIX, "count"), (Gauge<Integer>) storage::count);
+        registry.register(MetricRegistry.name(PREFIX, "messages", "in"), (Gauge<Long>) () -> summary.getValue().messagesIn);
+        registry.register(MetricRegistry.name(PREFIX, "messages", "out"), (Gauge<Long>) () -> summary.getValue().messagesOut);
+        registry.register(MetricRegistry.name(PREFIX, "bytes", "in"), (Gauge<Long>) () -> summary.getValue().bytesIn);
+        registry.register(MetricRegistry.name(PREFIX, "bytes", "out"), (Gauge<Long>) () -> summary.getValue().bytesOut);
+        registry.register(MetricRegistry.name(PREFIX, "backpressured"), (Gauge<Integer>) () -> summary.getValue().backPressured);
+        registry.register(MetricRegistry.name(PREFIX, "busiest"), (Gauge<List<String>>) () -> summary.getValue().busiest);
+    }
+
+    /**
+     * Walk through all the flows and sum up their counters.
+     */
+    Summary summarize() {
+        final long now = clock.getCurrentTimeMillis();
+        final Summary summary = new Summary();
+
+        // min-heap so that the least busy of the busiest flows is the one to go
+        final PriorityQueue<Busy> busiest = new PriorityQueue<>(topN + 1);
+
+        final Iterator<FlowActor> flows = storage.iterator();
+        while (flows.hasNext()) {
+            final FlowActor actor = flows.next();
+            final FlowCounters counters = actor.counters();
+            summary.messagesIn += counters.getMessagesIn();
+            summary.messagesOut += counters.getMessagesOut();
+            summary.bytesIn += counters.getBytesIn();
+            summary.bytesOut += counters.getBytesOut();
+            if (actor.getBackPressuredSince() != 0) {
+                ++summary.backPressured;
+            }
+
+            final int rate = actor.load().getMessagesPerSecond(now);
+            if (rate > 0 && (busiest.size() < topN || rate > busiest.peek().rate)) {
+                busiest.offer(new Busy(actor, rate));
+                if (busiest.size() > topN) {
+                    busiest.poll();
+                }
+            }
+        }
+
+        final List<Busy> sorted = new ArrayList<>(busiest);
+        Collections.sort(sorted, Collections.reverseOrder());
+        final List<String> report = new ArrayList<>(sorted.size());
+        sorted.forEach(b -> report.add(b.actor.connection().id() + " " + b.rate + " msg/s"));
+        summary.busiest = Collections.unmodifiableList(report);
+        return summary;
+    }
+
+    static final class Summary {
+        long messagesIn;
+        long messagesOut;
+        long bytesIn;
+        long bytesOut;
+        int backPressured;
+        List<String> busiest = Collections.emptyList();
+    }
+
+    private static final class Busy implements Comparable<Busy> {
+        private final FlowActor actor;
+        private final int rate;
+
+        private Busy(final FlowActor actor, final int rate) {
+            this.actor = actor;
+            this.rate = rate;
+        }
+
+        @Override
+        public int compareTo(final Busy other) {
+            return Integer.compare(rate, other.rate);
+        }
+    }
+}
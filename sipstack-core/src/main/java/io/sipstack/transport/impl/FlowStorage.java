@@ -5,6 +5,7 @@ import io.sipstack.netty.codec.sip.ConnectionEndpointId;
 import io.sipstack.netty.codec.sip.ConnectionId;
 import io.sipstack.transport.FlowId;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -62,4 +63,40 @@ public interface FlowStorage {
     void remove(ConnectionId id);
 
     int count();
+
+    /**
+     * Walk through all the flows. The iterator never throws a
+     * {@link java.util.ConcurrentModificationException} but may or may not see
+     * flows that are added or removed after it was created, which is what allows
+     * for the flows to be walked through a little at a time, as the
+     * {@link FlowIdleSweeper} does.
+     *
+     * @return
+     */
+    Iterator<FlowActor> iterator();
+
+    /**
+     * Check whether all the flows to the remote endpoint are so busy that another
+     * flow should be opened to it. If so, the caller is expected to open a new flow
+     * and then call {@link #scaleOutCompleted(ConnectionEndpointId)}, whether or not
+     * that succeeded. Until then, this method will return false for the same endpoint
+     * so that we only ever open one additional flow at a time.
+     *
+     * @param id
+     * @return true if the caller should open another flow to the remote endpoint.
+     */
+    boolean tryScaleOut(ConnectionEndpointId id);
+
+    void scaleOutCompleted(ConnectionEndpointId id);
+
+    /**
+     * If the load on the flows to the remote endpoint has dropped, retire one of the
+     * flows that were opened because of a previous scale out. A retired flow isn't
+     * handed out anymore but is only closed once it has been idle for a while so
+     * that any transactions still using it get to finish.
+     *
+     * @param id
+     * @return the retired flows that now are idle and should be closed by the caller.
+     */
+    List<FlowActor> retireFlows(ConnectionEndpointId id);
 }
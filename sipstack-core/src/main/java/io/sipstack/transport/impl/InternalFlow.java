@@ -23,10 +23,18 @@ public abstract class InternalFlow implements Flow {
 
     private final FlowState state;
 
+    private final boolean writable;
+
     protected InternalFlow(final ConnectionId id, final Optional<Connection> connection, final FlowState state) {
+        this(id, connection, state, connection.isPresent());
+    }
+
+    protected InternalFlow(final ConnectionId id, final Optional<Connection> connection, final FlowState state,
+                           final boolean writable) {
         this.id = id;
         this.connection = connection;
         this.state = state;
+        this.writable = writable;
     }
 
     public Optional<Connection> connection() {
@@ -37,6 +45,11 @@ public abstract class InternalFlow implements Flow {
         return state;
     }
 
+    @Override
+    public boolean isWritable() {
+        return writable;
+    }
+
     @Override
     public ConnectionId id() {
         return id;
@@ -0,0 +1,210 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.actor.InternalScheduler;
+import io.sipstack.config.RateLimitConfiguration;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.ConnectionEndpointId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * Keeps a pair of token buckets, one for all messages and one for new transactions,
+ * for every remote endpoint that is sending us traffic (see {@link RateLimitConfiguration}).
+ *
+ * The buckets are implemented as the "generic cell rate algorithm", which is a token bucket
+ * that only needs to keep track of a single timestamp: when the bucket would be full again.
+ * Taking a token pushes that time forward by the time it takes to refill one token and
+ * if it ends up further into the future than the burst allows, the bucket is empty. Since
+ * it is a single value, taking a token (and refilling the bucket) is a single CAS and no
+ * locking is needed even though the same remote endpoint may be read on several event
+ * loops, e.g. when it is sending to more than one of our UDP listening points.
+ *
+ * A bucket that has been refilled to the top is no different from a brand new one so
+ * those are evicted every now and then. Otherwise, anyone spoofing source addresses
+ * could make us keep buckets around for ever.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class RateLimiter implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    /**
+     * How often we look for buckets to evict.
+     */
+    public static final Duration EVICTION_INTERVAL = Duration.ofSeconds(10);
+
+    private static final long MICROS_PER_SECOND = 1000000;
+
+    private final Clock clock;
+
+    /**
+     * The time, in micro seconds, it takes to refill one token or zero if the
+     * bucket isn't checked.
+     */
+    private final long messageInterval;
+
+    private final long messageTolerance;
+
+    private final long transactionInterval;
+
+    private final long transactionTolerance;
+
+    private final ConcurrentMap<ConnectionEndpointId, Buckets> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong limited = new AtomicLong();
+
+    private volatile InternalScheduler scheduler;
+
+    public RateLimiter(final RateLimitConfiguration config, final Clock clock) {
+        ensureNotNull(config, "The configuration cannot be null");
+        this.clock = ensureNotNull(clock, "The clock cannot be null");
+        this.messageInterval = interval(config.getMessagesPerSecond());
+        this.messageTolerance = tolerance(messageInterval, config.getMessageBurst());
+        this.transactionInterval = interval(config.getTransactionsPerSecond());
+        this.transactionTolerance = tolerance(transactionInterval, config.getTransactionBurst());
+    }
+
+    private static long interval(final int perSecond) {
+        return perSecond > 0 ? Math.max(1, MICROS_PER_SECOND / perSecond) : 0;
+    }
+
+    private static long tolerance(final long interval, final int burst) {
+        return interval * Math.max(0, burst - 1);
+    }
+
+    /**
+     * Start evicting idle buckets.
+     */
+    public void start(final InternalScheduler scheduler) {
+        this.scheduler = ensureNotNull(scheduler, "The scheduler cannot be null");
+        scheduler.schedule(this, EVICTION_INTERVAL);
+    }
+
+    public void stop() {
+        scheduler = null;
+    }
+
+    @Override
+    public void run() {
+        final InternalScheduler scheduler = this.scheduler;
+        if (scheduler == null) {
+            return;
+        }
+
+        try {
+            evictIdle();
+        } finally {
+            scheduler.schedule(this, EVICTION_INTERVAL);
+        }
+    }
+
+    /**
+     * @return the total number of messages that have exceeded the limits so far.
+     */
+    public long getLimitedCount() {
+        return limited.get();
+    }
+
+    /**
+     * @return the number of remote endpoints we currently are keeping buckets for.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Take a token for a message from the remote endpoint and, if the message is starting
+     * a new transaction, one for the transaction as well.
+     *
+     * @param endpoint
+     * @param newTransaction
+     * @return true if the message is within the limits, false if it should be dealt with
+     *         according to the configured policy.
+     */
+    public boolean tryAcquire(final ConnectionEndpointId endpoint, final boolean newTransaction) {
+        final long now = clock.getCurrentTimeMillis() * 1000;
+        Buckets b = buckets.get(endpoint);
+        if (b == null) {
+            // only the first message from an endpoint ever takes the slow path
+            b = buckets.computeIfAbsent(endpoint, e -> new Buckets());
+        }
+
+        final boolean ok = tryAcquire(b.messages, now, messageInterval, messageTolerance)
+                && (!newTransaction || tryAcquire(b.transactions, now, transactionInterval, transactionTolerance));
+
+        if (ok) {
+            if (b.limited) {
+                b.limited = false;
+                logger.info("Rate limit: {} is within its limits again", endpoint);
+            }
+            return true;
+        }
+
+        if (!b.limited) {
+            b.limited = true;
+            logger.warn("Rate limit: {} is sending more than it is allowed to", endpoint);
+        }
+
+        limited.incrementAndGet();
+        return false;
+    }
+
+    private static boolean tryAcquire(final AtomicLong full, final long now, final long interval,
+                                      final long tolerance) {
+        if (interval == 0) {
+            return true;
+        }
+
+        while (true) {
+            final long current = full.get();
+            final long base = Math.max(current, now);
+            if (base - now > tolerance) {
+                return false;
+            }
+
+            if (full.compareAndSet(current, base + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get rid of all buckets that have been refilled to the top. Note that someone may
+     * be just about to take a token from a bucket that is being evicted, in which case
+     * that single token is lost, which is fine.
+     *
+     * @return the number of buckets evicted.
+     */
+    public int evictIdle() {
+        final long now = clock.getCurrentTimeMillis() * 1000;
+        final int before = buckets.size();
+        buckets.values().removeIf(b -> b.messages.get() <= now && b.transactions.get() <= now);
+        return before - buckets.size();
+    }
+
+    private static final class Buckets {
+
+        /**
+         * When the bucket for messages will be full again, in micro seconds.
+         */
+        private final AtomicLong messages = new AtomicLong();
+
+        /**
+         * When the bucket for transactions will be full again, in micro seconds.
+         */
+        private final AtomicLong transactions = new AtomicLong();
+
+        /**
+         * Only there so that we don't log every single message that exceeds the limits.
+         */
+        private volatile boolean limited;
+    }
+}
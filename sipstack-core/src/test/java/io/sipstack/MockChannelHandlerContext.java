@@ -1,6 +1,7 @@
 package io.sipstack;
 
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
@@ -11,6 +12,7 @@ import io.netty.channel.ChannelPromise;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import io.pkts.packet.sip.SipMessage;
 import io.sipstack.net.InboundOutboundHandlerAdapter;
 import io.sipstack.netty.codec.sip.event.IOEvent;
@@ -34,8 +36,19 @@ public class MockChannelHandlerContext implements ChannelHandlerContext {
 
     private AtomicReference<InboundOutboundHandlerAdapter> handler = new AtomicReference<>();
 
+    private final EventExecutor executor;
+
     public MockChannelHandlerContext(final InboundOutboundHandlerAdapter handler) {
+        this(handler, ImmediateEventExecutor.INSTANCE);
+    }
+
+    /**
+     * @param executor the event loop of the channel, which is useful for tests that need
+     *                 to know what happens when something is done on another event loop.
+     */
+    public MockChannelHandlerContext(final InboundOutboundHandlerAdapter handler, final EventExecutor executor) {
         this.handler.set(handler);
+        this.executor = executor;
     }
 
     /**
@@ -82,7 +95,9 @@ public class MockChannelHandlerContext implements ChannelHandlerContext {
 
     @Override
     public EventExecutor executor() {
-        return null;
+        // unless told otherwise, everything in the unit tests is executed as if
+        // we were on the event loop
+        return executor;
     }
 
     @Override
@@ -392,7 +407,7 @@ public class MockChannelHandlerContext implements ChannelHandlerContext {
 
     @Override
     public ByteBufAllocator alloc() {
-        return null;
+        return UnpooledByteBufAllocator.DEFAULT;
     }
 
     @Override
@@ -0,0 +1,333 @@
+package io.sipstack.transport.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.SipResponse;
+import io.sipstack.config.AdmissionControlConfiguration;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.TransactionKey;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class AdmissionControlHandlerTest {
+
+    private final InetSocketAddress remote = new InetSocketAddress("10.0.0.1", 5060);
+
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private final AtomicInteger transactions = new AtomicInteger();
+
+    private final Set<TransactionKey> known = new HashSet<>();
+
+    private Clock clock;
+
+    private Connection tcp;
+
+    private Connection udp;
+
+    private AdmissionControlConfiguration config;
+
+    private AdmissionControlHandler handler;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = mock(Clock.class);
+        when(clock.getCurrentTimeMillis()).thenAnswer(invocation -> now.get());
+
+        tcp = mock(Connection.class);
+        when(tcp.isUDP()).thenReturn(false);
+        when(tcp.getRemoteAddress()).thenReturn(remote);
+
+        udp = mock(Connection.class);
+        when(udp.isUDP()).thenReturn(true);
+        when(udp.getRemoteAddress()).thenReturn(remote);
+
+        config = new AdmissionControlConfiguration();
+        config.setEnabled(true);
+        config.setRetryAfter(7);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (channel != null) {
+            channel.finish();
+        }
+    }
+
+    private void start() {
+        handler = new AdmissionControlHandler(config, clock, transactions::get, known::contains);
+        channel = new EmbeddedChannel(handler);
+    }
+
+    /**
+     * Only so many new calls per second and once the second has passed,
+     * we start over again.
+     */
+    @Test
+    public void testMaxCallsPerSecond() throws Exception {
+        config.setMaxCallsPerSecond(2);
+        start();
+
+        assertAdmitted(invite("1"));
+        assertAdmitted(register("2"));
+        assertRejected(invite("3"));
+        assertThat(handler.getRejectedCount(), is(1L));
+
+        // still the same second
+        now.addAndGet(999 - now.get() % 1000);
+        assertRejected(invite("4"));
+
+        // new second, new budget
+        now.incrementAndGet();
+        assertAdmitted(invite("5"));
+        assertAdmitted(invite("6"));
+        assertRejected(invite("7"));
+        assertThat(handler.getRejectedCount(), is(3L));
+    }
+
+    @Test
+    public void testMaxTransactions() throws Exception {
+        config.setMaxTransactions(10);
+        start();
+
+        transactions.set(9);
+        assertAdmitted(invite("1"));
+
+        transactions.set(10);
+        assertRejected(invite("2"));
+        assertRejected(register("3"));
+
+        transactions.set(3);
+        assertAdmitted(invite("4"));
+    }
+
+    /**
+     * The lag probe is a task scheduled on the event loop of the channel and if the
+     * event loop doesn't get around to running it until much later than it should have,
+     * the event loop is considered to be lagging.
+     */
+    @Test(timeout = 5000)
+    public void testEventLoopLag() throws Exception {
+        config.setMaxEventLoopLag(Duration.ofMillis(10));
+        start();
+        assertAdmitted(invite("1"));
+
+        // the probe is due in 100 ms but the event loop doesn't run
+        // it until a lot later than that.
+        Thread.sleep(250);
+        channel.runPendingTasks();
+        assertRejected(invite("2"));
+    }
+
+    /**
+     * Even when we are overloaded, everything that is needed to finish off
+     * what we already have accepted must get through.
+     */
+    @Test
+    public void testOnlyNewRequestsAreSubjectToAdmissionControl() throws Exception {
+        config.setMaxTransactions(1);
+        transactions.set(100);
+        start();
+
+        // within a dialog
+        assertAdmitted(request("INVITE", "1", true));
+        assertAdmitted(request("BYE", "2", true));
+
+        // not INVITE nor REGISTER
+        assertAdmitted(request("OPTIONS", "3", false));
+        assertAdmitted(request("MESSAGE", "4", false));
+
+        // responses
+        final SipResponse response = invite("5").message().toRequest().createResponse(180).build();
+        assertAdmitted(IOEvent.create(tcp, response));
+
+        // a retransmission of a transaction we already have
+        final SipMessageIOEvent retransmission = invite("6");
+        known.add(retransmission.transactionKey());
+        assertAdmitted(retransmission);
+
+        assertRejected(invite("7"));
+        assertThat(handler.getRejectedCount(), is(1L));
+    }
+
+    /**
+     * Over UDP the 503 has to be addressed to the remote side of the flow.
+     */
+    @Test
+    public void testRejectOverUdp() throws Exception {
+        config.setMaxTransactions(1);
+        transactions.set(1);
+        start();
+
+        channel.writeInbound(invite(udp, "1"));
+        assertThat(channel.readInbound(), nullValue());
+        channel.flush();
+
+        final Object written = channel.readOutbound();
+        assertThat(written, instanceOf(DatagramPacket.class));
+        final DatagramPacket packet = (DatagramPacket) written;
+        assertThat(packet.recipient(), is(remote));
+        assertThat(parse(packet.content()).getStatus(), is(503));
+        packet.release();
+    }
+
+    /**
+     * If nothing in the batch is rejected, the very same batch is passed on.
+     */
+    @Test
+    public void testBatchNothingRejected() throws Exception {
+        start();
+        final SipMessageBatchIOEvent batch = batch(invite("1"), invite("2"));
+        channel.writeInbound(batch);
+        assertThat(channel.readInbound(), sameInstance(batch));
+        assertNothingWritten();
+    }
+
+    /**
+     * If some of the messages in the batch are rejected, the rest are passed
+     * on in a new batch, in the order they were received.
+     */
+    @Test
+    public void testBatchPartiallyRejected() throws Exception {
+        config.setMaxCallsPerSecond(1);
+        start();
+
+        final SipMessageIOEvent bye = request("BYE", "1", true);
+        final SipMessageIOEvent invite = invite("2");
+        final SipMessageIOEvent ack = request("ACK", "5", true);
+        channel.writeInbound(batch(bye, invite, invite("3"), register("4"), ack));
+
+        final SipMessageBatchIOEvent admitted = channel.readInbound();
+        assertThat(admitted.events(), is(Arrays.asList(bye, invite, ack)));
+        assertThat(channel.readInbound(), nullValue());
+        assertWritten503();
+        assertWritten503();
+        assertNothingWritten();
+    }
+
+    /**
+     * If only a single message survives, there is no point in wrapping it in a batch.
+     */
+    @Test
+    public void testBatchSingleSurvivor() throws Exception {
+        config.setMaxTransactions(1);
+        transactions.set(1);
+        start();
+
+        final SipMessageIOEvent bye = request("BYE", "2", true);
+        channel.writeInbound(batch(invite("1"), bye));
+        assertThat(channel.readInbound(), sameInstance(bye));
+        assertWritten503();
+    }
+
+    @Test
+    public void testBatchAllRejected() throws Exception {
+        config.setMaxTransactions(1);
+        transactions.set(1);
+        start();
+
+        channel.writeInbound(batch(invite("1"), register("2")));
+        assertThat(channel.readInbound(), nullValue());
+        assertWritten503();
+        assertWritten503();
+        assertThat(handler.getRejectedCount(), is(2L));
+    }
+
+    private void assertAdmitted(final SipMessageIOEvent event) {
+        channel.writeInbound(event);
+        assertThat(channel.readInbound(), sameInstance(event));
+        assertNothingWritten();
+    }
+
+    private void assertRejected(final SipMessageIOEvent event) throws Exception {
+        channel.writeInbound(event);
+        assertThat(channel.readInbound(), nullValue());
+        final SipResponse response = assertWritten503();
+        assertThat(response.getCallIDHeader().getCallId().toString(),
+                is(event.message().getCallIDHeader().getCallId().toString()));
+    }
+
+    private SipResponse assertWritten503() throws Exception {
+        channel.flush();
+        final ByteBuf buffer = channel.readOutbound();
+        final SipResponse response = parse(buffer);
+        buffer.release();
+        assertThat(response.getStatus(), is(503));
+        assertThat(response.getHeader("Retry-After").get().getValue().toString(), is("7"));
+        return response;
+    }
+
+    private void assertNothingWritten() {
+        channel.flush();
+        assertThat(channel.readOutbound(), nullValue());
+    }
+
+    private static SipResponse parse(final ByteBuf buffer) throws Exception {
+        final byte[] raw = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), raw);
+        return SipMessage.frame(Buffers.wrap(raw)).toResponse();
+    }
+
+    private SipMessageBatchIOEvent batch(final SipMessageIOEvent... events) {
+        return IOEvent.create(tcp, now.get(), Arrays.asList(events));
+    }
+
+    private SipMessageIOEvent invite(final String id) throws Exception {
+        return request("INVITE", id, false);
+    }
+
+    private SipMessageIOEvent invite(final Connection connection, final String id) throws Exception {
+        return request(connection, "INVITE", id, false);
+    }
+
+    private SipMessageIOEvent register(final String id) throws Exception {
+        return request("REGISTER", id, false);
+    }
+
+    private SipMessageIOEvent request(final String method, final String id, final boolean toTag) throws Exception {
+        return request(tcp, method, id, toTag);
+    }
+
+    private SipMessageIOEvent request(final Connection connection, final String method, final String id,
+                                      final boolean toTag) throws Exception {
+        final String msg = method + " sip:bob@example.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK-" + id + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: <sip:alice@example.com>;tag=a-" + id + "\r\n"
+                + "To: <sip:bob@example.com>" + (toTag ? ";tag=b-" + id : "") + "\r\n"
+                + "Call-ID: call-" + id + "@10.0.0.1\r\n"
+                + "CSeq: 1 " + method + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n";
+        return IOEvent.create(connection, SipMessage.frame(Buffers.wrap(msg)));
+    }
+}
@@ -0,0 +1,108 @@
+package io.sipstack.transport.impl;
+
+import io.pkts.packet.sip.Transport;
+import io.sipstack.config.KeepAliveConfiguration;
+import io.sipstack.config.KeepAliveMethodConfiguration;
+import io.sipstack.config.SipConfiguration;
+import io.sipstack.config.TransportLayerConfiguration;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.SipTimer;
+import io.sipstack.netty.codec.sip.event.ConnectionInactiveIOEvent;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import io.sipstack.transaction.impl.MockChannel;
+import io.sipstack.transport.FlowState;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the {@link DefaultFlowActor} when it is using double CRLF as the
+ * ping mechanism over TCP.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class DefaultFlowActorTest extends TransportLayerTestBase {
+
+    private TransportLayerConfiguration config;
+
+    private KeepAliveConfiguration keepAlive;
+
+    private Connection connection;
+
+    private MockChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        config = loadConfiguration(SipConfiguration.class, "PingTest001.yaml").getTransport();
+        keepAlive = config.getFlow().getKeepAliveConfiguration();
+        keepAlive.getTcpKeepAliveMethodConfiguratioh()
+                .setActiveMethod(KeepAliveMethodConfiguration.PING_METHOD.DOUBLE_CRLF);
+        assertThat("You changed the config file, this test assumes max 3 failed attempts",
+                keepAlive.getMaxFailed(), is(3));
+        assertThat(keepAlive.getEnforcePong(), is(true));
+    }
+
+    /**
+     * Drive the flow to ACTIVE and then let it be idle for long enough that
+     * it sends a double CRLF ping.
+     */
+    private void initiateFlowToPing() throws Exception {
+        final Object[] objects = initiateFlowToActive(config, Transport.tcp);
+        connection = (Connection) objects[0];
+        channel = (MockChannel) objects[2];
+
+        defaultClock.plusSeconds(keepAlive.getIdleTimeout().plusSeconds(1).getSeconds());
+        defaultChannelCtx.reset();
+        assertThat(transportLayer.idleSweeper().sweep(), is(1));
+        assertThat(defaultChannelCtx.findWrittenMessageByType(PingMessageIOEvent.class).isStun(), is(false));
+        assertTimerScheduled(SipTimer.Timeout3, Duration.ofMillis(500));
+        assertThat(state(), is(FlowState.PING));
+    }
+
+    /**
+     * An unanswered double CRLF ping is re-sent, backing off every time, and once
+     * the max number of failed attempts has been reached the connection is closed.
+     */
+    @Test
+    public void testDblCRLFPingNoResponseTimeout() throws Exception {
+        initiateFlowToPing();
+
+        for (int i = 1; i < 3; ++i) {
+            defaultChannelCtx.reset();
+            defaultScheduler.fire(SipTimer.Timeout3);
+            defaultChannelCtx.findWrittenMessageByType(PingMessageIOEvent.class);
+            assertTimerScheduled(SipTimer.Timeout3, Duration.ofMillis(500 << i));
+            assertThat(state(), is(FlowState.PING));
+        }
+        assertThat(channel.hasCloseBeenCalled(), is(false));
+
+        defaultChannelCtx.reset();
+        defaultScheduler.fire(SipTimer.Timeout3);
+        defaultChannelCtx.assertNothingWritten();
+        assertThat(state(), is(FlowState.CLOSING));
+        assertThat(channel.hasCloseBeenCalled(), is(true));
+    }
+
+    /**
+     * If the remote side goes away while we are waiting for the pong we must
+     * not stay in the PING state but move on to closing the flow.
+     */
+    @Test
+    public void testConnectionInactiveWhilePinging() throws Exception {
+        initiateFlowToPing();
+
+        transportLayer.userEventTriggered(defaultChannelCtx,
+                ConnectionInactiveIOEvent.create(connection, defaultClock.getCurrentTimeMillis()));
+        assertThat(state(), is(FlowState.CLOSING));
+        assertThat(channel.hasCloseBeenCalled(), is(true));
+    }
+
+    private FlowState state() {
+        return defaultFlowStorage.get(connection.id()).flow().getState();
+    }
+}
@@ -9,7 +9,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -92,6 +97,190 @@ public class DefaultFlowStorageTest extends TransportLayerTestBase {
         assertThat(defaultFlowStorage.getFlows(endpointId).size(), is(50));
     }
 
+    /**
+     * Removing every flow to an endpoint, one after the other, must leave nothing behind
+     * and a new flow to the same endpoint must then end up in a new bucket.
+     */
+    @Test
+    public void testRemoveAllFlows() throws Exception {
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 5060);
+        final ConnectionEndpointId endpointId = ConnectionEndpointId.create(Transport.udp, remoteAddress);
+        for (int i = 0; i < 10; ++i) {
+            defaultFlowStorage.ensureFlow(createUdpConnection(new InetSocketAddress("127.0.0.1", 5060 + i), remoteAddress));
+        }
+
+        for (int i = 0; i < 10; ++i) {
+            final ConnectionId id = createUdpConnection(new InetSocketAddress("127.0.0.1", 5060 + i), remoteAddress).id();
+            defaultFlowStorage.remove(id);
+            assertThat(defaultFlowStorage.get(id), is((FlowActor) null));
+            assertThat(defaultFlowStorage.getFlows(endpointId).size(), is(9 - i));
+        }
+
+        assertThat(defaultFlowStorage.count(), is(0));
+        assertThat(defaultFlowStorage.get(endpointId), is((FlowActor) null));
+
+        // removing something that isn't there is fine
+        defaultFlowStorage.remove(createUdpConnection(new InetSocketAddress("127.0.0.1", 5060), remoteAddress).id());
+        assertThat(defaultFlowStorage.count(), is(0));
+
+        final FlowActor flow = defaultFlowStorage.ensureFlow(createUdpConnection(remoteAddress));
+        assertThat(defaultFlowStorage.get(endpointId), is(flow));
+        assertThat(defaultFlowStorage.count(), is(1));
+    }
+
+    /**
+     * Many event loops asking for the same flows at the same time must all end up
+     * with the very same flow for the same connection and no flow may be created twice.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrentEnsureFlow() throws Exception {
+        final int threads = 8;
+        final List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            // a handful of remote endpoints with many flows each
+            final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0." + (i % 5), 5060);
+            connections.add(createTcpConnection(new InetSocketAddress("127.0.0.1", 10000 + i), remoteAddress));
+        }
+
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<List<FlowActor>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            results.add(executor.submit(() -> {
+                barrier.await();
+                final List<FlowActor> flows = new ArrayList<>();
+                for (final Connection connection : connections) {
+                    flows.add(defaultFlowStorage.ensureFlow(connection));
+                }
+                return flows;
+            }));
+        }
+
+        final List<FlowActor> expected = results.get(0).get();
+        for (final Future<List<FlowActor>> result : results) {
+            final List<FlowActor> flows = result.get();
+            for (int i = 0; i < flows.size(); ++i) {
+                assertThat(flows.get(i) == expected.get(i), is(true));
+            }
+        }
+        executor.shutdown();
+
+        assertThat(defaultFlowStorage.count(), is(200));
+        for (int i = 0; i < 5; ++i) {
+            final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0." + i, 5060);
+            assertThat(defaultFlowStorage.getFlows(ConnectionEndpointId.create(Transport.tcp, remoteAddress)).size(), is(40));
+        }
+    }
+
+    /**
+     * With two flows to the same endpoint we should always get the one that is the least busy.
+     */
+    @Test
+    public void testPickLeastBusyFlow() throws Exception {
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 5060);
+        final FlowActor busy = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5060), remoteAddress));
+        final FlowActor idle = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5061), remoteAddress));
+        for (int i = 0; i < 10; ++i) {
+            busy.load().onMessage(defaultClock.getCurrentTimeMillis());
+        }
+
+        final ConnectionEndpointId endpointId = ConnectionEndpointId.create(Transport.tcp, remoteAddress);
+        for (int i = 0; i < 20; ++i) {
+            assertThat(defaultFlowStorage.get(endpointId), is(idle));
+        }
+    }
+
+    /**
+     * Only when all flows are busy should we scale out and only one additional flow at a time.
+     */
+    @Test
+    public void testScaleOut() throws Exception {
+        reset(scaleOutConfig());
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 5060);
+        final ConnectionEndpointId endpointId = ConnectionEndpointId.create(Transport.tcp, remoteAddress);
+        final FlowActor flow = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5060), remoteAddress));
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(false));
+
+        generateLoad(flow, 10);
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(true));
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(false));
+
+        final FlowActor extra = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5061), remoteAddress));
+        extra.load().markAsExtra();
+        defaultFlowStorage.scaleOutCompleted(endpointId);
+
+        // the new flow isn't busy so no reason to scale out further
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(false));
+
+        // and once both are busy we have reached the max
+        generateLoad(extra, 10);
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(false));
+    }
+
+    /**
+     * Once the load drops, the extra flow is retired, i.e., no longer handed out,
+     * and once it has been idle long enough it should be closed.
+     */
+    @Test
+    public void testRetireExtraFlow() throws Exception {
+        reset(scaleOutConfig());
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 5060);
+        final ConnectionEndpointId endpointId = ConnectionEndpointId.create(Transport.tcp, remoteAddress);
+        final FlowActor flow = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5060), remoteAddress));
+        final FlowActor extra = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5061), remoteAddress));
+        extra.load().markAsExtra();
+
+        defaultClock.plusSeconds(2);
+        assertThat(defaultFlowStorage.retireFlows(endpointId).isEmpty(), is(true));
+        assertThat(extra.load().isRetiring(), is(true));
+        assertThat(flow.load().isRetiring(), is(false));
+        for (int i = 0; i < 20; ++i) {
+            assertThat(defaultFlowStorage.get(endpointId), is(flow));
+        }
+
+        // still within the grace period
+        defaultClock.plusSeconds(10);
+        assertThat(defaultFlowStorage.retireFlows(endpointId).isEmpty(), is(true));
+
+        defaultClock.plusSeconds(30);
+        final List<FlowActor> idle = defaultFlowStorage.retireFlows(endpointId);
+        assertThat(idle.size(), is(1));
+        assertThat(idle.get(0), is(extra));
+    }
+
+    /**
+     * If the load goes up again before a retiring flow has been closed, then we
+     * rather use that one again than opening yet another flow.
+     */
+    @Test
+    public void testReinstateRetiringFlow() throws Exception {
+        reset(scaleOutConfig());
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 5060);
+        final ConnectionEndpointId endpointId = ConnectionEndpointId.create(Transport.tcp, remoteAddress);
+        final FlowActor flow = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5060), remoteAddress));
+        final FlowActor extra = defaultFlowStorage.ensureFlow(createTcpConnection(new InetSocketAddress("127.0.0.1", 5061), remoteAddress));
+        extra.load().markAsExtra();
+        extra.load().retire(defaultClock.getCurrentTimeMillis());
+
+        generateLoad(flow, 10);
+        assertThat(defaultFlowStorage.tryScaleOut(endpointId), is(false));
+        assertThat(extra.load().isRetiring(), is(false));
+    }
+
+    private TransportLayerConfiguration scaleOutConfig() {
+        final TransportLayerConfiguration config = new TransportLayerConfiguration();
+        config.getFlow().setDefaultStorageSize(100);
+        config.getFlow().getScaleOut().setMaxFlows(2);
+        config.getFlow().getScaleOut().setMessagesPerSecond(10);
+        return config;
+    }
+
+    private void generateLoad(final FlowActor flow, final int messages) {
+        for (int i = 0; i < messages; ++i) {
+            flow.load().onMessage(defaultClock.getCurrentTimeMillis());
+        }
+    }
+
     /**
      * Populate the storage but keep the remote address the same while the local address keeps changing.
      *
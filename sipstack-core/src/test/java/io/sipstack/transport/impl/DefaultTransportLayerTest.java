@@ -1,20 +1,46 @@
 package io.sipstack.transport.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.Transport;
+import io.sipstack.MockChannelHandlerContext;
+import io.sipstack.config.RateLimitConfiguration;
+import io.sipstack.config.TransportLayerConfiguration;
+import io.sipstack.net.IllegalTransportException;
+import io.sipstack.net.ListeningPoint;
+import io.sipstack.net.NetworkLayer;
+import io.sipstack.net.dns.SipResolver;
+import io.sipstack.net.dns.SipTarget;
 import io.sipstack.netty.codec.sip.Connection;
-import io.sipstack.netty.codec.sip.SipTimer;
 import io.sipstack.netty.codec.sip.event.ConnectionClosedIOEvent;
 import io.sipstack.netty.codec.sip.event.ConnectionInactiveIOEvent;
 import io.sipstack.netty.codec.sip.event.ConnectionOpenedIOEvent;
+import io.sipstack.netty.codec.sip.event.ConnectionWritabilityChangedIOEvent;
 import io.sipstack.netty.codec.sip.event.IOEvent;
 import io.sipstack.transaction.impl.MockChannel;
+import io.sipstack.transport.Flow;
+import io.sipstack.transport.FlowStats;
+import io.sipstack.transport.event.FlowEvent;
 import io.sipstack.transport.event.FlowTerminatedEvent;
 import org.hamcrest.CoreMatchers;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * @author jonas@jonasborjesson.com
@@ -72,7 +98,15 @@ public class DefaultTransportLayerTest extends TransportLayerTestBase {
     public void testFlowShutsDownDueToNoInitialTraffic() throws Exception {
         final MockChannel channel = initiateNewFlow();
         assertThat(channel.hasCloseBeenCalled(), CoreMatchers.is(false));
-        defaultScheduler.fire(SipTimer.Timeout1);
+
+        // nothing should happen until the initial idle timeout has passed
+        defaultClock.plusSeconds(1);
+        transportLayer.idleSweeper().sweep();
+        assertThat(channel.hasCloseBeenCalled(), CoreMatchers.is(false));
+
+        // the default initial idle timeout is 4 seconds
+        defaultClock.plusSeconds(4);
+        assertThat(transportLayer.idleSweeper().sweep(), CoreMatchers.is(1));
         assertThat(channel.hasCloseBeenCalled(), CoreMatchers.is(true));
     }
 
@@ -110,5 +144,285 @@ public class DefaultTransportLayerTest extends TransportLayerTestBase {
         assertFlowDoesNotExist(connection);
     }
 
+    /**
+     * Every flow keeps track of how much traffic has gone across it and unlike the rest
+     * of the {@link Flow}, the stats are current whenever you ask for them.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFlowStats() throws Exception {
+        final InetSocketAddress remoteAddress = new InetSocketAddress("192.168.0.100", 9999);
+        final MockChannel channel = createNewChannel(remoteAddress);
+        final Connection connection = initiateNewFlow(channel, defaultInviteRequest);
+        final Flow flow = defaultChannelCtx.findForwardedMessageByType(FlowEvent.class).flow();
+
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultBye200Response));
+        transportLayer.write(defaultChannelCtx, FlowEvent.create(flow, defaultInvite200Response), null);
+
+        final FlowStats stats = flow.stats();
+        assertThat(stats.getMessagesIn(), CoreMatchers.is(2L));
+        assertThat(stats.getRequestsIn(), CoreMatchers.is(1L));
+        assertThat(stats.getResponsesIn(), CoreMatchers.is(1L));
+        assertThat(stats.getBytesIn(), CoreMatchers.is((long) (defaultInviteRequest.toBuffer().getReadableBytes()
+                + defaultBye200Response.toBuffer().getReadableBytes())));
+
+        assertThat(stats.getMessagesOut(), CoreMatchers.is(1L));
+        assertThat(stats.getResponsesOut(), CoreMatchers.is(1L));
+
+        // the bytes out are counted by the encoder, which isn't part of this pipeline,
+        // so tell the transport layer what the encoder would have told it.
+        assertThat(stats.getBytesOut(), CoreMatchers.is(0L));
+        transportLayer.onEncoded(connection, defaultInvite200Response.toBuffer().getReadableBytes());
+        assertThat(flow.stats().getBytesOut(),
+                CoreMatchers.is((long) defaultInvite200Response.toBuffer().getReadableBytes()));
+        assertThat(stats.getPingRtt(), CoreMatchers.is(-1L));
+
+        // 3 seconds of back-pressure, which is included even when it is still going on
+        transportLayer.userEventTriggered(defaultChannelCtx,
+                ConnectionWritabilityChangedIOEvent.create(connection, defaultClock.getCurrentTimeMillis(), false));
+        defaultClock.plusSeconds(3);
+        assertThat(flow.stats().getBackPressuredTime(), CoreMatchers.is(3000L));
+        transportLayer.userEventTriggered(defaultChannelCtx,
+                ConnectionWritabilityChangedIOEvent.create(connection, defaultClock.getCurrentTimeMillis(), true));
+        defaultClock.plusSeconds(3);
+        assertThat(flow.stats().getBackPressuredTime(), CoreMatchers.is(3000L));
+    }
+
+    /**
+     * With UDP and SO_REUSEPORT, several channels share the same local address and
+     * therefore map a remote endpoint to the very same flow. The flow is bound to the
+     * channel it first was seen on and anything showing up on another channel, such
+     * as the kernel picking another channel for the incoming traffic or someone
+     * writing to the flow from another event loop, must be handed over to the event
+     * loop of that channel instead of running the flow on two event loops at once.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 5000)
+    public void testUdpFlowSharedByTwoChannels() throws Exception {
+        final DefaultEventExecutor eventLoop = new DefaultEventExecutor();
+        try {
+            final InetSocketAddress remote = new InetSocketAddress(defaultRemoteIPAddress, defaultRemotePort);
+            final InetSocketAddress local = new InetSocketAddress(defaultLocalIPAddress, defaultLocalPort);
+            final MockChannelHandlerContext boundCtx = new MockChannelHandlerContext(transportLayer, eventLoop);
+            final Connection bound = createConnection(Transport.udp, new MockChannel(boundCtx, transportLayer, local, remote), null);
+            final Connection other = createConnection(Transport.udp, createNewChannel(local, remote), null);
+            assertThat(other.id(), CoreMatchers.is(bound.id()));
+
+            // the flow is created on, and therefore bound to, the first channel
+            eventLoop.submit(() -> {
+                transportLayer.channelRead(boundCtx, IOEvent.create(bound, defaultInviteRequest));
+                return null;
+            }).sync();
+            boundCtx.assertSipMessageForwarded(defaultInviteRequest);
+            final FlowActor actor = defaultFlowStorage.get(bound.id());
+            assertThat(actor.channelContext() == boundCtx, CoreMatchers.is(true));
+
+            // the kernel delivers the next datagram on the other channel...
+            transportLayer.channelRead(defaultChannelCtx, IOEvent.create(other, defaultBye200Response));
+
+            // ... and someone writes to the flow from the event loop of the other channel
+            final Flow flow = boundCtx.findForwardedMessageByType(FlowEvent.class).flow();
+            transportLayer.write(defaultChannelCtx, FlowEvent.create(flow, defaultInvite200Response), null);
+
+            // wait for the event loop of the flow to catch up
+            eventLoop.submit(() -> null).sync();
+
+            defaultChannelCtx.assertSipMessageNotForwarded(defaultBye200Response);
+            defaultChannelCtx.assertNothingWritten();
+            boundCtx.assertSipMessageForwarded(defaultBye200Response);
+            final IOEvent written = boundCtx.findWrittenMessageByType(IOEvent.class);
+            assertThat(written.toSipMessageIOEvent().message(), CoreMatchers.is((SipMessage) defaultInvite200Response));
+            assertThat(actor.channelContext() == boundCtx, CoreMatchers.is(true));
+            assertThat(actor.counters().getMessagesIn(), CoreMatchers.is(2L));
+            assertThat(actor.counters().getMessagesOut(), CoreMatchers.is(1L));
+        } finally {
+            eventLoop.shutdownGracefully().sync();
+        }
+    }
+
+    /**
+     * A remote endpoint sending more messages than it is allowed to will have the
+     * messages over the limit dropped until its bucket has been refilled.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimitDrop() throws Exception {
+        final TransportLayerConfiguration config = createRateLimitConfiguration(RateLimitConfiguration.Policy.DROP);
+        config.getRateLimit().setMessagesPerSecond(2);
+        reset(config);
+
+        final Connection connection = createConnection(Transport.tcp,
+                createNewChannel(new InetSocketAddress("192.168.0.100", 9999)), null);
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInviteRequest));
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultBye200Response));
+        defaultChannelCtx.assertSipMessageForwarded(defaultBye200Response);
+        assertThat(transportLayer.rateLimiter().getLimitedCount(), CoreMatchers.is(0L));
+
+        // the bucket is empty now...
+        defaultChannelCtx.reset();
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInvite200Response));
+        defaultChannelCtx.assertSipMessageNotForwarded(defaultInvite200Response);
+        assertThat(transportLayer.rateLimiter().getLimitedCount(), CoreMatchers.is(1L));
+
+        // but another endpoint has its own bucket
+        final Connection other = createConnection(Transport.tcp,
+                createNewChannel(new InetSocketAddress("192.168.0.101", 9999)), null);
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(other, defaultInvite200Response));
+        defaultChannelCtx.assertSipMessageForwarded(defaultInvite200Response);
+        assertThat(transportLayer.rateLimiter().getLimitedCount(), CoreMatchers.is(1L));
+
+        // and once half a second has passed there is room for another message
+        defaultClock.plusMillis(500);
+        defaultChannelCtx.reset();
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInvite200Response));
+        defaultChannelCtx.assertSipMessageForwarded(defaultInvite200Response);
+
+        // and once the buckets have been refilled there is no need to keep them around
+        defaultClock.plusSeconds(1);
+        assertThat(transportLayer.rateLimiter().evictIdle(), CoreMatchers.is(2));
+    }
+
+    /**
+     * With the REJECT policy, new transactions over the limit are rejected with a 503.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimitReject() throws Exception {
+        final TransportLayerConfiguration config = createRateLimitConfiguration(RateLimitConfiguration.Policy.REJECT);
+        config.getRateLimit().setTransactionsPerSecond(1);
+        reset(config);
+
+        final Connection connection = createConnection(Transport.tcp,
+                createNewChannel(new InetSocketAddress("192.168.0.100", 9999)), null);
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInviteRequest));
+        defaultChannelCtx.assertSipMessageForwarded(defaultInviteRequest);
+        defaultChannelCtx.reset();
 
-}
\ No newline at end of file
+        // responses aren't new transactions so they shouldn't be affected
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultBye200Response));
+        defaultChannelCtx.assertSipMessageForwarded(defaultBye200Response);
+
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInviteRequest));
+        defaultChannelCtx.assertSipMessageNotForwarded(defaultInviteRequest);
+        final ByteBuf response = defaultChannelCtx.findWrittenMessageByType(ByteBuf.class);
+        assertThat(response.toString(StandardCharsets.UTF_8).startsWith("SIP/2.0 503"), CoreMatchers.is(true));
+        response.release();
+    }
+
+    /**
+     * With the CLOSE policy, the connection of a remote endpoint that exceeds its limits is closed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimitClose() throws Exception {
+        final TransportLayerConfiguration config = createRateLimitConfiguration(RateLimitConfiguration.Policy.CLOSE);
+        config.getRateLimit().setMessagesPerSecond(1);
+        reset(config);
+
+        final MockChannel channel = createNewChannel(new InetSocketAddress("192.168.0.100", 9999));
+        final Connection connection = initiateNewFlow(channel, defaultInviteRequest);
+        assertThat(channel.hasCloseBeenCalled(), CoreMatchers.is(false));
+
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInviteRequest));
+        assertThat(channel.hasCloseBeenCalled(), CoreMatchers.is(true));
+    }
+
+    private static TransportLayerConfiguration createRateLimitConfiguration(final RateLimitConfiguration.Policy policy) {
+        final TransportLayerConfiguration config = new TransportLayerConfiguration();
+        config.getFlow().setDefaultStorageSize(100);
+        config.getRateLimit().setEnabled(true);
+        config.getRateLimit().setPolicy(policy);
+        return config;
+    }
+
+    /**
+     * The busiest flows should be reported, busiest first.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFlowMetricsBusiestFlows() throws Exception {
+        // one quiet flow...
+        initiateNewFlow(createNewChannel(new InetSocketAddress("192.168.0.100", 9999)), defaultInviteRequest);
+
+        // and a busy one
+        final Connection busy = initiateNewFlow(createNewChannel(new InetSocketAddress("192.168.0.101", 9999)),
+                defaultInviteRequest);
+        for (int i = 0; i < 5; ++i) {
+            transportLayer.channelRead(defaultChannelCtx, IOEvent.create(busy, defaultInviteRequest));
+        }
+
+        final FlowMetrics.Summary summary = new FlowMetrics(defaultFlowStorage, defaultClock, 1).summarize();
+        assertThat(summary.messagesIn, CoreMatchers.is(7L));
+        assertThat(summary.busiest.size(), CoreMatchers.is(1));
+        assertThat(summary.busiest.get(0), CoreMatchers.is(busy.id() + " 6 msg/s"));
+    }
+
+    /**
+     * DNS may give us targets over transports we don't have a listening point for and
+     * those are simply failed attempts, so we move on to the next target.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 5000)
+    public void testConnectSkipsTargetsWithUnsupportedTransport() throws Exception {
+        final InetSocketAddress tlsAddress = new InetSocketAddress("10.0.0.1", 5061);
+        final InetSocketAddress tcpAddress = new InetSocketAddress("10.0.0.2", 5060);
+        final InetSocketAddress udpAddress = new InetSocketAddress("10.0.0.3", 5060);
+
+        final ListeningPoint udp = mock(ListeningPoint.class);
+        when(udp.getLocalAddress()).thenReturn(new InetSocketAddress(defaultLocalIPAddress, defaultLocalPort));
+        final Connection connection = createConnection(Transport.udp, createNewChannel(udpAddress), null);
+        when(udp.connect(udpAddress)).thenReturn(CompletableFuture.completedFuture(connection));
+        useNetworkLayer(udp);
+        useResolver(SipTarget.create(Transport.tls, tlsAddress),
+                SipTarget.create(Transport.tcp, tcpAddress),
+                SipTarget.create(Transport.udp, udpAddress));
+
+        final Flow flow = transportLayer.createFlow("example.com").connect().get();
+        assertThat(flow.isValid(), CoreMatchers.is(true));
+        assertThat(flow.getTransport(), CoreMatchers.is(Transport.udp));
+        assertThat(flow.getRemoteAddress(), CoreMatchers.is(udpAddress));
+        verify(udp).connect(udpAddress);
+    }
+
+    /**
+     * If none of the targets can be used we end up with a failed flow and not an exception.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 5000)
+    public void testConnectNoSupportedTargets() throws Exception {
+        final ListeningPoint udp = mock(ListeningPoint.class);
+        useNetworkLayer(udp);
+        useResolver(SipTarget.create(Transport.tls, new InetSocketAddress("10.0.0.1", 5061)),
+                SipTarget.create(Transport.tcp, new InetSocketAddress("10.0.0.2", 5060)));
+
+        final Flow flow = transportLayer.createFlow("example.com").connect().get();
+        assertThat(flow.isFailed(), CoreMatchers.is(true));
+        assertThat(flow.getFailureCause().get() instanceof IllegalTransportException, CoreMatchers.is(true));
+        verify(udp, never()).connect(any(InetSocketAddress.class));
+    }
+
+    /**
+     * A network layer where the only listening point is the given UDP one.
+     */
+    private void useNetworkLayer(final ListeningPoint udp) {
+        final NetworkLayer network = mock(NetworkLayer.class);
+        when(network.getListeningPoint(any(Transport.class))).thenReturn(Optional.empty());
+        when(network.getListeningPoint(Transport.udp)).thenReturn(Optional.of(udp));
+        transportLayer.useNetworkLayer(network);
+    }
+
+    private void useResolver(final SipTarget... targets) {
+        final SipResolver resolver = mock(SipResolver.class);
+        when(resolver.resolve(eq("example.com"), anyInt(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(targets)));
+        transportLayer.useResolver(resolver);
+    }
+}
@@ -0,0 +1,155 @@
+package io.sipstack.transport.impl;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.SipRequest;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+import io.sipstack.netty.codec.sip.event.ConnectionInactiveIOEvent;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import io.sipstack.netty.codec.sip.event.PongMessageIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
+import io.sipstack.transport.FlowStats;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlowCountersTest {
+
+    private static final String INVITE = "INVITE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK-1\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: <sip:alice@example.com>;tag=a\r\n"
+            + "To: <sip:bob@example.com>\r\n"
+            + "Call-ID: call-1@10.0.0.1\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    private final Connection connection = mock(Connection.class);
+
+    private final FlowCounters counters = new FlowCounters();
+
+    /**
+     * The bytes in are what the message took up on the wire, which the decoders
+     * found out as they framed it.
+     */
+    @Test
+    public void testRead() throws Exception {
+        final SipMessageIOEvent invite = framed(INVITE);
+        counters.onRead(invite);
+        counters.onRead(IOEvent.create(connection, invite.message().toRequest().createResponse(200).build()));
+
+        final FlowStats stats = snapshot();
+        assertThat(stats.getMessagesIn(), is(2L));
+        assertThat(stats.getRequestsIn(), is(1L));
+        assertThat(stats.getResponsesIn(), is(1L));
+        assertThat(stats.getBytesIn() > INVITE.length(), is(true));
+        assertThat(stats.getMessagesOut(), is(0L));
+    }
+
+    @Test
+    public void testFrameLength() throws Exception {
+        counters.onRead(framed(INVITE));
+        assertThat(counters.getBytesIn(), is((long) INVITE.length()));
+    }
+
+    /**
+     * Pings and pongs are messages across the flow but they are neither
+     * requests nor responses.
+     */
+    @Test
+    public void testPingPong() throws Exception {
+        counters.onRead(PingMessageIOEvent.create(connection, 0));
+        counters.onRead(PongMessageIOEvent.create(connection, 0));
+        counters.onWrite(PongMessageIOEvent.create(connection, 0));
+
+        final FlowStats stats = snapshot();
+        assertThat(stats.getMessagesIn(), is(2L));
+        assertThat(stats.getMessagesOut(), is(1L));
+        assertThat(stats.getRequestsIn(), is(0L));
+        assertThat(stats.getResponsesIn(), is(0L));
+        assertThat(stats.getRequestsOut(), is(0L));
+        assertThat(stats.getResponsesOut(), is(0L));
+        assertThat(stats.getBytesIn(), is(0L));
+    }
+
+    /**
+     * Anything that isn't traffic across the flow doesn't count.
+     */
+    @Test
+    public void testIgnored() throws Exception {
+        counters.onRead(ConnectionInactiveIOEvent.create(connection, 0));
+        counters.onWrite(ConnectionInactiveIOEvent.create(connection, 0));
+        counters.onWrite("not an event");
+        assertThat(counters.getMessagesIn(), is(0L));
+        assertThat(counters.getMessagesOut(), is(0L));
+    }
+
+    /**
+     * The bytes out are only known once the message has been encoded so writing a message
+     * only counts the message. The encoder then tells us about the bytes.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        final SipMessage invite = framed(INVITE).message();
+        counters.onWrite(IOEvent.create(connection, invite));
+        counters.onWrite(IOEvent.create(connection, invite.toRequest().createResponse(180)));
+        counters.onWrite(IOEvent.create(connection, SipRequest.bye("sip:bob@example.com")));
+        assertThat(counters.getBytesOut(), is(0L));
+
+        counters.onBytesOut(100);
+        counters.onBytesOut(50);
+
+        final FlowStats stats = snapshot();
+        assertThat(stats.getMessagesOut(), is(3L));
+        assertThat(stats.getRequestsOut(), is(2L));
+        assertThat(stats.getResponsesOut(), is(1L));
+        assertThat(stats.getBytesOut(), is(150L));
+        assertThat(stats.getMessagesIn(), is(0L));
+    }
+
+    /**
+     * Only the last RTT is kept and until there is one, it is -1.
+     */
+    @Test
+    public void testPingRtt() throws Exception {
+        assertThat(snapshot().getPingRtt(), is(-1L));
+        counters.onPingRtt(40);
+        counters.onPingRtt(25);
+        assertThat(snapshot().getPingRtt(), is(25L));
+    }
+
+    /**
+     * The back-pressured time is the sum of all the periods the flow has been
+     * back-pressured, including the one going on right now, if any.
+     */
+    @Test
+    public void testBackPressuredTime() throws Exception {
+        counters.onBackPressured(1000);
+        counters.onBackPressured(500);
+        assertThat(counters.snapshot(0, 10000).getBackPressuredTime(), is(1500L));
+
+        // back-pressured since 8000 and it is 10000 now
+        assertThat(counters.snapshot(8000, 10000).getBackPressuredTime(), is(3500L));
+
+        // a clock that went backwards must not make it shrink
+        assertThat(counters.snapshot(12000, 10000).getBackPressuredTime(), is(1500L));
+    }
+
+    private FlowStats snapshot() {
+        return counters.snapshot(0, 0);
+    }
+
+    private SipMessageIOEvent framed(final String msg) throws Exception {
+        final Buffer buffer = Buffers.wrap(msg);
+        return IOEvent.create(connection, SipMessage.frame(buffer), 0, HeaderIndex.index(Buffers.wrap(msg)));
+    }
+}
@@ -0,0 +1,247 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.actor.InternalScheduler;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.SipTimer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlowIdleSweeperTest {
+
+    private static final long NOW = 1000500;
+
+    private final List<FlowActor> flows = new ArrayList<>();
+
+    /**
+     * Every flow that was asked about its idle timers, in the order they were asked.
+     */
+    private final List<FlowActor> checked = new ArrayList<>();
+
+    /**
+     * All the flows the sweeper found idle and which timer fired for them.
+     */
+    private final Map<FlowActor, SipTimer> idle = new ConcurrentHashMap<>();
+
+    private FlowStorage storage;
+
+    private Clock clock;
+
+    private InternalScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = mock(FlowStorage.class);
+        when(storage.iterator()).thenAnswer(invocation -> flows.iterator());
+        when(storage.count()).thenAnswer(invocation -> flows.size());
+
+        clock = mock(Clock.class);
+        when(clock.getCurrentTimeMillis()).thenReturn(NOW);
+
+        scheduler = mock(InternalScheduler.class);
+    }
+
+    /**
+     * With a long enough period the segment would be tiny but we always
+     * walk through at least 128 flows per tick.
+     */
+    @Test
+    public void testMinimumSegment() throws Exception {
+        flows(300);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(10));
+
+        sweeper.sweep();
+        assertThat(checked, is(flows.subList(0, 128)));
+
+        sweeper.sweep();
+        assertThat(checked, is(flows.subList(0, 256)));
+
+        sweeper.sweep();
+        assertThat(checked, is(flows));
+    }
+
+    /**
+     * All flows must have been checked within the period so each tick has to
+     * walk through count / ticks of them, rounded up.
+     */
+    @Test
+    public void testSegmentSpreadOverPeriod() throws Exception {
+        flows(1000);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(3));
+
+        sweeper.sweep();
+        assertThat(checked.size(), is(334));
+        sweeper.sweep();
+        assertThat(checked.size(), is(668));
+        sweeper.sweep();
+        assertThat(checked, is(flows));
+    }
+
+    /**
+     * A period shorter than a tick means every flow is checked on every tick.
+     */
+    @Test
+    public void testShortPeriod() throws Exception {
+        flows(300);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofMillis(100));
+
+        sweeper.sweep();
+        assertThat(checked, is(flows));
+        sweeper.sweep();
+        assertThat(checked.size(), is(600));
+        assertThat(checked.subList(300, 600), is(flows));
+    }
+
+    /**
+     * Once we have gone through all flows we start over from the beginning on the
+     * next tick, also when the last segment happened to end exactly on the last flow.
+     */
+    @Test
+    public void testCursorStartsOver() throws Exception {
+        flows(300);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(10));
+        sweeper.sweep();
+        sweeper.sweep();
+        sweeper.sweep();
+        checked.clear();
+
+        sweeper.sweep();
+        assertThat(checked, is(flows.subList(0, 128)));
+
+        flows.clear();
+        checked.clear();
+        flows(256);
+        final FlowIdleSweeper exact = sweeper(Duration.ofSeconds(10));
+        exact.sweep();
+        exact.sweep();
+        assertThat(checked, is(flows));
+        checked.clear();
+
+        exact.sweep();
+        assertThat(checked, is(flows.subList(0, 128)));
+    }
+
+    /**
+     * Only the flows that report a timer are handed over as idle, together with
+     * the timer that fired, whichever of the idle timers that was.
+     */
+    @Test
+    public void testIdleTimers() throws Exception {
+        flows(200);
+        final FlowActor lifeTime = flow(SipTimer.Timeout);
+        final FlowActor initial = flow(SipTimer.Timeout1);
+        final FlowActor keepAlive = flow(SipTimer.Timeout2);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(1));
+
+        assertThat(sweeper.sweep(), is(3));
+        assertThat(idle.size(), is(3));
+        assertThat(idle.get(lifeTime), is(SipTimer.Timeout));
+        assertThat(idle.get(initial), is(SipTimer.Timeout1));
+        assertThat(idle.get(keepAlive), is(SipTimer.Timeout2));
+        assertThat(idle.get(flows.get(0)), nullValue());
+
+        // every flow is asked using the current time of the clock
+        verify(lifeTime).checkIdleTimers(NOW);
+    }
+
+    @Test
+    public void testNoFlows() throws Exception {
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(10));
+        assertThat(sweeper.sweep(), is(0));
+
+        // and flows showing up later are found
+        flows(2);
+        assertThat(sweeper.sweep(), is(0));
+        assertThat(checked, is(flows));
+    }
+
+    /**
+     * The sweeper keeps re-scheduling itself every tick until it is stopped.
+     */
+    @Test
+    public void testSchedule() throws Exception {
+        final FlowActor a = flow(SipTimer.Timeout);
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(10));
+
+        sweeper.run();
+        verify(scheduler, never()).schedule(sweeper, FlowIdleSweeper.TICK);
+        assertThat(checked.isEmpty(), is(true));
+
+        sweeper.start();
+        sweeper.start();
+        verify(scheduler, times(1)).schedule(sweeper, FlowIdleSweeper.TICK);
+
+        sweeper.run();
+        verify(scheduler, times(2)).schedule(sweeper, FlowIdleSweeper.TICK);
+        assertThat(idle.get(a), is(SipTimer.Timeout));
+
+        sweeper.stop();
+        reset(scheduler);
+        checked.clear();
+        sweeper.run();
+        verify(scheduler, never()).schedule(sweeper, FlowIdleSweeper.TICK);
+        assertThat(checked.isEmpty(), is(true));
+    }
+
+    /**
+     * A sweep blowing up must not stop the sweeper.
+     */
+    @Test
+    public void testRescheduleOnError() throws Exception {
+        final FlowActor broken = mock(FlowActor.class);
+        when(broken.checkIdleTimers(anyLong())).thenThrow(new RuntimeException("boom"));
+        flows.add(broken);
+
+        final FlowIdleSweeper sweeper = sweeper(Duration.ofSeconds(10));
+        sweeper.start();
+        sweeper.run();
+        verify(scheduler, times(2)).schedule(sweeper, FlowIdleSweeper.TICK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPeriodCannotBeNull() throws Exception {
+        sweeper(null);
+    }
+
+    private FlowIdleSweeper sweeper(final Duration period) {
+        return new FlowIdleSweeper(storage, clock, scheduler, period, idle::put);
+    }
+
+    private void flows(final int count) {
+        for (int i = 0; i < count; ++i) {
+            flow(null);
+        }
+    }
+
+    /**
+     * Create a flow that reports the given timer, or null if it isn't idle.
+     */
+    private FlowActor flow(final SipTimer timer) {
+        final FlowActor actor = mock(FlowActor.class);
+        when(actor.checkIdleTimers(anyLong())).thenAnswer(invocation -> {
+            checked.add(actor);
+            return timer;
+        });
+        flows.add(actor);
+        return actor;
+    }
+}
@@ -0,0 +1,136 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.netty.codec.sip.SipTimer;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipTimerEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlowMailboxTest {
+
+    private final IOEvent event = SipTimerEvent.create(SipTimer.Timeout);
+
+    /**
+     * Only the first event posted to an empty mailbox should ask for a drain.
+     */
+    @Test
+    public void testOnlyFirstPostSchedulesDrain() throws Exception {
+        final FlowMailbox mailbox = new FlowMailbox();
+        assertThat(mailbox.post(event), is(true));
+        assertThat(mailbox.post(event), is(false));
+        assertThat(mailbox.post(event), is(false));
+
+        final List<IOEvent> drained = new ArrayList<>();
+        assertThat(mailbox.drain((upstream, e) -> drained.add(e)), is(false));
+        assertThat(drained.size(), is(3));
+        assertThat(mailbox.isEmpty(), is(true));
+
+        // empty again so the next post must schedule a new drain
+        assertThat(mailbox.post(event), is(true));
+    }
+
+    /**
+     * Events written to the flow on another event loop are posted as downstream
+     * events and must come out as such, in the order they were posted.
+     */
+    @Test
+    public void testDirectionIsKept() throws Exception {
+        final FlowMailbox mailbox = new FlowMailbox();
+        final IOEvent other = SipTimerEvent.create(SipTimer.Timeout1);
+        mailbox.post(true, event);
+        mailbox.post(false, other);
+        mailbox.post(event);
+
+        final List<Boolean> directions = new ArrayList<>();
+        final List<IOEvent> drained = new ArrayList<>();
+        mailbox.drain((upstream, e) -> {
+            directions.add(upstream);
+            drained.add(e);
+        });
+
+        assertThat(directions, is(Arrays.asList(true, false, true)));
+        assertThat(drained.get(0) == event, is(true));
+        assertThat(drained.get(1) == other, is(true));
+        assertThat(drained.get(2) == event, is(true));
+    }
+
+    /**
+     * The mailbox is drained in batches and if there are more events left
+     * the one draining must schedule another drain.
+     */
+    @Test
+    public void testDrainInBatches() throws Exception {
+        final FlowMailbox mailbox = new FlowMailbox();
+        mailbox.post(event);
+        for (int i = 1; i < FlowMailbox.BATCH_SIZE + 10; ++i) {
+            assertThat(mailbox.post(event), is(false));
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        assertThat(mailbox.drain((upstream, e) -> count.incrementAndGet()), is(true));
+        assertThat(count.get(), is(FlowMailbox.BATCH_SIZE));
+
+        // no one else will schedule a drain while we still are draining
+        assertThat(mailbox.post(event), is(false));
+
+        assertThat(mailbox.drain((upstream, e) -> count.incrementAndGet()), is(false));
+        assertThat(count.get(), is(FlowMailbox.BATCH_SIZE + 11));
+    }
+
+    /**
+     * Many threads posting at the same time while a single thread, just like an
+     * event loop, is draining. No event may get lost.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrentPosts() throws Exception {
+        final int threads = 4;
+        final int events = 10000;
+        final FlowMailbox mailbox = new FlowMailbox();
+        final ExecutorService eventLoop = Executors.newSingleThreadExecutor();
+        final ExecutorService producers = Executors.newFixedThreadPool(threads);
+        final AtomicInteger drained = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads * events);
+
+        final Runnable[] drain = new Runnable[1];
+        drain[0] = () -> {
+            if (mailbox.drain((upstream, e) -> {
+                drained.incrementAndGet();
+                done.countDown();
+            })) {
+                eventLoop.execute(drain[0]);
+            }
+        };
+
+        for (int i = 0; i < threads; ++i) {
+            producers.execute(() -> {
+                for (int j = 0; j < events; ++j) {
+                    if (mailbox.post(event)) {
+                        eventLoop.execute(drain[0]);
+                    }
+                }
+            });
+        }
+
+        done.await();
+        producers.shutdown();
+        eventLoop.shutdown();
+        eventLoop.awaitTermination(1, TimeUnit.SECONDS);
+
+        assertThat(drained.get(), is(threads * events));
+        assertThat(mailbox.isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,150 @@
+package io.sipstack.transport.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.pkts.packet.sip.Transport;
+import io.sipstack.netty.codec.sip.Clock;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.ConnectionId;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlowMetricsTest {
+
+    private static final long NOW = 1000500;
+
+    private final List<FlowActor> flows = new ArrayList<>();
+
+    private FlowStorage storage;
+
+    private Clock clock;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = mock(FlowStorage.class);
+        when(storage.iterator()).thenAnswer(invocation -> flows.iterator());
+        when(storage.count()).thenAnswer(invocation -> flows.size());
+
+        clock = mock(Clock.class);
+        when(clock.getCurrentTimeMillis()).thenReturn(NOW);
+    }
+
+    /**
+     * The totals are the sum of the counters of all flows.
+     */
+    @Test
+    public void testSummarize() throws Exception {
+        final FlowActor a = flow(1, 0, 0);
+        a.counters().onRead(PingMessageIOEvent.create(a.connection(), 0));
+        a.counters().onBytesOut(100);
+        final FlowActor b = flow(2, 0, 1234);
+        b.counters().onRead(PingMessageIOEvent.create(b.connection(), 0));
+        b.counters().onWrite(PingMessageIOEvent.create(b.connection(), 0));
+        b.counters().onBytesOut(50);
+
+        final FlowMetrics.Summary summary = new FlowMetrics(storage, clock, 10).summarize();
+        assertThat(summary.messagesIn, is(2L));
+        assertThat(summary.messagesOut, is(1L));
+        assertThat(summary.bytesOut, is(150L));
+        assertThat(summary.backPressured, is(1));
+    }
+
+    /**
+     * Only the N busiest flows are reported, the busiest first, and flows
+     * without any traffic are never among them.
+     */
+    @Test
+    public void testTopN() throws Exception {
+        flow(1, 5, 0);
+        final FlowActor busiest = flow(2, 20, 0);
+        flow(3, 1, 0);
+        final FlowActor second = flow(4, 10, 0);
+        flow(5, 0, 0);
+
+        final FlowMetrics.Summary summary = new FlowMetrics(storage, clock, 2).summarize();
+        assertThat(summary.busiest, is(Arrays.asList(
+                busiest.connection().id() + " 20 msg/s",
+                second.connection().id() + " 10 msg/s")));
+
+        final FlowMetrics.Summary all = new FlowMetrics(storage, clock, 10).summarize();
+        assertThat(all.busiest.size(), is(4));
+        assertThat(all.busiest.get(3), is(flows.get(2).connection().id() + " 1 msg/s"));
+    }
+
+    @Test
+    public void testNoFlows() throws Exception {
+        final FlowMetrics.Summary summary = new FlowMetrics(storage, clock, 10).summarize();
+        assertThat(summary.busiest, is(Collections.<String>emptyList()));
+        assertThat(summary.messagesIn, is(0L));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        final FlowActor a = flow(1, 3, 0);
+        a.counters().onBytesOut(42);
+        final MetricRegistry registry = new MetricRegistry();
+        new FlowMetrics(storage, clock, 10).register(registry);
+
+        @SuppressWarnings("rawtypes")
+        final Map<String, Gauge> gauges = registry.getGauges();
+        assertThat(new TreeSet<>(gauges.keySet()), is(new TreeSet<>(Arrays.asList(
+                "sipstack.flows.count",
+                "sipstack.flows.messages.in",
+                "sipstack.flows.messages.out",
+                "sipstack.flows.bytes.in",
+                "sipstack.flows.bytes.out",
+                "sipstack.flows.backpressured",
+                "sipstack.flows.busiest"))));
+
+        assertThat(gauges.get("sipstack.flows.count").getValue(), is((Object) 1));
+        assertThat(gauges.get("sipstack.flows.bytes.out").getValue(), is((Object) 42L));
+        assertThat(gauges.get("sipstack.flows.busiest").getValue(),
+                is((Object) Collections.singletonList(a.connection().id() + " 3 msg/s")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopNMustBePositive() throws Exception {
+        new FlowMetrics(storage, clock, 0);
+    }
+
+    /**
+     * Create a flow with the given number of messages within the current second.
+     */
+    private FlowActor flow(final int port, final int rate, final long backPressuredSince) {
+        final ConnectionId id = ConnectionId.create(Transport.tcp,
+                new InetSocketAddress("10.0.0.1", 5060), new InetSocketAddress("10.0.0.2", port));
+        final Connection connection = mock(Connection.class);
+        when(connection.id()).thenReturn(id);
+
+        final FlowLoad load = new FlowLoad();
+        for (int i = 0; i < rate; ++i) {
+            load.onMessage(NOW);
+        }
+
+        final FlowCounters counters = new FlowCounters();
+        final FlowActor actor = mock(FlowActor.class);
+        when(actor.connection()).thenReturn(connection);
+        when(actor.counters()).thenReturn(counters);
+        when(actor.load()).thenReturn(load);
+        when(actor.getBackPressuredSince()).thenReturn(backPressuredSince);
+        flows.add(actor);
+        return actor;
+    }
+}
@@ -0,0 +1,144 @@
+package io.sipstack.transport.impl;
+
+import io.sipstack.config.TransportLayerConfiguration;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.ConnectionEndpointId;
+import io.sipstack.netty.codec.sip.SystemClock;
+import io.sipstack.netty.codec.sip.TcpConnection;
+import io.sipstack.transaction.impl.MockChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hammers the {@link DefaultFlowStorage} from 8 threads at the same time, which is what
+ * it looks like when 8 event loops are all reading messages. Every inbound message goes
+ * through {@link FlowStorage#ensureFlow(Connection)}, which should scale with the number
+ * of threads since it never takes a lock for a flow that already exists.
+ *
+ * The "churn" group does the same lookups from 7 threads while the 8th keeps closing
+ * and opening flows (to the same remote endpoints as everyone else is looking up) so
+ * that we see what the occasional new connection costs everyone else.
+ *
+ * Run it through its main method or through the JMH runner, e.g.
+ * <code>java -cp target/test-classes:... org.openjdk.jmh.Main FlowStorageContentionBenchmark -t 16</code>
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class FlowStorageContentionBenchmark {
+
+    private static final int ENDPOINTS = 1000;
+
+    private static final int FLOWS_PER_ENDPOINT = 4;
+
+    private FlowStorage storage;
+
+    private Connection[] connections;
+
+    private ConnectionEndpointId[] endpoints;
+
+    /**
+     * Flows that are only ever opened and closed by the churn thread.
+     */
+    private Connection[] churn;
+
+    @Setup
+    public void setup() {
+        final TransportLayerConfiguration config = new TransportLayerConfiguration();
+        config.getFlow().setDefaultStorageSize(ENDPOINTS * FLOWS_PER_ENDPOINT);
+        storage = new DefaultFlowStorage(config, new SystemClock());
+
+        connections = new Connection[ENDPOINTS * FLOWS_PER_ENDPOINT];
+        endpoints = new ConnectionEndpointId[ENDPOINTS];
+        churn = new Connection[ENDPOINTS];
+        for (int i = 0; i < ENDPOINTS; ++i) {
+            final InetSocketAddress remote = new InetSocketAddress("10.0." + (i / 250) + "." + (i % 250), 5060);
+            for (int j = 0; j < FLOWS_PER_ENDPOINT; ++j) {
+                final Connection connection = createConnection(20000 + i * FLOWS_PER_ENDPOINT + j, remote);
+                connections[i * FLOWS_PER_ENDPOINT + j] = connection;
+                storage.ensureFlow(connection);
+            }
+            endpoints[i] = connections[i * FLOWS_PER_ENDPOINT].id().getRemoteConnectionEndpointId();
+            churn[i] = createConnection(10000 + i, remote);
+        }
+    }
+
+    private static Connection createConnection(final int localPort, final InetSocketAddress remote) {
+        final InetSocketAddress local = new InetSocketAddress("192.168.0.100", localPort);
+        return new TcpConnection(new MockChannel(null, null, local, remote), remote);
+    }
+
+    /**
+     * Every thread walks through the flows in its own order so that they aren't
+     * all hitting the same flow at the same time.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup
+        public void setup() {
+            next = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        int next(final int bound) {
+            next = (next + 1) & Integer.MAX_VALUE;
+            return next % bound;
+        }
+    }
+
+    @Benchmark
+    public FlowActor ensureExistingFlow(final Cursor cursor) {
+        return storage.ensureFlow(connections[cursor.next(connections.length)]);
+    }
+
+    @Benchmark
+    public FlowActor pickAnyFlow(final Cursor cursor) {
+        return storage.get(endpoints[cursor.next(endpoints.length)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(7)
+    public FlowActor churnLookup(final Cursor cursor) {
+        return storage.ensureFlow(connections[cursor.next(connections.length)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public FlowActor churnOpenClose(final Cursor cursor) {
+        final Connection connection = churn[cursor.next(churn.length)];
+        if (storage.get(connection.id()) != null) {
+            storage.remove(connection.id());
+            return null;
+        }
+        return storage.ensureFlow(connection);
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(FlowStorageContentionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -4,17 +4,16 @@ import io.pkts.packet.sip.Transport;
 import io.sipstack.config.SipConfiguration;
 import io.sipstack.config.TransportLayerConfiguration;
 import io.sipstack.netty.codec.sip.Connection;
-import io.sipstack.netty.codec.sip.SipTimer;
 import io.sipstack.netty.codec.sip.event.IOEvent;
 import io.sipstack.transport.Flow;
+import io.sipstack.transport.FlowState;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.time.Duration;
-
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -52,23 +51,21 @@ public abstract class LifeTimeTimerTest extends TransportLayerTestBase {
         defaultClock.plusSeconds(20);
         transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, defaultInviteRequest));
 
-        // now jump another 100 seconds, which then would fire the timer...
+        // now jump another 100 seconds, which is 2 minutes since the flow was created...
         defaultClock.plusSeconds(100);
-        defaultScheduler.fire(SipTimer.Timeout);
 
         // but, since we received a message we should not transition over to
-        // the closing state but rather schedule the timer again. Note, we will
-        // use the timestamp of the last received event as the base since we
-        // are trying to kill the flow if we haven't received anything in 2
-        // minutes (configurable of course). Hence, in this test, we did receive
-        // a message 100 seconds ago so we will schedule the timer for +20 seconds
-        // in the future and when it fires again, there has now been 120 seconds
-        // without any new messages and then we should close the flow...
-        assertTimerScheduled(SipTimer.Timeout, Duration.ofSeconds(20));
+        // the closing state. Note, the idle sweeper uses the timestamp of the
+        // last received event since we are trying to kill the flow if we haven't
+        // received anything in 2 minutes (configurable of course). Hence, in this
+        // test, we did receive a message 100 seconds ago so it isn't until another
+        // 20 seconds have passed that the flow has been idle for 120 seconds.
+        assertThat(transportLayer.idleSweeper().sweep(), is(0));
+        assertThat(flow.getState(), not(FlowState.CLOSING));
 
         // so jump those extra 20 seconds and the flow should be killed now...
         defaultClock.plusSeconds(20);
-        defaultScheduler.fire(SipTimer.Timeout);
+        assertThat(transportLayer.idleSweeper().sweep(), is(1));
     }
 
 }
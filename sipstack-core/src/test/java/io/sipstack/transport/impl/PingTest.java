@@ -1,5 +1,7 @@
 package io.sipstack.transport.impl;
 
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
 import io.pkts.packet.sip.SipResponse;
 import io.pkts.packet.sip.Transport;
@@ -8,7 +10,6 @@ import io.sipstack.config.SipConfiguration;
 import io.sipstack.config.SipOptionsPingConfiguration;
 import io.sipstack.config.TransportLayerConfiguration;
 import io.sipstack.netty.codec.sip.Connection;
-import io.sipstack.netty.codec.sip.SipTimer;
 import io.sipstack.netty.codec.sip.event.IOEvent;
 import io.sipstack.netty.codec.sip.event.SipRequestIOEvent;
 import io.sipstack.netty.codec.sip.event.SipResponseIOEvent;
@@ -18,8 +19,6 @@ import io.sipstack.transport.event.FlowEvent;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.time.Duration;
-
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -33,6 +32,16 @@ import static org.junit.Assert.assertThat;
  */
 public abstract class PingTest extends TransportLayerTestBase {
 
+    private static final String OPTIONS = "OPTIONS sip:alice@192.168.0.100 SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 62.63.64.65:7080;branch=z9hG4bK-ping-1\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "From: <sip:bob@62.63.64.65>;tag=ping\r\n"
+            + "To: <sip:alice@192.168.0.100>\r\n"
+            + "Call-ID: ping-1234@10.0.0.1\r\n"
+            + "CSeq: 1 OPTIONS\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
@@ -69,22 +78,19 @@ public abstract class PingTest extends TransportLayerTestBase {
         // another 10 seconds passes
         defaultClock.plusSeconds(10);
 
-        // the timeout2 timer, which is the ping timer, fires but should now
-        // not lead to a options being sent out because the previous message
-        // is counted as a ping and that message was received only
-        // 10 seconds ago...
-        defaultScheduler.fire(SipTimer.Timeout2);
+        // another 20 seconds passes, which means the flow was created 40 seconds ago,
+        // but that should not lead to an options being sent out because the previous
+        // message is counted as a ping and that message was received only
+        // 20 seconds ago...
+        defaultClock.plusSeconds(10);
+        assertThat(transportLayer.idleSweeper().sweep(), is(0));
         defaultChannelCtx.assertNothingWritten();
 
-        // the way the scheduling of the idle timer works is that we will
-        // reschedule the timer based on the last "ping" or "pong" and since the
-        // last message received was the invite request we will use that as
-        // the base for when to schedule the next timeout... which will
-        // be 30 seconds since the timeout is set for 40 seconds and
-        // we received a message 10 seconds ago, which means that if
-        // we don't receive another anything within 40 - 10 seconds
-        // we should start pinging...
-        assertTimerScheduled(SipTimer.Timeout2, Duration.ofSeconds(30));
+        // the idle timer (Timeout2) is based on the last "ping" or "pong" and since
+        // the last message received was the invite request it isn't until 40 seconds
+        // after it that we should start pinging...
+        defaultClock.plusSeconds(20);
+        assertThat(transportLayer.idleSweeper().sweep(), is(1));
     }
 
     /**
@@ -115,6 +121,31 @@ public abstract class PingTest extends TransportLayerTestBase {
         //
     }
 
+    /**
+     * We are configured to accept SIP OPTIONS as pings, which means that the OPTIONS
+     * is consumed by the flow and never forwarded up the stack. Since nothing else
+     * will answer it, the flow must generate the 200 OK itself or the remote side
+     * will think we are dead.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSipOptionsPingIsAnswered() throws Exception {
+        final TransportLayerConfiguration config =
+                loadConfiguration(SipConfiguration.class, "PingTest001.yaml").getTransport();
+        final Connection connection = (Connection) initiateFlowToActive(config, getTransport())[0];
+        defaultChannelCtx.reset();
+
+        final SipRequest options = SipMessage.frame(Buffers.wrap(OPTIONS)).toRequest();
+        transportLayer.channelRead(defaultChannelCtx, IOEvent.create(connection, options));
+        defaultChannelCtx.assertSipMessageNotForwarded(options);
+
+        final SipResponseIOEvent pong = defaultChannelCtx.findWrittenMessageByType(SipResponseIOEvent.class);
+        assertThat(pong.response().getStatus(), is(200));
+        assertThat(pong.response().isOptions(), is(true));
+        assertThat(pong.response().getCallIDHeader().getCallId().toString(), is("ping-1234@10.0.0.1"));
+    }
+
     /**
      * If we issue a SIP options as a ping we are typically waiting for the pong, which should be
      * in the form of a 200 OK. However, if we receive any other type of traffic, let's say
@@ -177,9 +208,9 @@ public abstract class PingTest extends TransportLayerTestBase {
 
         defaultClock.plusSeconds(config.getFlow().getKeepAliveConfiguration().getIdleTimeout().plusSeconds(1).getSeconds());
 
-        // Fire the idle timer, which then should trigger a SIP options to be sent out.
-        // Note that the idle timer is scheduled as the Timeout2 timer
-        defaultScheduler.fire(SipTimer.Timeout2);
+        // Let the idle sweeper find the flow, which then should trigger a SIP options to be sent out.
+        // Note that the idle timer is the Timeout2 timer
+        assertThat(transportLayer.idleSweeper().sweep(), is(1));
         final SipRequestIOEvent optionsEvent = defaultChannelCtx.findWrittenMessageByType(SipRequestIOEvent.class);
         final SipRequest options = optionsEvent.request();
 
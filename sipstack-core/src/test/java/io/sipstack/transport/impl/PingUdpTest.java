@@ -1,6 +1,23 @@
 package io.sipstack.transport.impl;
 
 import io.pkts.packet.sip.Transport;
+import io.sipstack.config.KeepAliveConfiguration;
+import io.sipstack.config.KeepAliveMethodConfiguration;
+import io.sipstack.config.SipConfiguration;
+import io.sipstack.config.TransportLayerConfiguration;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.SipTimer;
+import io.sipstack.netty.codec.sip.StunMessage;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import io.sipstack.transaction.impl.MockChannel;
+import io.sipstack.transport.FlowState;
+import io.sipstack.transport.event.FlowTerminatedEvent;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 
 /**
  * All tests are defined in {@link PingTest} but if you run this class
@@ -14,4 +31,52 @@ public class PingUdpTest extends PingTest {
     public Transport getTransport() {
         return Transport.udp;
     }
+
+    /**
+     * When we are using STUN as the ping mechanism and the binding request goes unanswered,
+     * the request is retransmitted, backing off every time, and once the max number of
+     * failed attempts has been reached, we give up and kill the flow. There is no connection
+     * to close for UDP so the flow goes away right away and the channel, which is shared
+     * with every other UDP flow, must be left alone.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStunPingNoResponseTimeout() throws Exception {
+        final TransportLayerConfiguration config =
+                loadConfiguration(SipConfiguration.class, "PingTest001.yaml").getTransport();
+        final KeepAliveConfiguration keepAlive = config.getFlow().getKeepAliveConfiguration();
+        keepAlive.getUdpKeepAliveMethodConfiguratioh().setActiveMethod(KeepAliveMethodConfiguration.PING_METHOD.STUN);
+        assertThat("You changed the config file, this test assumes max 3 failed attempts",
+                keepAlive.getMaxFailed(), is(3));
+
+        final Object[] objects = initiateFlowToActive(config, Transport.udp);
+        final Connection connection = (Connection) objects[0];
+        final MockChannel channel = (MockChannel) objects[2];
+
+        defaultClock.plusSeconds(keepAlive.getIdleTimeout().plusSeconds(1).getSeconds());
+        defaultChannelCtx.reset();
+        assertThat(transportLayer.idleSweeper().sweep(), is(1));
+        final StunMessage ping = defaultChannelCtx.findWrittenMessageByType(PingMessageIOEvent.class).stun().get();
+        assertTimerScheduled(SipTimer.Timeout3, Duration.ofMillis(500));
+
+        // the first two timeouts will re-send the very same binding request...
+        for (int i = 1; i < 3; ++i) {
+            defaultChannelCtx.reset();
+            defaultScheduler.fire(SipTimer.Timeout3);
+            final StunMessage retransmission =
+                    defaultChannelCtx.findWrittenMessageByType(PingMessageIOEvent.class).stun().get();
+            assertThat(retransmission.isSameTransaction(ping), is(true));
+            assertTimerScheduled(SipTimer.Timeout3, Duration.ofMillis(500 << i));
+            assertThat(defaultFlowStorage.get(connection.id()).flow().getState(), is(FlowState.PING));
+        }
+
+        // ... and the third one is the last straw
+        defaultChannelCtx.reset();
+        defaultScheduler.fire(SipTimer.Timeout3);
+        defaultChannelCtx.assertNothingWritten();
+        defaultChannelCtx.findForwardedMessageByType(FlowTerminatedEvent.class);
+        assertFlowDoesNotExist(connection);
+        assertThat(channel.hasCloseBeenCalled(), is(false));
+    }
 }
@@ -3,18 +3,15 @@
  */
 package io.sipstack.netty.codec.sip;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.AttributeKey;
 import io.pkts.buffer.Buffer;
 import io.pkts.buffer.Buffers;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.Transport;
 import io.pkts.packet.sip.address.SipURI;
-import io.pkts.packet.sip.impl.SipParser;
+import io.sipstack.netty.codec.sip.event.IOEvent;
 
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -31,6 +28,13 @@ public abstract class AbstractConnection implements Connection {
     private final Optional<SipURI> vipAddress;
     private final static AttributeKey<Object> key = AttributeKey.newInstance("generic_object");
 
+    /**
+     * For connection oriented transports there is exactly one {@link Connection} per
+     * {@link Channel} and that connection is kept as an attribute on the channel so
+     * that every message on the same flow is referring to the very same connection object.
+     */
+    protected final static AttributeKey<Connection> CONNECTION_KEY = AttributeKey.valueOf("sipstack.connection");
+
     /*
      * protected AbstractConnection(final ChannelHandlerContext ctx, final InetSocketAddress remote)
      * { this.ctx = ctx; this.channel = null; this.remote = remote; }
@@ -73,6 +77,11 @@ public abstract class AbstractConnection implements Connection {
         return this.id.toString();
     }
 
+    @Override
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
     @Override
     public void close() {
         // TODO: do we need to do more?
@@ -162,31 +171,23 @@ public abstract class AbstractConnection implements Connection {
     // }
 
     /**
-     * All {@link Connection}s needs to convert the msg to a {@link ByteBuf}
-     * before writing it to the {@link ChannelHandlerContext}.
-     * 
-     * @param msg
-     *            the {@link SipMessage} to convert.
-     * @return the resulting {@link ByteBuf}
+     * The encoders in the pipeline are operating on {@link IOEvent}s so if someone
+     * is sending a plain {@link SipMessage} (or a builder) over the connection we'll wrap
+     * it so that all messages take the same path through the encoders.
+     *
+     * @param o
+     * @return
      */
-    protected ByteBuf toByteBuf(final SipMessage msg) {
-        try {
-            final Buffer b = msg.toBuffer();
-            final int capacity = b.capacity() + 2;
-            final ByteBuf buffer = this.channel.alloc().buffer(capacity, capacity);
-
-            for (int i = 0; i < b.getReadableBytes(); ++i) {
-                buffer.writeByte(b.getByte(i));
-            }
-            buffer.writeByte(SipParser.CR);
-            buffer.writeByte(SipParser.LF);
-            return buffer;
-        } catch (final IOException e) {
-            // shouldn't be possible since the underlying buffer
-            // from the msg is backed by a byte-array.
-            // TODO: do something appropriate other than this
-            throw new RuntimeException("Unable to convert SipMessage to a ByteBuf due to IOException", e);
+    protected Object toWritable(final Object o) {
+        if (o instanceof SipMessage) {
+            return IOEvent.create(this, (SipMessage) o);
+        }
+
+        if (o instanceof SipMessage.Builder) {
+            return IOEvent.create(this, (SipMessage.Builder<?>) o);
         }
+
+        return o;
     }
 
 }
@@ -0,0 +1,137 @@
+package io.sipstack.netty.codec.sip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of how much data is typically written to a flow in between two flushes and
+ * hands out a size hint for the next outbound buffer based on that. This is the outbound
+ * equivalent of Netty's {@link io.netty.channel.AdaptiveRecvByteBufAllocator} and it uses the
+ * same algorithm: the hint is increased as soon as a single chunk didn't fit the
+ * current guess and decreased only when two chunks in a row were considerably smaller.
+ *
+ * Since a flow, typically a trunk, tends to carry the same kind of traffic over and
+ * over again, the hint quickly settles and every chunk for the flow is allocated with
+ * the same size, which the pooled allocator is very good at handing out.
+ *
+ * NOTE! This class is not thread safe and is meant to be owned by a single
+ * channel handler.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class AdaptiveEncodeBufferSizer {
+
+    public static final int DEFAULT_MINIMUM = 256;
+
+    public static final int DEFAULT_INITIAL = 2048;
+
+    public static final int DEFAULT_MAXIMUM = 65536;
+
+    private static final int INDEX_INCREMENT = 4;
+
+    private static final int INDEX_DECREMENT = 1;
+
+    private static final int[] SIZE_TABLE;
+
+    static {
+        final List<Integer> sizes = new ArrayList<>();
+        for (int i = 16; i < 512; i += 16) {
+            sizes.add(i);
+        }
+
+        for (int i = 512; i > 0; i <<= 1) {
+            sizes.add(i);
+        }
+
+        SIZE_TABLE = new int[sizes.size()];
+        for (int i = 0; i < SIZE_TABLE.length; ++i) {
+            SIZE_TABLE[i] = sizes.get(i);
+        }
+    }
+
+    private final int minIndex;
+
+    private final int maxIndex;
+
+    private int index;
+
+    private int nextSize;
+
+    private boolean decreaseNow;
+
+    public AdaptiveEncodeBufferSizer() {
+        this(DEFAULT_MINIMUM, DEFAULT_INITIAL, DEFAULT_MAXIMUM);
+    }
+
+    /**
+     * @param minimum the smallest size ever handed out.
+     * @param initial the size handed out until we know better.
+     * @param maximum the largest size ever handed out.
+     */
+    public AdaptiveEncodeBufferSizer(final int minimum, final int initial, final int maximum) {
+        if (minimum <= 0) {
+            throw new IllegalArgumentException("The minimum must be greater than zero");
+        }
+        if (initial < minimum || maximum < initial) {
+            throw new IllegalArgumentException("The initial size must be between the minimum and the maximum");
+        }
+
+        this.minIndex = sizeTableIndex(minimum);
+
+        final int max = sizeTableIndex(maximum);
+        this.maxIndex = SIZE_TABLE[max] > maximum ? Math.max(max - 1, minIndex) : max;
+
+        this.index = Math.min(sizeTableIndex(initial), maxIndex);
+        this.nextSize = SIZE_TABLE[index];
+    }
+
+    /**
+     * @return the size to use for the next buffer.
+     */
+    public int nextSize() {
+        return nextSize;
+    }
+
+    /**
+     * Record the number of bytes that were written, or that we tried to write, to the last
+     * buffer. Note that a buffer that was too small has to be recorded with the size that
+     * would have fit since that is the only way the hint will ever grow.
+     *
+     * @param actualBytes
+     */
+    public void record(final int actualBytes) {
+        if (actualBytes <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT - 1)]) {
+            if (decreaseNow) {
+                index = Math.max(index - INDEX_DECREMENT, minIndex);
+                nextSize = SIZE_TABLE[index];
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else if (actualBytes >= nextSize) {
+            index = Math.min(index + INDEX_INCREMENT, maxIndex);
+            nextSize = SIZE_TABLE[index];
+            decreaseNow = false;
+        } else {
+            decreaseNow = false;
+        }
+    }
+
+    /**
+     * Binary search for the index of the smallest size in the table that is
+     * at least as big as the given size.
+     */
+    private static int sizeTableIndex(final int size) {
+        int low = 0;
+        int high = SIZE_TABLE.length - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (SIZE_TABLE[mid] < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,170 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Protects us from a peer that isn't reading as fast as we are writing.
+ *
+ * Netty will happily keep on buffering whatever we write to a channel whose peer isn't
+ * reading and all it does is to mark the channel as unwritable once the outbound buffer
+ * has grown past its high-water mark (see {@link io.netty.channel.ChannelOption#WRITE_BUFFER_HIGH_WATER_MARK}).
+ * This handler acts on that:
+ *
+ * <ul>
+ *     <li>While the channel is unwritable, the writes are held back in a queue
+ *     that is bounded and once that queue is full, further writes are failed with a
+ *     {@link WriteQueueFullException} and dropped. For SIP this is fine since the
+ *     transactions will retransmit or time out.</li>
+ *     <li>Optionally, we also stop reading from the peer (by turning off auto-read) for as long as
+ *     the channel is unwritable. A peer that doesn't read what we send it should not be able to
+ *     keep us busy producing even more for it. This is only meaningful for connection oriented
+ *     transports since a UDP channel is shared by all the flows over it.</li>
+ *     <li>Once the channel is writable again, the queue is drained (for as long as the
+ *     channel stays writable) and we start reading again.</li>
+ * </ul>
+ *
+ * The handler is meant to sit in between the encoder and the handlers writing {@link Connection}
+ * events so that what is held back are the events and not the encoded bytes.
+ *
+ * NOTE! This is NOT a sharable class since it keeps the write queue of a single channel.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class BackPressureHandler extends ChannelDuplexHandler {
+
+    public static final int DEFAULT_MAX_QUEUED_WRITES = 1024;
+
+    private final int maxQueuedWrites;
+
+    private final boolean pauseReads;
+
+    private final Queue<PendingWrite> queue = new ArrayDeque<>();
+
+    /**
+     * The number of writes dropped because the queue was full.
+     */
+    private long droppedWrites;
+
+    /**
+     * Whether we are the ones that turned auto-read off.
+     */
+    private boolean readsPaused;
+
+    /**
+     * @param maxQueuedWrites the max number of writes to hold back while the channel is unwritable.
+     * @param pauseReads whether to stop reading from the peer while the channel is unwritable.
+     */
+    public BackPressureHandler(final int maxQueuedWrites, final boolean pauseReads) {
+        if (maxQueuedWrites < 0) {
+            throw new IllegalArgumentException("The max number of queued writes cannot be negative");
+        }
+        this.maxQueuedWrites = maxQueuedWrites;
+        this.pauseReads = pauseReads;
+    }
+
+    /**
+     * @return the number of writes currently held back.
+     */
+    public int getQueuedWrites() {
+        return queue.size();
+    }
+
+    /**
+     * @return the total number of writes dropped because the queue was full.
+     */
+    public long getDroppedWrites() {
+        return droppedWrites;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) throws Exception {
+        if (queue.isEmpty() && ctx.channel().isWritable()) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        if (queue.size() < maxQueuedWrites) {
+            queue.add(new PendingWrite(msg, promise));
+            return;
+        }
+
+        ++droppedWrites;
+        ReferenceCountUtil.release(msg);
+        promise.tryFailure(new WriteQueueFullException("The write queue of " + ctx.channel() + " is full ("
+                + maxQueuedWrites + " writes)"));
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain(ctx);
+        } else if (pauseReads && ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(false);
+            readsPaused = true;
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        failAll(new ClosedChannelException());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+        // whatever is left goes out as is, the channel will buffer it
+        while (!queue.isEmpty()) {
+            final PendingWrite write = queue.poll();
+            ctx.write(write.msg, write.promise);
+        }
+        ctx.flush();
+    }
+
+    /**
+     * Write what we have been holding back for as long as the channel stays writable and
+     * start reading again once everything is out.
+     */
+    private void drain(final ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (!queue.isEmpty() && ctx.channel().isWritable()) {
+            final PendingWrite write = queue.poll();
+            ctx.write(write.msg, write.promise);
+            written = true;
+        }
+
+        if (written) {
+            ctx.flush();
+        }
+
+        if (queue.isEmpty() && readsPaused) {
+            readsPaused = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private void failAll(final Throwable cause) {
+        while (!queue.isEmpty()) {
+            final PendingWrite write = queue.poll();
+            ReferenceCountUtil.release(write.msg);
+            write.promise.tryFailure(cause);
+        }
+    }
+
+    private static final class PendingWrite {
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        private PendingWrite(final Object msg, final ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
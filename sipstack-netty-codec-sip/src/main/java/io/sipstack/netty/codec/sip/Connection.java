@@ -146,8 +146,23 @@ public interface Connection {
      */
     boolean isWS();
 
+    /**
+     * Check whether the underlying channel currently is writable, i.e., whether
+     * the peer is keeping up with what we are writing to it. Note that for UDP this
+     * is the writability of the socket shared by all the connections over it.
+     *
+     * @return
+     */
+    default boolean isWritable() {
+        return true;
+    }
+
     /**
      * Send an Object over this connection.
+     *
+     * The object is written and flushed but if there is a {@link FlushConsolidationHandler}
+     * in the pipeline, the flush may be held back for a little while in order to go out
+     * together with other messages written to the same connection.
      * 
      * @param msg
      */
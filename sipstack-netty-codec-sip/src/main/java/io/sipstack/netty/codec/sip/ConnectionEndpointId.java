@@ -69,7 +69,7 @@ public interface ConnectionEndpointId {
     }
 
     static ConnectionEndpointId create(final Transport transport, final byte[] rawAddress, final int port) {
-        final InetSocketAddress address = new InetSocketAddress(ConnectionId.convertToStringIP(rawAddress), port);
+        final InetSocketAddress address = new InetSocketAddress(ConnectionId.toInetAddress(rawAddress), port);
         return new IPv4ConnectionEndpointId(transport, address, rawAddress, port);
     }
 
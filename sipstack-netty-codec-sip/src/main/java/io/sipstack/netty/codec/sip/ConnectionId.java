@@ -1,17 +1,16 @@
 /**
- * 
+ *
  */
 package io.sipstack.netty.codec.sip;
 
 import io.pkts.buffer.Buffer;
 import io.pkts.buffer.Buffers;
 import io.pkts.packet.sip.Transport;
-import sun.net.util.IPAddressUtil;
 
-import java.net.Inet4Address;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
+import java.net.UnknownHostException;
 
 import static io.pkts.packet.sip.impl.PreConditions.ensureNotEmpty;
 import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
@@ -77,13 +76,18 @@ public interface ConnectionId {
     }
 
     /**
-     * Helper method to convert an IPv4 address represented as a byte-array
-     * into a human readable String.
+     * Helper method to convert an IP address represented as a byte-array
+     * into a human readable String. Both IPv4 (4 bytes) and IPv6 (16 bytes)
+     * addresses are supported.
      *
      * @param ip
      * @return
      */
     static String convertToStringIP(final byte[] ip) {
+        if (ip.length == 16) {
+            return toInetAddress(ip).getHostAddress();
+        }
+
         final short a = (short) (ip[0] & 0xFF);
         final short b = (short) (ip[1] & 0xFF);
         final short c = (short) (ip[2] & 0xFF);
@@ -91,172 +95,220 @@ public interface ConnectionId {
         return a + "." + b + "." + c + "." + d;
     }
 
+    /**
+     * Convert the raw address into an {@link InetAddress} without ever trying to
+     * resolve it.
+     */
+    static InetAddress toInetAddress(final byte[] ip) {
+        try {
+            return InetAddress.getByAddress(ip);
+        } catch (final UnknownHostException e) {
+            throw new IllegalArgumentException("Illegal length of IP address " + ip.length, e);
+        }
+    }
+
     static ConnectionId create(final Transport transport, final InetSocketAddress local, final InetSocketAddress remote) {
         ensureNotNull(transport);
         ensureNotNull(local);
         ensureNotNull(remote);
-
-        final byte[] rawLocal = local.getAddress().getAddress();
-        final byte[] rawRemote = remote.getAddress().getAddress();
-        final int localPort = local.getPort();
-        final int remotePort = remote.getPort();
-        return new IPv4ConnectionId(transport, local, rawLocal, localPort, remote, rawRemote, remotePort);
+        return new CompactConnectionId(transport, local, remote);
     }
 
-    static ConnectionId decode(final Buffer encoded) {
+    /**
+     * Decode a {@link ConnectionId} that previously was encoded through {@link ConnectionId#encode()}.
+     *
+     * The buffer is decoded in place, straight into the primitive fields of the new id,
+     * without going through any intermediate byte arrays.
+     *
+     * @param encoded
+     * @return
+     * @throws IllegalArgumentException in case the buffer isn't a valid encoded {@link ConnectionId}
+     */
+    static ConnectionId decode(final Buffer encoded) throws IllegalArgumentException {
         ensureNotEmpty(encoded, "Unable to decode null or empty buffer to a ConnectionId");
-        return decode(encoded.toString());
+        return CompactConnectionId.decode(encoded);
     }
 
-    static ConnectionId decode(final String encoded) {
-        final byte[] decoded = new byte[encoded.length() / 2];
-        for (int i = 0; i < decoded.length; ++i) {
-            final int l = encoded.charAt(i * 2) - 'A';
-            final int h = encoded.charAt(i * 2 + 1) - 'A';
-            decoded[i] = (byte) ((l << 4 | h) & 0xFF);
-        }
-
-        final byte[] remoteIp = new byte[4];
-        System.arraycopy(decoded, 0, remoteIp, 0, 4);
-
-        final int remotePort = (decoded[4] & 0xFF) << 24 | (decoded[5] & 0xFF) << 16 | (decoded[6] & 0xFF) << 8
-                | decoded[7] & 0xFF;
-
-        final byte[] localIp = new byte[4];
-        System.arraycopy(decoded, 8, localIp, 0, 4);
-
-        final int localPort = (decoded[12] & 0xFF) << 24 | (decoded[13] & 0xFF) << 16 | (decoded[14] & 0xFF) << 8
-                | decoded[15] & 0xFF;
-
-        Transport protocol = null;
-        switch (decoded[16]) {
-            case 0x01:
-                protocol = Transport.udp;
-                break;
-            case 0x02:
-                protocol = Transport.tcp;
-                break;
-            case 0x03:
-                protocol = Transport.tls;
-                break;
-            case 0x04:
-                protocol = Transport.ws;
-                break;
-            case 0x05:
-                protocol = Transport.wss;
-                break;
-            case 0x06:
-                protocol = Transport.sctp;
-                break;
-        }
-        final String localIpAsString = convertToStringIP(localIp);
-        final String remoteIpAsString = convertToStringIP(remoteIp);
-
-        // TODO: see if creating hese InetSocketAddresses all the time is expensive.
-        // We don't want to resolve them all the time but rather be in full control
-        // of that ourselves.
-        //
-        // This attempt to create an unresolved unfortunately doens't work straight off
-        // because we attempt to access the address to get the raw bytes and that blows
-        // up because they were never created. We could probably avoid this by actually
-        // calculating the byte[] array ourselves. There is a helper class
-        // IPAddressUtil.textToNumericFormatV4() that the InetSocketAddress is using too.
-        // Just step debug through it and you'll see...
-        // final InetSocketAddress localAddress = InetSocketAddress.createUnresolved(localIpAsString, localPort);
-        // final InetSocketAddress remoteAddress = InetSocketAddress.createUnresolved(remoteIpAsString, remotePort);
-
-        final InetSocketAddress localAddress = new InetSocketAddress(localIpAsString, localPort);
-        final InetSocketAddress remoteAddress = new InetSocketAddress(remoteIpAsString, remotePort);
-
-        return new IPv4ConnectionId(protocol, localAddress, localIpAsString, localIp, localPort, remoteAddress, remoteIpAsString, remoteIp, remotePort);
+    static ConnectionId decode(final String encoded) throws IllegalArgumentException {
+        ensureNotEmpty(encoded, "Unable to decode null or empty string to a ConnectionId");
+        return decode(Buffers.wrap(encoded));
     }
 
-    class IPv4ConnectionId implements ConnectionId {
+    /**
+     * A {@link ConnectionId} that keeps the addresses as primitives and that encodes
+     * to a compact binary format.
+     *
+     * The binary format is one byte where the lower 4 bits is the transport and the
+     * next two bits tells whether the remote and local addresses are IPv6 addresses,
+     * followed by the remote IP, remote port, local IP and local port, all in network
+     * byte order. Since the encoded version is used as e.g. a Via parameter, it is then
+     * base64 encoded using the URL safe alphabet (all of which are legal token characters)
+     * without any padding. An IPv4 connection id is therefore encoded as 18 characters.
+     *
+     * IP addresses are kept as 128 bit numbers (two longs) where an IPv4 address simply
+     * is the lower 32 bits so that hashing and comparing is the same for both.
+     */
+    final class CompactConnectionId implements ConnectionId {
+
+        private static final int REMOTE_IPV6 = 0x10;
+        private static final int LOCAL_IPV6 = 0x20;
+
+        private static final byte[] ALPHABET =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes();
+
+        private static final byte[] DECODE_TABLE = new byte[128];
+
+        static {
+            for (int i = 0; i < DECODE_TABLE.length; ++i) {
+                DECODE_TABLE[i] = -1;
+            }
+            for (int i = 0; i < ALPHABET.length; ++i) {
+                DECODE_TABLE[ALPHABET[i]] = (byte) i;
+            }
+        }
 
         private final Transport protocol;
-        private final InetSocketAddress localAddress;
-        private final byte[] localIp;
+
+        private final boolean localIPv6;
+        private final long localHigh;
+        private final long localLow;
         private final int localPort;
 
-        private final InetSocketAddress remoteAddress;
-        private final byte[] remoteIp;
+        private final boolean remoteIPv6;
+        private final long remoteHigh;
+        private final long remoteLow;
         private final int remotePort;
 
+        private final int hashCode;
+
         /**
-         * The encoded version of this connection id. 
-         * 
-         * Performance testing showed that there was actually
-         * a slight benefit keeping these cached.
+         * Everything below is derived from the fields above. The raw arrays are shared
+         * with the callers, which must not modify them.
          */
+        private final InetSocketAddress localAddress;
+        private final InetSocketAddress remoteAddress;
+        private final byte[] localIp;
+        private final byte[] remoteIp;
+        private final Buffer encoded;
         private final String encodedAsString;
-        private final Buffer encodedAsBuffer;
-        private final int hashCode;
         private final String humanReadableString;
+        private final ConnectionEndpointId remoteEndpointId;
+        private final ConnectionEndpointId localEndpointId;
 
-        private IPv4ConnectionId(final Transport protocol,
-                                 final byte[] localIp,
-                                 final int localPort,
-                                 final byte[] remoteIp,
-                                 final int remotePort) {
-            this(protocol,
-                    InetSocketAddress.createUnresolved(convertToStringIP(localIp), localPort),
-                    convertToStringIP(localIp),
-                    localIp,
-                    localPort,
-                    InetSocketAddress.createUnresolved(convertToStringIP(remoteIp), remotePort),
-                    convertToStringIP(remoteIp),
-                    remoteIp,
-                    remotePort);
-        }
-
-        private IPv4ConnectionId(final Transport protocol,
-                                 final  InetSocketAddress localAddress,
-                                 final byte[] localIp,
-                                 final int localPort,
-                                 final InetSocketAddress remoteAddress,
-                                 final byte[] remoteIp,
-                                 final int remotePort) {
+        private CompactConnectionId(final Transport protocol, final InetSocketAddress local,
+                                    final InetSocketAddress remote) {
+            this(protocol, local.getAddress().getAddress(), local, remote.getAddress().getAddress(), remote);
+        }
+
+        private CompactConnectionId(final Transport protocol,
+                                    final byte[] localIp, final int localPort,
+                                    final byte[] remoteIp, final int remotePort) {
             this(protocol,
-                    localAddress,
-                    convertToStringIP(localIp),
-                    localIp,
-                    localPort,
-                    remoteAddress,
-                    convertToStringIP(remoteIp),
-                    remoteIp,
-                    remotePort);
-        }
-
-        private IPv4ConnectionId(final Transport protocol,
-                                 final  InetSocketAddress localAddress,
-                                 final String localIpAsString,
-                                 final byte[] localIp,
-                                 final int localPort,
-                                 final InetSocketAddress remoteAddress,
-                                 final String remoteIpAsString,
-                                 final byte[] remoteIp,
-                                 final int remotePort) {
-            this.localAddress = localAddress;
-            this.localIp = localIp;
-            this.localPort = localPort;
+                    localIp, new InetSocketAddress(toInetAddress(localIp), localPort),
+                    remoteIp, new InetSocketAddress(toInetAddress(remoteIp), remotePort));
+        }
+
+        private CompactConnectionId(final Transport protocol,
+                                    final byte[] localIp, final InetSocketAddress local,
+                                    final byte[] remoteIp, final InetSocketAddress remote) {
+            this.protocol = protocol;
+            this.localIPv6 = localIp.length == 16;
+            this.localHigh = high(localIp);
+            this.localLow = low(localIp);
+            this.localPort = local.getPort();
+            this.remoteIPv6 = remoteIp.length == 16;
+            this.remoteHigh = high(remoteIp);
+            this.remoteLow = low(remoteIp);
+            this.remotePort = remote.getPort();
+            this.hashCode = calculateHashCode();
 
-            this.remoteAddress = remoteAddress;
+            this.localIp = localIp;
             this.remoteIp = remoteIp;
-            this.remotePort = remotePort;
+            this.localAddress = local;
+            this.remoteAddress = remote;
+            this.encoded = Buffers.wrap(encodeConnection());
+            this.encodedAsString = encoded.toString();
+            this.humanReadableString = convertToStringIP(localIp) + ":" + localPort + ":" + protocol
+                    + ":" + convertToStringIP(remoteIp) + ":" + remotePort;
+            this.localEndpointId = ConnectionEndpointId.create(protocol, local, localIp, localPort);
+            this.remoteEndpointId = ConnectionEndpointId.create(protocol, remote, remoteIp, remotePort);
+        }
 
-            this.protocol = protocol;
+        private static ConnectionId decode(final Buffer buffer) {
+            final int start = buffer.getReaderIndex();
+            final int length = buffer.getReadableBytes();
+
+            Transport protocol = null;
+            int remoteIpLength = 0;
+            int localIpLength = 0;
+            int total = 1;
+
+            long remoteHigh = 0;
+            long remoteLow = 0;
+            int remotePort = 0;
+            long localHigh = 0;
+            long localLow = 0;
+            int localPort = 0;
+            int flags = 0;
+
+            int bits = 0;
+            int acc = 0;
+            int count = 0;
+            for (int i = 0; i < length; ++i) {
+                final byte c = getByte(buffer, start + i);
+                final int value = c >= 0 ? DECODE_TABLE[c] : -1;
+                if (value == -1) {
+                    throw new IllegalArgumentException("Illegal character in encoded ConnectionId");
+                }
+
+                acc = acc << 6 | value;
+                bits += 6;
+                if (bits < 8) {
+                    continue;
+                }
+
+                bits -= 8;
+                final int b = acc >>> bits & 0xFF;
+                acc &= (1 << bits) - 1;
+
+                if (count == 0) {
+                    flags = b;
+                    protocol = toTransport(b & 0x0F);
+                    remoteIpLength = (b & REMOTE_IPV6) != 0 ? 16 : 4;
+                    localIpLength = (b & LOCAL_IPV6) != 0 ? 16 : 4;
+                    total = 1 + remoteIpLength + 2 + localIpLength + 2;
+                } else if (count <= remoteIpLength) {
+                    remoteHigh = remoteHigh << 8 | remoteLow >>> 56;
+                    remoteLow = remoteLow << 8 | b;
+                } else if (count <= remoteIpLength + 2) {
+                    remotePort = remotePort << 8 | b;
+                } else if (count <= remoteIpLength + 2 + localIpLength) {
+                    localHigh = localHigh << 8 | localLow >>> 56;
+                    localLow = localLow << 8 | b;
+                } else if (count < total) {
+                    localPort = localPort << 8 | b;
+                } else {
+                    throw new IllegalArgumentException("Encoded ConnectionId is too long");
+                }
+                ++count;
+            }
 
-            this.hashCode = calculateHashCode();
-            this.encodedAsString = encodeConnection();
-            this.encodedAsBuffer = Buffers.wrap(encodedAsString);
-            final StringBuilder sb = new StringBuilder(localIpAsString);
-            sb.append(":").append(localPort);
-            sb.append(":").append(protocol);
-            sb.append(":").append(remoteIpAsString);
-            sb.append(":").append(remotePort);
-            this.humanReadableString = sb.toString();
+            if (count != total || protocol == null) {
+                throw new IllegalArgumentException("Unable to decode buffer to a ConnectionId");
+            }
+
+            return new CompactConnectionId(protocol,
+                    toRawIp((flags & LOCAL_IPV6) != 0, localHigh, localLow), localPort,
+                    toRawIp((flags & REMOTE_IPV6) != 0, remoteHigh, remoteLow), remotePort);
         }
 
+        private static byte getByte(final Buffer buffer, final int index) {
+            try {
+                return buffer.getByte(index);
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Unable to read the encoded ConnectionId", e);
+            }
+        }
 
         @Override
         public int hashCode() {
@@ -267,18 +319,15 @@ public interface ConnectionId {
             final int prime = 31;
             int result = 1;
             result = prime * result + this.protocol.hashCode();
-            result = prime * result + Arrays.hashCode(this.localIp);
+            result = prime * result + Long.hashCode(this.localHigh);
+            result = prime * result + Long.hashCode(this.localLow);
             result = prime * result + this.localPort;
-            result = prime * result + Arrays.hashCode(this.remoteIp);
+            result = prime * result + Long.hashCode(this.remoteHigh);
+            result = prime * result + Long.hashCode(this.remoteLow);
             result = prime * result + this.remotePort;
             return result;
         }
 
-        @Override
-        public String toString() {
-            return this.humanReadableString;
-        }
-
         @Override
         public boolean equals(final Object obj) {
             if (this == obj) {
@@ -290,99 +339,144 @@ public interface ConnectionId {
             if (getClass() != obj.getClass()) {
                 return false;
             }
-            final IPv4ConnectionId other = (IPv4ConnectionId) obj;
-            if (this.protocol != other.protocol) {
-                return false;
-            }
+            final CompactConnectionId other = (CompactConnectionId) obj;
+            return this.hashCode == other.hashCode
+                    && this.protocol == other.protocol
+                    && this.localPort == other.localPort
+                    && this.remotePort == other.remotePort
+                    && this.localLow == other.localLow
+                    && this.remoteLow == other.remoteLow
+                    && this.localHigh == other.localHigh
+                    && this.remoteHigh == other.remoteHigh
+                    && this.localIPv6 == other.localIPv6
+                    && this.remoteIPv6 == other.remoteIPv6;
+        }
 
-            if (this.localPort != other.localPort) {
-                return false;
-            }
-            if (this.remotePort != other.remotePort) {
-                return false;
-            }
-            if (!Arrays.equals(this.localIp, other.localIp)) {
-                return false;
-            }
-            if (!Arrays.equals(this.remoteIp, other.remoteIp)) {
-                return false;
-            }
-            return true;
+        @Override
+        public String toString() {
+            return humanReadableString;
         }
 
         @Override
         public String encodeAsString() {
-            return this.encodedAsString;
+            return encodedAsString;
         }
 
         @Override
         public Buffer encode() {
-            return this.encodedAsBuffer;
+            return encoded;
         }
 
         @Override
         public ConnectionEndpointId getRemoteConnectionEndpointId() {
-            return ConnectionEndpointId.create(protocol, remoteAddress, remoteIp, remotePort);
+            return remoteEndpointId;
         }
 
         @Override
         public ConnectionEndpointId getLocalConnectionEndpointId() {
-            return ConnectionEndpointId.create(protocol, localAddress, localIp, localPort);
-        }
-
-        private String encodeConnection() {
-            final byte[] toEncode = new byte[17];
-            System.arraycopy(this.remoteIp, 0, toEncode, 0, this.remoteIp.length);
-
-            toEncode[4] = (byte) (this.remotePort >>> 24);
-            toEncode[5] = (byte) (this.remotePort >>> 16);
-            toEncode[6] = (byte) (this.remotePort >>> 8);
-            toEncode[7] = (byte) this.remotePort;
-
-            System.arraycopy(this.localIp, 0, toEncode, 8, this.localIp.length);
-
-            toEncode[12] = (byte) (this.localPort >>> 24);
-            toEncode[13] = (byte) (this.localPort >>> 16);
-            toEncode[14] = (byte) (this.localPort >>> 8);
-            toEncode[15] = (byte) this.localPort;
-            if (Transport.udp == this.protocol) {
-                toEncode[16] = 0x01;
-            } else if (Transport.tcp == this.protocol) {
-                toEncode[16] = 0x02;
-            } else if (Transport.tls == this.protocol) {
-                toEncode[16] = 0x03;
-            } else if (Transport.ws == this.protocol) {
-                toEncode[16] = 0x04;
-            } else if (Transport.wss == this.protocol) {
-                toEncode[16] = 0x05;
-            } else if (Transport.sctp == this.protocol) {
-                toEncode[16] = 0x06;
-            } else {
-                toEncode[16] = 0x00;
+            return localEndpointId;
+        }
+
+        private byte[] encodeConnection() {
+            final int remoteIpLength = remoteIPv6 ? 16 : 4;
+            final int localIpLength = localIPv6 ? 16 : 4;
+            final byte[] raw = new byte[1 + remoteIpLength + 2 + localIpLength + 2];
+
+            raw[0] = (byte) (toCode(protocol) | (remoteIPv6 ? REMOTE_IPV6 : 0) | (localIPv6 ? LOCAL_IPV6 : 0));
+            int index = writeIp(raw, 1, remoteHigh, remoteLow, remoteIpLength);
+            raw[index++] = (byte) (remotePort >>> 8);
+            raw[index++] = (byte) remotePort;
+            index = writeIp(raw, index, localHigh, localLow, localIpLength);
+            raw[index++] = (byte) (localPort >>> 8);
+            raw[index] = (byte) localPort;
+
+            final byte[] encoded = new byte[(raw.length * 8 + 5) / 6];
+            int bits = 0;
+            int acc = 0;
+            int pos = 0;
+            for (final byte b : raw) {
+                acc = acc << 8 | b & 0xFF;
+                bits += 8;
+                while (bits >= 6) {
+                    bits -= 6;
+                    encoded[pos++] = ALPHABET[acc >>> bits & 0x3F];
+                }
+                acc &= (1 << bits) - 1;
             }
+            if (bits > 0) {
+                encoded[pos] = ALPHABET[acc << (6 - bits) & 0x3F];
+            }
+            return encoded;
+        }
 
-            return new String(translate(toEncode));
+        private static int writeIp(final byte[] dst, final int index, final long high, final long low,
+                                   final int length) {
+            for (int i = 0; i < length; ++i) {
+                final int shift = (length - 1 - i) * 8;
+                dst[index + i] = (byte) (shift >= 64 ? high >>> (shift - 64) : low >>> shift);
+            }
+            return index + length;
         }
 
-        private char[] translate(final byte[] values) {
-            int pos = 0;
-            final char[] array = new char[values.length * 2];
-            for (final byte value : values) {
-                array[pos++] = ALPHABET[value >>> 4 & 0x0F];
-                array[pos++] = ALPHABET[value & 0x0f];
+        private static byte[] toRawIp(final boolean ipv6, final long high, final long low) {
+            final byte[] ip = new byte[ipv6 ? 16 : 4];
+            writeIp(ip, 0, high, low, ip.length);
+            return ip;
+        }
+
+        private static long high(final byte[] ip) {
+            long value = 0;
+            for (int i = 0; i < ip.length - 8; ++i) {
+                value = value << 8 | ip[i] & 0xFF;
             }
+            return value;
+        }
 
-            return array;
+        private static long low(final byte[] ip) {
+            long value = 0;
+            for (int i = Math.max(0, ip.length - 8); i < ip.length; ++i) {
+                value = value << 8 | ip[i] & 0xFF;
+            }
+            return value;
         }
 
-        /**
-         * Not that I did any performance measuring but just seemed more efficient
-         * to have an alphabet that was continuous so when translating back you
-         * don't have to do some other weird lookup.
-         * 
-         */
-        private static final char[] ALPHABET = { 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
-            'O', 'P' };
+        private static int toCode(final Transport protocol) {
+            switch (protocol) {
+                case udp:
+                    return 0x01;
+                case tcp:
+                    return 0x02;
+                case tls:
+                    return 0x03;
+                case ws:
+                    return 0x04;
+                case wss:
+                    return 0x05;
+                case sctp:
+                    return 0x06;
+                default:
+                    return 0x00;
+            }
+        }
+
+        private static Transport toTransport(final int code) {
+            switch (code) {
+                case 0x01:
+                    return Transport.udp;
+                case 0x02:
+                    return Transport.tcp;
+                case 0x03:
+                    return Transport.tls;
+                case 0x04:
+                    return Transport.ws;
+                case 0x05:
+                    return Transport.wss;
+                case 0x06:
+                    return Transport.sctp;
+                default:
+                    return null;
+            }
+        }
 
         @Override
         public int getLocalPort() {
@@ -391,17 +485,17 @@ public interface ConnectionId {
 
         @Override
         public byte[] getRawLocalIpAddress() {
-            return this.localIp;
+            return localIp;
         }
 
         @Override
         public String getLocalIpAddress() {
-            return convertToStringIP(this.localIp);
+            return convertToStringIP(getRawLocalIpAddress());
         }
 
         @Override
         public InetSocketAddress getLocalAddress() {
-            return this.getLocalAddress();
+            return localAddress;
         }
 
         @Override
@@ -411,17 +505,17 @@ public interface ConnectionId {
 
         @Override
         public byte[] getRawRemoteIpAddress() {
-            return this.remoteIp;
+            return remoteIp;
         }
 
         @Override
         public String getRemoteIpAddress() {
-            return convertToStringIP(this.remoteIp);
+            return convertToStringIP(getRawRemoteIpAddress());
         }
 
         @Override
         public InetSocketAddress getRemoteAddress() {
-            return this.remoteAddress;
+            return remoteAddress;
         }
 
         @Override
@@ -431,5 +525,4 @@ public interface ConnectionId {
 
     }
 
-
 }
@@ -0,0 +1,22 @@
+package io.sipstack.netty.codec.sip;
+
+/**
+ * Gets to know how many bytes every SIP message written to a {@link Connection} ended up as
+ * once encoded. The encoders are the only ones that know this without encoding the message
+ * a second time, which is why e.g. the traffic statistics of a flow are fed from here.
+ *
+ * The listener is called on the event loop of the channel the message was written to.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@FunctionalInterface
+public interface EncodeListener {
+
+    EncodeListener NONE = (connection, bytes) -> { };
+
+    /**
+     * @param connection the connection the message was written to.
+     * @param bytes the size of the encoded message.
+     */
+    void onEncoded(Connection connection, int bytes);
+}
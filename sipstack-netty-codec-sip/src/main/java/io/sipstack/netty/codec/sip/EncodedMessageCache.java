@@ -0,0 +1,124 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.pkts.buffer.Buffer;
+import io.pkts.packet.sip.SipMessage;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Keeps the encoded wire format of recently sent {@link SipMessage}s around so that
+ * sending the very same message again, which is what happens when a transaction is
+ * retransmitting a request or a response over UDP, doesn't have to encode and copy
+ * the message again.
+ *
+ * A message is considered the same only if it is the very same {@link SipMessage}
+ * instance and {@link SipMessage#toBuffer()} is still returning the same portion of
+ * the same byte-array. As soon as a message is modified, the buffer is re-built and we
+ * will encode the message again. The byte-array alone is not enough since messages
+ * framed in zero-copy mode are views into pooled arrays, which are re-used for other
+ * messages once the pool recycles them. A different message that happens to land at
+ * the same offset with the same length must not get the stale encoded buffer. The
+ * messages are only weakly referenced so the cache never keeps one alive.
+ *
+ * The cache is a small direct mapped table so an entry is simply evicted when another
+ * message maps to the same slot. Every {@link ByteBuf} handed out is its own duplicate
+ * of the cached buffer, sharing the reference count, so the caller must release it
+ * (which Netty does once written) just as with any other buffer.
+ *
+ * NOTE! This class is not thread safe and is meant to be owned by a single
+ * channel handler, which Netty will only ever call from the same event loop.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class EncodedMessageCache {
+
+    public static final int DEFAULT_SIZE = 64;
+
+    private final int mask;
+
+    private final WeakReference<?>[] messages;
+
+    private final byte[][] arrays;
+
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+    private final ByteBuf[] encoded;
+
+    public EncodedMessageCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size the number of slots, which must be a power of two.
+     */
+    public EncodedMessageCache(final int size) {
+        if (size <= 0 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("The size must be a power of two");
+        }
+        this.mask = size - 1;
+        this.messages = new WeakReference<?>[size];
+        this.arrays = new byte[size][];
+        this.offsets = new int[size];
+        this.lengths = new int[size];
+        this.encoded = new ByteBuf[size];
+    }
+
+    /**
+     * Get the encoded version of the message, either from the cache or by encoding it
+     * (and then caching it).
+     *
+     * @param alloc the allocator to use in case the message has to be encoded.
+     * @param msg
+     * @return a buffer containing the encoded message, which the caller is responsible
+     *         for releasing.
+     */
+    public ByteBuf encode(final ByteBufAllocator alloc, final SipMessage msg) {
+        final Buffer b = msg.toBuffer();
+        final byte[] array = b.getRawArray();
+        final int offset = b.getLowerBoundary() + b.getReaderIndex();
+        final int length = b.getReadableBytes();
+        final int slot = slot(msg);
+
+        if (messages[slot] != null && messages[slot].get() == msg
+                && arrays[slot] == array && offsets[slot] == offset && lengths[slot] == length) {
+            return encoded[slot].duplicate().retain();
+        }
+
+        final ByteBuf buffer = alloc.ioBuffer(length, length);
+        buffer.writeBytes(array, offset, length);
+        evict(slot);
+        messages[slot] = new WeakReference<>(msg);
+        arrays[slot] = array;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        encoded[slot] = buffer;
+        return buffer.duplicate().retain();
+    }
+
+    /**
+     * Release all cached buffers.
+     */
+    public void clear() {
+        for (int i = 0; i < encoded.length; ++i) {
+            evict(i);
+        }
+    }
+
+    private void evict(final int slot) {
+        if (encoded[slot] != null) {
+            encoded[slot].release();
+            encoded[slot] = null;
+            messages[slot] = null;
+            arrays[slot] = null;
+        }
+    }
+
+    private int slot(final SipMessage msg) {
+        final int h = System.identityHashCode(msg);
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
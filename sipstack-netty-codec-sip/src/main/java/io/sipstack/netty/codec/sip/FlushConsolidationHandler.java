@@ -0,0 +1,192 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every flush that reaches the socket is a syscall and when every single SIP message
+ * that is written is also flushed, a busy server ends up spending a good chunk of its
+ * time in the kernel. This handler holds back the flushes and lets them through
+ * according to one of two {@link FlushPolicy}s:
+ *
+ * <ul>
+ *     <li>While a read is in progress on the channel, i.e., we are processing what was
+ *     read off of the socket and are e.g. writing responses to the requests we just
+ *     read, the read policy applies. No matter the policy, all held back flushes are let
+ *     through once the read is complete (channelReadComplete) so the latency is never
+ *     longer than it takes to process a read batch.</li>
+ *     <li>For everything written outside of a read, such as retransmissions and keep-alives
+ *     fired by timers or messages that were read off of another channel and then forwarded
+ *     out over this one, the timer policy applies. Since nothing else is guaranteed to
+ *     come along and flush, the policy's max delay is enforced by scheduling a flush
+ *     on the event loop of the channel.</li>
+ * </ul>
+ *
+ * The handler is meant to sit in between the encoder and the handlers writing {@link Connection}
+ * events so that the encoder also gets to see all the held back messages in one go (see
+ * {@link SipMessageStreamEncoder}).
+ *
+ * NOTE! This is NOT a sharable class since it keeps track of the flushes of a single channel.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class FlushConsolidationHandler extends ChannelDuplexHandler {
+
+    private final FlushPolicy readPolicy;
+
+    private final FlushPolicy timerPolicy;
+
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+
+    private boolean readInProgress;
+
+    /**
+     * Whether anything has been written since the last actual flush. A flush with
+     * nothing written is simply dropped.
+     */
+    private boolean dirty;
+
+    /**
+     * The number of flushes we are currently holding back.
+     */
+    private int pendingFlushes;
+
+    /**
+     * When we started holding back flushes (only tracked while a read is in progress).
+     */
+    private long firstPendingFlush;
+
+    /**
+     * Whether the flush task has been handed to the event loop, and if it was
+     * scheduled with a delay, its future.
+     */
+    private boolean flushScheduled;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public FlushConsolidationHandler() {
+        this(FlushPolicy.defaultReadPolicy(), FlushPolicy.defaultTimerPolicy());
+    }
+
+    /**
+     * @param readPolicy the policy for flushes while a read is in progress. The max delay is
+     *                   checked as the flushes come in but on top of that, everything is always
+     *                   flushed once the read is complete.
+     * @param timerPolicy the policy for flushes outside of a read.
+     */
+    public FlushConsolidationHandler(final FlushPolicy readPolicy, final FlushPolicy timerPolicy) {
+        if (readPolicy == null || timerPolicy == null) {
+            throw new IllegalArgumentException("The flush policies cannot be null");
+        }
+        this.readPolicy = readPolicy;
+        this.timerPolicy = timerPolicy;
+        this.flushTask = () -> {
+            flushScheduled = false;
+            scheduledFlush = null;
+            if (pendingFlushes > 0 && !readInProgress) {
+                flushNow(ctx);
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfPending(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) throws Exception {
+        dirty = true;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) throws Exception {
+        if (!dirty) {
+            return;
+        }
+
+        if (readInProgress) {
+            if (pendingFlushes == 0) {
+                firstPendingFlush = System.nanoTime();
+            }
+
+            if (++pendingFlushes >= readPolicy.getMaxPendingFlushes()
+                    || System.nanoTime() - firstPendingFlush >= readPolicy.getMaxDelayNanos()
+                    && readPolicy.getMaxDelayNanos() > 0) {
+                flushNow(ctx);
+            }
+            return;
+        }
+
+        if (++pendingFlushes >= timerPolicy.getMaxPendingFlushes()) {
+            flushNow(ctx);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            final long delay = timerPolicy.getMaxDelayNanos();
+            if (delay == 0) {
+                ctx.executor().execute(flushTask);
+            } else {
+                scheduledFlush = ctx.executor().schedule(flushTask, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void disconnect(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
+        flushIfPending(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+        flushIfPending(ctx);
+    }
+
+    private void flushIfPending(final ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(final ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+            flushScheduled = false;
+        }
+        pendingFlushes = 0;
+        dirty = false;
+        ctx.flush();
+    }
+}
@@ -0,0 +1,100 @@
+package io.sipstack.netty.codec.sip;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes when the {@link FlushConsolidationHandler} should let a flush through to the
+ * socket. A flush is let through as soon as we have seen max-pending-flushes flush requests
+ * since the last actual flush or when the oldest of those has been waiting for max-delay,
+ * whichever comes first.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FlushPolicy {
+
+    public static final int DEFAULT_MAX_PENDING_FLUSHES = 64;
+
+    private static final FlushPolicy IMMEDIATE = new FlushPolicy(1, 0);
+
+    private static final FlushPolicy DEFAULT_READ_POLICY = new FlushPolicy(DEFAULT_MAX_PENDING_FLUSHES, 0);
+
+    private static final FlushPolicy DEFAULT_TIMER_POLICY =
+            new FlushPolicy(DEFAULT_MAX_PENDING_FLUSHES, TimeUnit.MILLISECONDS.toNanos(1));
+
+    private final int maxPendingFlushes;
+
+    private final long maxDelayNanos;
+
+    private FlushPolicy(final int maxPendingFlushes, final long maxDelayNanos) {
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * Every flush goes straight out to the socket, which is what you get if there
+     * is no {@link FlushConsolidationHandler} in the pipeline at all.
+     *
+     * @return
+     */
+    public static FlushPolicy immediate() {
+        return IMMEDIATE;
+    }
+
+    /**
+     * The default policy while a read is in progress, which is to flush every
+     * {@link #DEFAULT_MAX_PENDING_FLUSHES} flushes and when the read is complete.
+     *
+     * @return
+     */
+    public static FlushPolicy defaultReadPolicy() {
+        return DEFAULT_READ_POLICY;
+    }
+
+    /**
+     * The default policy outside of a read, which is to flush every
+     * {@link #DEFAULT_MAX_PENDING_FLUSHES} flushes or after at most a millisecond.
+     *
+     * @return
+     */
+    public static FlushPolicy defaultTimerPolicy() {
+        return DEFAULT_TIMER_POLICY;
+    }
+
+    /**
+     * Consolidate flushes.
+     *
+     * @param maxPendingFlushes the max number of flushes to hold back before actually flushing.
+     * @param maxDelay for how long the first held back flush may wait. Zero means that
+     *                 we will wait until the event loop has finished what it currently
+     *                 is doing and is about to move on to the next task.
+     * @param unit
+     * @return
+     */
+    public static FlushPolicy consolidate(final int maxPendingFlushes, final long maxDelay, final TimeUnit unit) {
+        if (maxPendingFlushes < 1) {
+            throw new IllegalArgumentException("The max number of pending flushes must be at least one");
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("The max delay cannot be negative");
+        }
+        return new FlushPolicy(maxPendingFlushes, unit.toNanos(maxDelay));
+    }
+
+    public int getMaxPendingFlushes() {
+        return maxPendingFlushes;
+    }
+
+    public long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    public boolean isImmediate() {
+        return maxPendingFlushes == 1;
+    }
+
+    @Override
+    public String toString() {
+        return isImmediate() ? "FlushPolicy[immediate]"
+                : "FlushPolicy[maxPendingFlushes=" + maxPendingFlushes + ", maxDelayNanos=" + maxDelayNanos + "]";
+    }
+}
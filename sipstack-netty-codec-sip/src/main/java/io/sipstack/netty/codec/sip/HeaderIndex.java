@@ -0,0 +1,428 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+
+/**
+ * An index of where the headers that a stack touches over and over again can be
+ * found within the raw bytes of a {@link SipMessage}: the branch parameter of the top-most
+ * Via header (which is what identifies a transaction), the Call-ID, the CSeq and the
+ * tags of the From and To headers (which, together with the Call-ID, identifies a dialog).
+ *
+ * The index is built when the message is framed, which is a single pass over the
+ * header lines where only the first couple of bytes of every line is examined (the
+ * header name) unless it is one of the headers we are interested in. After that,
+ * looking up any of the values is O(1) and doesn't require the lazy parsing of the
+ * {@link SipMessage} to kick in.
+ *
+ * All offsets are absolute indices into the array backing the message and are -1
+ * if the header (or parameter) wasn't found. Note that the index only reflects the
+ * message as it was framed so if the message is modified later on, the index may
+ * no longer be accurate.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class HeaderIndex {
+
+    private static final byte[] VIA = "via".getBytes();
+    private static final byte[] CALL_ID = "call-id".getBytes();
+    private static final byte[] CSEQ = "cseq".getBytes();
+    private static final byte[] FROM = "from".getBytes();
+    private static final byte[] TO = "to".getBytes();
+    private static final byte[] BRANCH = "branch".getBytes();
+    private static final byte[] TAG = "tag".getBytes();
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+
+    private final byte[] array;
+
+    /**
+     * The size of the indexed message, i.e., what it took up on the wire.
+     */
+    private int length;
+
+    /**
+     * Only the top-most Via header is of interest, whether or not it has a branch.
+     */
+    private boolean viaIndexed;
+    private int viaBranchStart = -1;
+    private int viaBranchEnd = -1;
+    private int viaBranchHash;
+
+    private int callIdStart = -1;
+    private int callIdEnd = -1;
+
+    private long cseqNumber = -1;
+    private int cseqMethodStart = -1;
+    private int cseqMethodEnd = -1;
+
+    private int fromTagStart = -1;
+    private int fromTagEnd = -1;
+
+    private int toTagStart = -1;
+    private int toTagEnd = -1;
+
+    private HeaderIndex(final byte[] array) {
+        this.array = array;
+    }
+
+    /**
+     * Index the message contained in the readable bytes of the given buffer, which
+     * must be backed by an array (which all pkts buffers currently are).
+     *
+     * @param buffer the buffer with the message starting at its reader index.
+     * @return
+     */
+    public static HeaderIndex index(final Buffer buffer) {
+        final int start = buffer.getLowerBoundary() + buffer.getReaderIndex();
+        return index(buffer.getRawArray(), start, start + buffer.getReadableBytes());
+    }
+
+    /**
+     * Index the message in the given array.
+     *
+     * @param array
+     * @param start the index of the first byte of the initial line.
+     * @param end the index of the last byte of the message (exclusive).
+     * @return
+     */
+    public static HeaderIndex index(final byte[] array, final int start, final int end) {
+        final HeaderIndex index = new HeaderIndex(array);
+        index.length = end - start;
+
+        // skip the initial line
+        int lineStart = indexOfLF(array, start, end) + 1;
+        while (lineStart > 0 && lineStart < end) {
+            final int lf = indexOfLF(array, lineStart, end);
+            final int lineEnd = lf == -1 ? end : lf;
+            final int contentEnd = lineEnd > lineStart && array[lineEnd - 1] == CR ? lineEnd - 1 : lineEnd;
+            if (contentEnd == lineStart) {
+                // the empty line separating the headers from the body
+                break;
+            }
+
+            index.indexHeader(lineStart, contentEnd);
+            lineStart = lineEnd + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Build the index for an already framed message. This is mainly for messages that
+     * didn't come off of the network via any of our decoders.
+     */
+    public static HeaderIndex index(final SipMessage msg) {
+        return index(msg.toBuffer());
+    }
+
+    private void indexHeader(final int start, final int end) {
+        final byte first = array[start];
+        if (first == SP || first == HTAB) {
+            // folded line, none of the values we care about are ever that long
+            return;
+        }
+
+        int colon = start;
+        while (colon < end && array[colon] != ':') {
+            ++colon;
+        }
+        if (colon == end) {
+            return;
+        }
+
+        int nameEnd = colon;
+        while (nameEnd > start && isWhiteSpace(array[nameEnd - 1])) {
+            --nameEnd;
+        }
+
+        final int valueStart = skipWhiteSpace(colon + 1, end);
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhiteSpace(array[valueEnd - 1])) {
+            --valueEnd;
+        }
+
+        switch (toLowerCase(first)) {
+            case 'v':
+                if (!viaIndexed && isHeader(start, nameEnd, VIA, 'v')) {
+                    viaIndexed = true;
+                    indexViaBranch(valueStart, valueEnd);
+                }
+                break;
+            case 'i':
+            case 'c':
+                if (callIdStart == -1 && isHeader(start, nameEnd, CALL_ID, 'i')) {
+                    callIdStart = valueStart;
+                    callIdEnd = valueEnd;
+                } else if (cseqMethodStart == -1 && isHeader(start, nameEnd, CSEQ, (char) 0)) {
+                    indexCSeq(valueStart, valueEnd);
+                }
+                break;
+            case 'f':
+                if (fromTagStart == -1 && isHeader(start, nameEnd, FROM, 'f')) {
+                    final long tag = findParameter(valueStart, valueEnd, TAG);
+                    fromTagStart = (int) (tag >> 32);
+                    fromTagEnd = (int) tag;
+                }
+                break;
+            case 't':
+                if (toTagStart == -1 && isHeader(start, nameEnd, TO, 't')) {
+                    final long tag = findParameter(valueStart, valueEnd, TAG);
+                    toTagStart = (int) (tag >> 32);
+                    toTagEnd = (int) tag;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void indexViaBranch(final int start, final int end) {
+        final long branch = findParameter(start, end, BRANCH);
+        viaBranchStart = (int) (branch >> 32);
+        viaBranchEnd = (int) branch;
+        if (viaBranchStart != -1) {
+            viaBranchHash = TransactionKey.hash(array, viaBranchStart, viaBranchEnd);
+        }
+    }
+
+    private void indexCSeq(final int start, final int end) {
+        int index = start;
+        long number = 0;
+        while (index < end && array[index] >= '0' && array[index] <= '9') {
+            number = number * 10 + array[index++] - '0';
+        }
+        if (index == start) {
+            return;
+        }
+
+        index = skipWhiteSpace(index, end);
+        int methodEnd = index;
+        while (methodEnd < end && !isWhiteSpace(array[methodEnd])) {
+            ++methodEnd;
+        }
+        cseqNumber = number;
+        cseqMethodStart = index;
+        cseqMethodEnd = methodEnd;
+    }
+
+    /**
+     * Find the value of the given parameter of the (first) header value in the range.
+     * Anything within quotes or angle brackets (e.g. URI parameters of a name-addr)
+     * are not header parameters and are skipped and the search stops at a comma,
+     * which would be the start of the next header value.
+     *
+     * @return the start and end index of the value packed into a long or -1 in both
+     *         if the parameter wasn't found.
+     */
+    private long findParameter(final int start, final int end, final byte[] name) {
+        boolean quoted = false;
+        boolean bracketed = false;
+        for (int i = start; i < end; ++i) {
+            final byte b = array[i];
+            if (quoted) {
+                if (b == '\\') {
+                    ++i;
+                } else if (b == '"') {
+                    quoted = false;
+                }
+            } else if (bracketed) {
+                bracketed = b != '>';
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == '<') {
+                bracketed = true;
+            } else if (b == ',') {
+                break;
+            } else if (b == ';') {
+                final int nameStart = skipWhiteSpace(i + 1, end);
+                if (matches(nameStart, end, name)) {
+                    int index = skipWhiteSpace(nameStart + name.length, end);
+                    if (index < end && array[index] == '=') {
+                        index = skipWhiteSpace(index + 1, end);
+                        int valueEnd = index;
+                        while (valueEnd < end && !isWhiteSpace(array[valueEnd])
+                                && array[valueEnd] != ';' && array[valueEnd] != ',') {
+                            ++valueEnd;
+                        }
+                        return (long) index << 32 | valueEnd & 0xFFFFFFFFL;
+                    }
+                }
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Check whether the bytes in the given range is a case insensitive match of the given
+     * name and that the name is not just a prefix of a longer token.
+     */
+    private boolean matches(final int start, final int end, final byte[] name) {
+        if (end - start < name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (toLowerCase(array[start + i]) != name[i]) {
+                return false;
+            }
+        }
+        final int next = start + name.length;
+        return next == end || array[next] == '=' || isWhiteSpace(array[next]);
+    }
+
+    private boolean isHeader(final int start, final int end, final byte[] name, final char compact) {
+        final int length = end - start;
+        if (length == 1) {
+            return compact != 0 && toLowerCase(array[start]) == compact;
+        }
+        if (length != name.length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (toLowerCase(array[start + i]) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipWhiteSpace(final int start, final int end) {
+        int index = start;
+        while (index < end && isWhiteSpace(array[index])) {
+            ++index;
+        }
+        return index;
+    }
+
+    private static int indexOfLF(final byte[] array, final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if (array[i] == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhiteSpace(final byte b) {
+        return b == SP || b == HTAB;
+    }
+
+    private static byte toLowerCase(final byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    private Buffer slice(final int start, final int end) {
+        if (start == -1) {
+            return null;
+        }
+        return Buffers.wrap(array, start, end);
+    }
+
+    /**
+     * @return the size, in bytes, of the message that was indexed.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * The array the offsets are referring to.
+     */
+    public byte[] getArray() {
+        return array;
+    }
+
+    /**
+     * @return the branch parameter of the top-most Via header or null if there
+     *         was no such parameter.
+     */
+    public Buffer getViaBranch() {
+        return slice(viaBranchStart, viaBranchEnd);
+    }
+
+    public int getViaBranchStart() {
+        return viaBranchStart;
+    }
+
+    public int getViaBranchEnd() {
+        return viaBranchEnd;
+    }
+
+    /**
+     * The hash of the branch parameter of the top-most Via header, computed while
+     * indexing. See {@link TransactionKey#hash(byte[], int, int)}.
+     */
+    public int getViaBranchHash() {
+        return viaBranchHash;
+    }
+
+    /**
+     * @return the value of the Call-ID header or null if there was no Call-ID header.
+     */
+    public Buffer getCallId() {
+        return slice(callIdStart, callIdEnd);
+    }
+
+    public int getCallIdStart() {
+        return callIdStart;
+    }
+
+    public int getCallIdEnd() {
+        return callIdEnd;
+    }
+
+    /**
+     * @return the sequence number of the CSeq header or -1 if there was no CSeq header.
+     */
+    public long getCSeqNumber() {
+        return cseqNumber;
+    }
+
+    /**
+     * @return the method of the CSeq header or null if there was no CSeq header.
+     */
+    public Buffer getCSeqMethod() {
+        return slice(cseqMethodStart, cseqMethodEnd);
+    }
+
+    public int getCSeqMethodStart() {
+        return cseqMethodStart;
+    }
+
+    public int getCSeqMethodEnd() {
+        return cseqMethodEnd;
+    }
+
+    /**
+     * @return the tag of the From header or null if there was no tag.
+     */
+    public Buffer getFromTag() {
+        return slice(fromTagStart, fromTagEnd);
+    }
+
+    public int getFromTagStart() {
+        return fromTagStart;
+    }
+
+    public int getFromTagEnd() {
+        return fromTagEnd;
+    }
+
+    /**
+     * @return the tag of the To header or null if there was no tag.
+     */
+    public Buffer getToTag() {
+        return slice(toTagStart, toTagEnd);
+    }
+
+    public int getToTagStart() {
+        return toTagStart;
+    }
+
+    public int getToTagEnd() {
+        return toTagEnd;
+    }
+}
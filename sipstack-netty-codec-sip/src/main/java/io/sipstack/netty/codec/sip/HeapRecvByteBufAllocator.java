@@ -0,0 +1,102 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+
+/**
+ * A {@link RecvByteBufAllocator} that always asks the {@link ByteBufAllocator} for
+ * heap buffers.
+ *
+ * Netty will by default read into direct buffers (see {@link ByteBufAllocator#ioBuffer()})
+ * but the pkts {@link io.pkts.buffer.Buffer} is backed by a byte-array so in order for
+ * the {@link SipMessageDatagramDecoder} to be able to frame a {@link io.pkts.packet.sip.SipMessage}
+ * straight on top of the memory of the received datagram, that memory must be a (pooled) heap buffer.
+ * Everything else, such as how much to read and for how long, is delegated to the wrapped
+ * allocator.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class HeapRecvByteBufAllocator implements RecvByteBufAllocator {
+
+    /**
+     * Same default as Netty is using for datagram channels.
+     */
+    public static final int DEFAULT_DATAGRAM_SIZE = 2048;
+
+    private final RecvByteBufAllocator actual;
+
+    public HeapRecvByteBufAllocator() {
+        this(new FixedRecvByteBufAllocator(DEFAULT_DATAGRAM_SIZE));
+    }
+
+    public HeapRecvByteBufAllocator(final RecvByteBufAllocator actual) {
+        this.actual = actual;
+    }
+
+    @Override
+    public Handle newHandle() {
+        return new HeapHandle(actual.newHandle());
+    }
+
+    private static final class HeapHandle implements Handle {
+
+        private final Handle actual;
+
+        private HeapHandle(final Handle actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public ByteBuf allocate(final ByteBufAllocator alloc) {
+            return alloc.heapBuffer(actual.guess());
+        }
+
+        @Override
+        public int guess() {
+            return actual.guess();
+        }
+
+        @Override
+        public void reset(final ChannelConfig config) {
+            actual.reset(config);
+        }
+
+        @Override
+        public void incMessagesRead(final int numMessages) {
+            actual.incMessagesRead(numMessages);
+        }
+
+        @Override
+        public void lastBytesRead(final int bytes) {
+            actual.lastBytesRead(bytes);
+        }
+
+        @Override
+        public int lastBytesRead() {
+            return actual.lastBytesRead();
+        }
+
+        @Override
+        public void attemptedBytesRead(final int bytes) {
+            actual.attemptedBytesRead(bytes);
+        }
+
+        @Override
+        public int attemptedBytesRead() {
+            return actual.attemptedBytesRead();
+        }
+
+        @Override
+        public boolean continueReading() {
+            return actual.continueReading();
+        }
+
+        @Override
+        public void readComplete() {
+            actual.readComplete();
+        }
+    }
+}
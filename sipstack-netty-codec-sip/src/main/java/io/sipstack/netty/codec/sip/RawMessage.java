@@ -12,7 +12,11 @@ import java.io.IOException;
  * Represents a raw sip message coming off of the network.
  * 
  * @author jonas@jonasborjesson.com
+ * @deprecated use the {@link SipMessageStreamFramer}, which frames the message in place
+ *             and scans for the end of the headers a word at a time instead of running
+ *             through a state machine for every single byte.
  */
+@Deprecated
 public final class RawMessage {
 
     public static final byte COLON = ':';
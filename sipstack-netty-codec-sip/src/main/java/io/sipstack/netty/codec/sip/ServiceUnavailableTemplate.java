@@ -0,0 +1,226 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.pkts.buffer.Buffer;
+import io.pkts.packet.sip.SipMessage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureArgument;
+
+/**
+ * A template for turning a request around as a 503 Service Unavailable without
+ * ever parsing the request or building a response through the regular
+ * {@link io.pkts.packet.sip.SipResponse} machinery, which is a lot of allocations
+ * and a lot of work for something we only do when we already are overloaded.
+ *
+ * The status line and the trailing Retry-After and Content-Length headers are
+ * encoded once, when the template is created, and the only thing that is done per
+ * request is to copy the header lines a response must echo back (all Via headers,
+ * From, To, Call-ID and CSeq) byte by byte from the raw request. If the To header
+ * doesn't have a tag, one is added since the response will be a final response.
+ *
+ * This class is immutable and can safely be shared between threads.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class ServiceUnavailableTemplate {
+
+    private static final byte[] STATUS_LINE = "SIP/2.0 503 Service Unavailable\r\n".getBytes();
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+
+    private final int retryAfter;
+
+    private final byte[] trailer;
+
+    private final byte[] toTag;
+
+    private ServiceUnavailableTemplate(final int retryAfter, final byte[] trailer, final byte[] toTag) {
+        this.retryAfter = retryAfter;
+        this.trailer = trailer;
+        this.toTag = toTag;
+    }
+
+    /**
+     * Create a new template where all responses will ask the client to retry after
+     * the given number of seconds.
+     *
+     * @param retryAfter the value of the Retry-After header. Zero or negative means
+     *                   that no Retry-After header is included.
+     * @return
+     */
+    public static ServiceUnavailableTemplate create(final int retryAfter) {
+        final StringBuilder sb = new StringBuilder();
+        if (retryAfter > 0) {
+            sb.append("Retry-After: ").append(retryAfter).append("\r\n");
+        }
+        sb.append("Content-Length: 0\r\n\r\n");
+
+        final String tag = ";tag=" + Integer.toHexString(ThreadLocalRandom.current().nextInt() | 0x10000000);
+        return new ServiceUnavailableTemplate(Math.max(0, retryAfter), sb.toString().getBytes(), tag.getBytes());
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Encode a 503 response to the given request.
+     *
+     * @param alloc the allocator to use for the returned buffer.
+     * @param request
+     * @return a buffer containing the encoded response, which the caller is responsible
+     *         for releasing (which writing it to a channel will do).
+     */
+    public ByteBuf encode(final ByteBufAllocator alloc, final SipMessage request) {
+        ensureArgument(request != null && request.isRequest(), "Can only generate a 503 to a request");
+        final Buffer buffer = request.toBuffer();
+        return encode(alloc, buffer, HeaderIndex.index(buffer));
+    }
+
+    /**
+     * Encode a 503 response to the request contained in the readable bytes of the given buffer.
+     *
+     * @param alloc the allocator to use for the returned buffer.
+     * @param request the raw request, which must be backed by an array.
+     * @param index the index of the same request, which is only used to find out
+     *              whether the To header already has a tag.
+     * @return a buffer containing the encoded response, which the caller is responsible
+     *         for releasing.
+     */
+    public ByteBuf encode(final ByteBufAllocator alloc, final Buffer request, final HeaderIndex index) {
+        final byte[] array = request.getRawArray();
+        final int start = request.getLowerBoundary() + request.getReaderIndex();
+        final int end = start + request.getReadableBytes();
+        final boolean needsToTag = index.getToTagStart() == -1;
+
+        final ByteBuf out = alloc.buffer(STATUS_LINE.length + trailer.length + 256);
+        out.writeBytes(STATUS_LINE);
+
+        boolean copying = false;
+        boolean appendToTag = false;
+        boolean lineOpen = false;
+
+        // skip the request line
+        int lineStart = indexOfLF(array, start, end) + 1;
+        while (lineStart > 0 && lineStart < end) {
+            final int lf = indexOfLF(array, lineStart, end);
+            final int lineEnd = lf == -1 ? end : lf;
+            final int contentEnd = lineEnd > lineStart && array[lineEnd - 1] == CR ? lineEnd - 1 : lineEnd;
+            if (contentEnd == lineStart) {
+                break;
+            }
+
+            final byte first = array[lineStart];
+            if (first == SP || first == HTAB) {
+                // folded line, belongs to whatever header we are on
+                if (copying) {
+                    out.writeByte(CR).writeByte(LF);
+                    out.writeBytes(array, lineStart, contentEnd - lineStart);
+                }
+            } else {
+                if (lineOpen) {
+                    closeLine(out, appendToTag);
+                    lineOpen = false;
+                }
+
+                final char header = echoedHeader(array, lineStart, contentEnd);
+                copying = header != 0;
+                appendToTag = header == 't' && needsToTag;
+                if (copying) {
+                    out.writeBytes(array, lineStart, contentEnd - lineStart);
+                    lineOpen = true;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        if (lineOpen) {
+            closeLine(out, appendToTag);
+        }
+
+        out.writeBytes(trailer);
+        return out;
+    }
+
+    private void closeLine(final ByteBuf out, final boolean appendToTag) {
+        if (appendToTag) {
+            out.writeBytes(toTag);
+        }
+        out.writeByte(CR).writeByte(LF);
+    }
+
+    /**
+     * Check whether the header on the given line is one that has to be echoed back
+     * in the response.
+     *
+     * @return the compact form of the header (or 'c' for CSeq, which doesn't have one)
+     *         or zero if the header shouldn't be copied.
+     */
+    private static char echoedHeader(final byte[] array, final int start, final int end) {
+        int colon = start;
+        while (colon < end && array[colon] != ':') {
+            ++colon;
+        }
+        if (colon == end) {
+            return 0;
+        }
+
+        int nameEnd = colon;
+        while (nameEnd > start && (array[nameEnd - 1] == SP || array[nameEnd - 1] == HTAB)) {
+            --nameEnd;
+        }
+
+        final int length = nameEnd - start;
+        final char first = (char) toLowerCase(array[start]);
+        if (length == 1) {
+            return first == 'v' || first == 'f' || first == 't' || first == 'i' ? first : 0;
+        }
+
+        switch (first) {
+            case 'v':
+                return isName(array, start, length, "via") ? 'v' : 0;
+            case 'f':
+                return isName(array, start, length, "from") ? 'f' : 0;
+            case 't':
+                return isName(array, start, length, "to") ? 't' : 0;
+            case 'c':
+                if (isName(array, start, length, "call-id")) {
+                    return 'i';
+                }
+                return isName(array, start, length, "cseq") ? 'c' : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isName(final byte[] array, final int start, final int length, final String name) {
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (toLowerCase(array[start + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfLF(final byte[] array, final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if (array[i] == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte toLowerCase(final byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+}
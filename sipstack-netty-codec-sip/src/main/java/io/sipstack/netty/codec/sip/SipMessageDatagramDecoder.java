@@ -5,12 +5,16 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.ReferenceCounted;
 import io.pkts.buffer.Buffer;
 import io.pkts.buffer.Buffers;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.address.SipURI;
 import io.pkts.packet.sip.impl.SipParser;
 import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import io.sipstack.netty.codec.sip.event.PongMessageIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
 
 import java.net.InetSocketAddress;
 import java.util.List;
@@ -31,6 +35,20 @@ public final class SipMessageDatagramDecoder extends MessageToMessageDecoder<Dat
     private final Clock clock;
     private final Optional<SipURI> vipAddress;
 
+    /**
+     * If true, the {@link SipMessage} will be framed directly on top of the
+     * {@link ByteBuf} of the datagram (as long as it is backed by an array) instead of
+     * first copying the content into a new byte-array.
+     */
+    private final boolean zeroCopy;
+
+    /**
+     * All datagrams from the same remote will share the same {@link UdpConnection}.
+     * Created on the first datagram since that is when we know which channel we
+     * are decoding for.
+     */
+    private UdpConnectionCache connections;
+
     public SipMessageDatagramDecoder() {
         this(new SystemClock(), null);
     }
@@ -41,8 +59,28 @@ public final class SipMessageDatagramDecoder extends MessageToMessageDecoder<Dat
      * @param vipAddress
      */
     public SipMessageDatagramDecoder(final Clock clock, final SipURI vipAddress) {
+        this(clock, vipAddress, false);
+    }
+
+    /**
+     * Note that when zero-copy framing is turned on, the {@link SipMessageIOEvent}s produced
+     * by this decoder are {@link ReferenceCounted} and will keep the underlying network buffer
+     * alive until they are released, which the last handler in the pipeline must do (e.g. by
+     * extending {@link io.netty.channel.SimpleChannelInboundHandler}). Anything that needs to
+     * hang on to the {@link SipMessage} after that (such as a transaction keeping the original
+     * request around) must not be used together with zero-copy framing. Also, the
+     * channel should be configured to read into heap buffers (see {@link HeapRecvByteBufAllocator})
+     * or else we will fall back to copying the content.
+     *
+     * @param clock
+     * @param vipAddress
+     * @param zeroCopy whether or not the framed messages should reference the network buffer
+     *                 directly.
+     */
+    public SipMessageDatagramDecoder(final Clock clock, final SipURI vipAddress, final boolean zeroCopy) {
         this.clock = clock;
         this.vipAddress = Optional.ofNullable(vipAddress);
+        this.zeroCopy = zeroCopy;
     }
 
     @Override
@@ -81,11 +119,13 @@ public final class SipMessageDatagramDecoder extends MessageToMessageDecoder<Dat
 
     /**
      * From ChannelInboundHandler
+     *
+     * A UDP channel is shared by all the flows over it so there is no single connection
+     * to tell about this. Just pass it on (see {@link BackPressureHandler}).
      */
     @Override
     public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
-        System.err.println("UDP Decoder: Channel writability changed");
-        // ctx.fireChannelWritabilityChanged();
+        ctx.fireChannelWritabilityChanged();
     }
     /**
      * Framing an UDP packet is much simpler than for a stream based protocol
@@ -113,22 +153,75 @@ public final class SipMessageDatagramDecoder extends MessageToMessageDecoder<Dat
         // at least 20 bytes we will simply ignore anything less
         // than that. And yes, there is no way that an actual
         // SIP message ever could be less than 20 bytes.
+        // STUN binding requests on the other hand are handled
+        // below and never reach the SIP parser.
         if (content.readableBytes() < 20) {
             return;
         }
 
+        if (StunMessage.isStun(content)) {
+            decodeStun(ctx, msg, arrivalTime, out);
+            return;
+        }
+
+        if (zeroCopy && content.hasArray()) {
+            decodeZeroCopy(ctx, msg, arrivalTime, out);
+            return;
+        }
+
         final byte[] b = new byte[content.readableBytes()];
-        content.getBytes(0, b);
+        content.getBytes(content.readerIndex(), b);
 
         final Buffer buffer = Buffers.wrap(b);
         SipParser.consumeSWS(buffer);
+        final HeaderIndex index = HeaderIndex.index(buffer);
         final SipMessage sipMessage = SipParser.frame(buffer);
-        final Connection connection = new UdpConnection(ctx.channel(), msg.sender(), vipAddress);
-        if (sipMessage.isRequest()) {
-            out.add(IOEvent.create(connection, sipMessage.toRequest()));
-        } else {
-            out.add(IOEvent.create(connection, sipMessage.toResponse()));
+        final Connection connection = ensureConnection(ctx, msg.sender(), arrivalTime);
+        out.add(IOEvent.create(connection, sipMessage, arrivalTime, index));
+    }
+
+    /**
+     * STUN binding requests and responses are the keep-alive pings and pongs for UDP
+     * (RFC 5626) and are turned into {@link PingMessageIOEvent}s and {@link PongMessageIOEvent}s
+     * without ever involving the SIP parser. Any other type of STUN message is silently dropped.
+     */
+    private void decodeStun(final ChannelHandlerContext ctx, final DatagramPacket msg,
+                            final long arrivalTime, final List<Object> out) {
+        final StunMessage stun = StunMessage.frame(msg.content());
+        if (stun.isBindingRequest()) {
+            final Connection connection = ensureConnection(ctx, msg.sender(), arrivalTime);
+            out.add(PingMessageIOEvent.create(connection, arrivalTime, stun));
+        } else if (stun.isBindingSuccessResponse()) {
+            final Connection connection = ensureConnection(ctx, msg.sender(), arrivalTime);
+            out.add(PongMessageIOEvent.create(connection, arrivalTime, stun));
+        }
+    }
+
+    /**
+     * Frame the {@link SipMessage} straight on top of the array backing the {@link ByteBuf}
+     * of the datagram. Since the message is now referencing memory that is owned by
+     * Netty (and most likely pooled), the buffer is retained and the ownership is
+     * transferred to the {@link SipMessageIOEvent} we produce.
+     */
+    private void decodeZeroCopy(final ChannelHandlerContext ctx, final DatagramPacket msg,
+                                final long arrivalTime, final List<Object> out) throws Exception {
+        final ByteBuf content = msg.content();
+        final int offset = content.arrayOffset();
+        final Buffer buffer = Buffers.wrap(content.array(),
+                offset + content.readerIndex(), offset + content.writerIndex());
+        SipParser.consumeSWS(buffer);
+        final HeaderIndex index = HeaderIndex.index(buffer);
+        final SipMessage sipMessage = SipParser.frame(buffer);
+        final Connection connection = ensureConnection(ctx, msg.sender(), arrivalTime);
+        out.add(IOEvent.create(connection, sipMessage, arrivalTime, index, content.retain()));
+    }
+
+    private Connection ensureConnection(final ChannelHandlerContext ctx, final InetSocketAddress sender,
+                                        final long arrivalTime) {
+        if (connections == null) {
+            connections = new UdpConnectionCache(ctx.channel(), vipAddress);
         }
+        return connections.ensureConnection(sender, arrivalTime);
     }
 
 }
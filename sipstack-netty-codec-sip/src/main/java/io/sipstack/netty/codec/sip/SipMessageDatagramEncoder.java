@@ -1,34 +1,79 @@
 package io.sipstack.netty.codec.sip;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.pkts.packet.sip.SipMessage;
 import io.sipstack.netty.codec.sip.event.IOEvent;
 
+import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Simple encoder that takes a {@link IOEvent} and turns it into a {@link DatagramPacket}.
  *
+ * Since messages sent over UDP are retransmitted by the transactions, the encoded
+ * messages are kept in a small {@link EncodedMessageCache} so that a retransmission
+ * of a message that hasn't been modified is simply re-using the already encoded
+ * buffer.
+ *
  * @author jonas@jonasborjesson.com
  */
 public class SipMessageDatagramEncoder extends MessageToMessageEncoder<IOEvent> {
 
+    private final EncodedMessageCache cache = new EncodedMessageCache();
+
+    private final EncodeListener listener;
+
+    public SipMessageDatagramEncoder() {
+        this(EncodeListener.NONE);
+    }
+
+    public SipMessageDatagramEncoder(final EncodeListener listener) {
+        this.listener = listener;
+    }
+
     @Override
     protected void encode(final ChannelHandlerContext ctx, final IOEvent event, final List<Object> out) throws Exception {
         final Connection connection = event.connection();
 
         if (event.isSipMessageIOEvent()) {
             final SipMessage msg = event.toSipMessageIOEvent().message();
-            final DatagramPacket pkt = new DatagramPacket(Utils.toByteBuf(ctx.channel(), msg), connection.getRemoteAddress());
-            out.add(pkt);
+            encoded(connection, cache.encode(ctx.alloc(), msg), out);
         } else if (event.isSipMessageBuilderIOEvent()) {
-            System.err.println("Builder event, building...");
+            // a freshly built message will never be retransmitted as is so no need to cache it
             final SipMessage msg = event.toSipMessageBuilderIOEvent().getBuilder().build();
-            final DatagramPacket pkt = new DatagramPacket(Utils.toByteBuf(ctx.channel(), msg), connection.getRemoteAddress());
-            out.add(pkt);
+            encoded(connection, Utils.toByteBuf(ctx.alloc(), msg), out);
+        } else if (event.isPongMessageIOEvent()) {
+            encodeStun(ctx, connection, event.toPongMessageIOEvent().stun(), out);
+        } else if (event.isPingMessageIOEvent()) {
+            encodeStun(ctx, connection, event.toPingMessageIOEvent().stun(), out);
         }
     }
 
+    private void encoded(final Connection connection, final ByteBuf buffer, final List<Object> out) {
+        listener.onEncoded(connection, buffer.readableBytes());
+        out.add(new DatagramPacket(buffer, connection.getRemoteAddress()));
+    }
+
+    /**
+     * Over UDP, the only keep-alive mechanism is STUN so any ping or pong that isn't a
+     * STUN message is simply dropped.
+     */
+    private void encodeStun(final ChannelHandlerContext ctx, final Connection connection,
+                            final Optional<StunMessage> stun, final List<Object> out) {
+        if (stun.isPresent()) {
+            final InetSocketAddress remote = connection.getRemoteAddress();
+            out.add(new DatagramPacket(stun.get().encode(ctx.alloc(), remote), remote));
+        }
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+        cache.clear();
+        super.handlerRemoved(ctx);
+    }
+
 }
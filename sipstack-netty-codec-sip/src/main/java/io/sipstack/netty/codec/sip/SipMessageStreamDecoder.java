@@ -4,21 +4,38 @@
 package io.sipstack.netty.codec.sip;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.Channel;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.address.SipURI;
-import io.pkts.packet.sip.impl.SipMessageStreamBuilder;
-import io.pkts.packet.sip.impl.SipMessageStreamBuilder.DefaultConfiguration;
+import io.pkts.packet.sip.impl.SipParser;
 import io.sipstack.netty.codec.sip.event.*;
 
-import java.net.InetSocketAddress;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.BiFunction;
 
 /**
+ * Decodes a stream of SIP messages, such as the ones coming over a TCP connection.
+ *
+ * By default every message framed is passed up the pipeline as its own {@link SipMessageIOEvent}.
+ * In pipelined mode (see {@link #SipMessageStreamDecoder(Clock, SipURI, int)}), all messages
+ * framed out of the same read are instead passed up as a single {@link SipMessageBatchIOEvent},
+ * which saves a pipeline traversal per message when the remote side is pushing a lot of traffic
+ * over the same connection (typically a trunk). To be fair to the other channels on the
+ * same event loop, at most max-messages-per-read messages are decoded per read and whatever is
+ * left in the cumulation buffer will be decoded once the event loop comes around to it again.
+ *
+ * The CRLFs in between messages are the RFC 5626 keep-alives and a double CRLF is passed
+ * up as a {@link PingMessageIOEvent} and a single CRLF as a {@link PongMessageIOEvent}. Since
+ * many clients ping every few seconds, the very same ping and pong events are used for
+ * all the keep-alives on the connection.
+ *
  * NOTE! This is NOT a sharable class because it is very much stateful and
  * as such we need a new one for every new pipeline.
  *
@@ -41,16 +58,45 @@ public class SipMessageStreamDecoder extends ByteToMessageDecoder {
 
     public static final int MAX_ALLOWED_CONTENT_LENGTH = 1024;
 
+    /**
+     * The default max number of messages in a single batch when in pipelined mode.
+     */
+    public static final int DEFAULT_MAX_MESSAGES_PER_READ = 16;
+
     private final Clock clock;
 
     private final Optional<SipURI> vipAddress;
 
     /**
-     * Contains the raw framed message.
+     * Frames the messages straight out of the cumulation buffer.
      */
-    private RawMessage message;
+    private final SipMessageStreamFramer framer;
 
-    private SipMessageStreamBuilder messageBuilder;
+    /**
+     * The one and only {@link Connection} for the channel this decoder belongs to.
+     * It is created as soon as the channel is active (or when first needed) and then
+     * shared by all the messages and events on this channel.
+     */
+    private Connection connection;
+
+    /**
+     * The max number of messages decoded per read when in pipelined mode or
+     * zero if not in pipelined mode.
+     */
+    private final int maxMessagesPerRead;
+
+    /**
+     * Whether or not we already have asked the event loop to come back and decode
+     * what was left in the cumulation buffer after we hit the max messages per read.
+     */
+    private boolean resumeScheduled;
+
+    /**
+     * The one and only ping and pong events for this connection. Created the first
+     * time they are needed.
+     */
+    private PingMessageIOEvent ping;
+    private PongMessageIOEvent pong;
 
     public SipMessageStreamDecoder() {
         this(new SystemClock(), null);
@@ -63,14 +109,40 @@ public class SipMessageStreamDecoder extends ByteToMessageDecoder {
      * 
      */
     public SipMessageStreamDecoder(final Clock clock, final SipURI vipAddress) {
+        this(clock, vipAddress, 0);
+    }
+
+    /**
+     * Create a new decoder in pipelined mode, where all the messages framed out of the same
+     * read are passed up the pipeline as a single {@link SipMessageBatchIOEvent}. Note that
+     * a read that only contained a single message still results in a regular
+     * {@link SipMessageIOEvent}.
+     *
+     * @param clock
+     * @param vipAddress
+     * @param maxMessagesPerRead the max number of messages to decode per read, which also is
+     *        the max size of a batch. Zero turns pipelined mode off.
+     */
+    public SipMessageStreamDecoder(final Clock clock, final SipURI vipAddress, final int maxMessagesPerRead) {
+        if (maxMessagesPerRead < 0) {
+            throw new IllegalArgumentException("The max number of messages per read cannot be negative");
+        }
         this.clock = clock;
         this.vipAddress = Optional.ofNullable(vipAddress);
-        final DefaultConfiguration config = new DefaultConfiguration();
-        config.setMaxAllowedHeadersSize(2048);
-        config.setMaxAllowedContentLength(1024);
-        messageBuilder = new SipMessageStreamBuilder(config);
+        this.maxMessagesPerRead = maxMessagesPerRead;
+        this.framer = new SipMessageStreamFramer(MAX_ALLOWED_INITIAL_LINE_SIZE, MAX_ALLOWED_HEADERS_SIZE,
+                MAX_ALLOWED_CONTENT_LENGTH);
+    }
+
+    public boolean isPipelined() {
+        return maxMessagesPerRead > 0;
     }
 
+    /**
+     * Our {@link #decode(ChannelHandlerContext, ByteBuf, List)} frames all it can (or is allowed to)
+     * in one go so there is no point in Netty calling it again for the same read. For pipelined
+     * mode, this is also what makes max messages per read an actual per read limit.
+     */
     @Override
     public boolean isSingleDecode() {
         return true;
@@ -99,6 +171,7 @@ public class SipMessageStreamDecoder extends ByteToMessageDecoder {
     @Override
     public void channelActive(final ChannelHandlerContext ctx) throws Exception {
         if (ctx.channel().localAddress() != null) {
+            connection = TcpConnection.ensureConnection(ctx.channel(), vipAddress);
             final ConnectionIOEvent event = create(ctx, ConnectionActiveIOEvent::create);
             ctx.fireUserEventTriggered(event);
         }
@@ -117,56 +190,177 @@ public class SipMessageStreamDecoder extends ByteToMessageDecoder {
 
     /**
      * From ChannelInboundHandler
+     *
+     * The transport layer keeps track of the writability of every flow so it is told through
+     * a {@link ConnectionWritabilityChangedIOEvent} but the raw event is also passed on
+     * since e.g. the {@link BackPressureHandler} needs it.
      */
     @Override
     public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
-        // just consume the event
-    }
-
-    @Override
-    public void channelReadComplete(final ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().localAddress() != null) {
+            final boolean writable = ctx.channel().isWritable();
+            ctx.fireUserEventTriggered(
+                    ConnectionWritabilityChangedIOEvent.create(connection(ctx), clock.getCurrentTimeMillis(), writable));
+        }
+        ctx.fireChannelWritabilityChanged();
     }
 
     private ConnectionIOEvent create(final ChannelHandlerContext ctx, final BiFunction<Connection, Long, ConnectionIOEvent> f) {
-        final Channel channel = ctx.channel();
-        final Connection connection = new TcpConnection(channel, (InetSocketAddress) channel.remoteAddress(), vipAddress);
         final Long arrivalTime = clock.getCurrentTimeMillis();
-        return f.apply(connection, arrivalTime);
+        return f.apply(connection(ctx), arrivalTime);
+    }
+
+    private Connection connection(final ChannelHandlerContext ctx) {
+        if (connection == null) {
+            connection = TcpConnection.ensureConnection(ctx.channel(), vipAddress);
+        }
+        return connection;
     }
 
     @Override
     protected void decode(final ChannelHandlerContext ctx, final ByteBuf buffer, final List<Object> out)
             throws Exception {
 
-        // final long ts = System.currentTimeMillis();
-        // TODO: if you push a tonnes of traffic over a single TCP connection
-        // it may be that we actually receive buffers that are larger than we
-        // have actually allocated in our message builder. What we should do is
-        // to only fill up max data
-        while (buffer.isReadable()) {
-
-            final int availableBytes = buffer.readableBytes();
-            final int writableBytes = messageBuilder.getWritableBytes();
-            final int toWrite = Math.min(availableBytes, writableBytes);
-            final byte[] data = new byte[toWrite];
-            buffer.readBytes(data);
-
-            if (messageBuilder.process(data)) {
-                final SipMessage sipMessage = messageBuilder.build();
-                final long arrivalTime = this.clock.getCurrentTimeMillis();
-                final Channel channel = ctx.channel();
-                final Connection connection = new TcpConnection(channel, (InetSocketAddress) channel.remoteAddress(), vipAddress);
-                final SipMessageIOEvent msg = IOEvent.create(connection, sipMessage);
-                out.add(msg);
-
-                while (messageBuilder.hasUnprocessData() && messageBuilder.process()) {
-                    out.add(IOEvent.create(connection, messageBuilder.build()));
+        try {
+            if (isPipelined()) {
+                decodeBatch(ctx, buffer, out);
+                return;
+            }
+
+            ByteBuf frame;
+            while ((frame = framer.frame(buffer)) != null) {
+                processKeepAlives(ctx, out);
+                out.add(toSipMessageIOEvent(ctx, frame, clock.getCurrentTimeMillis()));
+            }
+            processKeepAlives(ctx, out);
+        } catch (final MaxMessageSizeExceededException e) {
+            buffer.skipBytes(buffer.readableBytes());
+            dropConnection(ctx, e.getMessage());
+        }
+    }
+
+    /**
+     * Frame up to max messages per read out of the buffer and pass them on as one batch.
+     */
+    private void decodeBatch(final ChannelHandlerContext ctx, final ByteBuf buffer, final List<Object> out)
+            throws IOException, MaxMessageSizeExceededException {
+        final long arrivalTime = clock.getCurrentTimeMillis();
+        SipMessageIOEvent first = null;
+        List<SipMessageIOEvent> batch = null;
+        int count = 0;
+
+        ByteBuf frame;
+        while (count < maxMessagesPerRead && (frame = framer.frame(buffer)) != null) {
+            final SipMessageIOEvent event = toSipMessageIOEvent(ctx, frame, arrivalTime);
+            if (count == 0) {
+                first = event;
+            } else {
+                if (batch == null) {
+                    batch = new ArrayList<>(Math.min(maxMessagesPerRead, 8));
+                    batch.add(first);
                 }
+                batch.add(event);
             }
+            ++count;
+        }
+
+        // any keep-alives are passed up ahead of the batch
+        processKeepAlives(ctx, out);
+
+        if (count == 1) {
+            out.add(first);
+        } else if (count > 1) {
+            out.add(IOEvent.create(connection(ctx), arrivalTime, batch));
+        }
+
+        if (count == maxMessagesPerRead && buffer.isReadable()) {
+            scheduleResume(ctx);
         }
     }
 
+    /**
+     * Turn the CRLFs the framer skipped in between messages into keep-alive events. A double
+     * CRLF is a ping and a single CRLF a pong (RFC 5626 section 3.5.1) but there is no
+     * point in passing up more than one ping (or pong) in a row since they would all
+     * be answered the same way.
+     *
+     * Note that if a ping is split across two reads it will be seen as two pongs, which at
+     * worst means that we miss to respond to a single ping. A client will always write its
+     * ping in one go so this shouldn't happen in practice.
+     */
+    private void processKeepAlives(final ChannelHandlerContext ctx, final List<Object> out) {
+        final int lineFeeds = framer.drainSkippedLineFeeds();
+        if (lineFeeds == 0) {
+            return;
+        }
+
+        if (lineFeeds > 1) {
+            if (ping == null) {
+                ping = PingMessageIOEvent.create(connection(ctx), clock.getCurrentTimeMillis());
+            }
+            out.add(ping);
+        }
+
+        if ((lineFeeds & 1) == 1) {
+            if (pong == null) {
+                pong = PongMessageIOEvent.create(connection(ctx), clock.getCurrentTimeMillis());
+            }
+            out.add(pong);
+        }
+    }
+
+    /**
+     * We hit the max messages per read but there may be more complete messages in the
+     * cumulation buffer, which we will not get to until there is another read on this
+     * channel. Since that may never happen, ask the event loop to come back to us once
+     * it has served everyone else. Feeding the decoder an empty buffer will make it
+     * decode whatever is left in the cumulation buffer.
+     */
+    private void scheduleResume(final ChannelHandlerContext ctx) {
+        if (resumeScheduled) {
+            return;
+        }
+
+        resumeScheduled = true;
+        ctx.executor().execute(() -> {
+            resumeScheduled = false;
+            if (ctx.isRemoved() || !ctx.channel().isActive()) {
+                return;
+            }
+
+            try {
+                channelRead(ctx, Unpooled.EMPTY_BUFFER);
+
+                // as far as the rest of the pipeline is concerned, this was a read of its own
+                // and whatever was written while processing it has to be flushed.
+                channelReadComplete(ctx);
+            } catch (final Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        });
+    }
+
+    /**
+     * The pkts {@link Buffer} is backed by a byte-array so this is the one and only time
+     * we copy the data and it is copied into an array that is exactly the size of the
+     * message and that array is then owned by the {@link SipMessage}.
+     */
+    private SipMessageIOEvent toSipMessageIOEvent(final ChannelHandlerContext ctx, final ByteBuf frame,
+                                                  final long arrivalTime) throws IOException {
+        final byte[] data = new byte[frame.readableBytes()];
+        frame.readBytes(data);
+        final HeaderIndex index = HeaderIndex.index(data, 0, data.length);
+        final SipMessage msg = SipParser.frame(Buffers.wrap(data));
+        return IOEvent.create(connection(ctx), msg, arrivalTime, index);
+    }
+
+    /**
+     * Whenever the remote side is violating any of our limits we will simply drop the
+     * connection.
+     */
     private void dropConnection(final ChannelHandlerContext ctx, final String reason) {
+        framer.reset();
+        ctx.close();
     }
 
 }
@@ -1,29 +1,208 @@
 package io.sipstack.netty.codec.sip;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.PromiseNotifier;
 import io.pkts.buffer.Buffer;
+import io.pkts.packet.sip.SipMessage;
 import io.sipstack.netty.codec.sip.event.IOEvent;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Simple encoder turning an {@link IOEvent} into a byte array.
  *
+ * Since this encoder is sitting in the pipeline of a single stream based flow, all the
+ * messages written to the flow in between two flushes are encoded into one shared chunk,
+ * which is what is eventually written to the socket. The size of that chunk is adapted to
+ * the traffic of the flow (see {@link AdaptiveEncodeBufferSizer}) so that a busy flow doesn't
+ * have to do a uniquely sized allocation for every single message it sends. A message that
+ * doesn't fit in what is left of the current chunk starts a new chunk and a message bigger
+ * than the chunk size is written in a buffer of its own that is exactly the size of the
+ * encoded message.
+ *
+ * The double CRLF ping and the single CRLF pong are never encoded, instead the very
+ * same read-only direct buffer is written for all of them.
+ *
+ * NOTE! This is NOT a sharable class since it keeps the chunk currently being written to.
+ *
  * @author jonas@jonasborjesson.com
  */
-public class SipMessageStreamEncoder extends MessageToByteEncoder<IOEvent> {
+public class SipMessageStreamEncoder extends ChannelOutboundHandlerAdapter {
+
+    private static final ByteBuf PING = sharedBuffer(new byte[] {'\r', '\n', '\r', '\n'});
+
+    private static final ByteBuf PONG = sharedBuffer(new byte[] {'\r', '\n'});
+
+    private static ByteBuf sharedBuffer(final byte[] content) {
+        final ByteBuf buffer = Unpooled.directBuffer(content.length).writeBytes(content);
+        return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(buffer));
+    }
+
+    private final AdaptiveEncodeBufferSizer sizer;
+
+    private final EncodeListener listener;
+
+    /**
+     * The chunk currently being encoded into or null if there is none.
+     */
+    private ByteBuf chunk;
+
+    /**
+     * The promises of all the messages that have been encoded into the current chunk.
+     */
+    private final List<ChannelPromise> promises = new ArrayList<>(8);
 
+    public SipMessageStreamEncoder() {
+        this(new AdaptiveEncodeBufferSizer());
+    }
+
+    public SipMessageStreamEncoder(final AdaptiveEncodeBufferSizer sizer) {
+        this(sizer, EncodeListener.NONE);
+    }
+
+    public SipMessageStreamEncoder(final EncodeListener listener) {
+        this(new AdaptiveEncodeBufferSizer(), listener);
+    }
+
+    public SipMessageStreamEncoder(final AdaptiveEncodeBufferSizer sizer, final EncodeListener listener) {
+        this.sizer = sizer;
+        this.listener = listener;
+    }
+
+    /**
+     * SIP messages are encoded into the current chunk. Keep-alives bypass the encoding
+     * altogether but since they, just as anything else we don't encode, have to go out
+     * in order, the current chunk is written first. Note that the shared keep-alive
+     * buffer has to be duplicated since the channel will move the reader index as it is
+     * written but the duplicate is sharing the content with the original.
+     */
     @Override
-    protected void encode(final ChannelHandlerContext ctx, final IOEvent msg, final ByteBuf out) throws Exception {
-        if (msg.isSipMessageIOEvent()) {
-
-            // Note: you don't want to do msgBuffer.getArray() since that will create
-            // a copy and we are trying to avoid that. However, accessing the raw array
-            // also means that you have to pay attention to which portion of that data
-            // is actually visible to the buffer.
-            final Buffer msgBuffer = msg.toSipMessageIOEvent().message().toBuffer();
-            final byte[] rawData = msgBuffer.getRawArray();
-            out.writeBytes(rawData, msgBuffer.getLowerBoundary() + msgBuffer.getReaderIndex(), msgBuffer.getReadableBytes());
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise)
+            throws Exception {
+        if (!(msg instanceof IOEvent)) {
+            writeChunk(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+
+        final IOEvent event = (IOEvent) msg;
+        if (event.isSipMessageIOEvent()) {
+            encode(ctx, event.connection(), event.toSipMessageIOEvent().message().toBuffer(), promise);
+        } else if (event.isSipMessageBuilderIOEvent()) {
+            final SipMessage sipMessage = event.toSipMessageBuilderIOEvent().getBuilder().build();
+            encode(ctx, event.connection(), sipMessage.toBuffer(), promise);
+        } else if (event.isPingMessageIOEvent() && !event.toPingMessageIOEvent().isStun()) {
+            writeChunk(ctx);
+            ctx.write(PING.duplicate(), promise);
+        } else if (event.isPongMessageIOEvent() && !event.toPongMessageIOEvent().isStun()) {
+            writeChunk(ctx);
+            ctx.write(PONG.duplicate(), promise);
+        } else {
+            // nothing we know how to write over a stream
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+        }
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) throws Exception {
+        writeChunk(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+        writeChunk(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+        if (chunk != null) {
+            chunk.release();
+            chunk = null;
+            final Exception cause = new IllegalStateException("The encoder was removed from the pipeline");
+            promises.forEach(p -> p.tryFailure(cause));
+            promises.clear();
+        }
+    }
+
+    private void encode(final ChannelHandlerContext ctx, final Connection connection, final Buffer b,
+                        final ChannelPromise promise) {
+        final int size = b.getReadableBytes();
+        listener.onEncoded(connection, size);
+        boolean recorded = false;
+        if (chunk != null && chunk.writableBytes() < size) {
+            writeChunk(ctx, size);
+            recorded = true;
+        }
+
+        if (chunk == null) {
+            final int chunkSize = sizer.nextSize();
+            if (size >= chunkSize) {
+                // the sizer must learn about these too or it will never grow
+                // to the point where they fit in a chunk.
+                if (!recorded) {
+                    sizer.record(size);
+                }
+                final ByteBuf buffer = ctx.alloc().ioBuffer(size, size);
+                Utils.writeTo(b, buffer);
+                ctx.write(buffer, promise);
+                return;
+            }
+            chunk = ctx.alloc().ioBuffer(chunkSize, chunkSize);
+        }
+
+        Utils.writeTo(b, chunk);
+        promises.add(promise);
+    }
+
+    private void writeChunk(final ChannelHandlerContext ctx) {
+        writeChunk(ctx, 0);
+    }
+
+    /**
+     * Write the current chunk, if any, to the next handler in the pipeline. The outcome of
+     * the write is passed on to the promise of every message that went into the chunk.
+     *
+     * @param overflow the size of the message that didn't fit in the chunk, if that is
+     *                 why the chunk is written. What we tried to fit into the chunk is
+     *                 what is recorded with the sizer since the content of a chunk can
+     *                 never reach the chunk size and as such, would never make it grow.
+     */
+    private void writeChunk(final ChannelHandlerContext ctx, final int overflow) {
+        if (chunk == null) {
+            return;
+        }
+
+        final ByteBuf buffer = chunk;
+        chunk = null;
+        sizer.record(buffer.readableBytes() + overflow);
+
+        if (promises.size() == 1) {
+            ctx.write(buffer, promises.get(0));
+        } else {
+            final List<ChannelPromise> notify = new ArrayList<>(promises.size());
+            for (final ChannelPromise promise : promises) {
+                if (!promise.isVoid()) {
+                    notify.add(promise);
+                }
+            }
+
+            if (notify.isEmpty()) {
+                ctx.write(buffer, ctx.voidPromise());
+            } else {
+                final ChannelPromise promise = ctx.newPromise();
+                promise.addListener(new PromiseNotifier<>(notify.toArray(new ChannelPromise[notify.size()])));
+                ctx.write(buffer, promise);
+            }
         }
+        promises.clear();
     }
 }
@@ -0,0 +1,363 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+/**
+ * Frames SIP messages straight out of the cumulation buffer of a stream based
+ * transport without copying anything into intermediate arrays.
+ *
+ * The framer will scan the {@link ByteBuf} in place, looking for the end of the
+ * headers (the empty line) and the Content-Length header (long or compact form),
+ * and once the entire message, including the payload, is available it will hand
+ * out a slice of the buffer containing just that message. Any state needed to
+ * resume the scanning is kept between the calls so that bytes that already have
+ * been examined are not scanned again when more data arrives.
+ *
+ * Unlike the {@link RawMessage}, which is running a state machine for every single
+ * byte, the framer is only looking for line feeds and it does so 8 bytes at a time
+ * (SWAR - SIMD within a register) by reading a long at a time from the buffer. Only
+ * the first byte of every line is then examined to see if it could be the start
+ * of the Content-Length header.
+ *
+ * Just as with the {@link RawMessage}, the size of the initial line, all headers
+ * combined and the payload are capped and a {@link MaxMessageSizeExceededException}
+ * is thrown as soon as we know that any of those limits will be exceeded.
+ *
+ * NOTE! This is NOT a sharable class since it keeps state about the message
+ * currently being framed.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class SipMessageStreamFramer {
+
+    private static final byte COLON = ':';
+
+    private static final byte CR = '\r';
+
+    private static final byte LF = '\n';
+
+    private static final byte SP = ' ';
+
+    private static final byte HTAB = '\t';
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+
+    /**
+     * A long with every byte set to a line feed.
+     */
+    private static final long LF_PATTERN = 0x0A0A0A0A0A0A0A0AL;
+
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final int maxAllowedInitialLineSize;
+
+    private final int maxAllowedHeadersSize;
+
+    private final int maxAllowedContentLength;
+
+    /**
+     * Whether or not we have found the first byte of a new message, i.e., we
+     * are past any leading CRLFs.
+     */
+    private boolean started;
+
+    /**
+     * The index, relative to the reader index, where the scanning should continue.
+     */
+    private int scanIndex;
+
+    /**
+     * The index, relative to the reader index, of the first byte of the
+     * line we are currently scanning.
+     */
+    private int lineStart;
+
+    /**
+     * The index, relative to the reader index, of the first header or -1 if we
+     * still haven't found the end of the initial line.
+     */
+    private int headersStart = -1;
+
+    /**
+     * The index, relative to the reader index, of the first byte after the
+     * empty line separating the headers from the payload or -1 if we haven't
+     * found it yet.
+     */
+    private int headersEnd = -1;
+
+    /**
+     * The content length as stated by the message or -1 if we haven't seen a
+     * Content-Length header (yet).
+     */
+    private int contentLength = -1;
+
+    /**
+     * The number of line feeds among the leading CRLFs we have consumed since the last
+     * call to {@link #drainSkippedLineFeeds()}.
+     */
+    private int skippedLineFeeds;
+
+    public SipMessageStreamFramer(final int maxAllowedInitialLineSize, final int maxAllowedHeadersSize,
+                                  final int maxAllowedContentLength) {
+        this.maxAllowedInitialLineSize = maxAllowedInitialLineSize;
+        this.maxAllowedHeadersSize = maxAllowedHeadersSize;
+        this.maxAllowedContentLength = maxAllowedContentLength;
+    }
+
+    /**
+     * Try to frame the next message in the buffer.
+     *
+     * Any CRLF preceding the message will be consumed, which is allowed for stream
+     * based protocols according to RFC 3261 section 7.5 (and used as keep-alive
+     * by RFC 5626, see {@link #drainSkippedLineFeeds()}).
+     *
+     * @param buffer the buffer to frame the message from. Its reader index will
+     *               only be moved once an entire message has been framed (or when leading
+     *               CRLFs are consumed).
+     * @return a slice of the buffer containing exactly one message or null if
+     *         the buffer doesn't contain an entire message yet.
+     * @throws MaxMessageSizeExceededException in case the message is exceeding
+     *         any of the limits. The framer is left in an undefined state
+     *         and the connection should be dropped.
+     */
+    public ByteBuf frame(final ByteBuf buffer) throws MaxMessageSizeExceededException {
+        if (!started && !skipLeadingCRLF(buffer)) {
+            return null;
+        }
+
+        if (headersEnd == -1 && !scanHeaders(buffer)) {
+            return null;
+        }
+
+        final int length = headersEnd + Math.max(contentLength, 0);
+        if (buffer.readableBytes() < length) {
+            return null;
+        }
+
+        reset();
+        return buffer.readSlice(length);
+    }
+
+    /**
+     * Check whether the framer is in the middle of a message, i.e., it has
+     * seen at least one byte of the next message.
+     */
+    public boolean isFraming() {
+        return started;
+    }
+
+    /**
+     * Reset the framer so that it is ready to frame the next message.
+     */
+    public void reset() {
+        started = false;
+        scanIndex = 0;
+        lineStart = 0;
+        headersStart = -1;
+        headersEnd = -1;
+        contentLength = -1;
+    }
+
+    /**
+     * Get the number of line feeds among the CRLFs consumed in between messages since the
+     * last time this method was called. These are the RFC 5626 keep-alives, where a
+     * double CRLF is a ping and a single CRLF is a pong.
+     *
+     * @return
+     */
+    public int drainSkippedLineFeeds() {
+        final int count = skippedLineFeeds;
+        skippedLineFeeds = 0;
+        return count;
+    }
+
+    private boolean skipLeadingCRLF(final ByteBuf buffer) {
+        final int index = buffer.forEachByte(ByteProcessor.FIND_NON_CRLF);
+        final int end = index == -1 ? buffer.writerIndex() : index;
+        for (int i = buffer.readerIndex(); i < end; ++i) {
+            if (buffer.getByte(i) == LF) {
+                ++skippedLineFeeds;
+            }
+        }
+
+        if (index == -1) {
+            buffer.skipBytes(buffer.readableBytes());
+            return false;
+        }
+
+        buffer.readerIndex(index);
+        started = true;
+        return true;
+    }
+
+    /**
+     * Scan all the lines we haven't already looked at until we either find the empty line
+     * separating the headers from the body or run out of bytes.
+     *
+     * @return true if we found the end of the headers.
+     */
+    private boolean scanHeaders(final ByteBuf buffer) throws MaxMessageSizeExceededException {
+        final int readerIndex = buffer.readerIndex();
+        final int readable = buffer.readableBytes();
+
+        while (scanIndex < readable) {
+            final int lf = indexOfLF(buffer, readerIndex + scanIndex, readerIndex + readable);
+            if (lf == -1) {
+                scanIndex = readable;
+                break;
+            }
+
+            final int lineEnd = lf - readerIndex;
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buffer.getByte(readerIndex + contentEnd - 1) == CR) {
+                --contentEnd;
+            }
+
+            if (headersStart == -1) {
+                ensureInitialLineSize(contentEnd);
+                headersStart = lineEnd + 1;
+            } else if (contentEnd == lineStart) {
+                headersEnd = lineEnd + 1;
+                return true;
+            } else {
+                ensureHeadersSize(lineEnd + 1);
+                final int length = parseContentLength(buffer, readerIndex + lineStart, readerIndex + contentEnd);
+                if (length != -1) {
+                    contentLength = length;
+                }
+            }
+
+            lineStart = lineEnd + 1;
+            scanIndex = lineStart;
+        }
+
+        // make sure that no one can have us buffer up data forever
+        // by never sending a line break.
+        if (headersStart == -1) {
+            ensureInitialLineSize(readable);
+        } else {
+            ensureHeadersSize(readable);
+        }
+        return false;
+    }
+
+    /**
+     * Find the next line feed within the given range by examining 8 bytes at a time.
+     *
+     * Every word is XOR:ed with a pattern of line feeds, turning any line feed into a
+     * zero byte, and then the zero bytes are located without branching on the individual
+     * bytes. Note that we are using the exact version of the "has zero byte" trick since
+     * the cheaper one may report false positives next to a real zero byte, which would
+     * be a problem since we are interested in the first one.
+     *
+     * @param buffer
+     * @param from the absolute index to start at (inclusive)
+     * @param to the absolute index to stop at (exclusive)
+     * @return the absolute index of the line feed or -1 if none was found.
+     */
+    static int indexOfLF(final ByteBuf buffer, final int from, final int to) {
+        int index = from;
+        final int words = to - 7;
+        while (index < words) {
+            final long word = buffer.getLong(index) ^ LF_PATTERN;
+            final long zeros = ~((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS | word | LOW_SEVEN_BITS);
+            if (zeros != 0) {
+                // ByteBuf#getLong is big endian so the first byte is the most significant one
+                return index + (Long.numberOfLeadingZeros(zeros) >>> 3);
+            }
+            index += 8;
+        }
+
+        while (index < to) {
+            if (buffer.getByte(index) == LF) {
+                return index;
+            }
+            ++index;
+        }
+        return -1;
+    }
+
+    private void ensureInitialLineSize(final int size) throws MaxMessageSizeExceededException {
+        if (size > maxAllowedInitialLineSize) {
+            throw new MaxMessageSizeExceededException("Maximum initial line exceeded");
+        }
+    }
+
+    private void ensureHeadersSize(final int end) throws MaxMessageSizeExceededException {
+        if (end - headersStart > maxAllowedHeadersSize) {
+            throw new MaxMessageSizeExceededException("Maximum allowed header size exceeded");
+        }
+    }
+
+    /**
+     * Check whether the header line is a Content-Length header ('l' being its compact form)
+     * and if so, return its value.
+     *
+     * @param buffer
+     * @param start the absolute index of the first byte of the header line.
+     * @param end the absolute index of the CR (or LF) ending the header line.
+     * @return the value of the header or -1 if this wasn't a Content-Length header.
+     * @throws MaxMessageSizeExceededException in case the value is exceeding the maximum
+     *         allowed content length.
+     */
+    int parseContentLength(final ByteBuf buffer, final int start, final int end)
+            throws MaxMessageSizeExceededException {
+        int index = start;
+        final byte first = toLowerCase(buffer.getByte(index));
+        if (first == 'c') {
+            if (end - start < CONTENT_LENGTH.length) {
+                return -1;
+            }
+            for (int i = 1; i < CONTENT_LENGTH.length; ++i) {
+                if (toLowerCase(buffer.getByte(start + i)) != CONTENT_LENGTH[i]) {
+                    return -1;
+                }
+            }
+            index += CONTENT_LENGTH.length;
+        } else if (first == 'l') {
+            ++index;
+        } else {
+            return -1;
+        }
+
+        index = skipWhiteSpace(buffer, index, end);
+        if (index == end || buffer.getByte(index) != COLON) {
+            return -1;
+        }
+
+        index = skipWhiteSpace(buffer, index + 1, end);
+        if (index == end || !isDigit(buffer.getByte(index))) {
+            throw new MaxMessageSizeExceededException("Unable to parse the Content-Length header");
+        }
+
+        int value = 0;
+        while (index < end && isDigit(buffer.getByte(index))) {
+            value = value * 10 + buffer.getByte(index++) - '0';
+            if (value > maxAllowedContentLength) {
+                throw new MaxMessageSizeExceededException("Content length exceeds the maximum allowed length");
+            }
+        }
+        return value;
+    }
+
+    private static int skipWhiteSpace(final ByteBuf buffer, final int start, final int end) {
+        int index = start;
+        while (index < end) {
+            final byte b = buffer.getByte(index);
+            if (b != SP && b != HTAB) {
+                break;
+            }
+            ++index;
+        }
+        return index;
+    }
+
+    private static byte toLowerCase(final byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,241 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A very minimal STUN (RFC 5389) implementation that only knows about what is
+ * needed for using STUN as a keep-alive mechanism as described in RFC 5626, i.e.,
+ * the binding request (the ping) and the binding success response (the pong).
+ *
+ * Since every NAT:ed endpoint is expected to send a binding request every 30 seconds
+ * or so, this needs to be cheap. The incoming message is therefore never really
+ * parsed, we only grab the transaction id, and the outgoing ones are encoded by
+ * copying a precomputed template and then patching in the transaction id and the
+ * mapped address.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class StunMessage {
+
+    /**
+     * All STUN messages start with a 20 byte header.
+     */
+    public static final int HEADER_LENGTH = 20;
+
+    public static final int MAGIC_COOKIE = 0x2112A442;
+
+    public static final int BINDING_REQUEST = 0x0001;
+
+    public static final int BINDING_SUCCESS_RESPONSE = 0x0101;
+
+    private static final int TRANSACTION_ID_LENGTH = 12;
+
+    private static final int TRANSACTION_ID_OFFSET = 8;
+
+    private static final int XOR_MAPPED_ADDRESS = 0x0020;
+
+    /**
+     * The offset of the X-Port within a binding success response, which is
+     * where we start patching in the mapped address.
+     */
+    private static final int XOR_PORT_OFFSET = HEADER_LENGTH + 6;
+
+    private static final byte[] BINDING_REQUEST_TEMPLATE = template(BINDING_REQUEST, 0, 0);
+
+    private static final byte[] BINDING_RESPONSE_IPV4_TEMPLATE = template(BINDING_SUCCESS_RESPONSE, 0x01, 4);
+
+    private static final byte[] BINDING_RESPONSE_IPV6_TEMPLATE = template(BINDING_SUCCESS_RESPONSE, 0x02, 16);
+
+    private final int type;
+
+    private final byte[] transactionId;
+
+    private StunMessage(final int type, final byte[] transactionId) {
+        this.type = type;
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * Check whether the readable bytes of the buffer is a STUN message. A SIP message
+     * can never pass this test since the first two bits of a STUN message always are zero,
+     * which for SIP would only be true for a leading CR or LF, and the magic cookie and
+     * the length also have to check out.
+     *
+     * @param buffer
+     * @return
+     */
+    public static boolean isStun(final ByteBuf buffer) {
+        final int index = buffer.readerIndex();
+        final int readable = buffer.readableBytes();
+        if (readable < HEADER_LENGTH || (buffer.getByte(index) & 0xC0) != 0) {
+            return false;
+        }
+
+        final int length = buffer.getUnsignedShort(index + 2);
+        return (length & 0x03) == 0
+                && HEADER_LENGTH + length == readable
+                && buffer.getInt(index + 4) == MAGIC_COOKIE;
+    }
+
+    /**
+     * Frame the STUN message in the given buffer. The buffer is left untouched.
+     *
+     * @param buffer
+     * @return the STUN message or null if the buffer doesn't contain one.
+     */
+    public static StunMessage frame(final ByteBuf buffer) {
+        if (!isStun(buffer)) {
+            return null;
+        }
+
+        final int index = buffer.readerIndex();
+        final byte[] transactionId = new byte[TRANSACTION_ID_LENGTH];
+        buffer.getBytes(index + TRANSACTION_ID_OFFSET, transactionId);
+        return new StunMessage(buffer.getUnsignedShort(index), transactionId);
+    }
+
+    /**
+     * Create a new binding request with a random transaction id.
+     *
+     * @return
+     */
+    public static StunMessage createBindingRequest() {
+        final byte[] transactionId = new byte[TRANSACTION_ID_LENGTH];
+        ThreadLocalRandom.current().nextBytes(transactionId);
+        return new StunMessage(BINDING_REQUEST, transactionId);
+    }
+
+    /**
+     * Create the binding success response to this binding request.
+     *
+     * @return
+     * @throws IllegalStateException in case this is not a binding request.
+     */
+    public StunMessage createBindingResponse() throws IllegalStateException {
+        if (!isBindingRequest()) {
+            throw new IllegalStateException("Can only create a binding response to a binding request");
+        }
+        return new StunMessage(BINDING_SUCCESS_RESPONSE, transactionId);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isBindingRequest() {
+        return type == BINDING_REQUEST;
+    }
+
+    public boolean isBindingSuccessResponse() {
+        return type == BINDING_SUCCESS_RESPONSE;
+    }
+
+    /**
+     * Check whether the given STUN message belongs to the same STUN transaction as this one,
+     * which is how we match a binding response to our binding request.
+     *
+     * @param other
+     * @return
+     */
+    public boolean isSameTransaction(final StunMessage other) {
+        return other != null && Arrays.equals(transactionId, other.transactionId);
+    }
+
+    /**
+     * Encode this STUN message.
+     *
+     * @param alloc
+     * @param mappedAddress the address the binding request was received from, which is what
+     *                      goes into the XOR-MAPPED-ADDRESS attribute of a binding response.
+     *                      Ignored for requests.
+     * @return
+     */
+    public ByteBuf encode(final ByteBufAllocator alloc, final InetSocketAddress mappedAddress) {
+        if (isBindingRequest()) {
+            return copyTemplate(alloc, BINDING_REQUEST_TEMPLATE);
+        }
+
+        final byte[] address = mappedAddress.getAddress().getAddress();
+        final ByteBuf buffer = copyTemplate(alloc,
+                address.length == 4 ? BINDING_RESPONSE_IPV4_TEMPLATE : BINDING_RESPONSE_IPV6_TEMPLATE);
+
+        // RFC 5389 section 15.2. The port is XOR:ed with the most significant 16 bits of
+        // the magic cookie and the address with the magic cookie, followed by
+        // the transaction id in the IPv6 case.
+        buffer.setShort(XOR_PORT_OFFSET, mappedAddress.getPort() ^ (MAGIC_COOKIE >>> 16));
+        for (int i = 0; i < address.length; ++i) {
+            buffer.setByte(XOR_PORT_OFFSET + 2 + i, address[i] ^ buffer.getByte(4 + i));
+        }
+
+        return buffer;
+    }
+
+    private ByteBuf copyTemplate(final ByteBufAllocator alloc, final byte[] template) {
+        final ByteBuf buffer = alloc.buffer(template.length);
+        buffer.writeBytes(template);
+        buffer.setBytes(TRANSACTION_ID_OFFSET, transactionId);
+        return buffer;
+    }
+
+    /**
+     * Build the template for a message of the given type. If an address family is given, the
+     * template will also contain a XOR-MAPPED-ADDRESS attribute with the port and address
+     * all zeroed out.
+     */
+    private static byte[] template(final int type, final int family, final int addressLength) {
+        final int attributeLength = family == 0 ? 0 : 4 + addressLength;
+        final int length = family == 0 ? 0 : 4 + attributeLength;
+        final byte[] template = new byte[HEADER_LENGTH + length];
+        writeShort(template, 0, type);
+        writeShort(template, 2, length);
+        template[4] = (byte) (MAGIC_COOKIE >>> 24);
+        template[5] = (byte) (MAGIC_COOKIE >>> 16);
+        template[6] = (byte) (MAGIC_COOKIE >>> 8);
+        template[7] = (byte) MAGIC_COOKIE;
+        if (family != 0) {
+            writeShort(template, HEADER_LENGTH, XOR_MAPPED_ADDRESS);
+            writeShort(template, HEADER_LENGTH + 2, attributeLength);
+            writeShort(template, HEADER_LENGTH + 4, family);
+        }
+        return template;
+    }
+
+    private static void writeShort(final byte[] dst, final int index, final int value) {
+        dst[index] = (byte) (value >>> 8);
+        dst[index + 1] = (byte) value;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        try {
+            final StunMessage other = (StunMessage) obj;
+            return type == other.type && Arrays.equals(transactionId, other.transactionId);
+        } catch (final ClassCastException | NullPointerException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type + Arrays.hashCode(transactionId);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(isBindingRequest() ? "Binding Request "
+                : isBindingSuccessResponse() ? "Binding Response " : "STUN " + type + " ");
+        for (final byte b : transactionId) {
+            sb.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+        return sb.toString();
+    }
+}
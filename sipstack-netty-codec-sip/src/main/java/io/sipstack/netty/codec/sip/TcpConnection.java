@@ -7,6 +7,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
 import io.pkts.packet.sip.Transport;
 import io.pkts.packet.sip.address.SipURI;
 
@@ -28,6 +29,29 @@ public final class TcpConnection extends AbstractConnection {
         super(Transport.tcp, channel, remote, null);
     }
 
+    /**
+     * Get the {@link Connection} associated with the given {@link Channel} or create it if
+     * this is the first time we ask for it. Since a TCP connection is immutable for the
+     * life time of the channel we only ever want one instance per channel, which means that
+     * every message on the same flow will carry the same connection (and {@link ConnectionId})
+     * and any lookup based on them is an identity hit.
+     *
+     * @param channel the channel, which must be connected.
+     * @param vipAddress
+     * @return
+     */
+    public static Connection ensureConnection(final Channel channel, final Optional<SipURI> vipAddress) {
+        final Attribute<Connection> attribute = channel.attr(CONNECTION_KEY);
+        final Connection connection = attribute.get();
+        if (connection != null) {
+            return connection;
+        }
+
+        final Connection newConnection = new TcpConnection(channel, (InetSocketAddress) channel.remoteAddress(), vipAddress);
+        final Connection existing = attribute.setIfAbsent(newConnection);
+        return existing != null ? existing : newConnection;
+    }
+
     @Override
     public boolean isTCP() {
         return true;
@@ -43,9 +67,7 @@ public final class TcpConnection extends AbstractConnection {
      */
     @Override
     public void send(final Object o) {
-        channel().writeAndFlush(o);
-        // System.err.println("Cmon, writing the stupid message!");
-        // channel().write(o);
+        channel().writeAndFlush(toWritable(o));
     }
 
     @Override
@@ -0,0 +1,156 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.header.ViaHeader;
+import io.pkts.packet.sip.impl.PreConditions;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The key identifying the transaction a {@link SipMessage} belongs to, which is the branch
+ * parameter of the top-most Via header (RFC 3261 section 17.2.3). A CANCEL has the same
+ * branch as the request it is cancelling but is a transaction of its own so the key also
+ * keeps track of whether or not it is for a CANCEL.
+ *
+ * For messages coming off of the network the key is created from the {@link HeaderIndex},
+ * where the branch has already been located and hashed during framing, so the Via header
+ * never has to be parsed just to find the transaction. The branch is copied into the key
+ * since the key typically outlives the message (it is used for looking up the transaction
+ * for as long as the transaction is alive) and the message may be framed on top of a
+ * pooled network buffer.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class TransactionKey {
+
+    private static final byte[] CANCEL = "CANCEL".getBytes();
+
+    private final byte[] branch;
+
+    private final boolean cancel;
+
+    private final int hashCode;
+
+    private TransactionKey(final byte[] branch, final boolean cancel, final int branchHash) {
+        this.branch = branch;
+        this.cancel = cancel;
+        this.hashCode = cancel ? 31 * branchHash + 1 : branchHash;
+    }
+
+    /**
+     * Create the key based on what was found when the message was indexed.
+     *
+     * @param index
+     * @return the key or null if the message didn't have a branch on its top-most Via header.
+     */
+    public static TransactionKey create(final HeaderIndex index) {
+        final int start = index.getViaBranchStart();
+        if (start == -1) {
+            return null;
+        }
+
+        final byte[] array = index.getArray();
+        final byte[] branch = Arrays.copyOfRange(array, start, index.getViaBranchEnd());
+        final boolean cancel = equals(array, index.getCSeqMethodStart(), index.getCSeqMethodEnd(), CANCEL);
+        return new TransactionKey(branch, cancel, index.getViaBranchHash());
+    }
+
+    /**
+     * Create the key by looking at the top-most Via header of the message, which will
+     * force the message to parse it. For messages that came off of the network, use
+     * {@link #create(HeaderIndex)} instead.
+     *
+     * @param msg
+     * @return
+     * @throws IllegalArgumentException in case the message doesn't have a Via header.
+     */
+    public static TransactionKey create(final SipMessage msg) throws IllegalArgumentException {
+        PreConditions.ensureNotNull(msg, "SIP message cannot be null");
+        final ViaHeader via = msg.getViaHeader();
+        PreConditions.ensureNotNull(via, "No Via-header found in the SIP message");
+        final Buffer buffer = via.getBranch();
+        PreConditions.ensureNotNull(buffer, "No branch parameter on the top-most Via-header");
+        final byte[] branch = new byte[buffer.capacity()];
+        buffer.getByes(branch);
+        return new TransactionKey(branch, msg.isCancel(), hash(branch, 0, branch.length));
+    }
+
+    /**
+     * The hash of the branch, which is the same as {@link Arrays#hashCode(byte[])} of
+     * the same bytes.
+     */
+    public static int hash(final byte[] array, final int start, final int end) {
+        int hash = 1;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + array[i];
+        }
+        return hash;
+    }
+
+    private static boolean equals(final byte[] array, final int start, final int end, final byte[] value) {
+        if (start == -1 || end - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; ++i) {
+            if (array[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the given message belongs to the transaction identified by this key
+     * without creating a new key for it.
+     *
+     * @param msg
+     * @return
+     */
+    public boolean matches(final SipMessage msg) {
+        final ViaHeader via = msg.getViaHeader();
+        if (via == null || cancel != msg.isCancel()) {
+            return false;
+        }
+
+        final Buffer other = via.getBranch();
+        if (other == null || other.capacity() != branch.length) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < branch.length; ++i) {
+                if (other.getByte(i) != branch[i]) {
+                    return false;
+                }
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof TransactionKey)) {
+            return false;
+        }
+
+        final TransactionKey other = (TransactionKey) obj;
+        return hashCode == other.hashCode && cancel == other.cancel && Arrays.equals(branch, other.branch);
+    }
+
+    @Override
+    public String toString() {
+        return cancel ? new String(branch) + "-CANCEL" : new String(branch);
+    }
+}
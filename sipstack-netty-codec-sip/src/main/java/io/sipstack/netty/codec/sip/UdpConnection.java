@@ -40,7 +40,7 @@ public final class UdpConnection extends AbstractConnection {
      */
     @Override
     public void send(final Object o) {
-        channel().writeAndFlush(o);
+        channel().writeAndFlush(toWritable(o));
     }
 
     @Override
@@ -0,0 +1,244 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.channel.Channel;
+import io.pkts.packet.sip.address.SipURI;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+
+/**
+ * Interns the {@link UdpConnection}s of a single UDP {@link Channel} so that every datagram
+ * from the same remote IP:port is handed the very same connection (and therefore the
+ * same {@link ConnectionId}) instead of creating a new one, along with all the strings
+ * and byte-arrays that goes into a {@link ConnectionId}, for every single datagram.
+ *
+ * The remote IPv4 address and port are packed into a long, which is the key into an
+ * open addressing (linear probing) table of primitive keys so that a lookup doesn't
+ * allocate anything. IPv6 remotes are not cached but will simply get a new connection
+ * every time.
+ *
+ * Every entry keeps track of when it was last used and whenever the table is getting
+ * full, all entries that have been idle for longer than the idle timeout are evicted.
+ * If that isn't enough, the table grows until it reaches its max capacity after which
+ * new remotes simply are not cached until some of the old ones have gone idle.
+ *
+ * Evicting means re-building the entire table so it is only attempted once an entry
+ * actually can have gone idle, i.e., not before the oldest entry left after the previous
+ * eviction has reached the idle timeout. Otherwise, a full table of live entries would
+ * be re-built for every single datagram from a new (possibly spoofed) source.
+ *
+ * NOTE! This class is not thread safe and is meant to be owned by the decoder of
+ * a single channel, which Netty will only ever call from the same event loop.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class UdpConnectionCache {
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    public static final int DEFAULT_MAX_CAPACITY = 64 * 1024;
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    /**
+     * An IPv4 address plus a port is 48 bits so no valid key will ever be -1.
+     */
+    private static final long EMPTY = -1L;
+
+    private final Channel channel;
+
+    private final Optional<SipURI> vipAddress;
+
+    private final int maxCapacity;
+
+    private final long idleTimeout;
+
+    private long[] keys;
+
+    private UdpConnection[] connections;
+
+    private long[] lastUsed;
+
+    private int size;
+
+    /**
+     * The earliest time at which any of the entries can have gone idle, i.e., there is
+     * no point trying to evict anything before this.
+     */
+    private long nextEviction;
+
+    private int rehashes;
+
+    public UdpConnectionCache(final Channel channel, final Optional<SipURI> vipAddress) {
+        this(channel, vipAddress, DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CAPACITY, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param channel the channel all the connections are using.
+     * @param vipAddress
+     * @param initialCapacity the initial number of slots, which must be a power of two.
+     * @param maxCapacity the max number of slots, which must be a power of two.
+     * @param idleTimeout the time in milliseconds after which an unused entry may be evicted.
+     */
+    public UdpConnectionCache(final Channel channel, final Optional<SipURI> vipAddress,
+                              final int initialCapacity, final int maxCapacity, final long idleTimeout) {
+        if (!isPowerOfTwo(initialCapacity) || !isPowerOfTwo(maxCapacity) || initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException("The capacities must be powers of two and initial <= max");
+        }
+        this.channel = channel;
+        this.vipAddress = vipAddress;
+        this.maxCapacity = maxCapacity;
+        this.idleTimeout = idleTimeout;
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Get the connection for the given remote address, creating (and caching) it if this is
+     * the first time we see it.
+     *
+     * @param remote the remote address, typically the sender of a datagram.
+     * @param now the current time in milliseconds.
+     * @return
+     */
+    public UdpConnection ensureConnection(final InetSocketAddress remote, final long now) {
+        final InetAddress address = remote.getAddress();
+        if (!(address instanceof Inet4Address)) {
+            return new UdpConnection(channel, remote, vipAddress);
+        }
+
+        final long key = toKey(address, remote.getPort());
+        int slot = slot(key, keys.length - 1);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                final UdpConnection connection = connections[slot];
+                // the key is built from the hash code of the address so make sure
+                // it really is the same address. Inet4Address#equals doesn't allocate.
+                if (connection.getRemotePort() == remote.getPort()
+                        && address.equals(connection.getRemoteAddress().getAddress())) {
+                    lastUsed[slot] = now;
+                    return connection;
+                }
+                return new UdpConnection(channel, remote, vipAddress);
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+
+        final UdpConnection connection = new UdpConnection(channel, remote, vipAddress);
+        if (ensureRoom(now)) {
+            insert(key, connection, now);
+        }
+        return connection;
+    }
+
+    /**
+     * The number of cached connections.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of times the table has been re-built, which is mainly interesting for
+     * testing.
+     */
+    int rehashes() {
+        return rehashes;
+    }
+
+    /**
+     * Evict all the connections that haven't been used for longer than the idle timeout.
+     *
+     * @param now the current time in milliseconds.
+     */
+    public void evictIdle(final long now) {
+        rehash(keys.length, now);
+    }
+
+    private boolean ensureRoom(final long now) {
+        if (size < threshold(keys.length)) {
+            return true;
+        }
+
+        if (now >= nextEviction) {
+            evictIdle(now);
+            if (size < threshold(keys.length)) {
+                return true;
+            }
+        }
+
+        if (keys.length < maxCapacity) {
+            rehash(keys.length << 1, now);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Re-build the table with the given capacity, dropping all idle entries.
+     */
+    private void rehash(final int capacity, final long now) {
+        final long[] oldKeys = keys;
+        final UdpConnection[] oldConnections = connections;
+        final long[] oldLastUsed = lastUsed;
+
+        allocate(capacity);
+        long oldest = now;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY && now - oldLastUsed[i] <= idleTimeout) {
+                insert(oldKeys[i], oldConnections[i], oldLastUsed[i]);
+                oldest = Math.min(oldest, oldLastUsed[i]);
+            }
+        }
+
+        // an entry only ever gets younger when used so this is a safe lower bound
+        nextEviction = oldest + idleTimeout + 1;
+        ++rehashes;
+    }
+
+    private void insert(final long key, final UdpConnection connection, final long now) {
+        final int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        connections[slot] = connection;
+        lastUsed[slot] = now;
+        ++size;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        connections = new UdpConnection[capacity];
+        lastUsed = new long[capacity];
+        size = 0;
+        for (int i = 0; i < capacity; ++i) {
+            keys[i] = EMPTY;
+        }
+    }
+
+    /**
+     * Pack the address and port into a long. The hash code of an {@link Inet4Address}
+     * is the address itself so this is the same as packing the raw address but without
+     * having to allocate the byte-array returned by {@link InetAddress#getAddress()}.
+     */
+    static long toKey(final InetAddress address, final int port) {
+        return (address.hashCode() & 0xFFFFFFFFL) << 16 | port & 0xFFFF;
+    }
+
+    private static int slot(final long key, final int mask) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int threshold(final int capacity) {
+        return capacity - (capacity >>> 2);
+    }
+
+    private static boolean isPowerOfTwo(final int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+}
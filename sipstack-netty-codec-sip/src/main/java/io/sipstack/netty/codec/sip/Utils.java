@@ -1,6 +1,7 @@
 package io.sipstack.netty.codec.sip;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.pkts.buffer.Buffer;
 import io.pkts.packet.sip.SipMessage;
@@ -27,12 +28,51 @@ public class Utils {
         return Duration.ofMillis(Math.min(baseTime * (int) Math.pow(2, count), maxTime));
     }
 
+    /**
+     * Convert the {@link SipMessage} into a {@link ByteBuf} allocated from the allocator of the
+     * given {@link Channel}. See {@link #toByteBuf(ByteBufAllocator, SipMessage)}.
+     */
     public static ByteBuf toByteBuf(final Channel channel, final SipMessage msg) {
+        return toByteBuf(channel.alloc(), msg);
+    }
+
+    /**
+     * Convert the {@link SipMessage} into a {@link ByteBuf} that is exactly the size of the
+     * encoded message. The buffer is allocated through {@link ByteBufAllocator#ioBuffer(int)},
+     * i.e., it will be a (pooled) direct buffer if the platform allows it, since that is what
+     * the buffer eventually has to be copied into before hitting the socket anyway.
+     *
+     * @param alloc
+     * @param msg
+     * @return
+     */
+    public static ByteBuf toByteBuf(final ByteBufAllocator alloc, final SipMessage msg) {
         final Buffer b = msg.toBuffer();
-        final int capacity = b.capacity();
-        final ByteBuf buffer = channel.alloc().buffer(capacity, capacity);
-        final byte[] rawByteArray = b.getRawArray();
-        buffer.writeBytes(rawByteArray);
+        final int size = b.getReadableBytes();
+        final ByteBuf buffer = alloc.ioBuffer(size, size);
+        writeTo(b, buffer);
         return buffer;
     }
+
+    /**
+     * Write the {@link SipMessage} to the given {@link ByteBuf}.
+     *
+     * @param msg
+     * @param out
+     */
+    public static void writeTo(final SipMessage msg, final ByteBuf out) {
+        writeTo(msg.toBuffer(), out);
+    }
+
+    /**
+     * Write the visible portion of the {@link Buffer} to the {@link ByteBuf} as one bulk copy.
+     *
+     * Note: you don't want to do {@link Buffer#getArray()} since that will create
+     * a copy and we are trying to avoid that. However, accessing the raw array
+     * also means that you have to pay attention to which portion of that data
+     * is actually visible to the buffer.
+     */
+    static void writeTo(final Buffer b, final ByteBuf out) {
+        out.writeBytes(b.getRawArray(), b.getLowerBoundary() + b.getReaderIndex(), b.getReadableBytes());
+    }
 }
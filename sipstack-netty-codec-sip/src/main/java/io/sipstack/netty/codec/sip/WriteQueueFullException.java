@@ -0,0 +1,20 @@
+package io.sipstack.netty.codec.sip;
+
+/**
+ * Exception indicating that a write was dropped because the connection has been
+ * unwritable for so long that its bounded write queue is full. See
+ * {@link BackPressureHandler}.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class WriteQueueFullException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message
+     */
+    public WriteQueueFullException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,52 @@
+package io.sipstack.netty.codec.sip.event;
+
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.event.impl.IOEventImpl;
+
+/**
+ * Emitted when the {@link Connection} went from writable to unwritable, i.e., the peer
+ * isn't reading as fast as we are writing and our outbound buffer has grown past its
+ * high-water mark, or back again.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public interface ConnectionWritabilityChangedIOEvent extends ConnectionIOEvent {
+
+    @Override
+    default boolean isConnectionWritabilityChangedIOEvent() {
+        return true;
+    }
+
+    @Override
+    default ConnectionWritabilityChangedIOEvent toConnectionWritabilityChangedIOEvent() {
+        return this;
+    }
+
+    /**
+     * Whether the connection was writable when this event was created.
+     *
+     * @return
+     */
+    boolean isWritable();
+
+    static ConnectionWritabilityChangedIOEvent create(final Connection connection, final long arrivalTime,
+                                                      final boolean writable) {
+        return new ConnectionWritabilityChangedIOEventImpl(connection, arrivalTime, writable);
+    }
+
+    class ConnectionWritabilityChangedIOEventImpl extends IOEventImpl implements ConnectionWritabilityChangedIOEvent {
+
+        private final boolean writable;
+
+        private ConnectionWritabilityChangedIOEventImpl(final Connection connection, final long arrivalTime,
+                                                        final boolean writable) {
+            super(connection, arrivalTime);
+            this.writable = writable;
+        }
+
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+    }
+}
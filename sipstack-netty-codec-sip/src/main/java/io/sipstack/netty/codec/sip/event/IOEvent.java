@@ -1,15 +1,22 @@
 package io.sipstack.netty.codec.sip.event;
 
+import io.netty.util.ReferenceCounted;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
 import io.pkts.packet.sip.SipResponse;
 import io.pkts.packet.sip.impl.SipMessageBuilder;
 import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+import io.sipstack.netty.codec.sip.event.impl.PooledSipRequestIOEventImpl;
+import io.sipstack.netty.codec.sip.event.impl.PooledSipResponseIOEventImpl;
+import io.sipstack.netty.codec.sip.event.impl.SipMessageBatchIOEventImpl;
 import io.sipstack.netty.codec.sip.event.impl.SipRequestBuilderIOEventImpl;
 import io.sipstack.netty.codec.sip.event.impl.SipRequestIOEventImpl;
 import io.sipstack.netty.codec.sip.event.impl.SipResponseBuilderIOEventImpl;
 import io.sipstack.netty.codec.sip.event.impl.SipResponseIOEventImpl;
 
+import java.util.List;
+
 /**
  * @author jonas@jonasborjesson.com
  */
@@ -64,6 +71,15 @@ public interface IOEvent {
         return false;
     }
 
+    default boolean isConnectionWritabilityChangedIOEvent() {
+        return false;
+    }
+
+    default ConnectionWritabilityChangedIOEvent toConnectionWritabilityChangedIOEvent() {
+        throw new ClassCastException("Cannot cast " + getClass().getName() + " into a "
+                + ConnectionWritabilityChangedIOEvent.class.getName());
+    }
+
     default ConnectionIOEvent toConnectionIOEvent() {
         throw new ClassCastException("Cannot cast " + getClass().getName() + " into a " + ConnectionIOEvent.class.getName());
     }
@@ -169,14 +185,59 @@ public interface IOEvent {
         throw new ClassCastException("Cannot cast " + getClass().getName() + " into a " + SipResponseIOEvent.class.getName());
     }
 
+    /**
+     * Check whether or not this {@link IOEvent} is a {@link SipMessageBatchIOEvent}, i.e.,
+     * several {@link SipMessageIOEvent}s that were read off of a connection in one go.
+     *
+     * @return
+     */
+    default boolean isSipMessageBatchIOEvent() {
+        return false;
+    }
+
+    default SipMessageBatchIOEvent toSipMessageBatchIOEvent() {
+        throw new ClassCastException("Cannot cast " + getClass().getName() + " into a " + SipMessageBatchIOEvent.class.getName());
+    }
+
+    /**
+     * Factory method for creating a new {@link SipMessageBatchIOEvent}.
+     *
+     * @param connection the connection all the messages were received over.
+     * @param arrivalTime
+     * @param events the events in the order they were received.
+     * @return
+     */
+    static SipMessageBatchIOEvent create(final Connection connection, final long arrivalTime,
+                                         final List<SipMessageIOEvent> events) {
+        return new SipMessageBatchIOEventImpl(connection, arrivalTime, events);
+    }
+
+    /**
+     * Check whether or not this {@link IOEvent} is a keep-alive ping, see {@link PingMessageIOEvent}.
+     *
+     * @return
+     */
     default boolean isPingMessageIOEvent() {
         return false;
     }
 
+    default PingMessageIOEvent toPingMessageIOEvent() {
+        throw new ClassCastException("Cannot cast " + getClass().getName() + " into a " + PingMessageIOEvent.class.getName());
+    }
+
+    /**
+     * Check whether or not this {@link IOEvent} is a keep-alive pong, see {@link PongMessageIOEvent}.
+     *
+     * @return
+     */
     default boolean isPongMessageIOEvent() {
         return false;
     }
 
+    default PongMessageIOEvent toPongMessageIOEvent() {
+        throw new ClassCastException("Cannot cast " + getClass().getName() + " into a " + PongMessageIOEvent.class.getName());
+    }
+
     static SipMessageIOEvent create(final Connection connection, final SipMessage msg) {
         if (msg.isRequest()) {
             return create(connection, msg.toRequest());
@@ -206,6 +267,48 @@ public interface IOEvent {
         return new SipRequestIOEventImpl(connection, request, System.currentTimeMillis());
     }
 
+    /**
+     * Factory method for creating a new {@link SipMessageIOEvent} for a message that just
+     * was framed off of the network.
+     *
+     * @param connection
+     * @param msg
+     * @param arrivalTime
+     * @param index the {@link HeaderIndex} built while framing the message.
+     * @return
+     */
+    static SipMessageIOEvent create(final Connection connection, final SipMessage msg,
+                                    final long arrivalTime, final HeaderIndex index) {
+        if (msg.isRequest()) {
+            return new SipRequestIOEventImpl(connection, msg, arrivalTime, index);
+        }
+
+        return new SipResponseIOEventImpl(connection, msg, arrivalTime, index);
+    }
+
+    /**
+     * Factory method for creating a new {@link SipMessageIOEvent} where the {@link SipMessage}
+     * has been framed directly on top of the network buffer. The returned event is also
+     * {@link ReferenceCounted} and the buffer will be kept alive until the event has been
+     * released.
+     *
+     * @param connection
+     * @param msg
+     * @param arrivalTime
+     * @param index the {@link HeaderIndex} built while framing the message.
+     * @param buffer the (already retained) buffer backing the message.
+     * @return
+     */
+    static SipMessageIOEvent create(final Connection connection, final SipMessage msg,
+                                    final long arrivalTime, final HeaderIndex index,
+                                    final ReferenceCounted buffer) {
+        if (msg.isRequest()) {
+            return new PooledSipRequestIOEventImpl(connection, msg, arrivalTime, index, buffer);
+        }
+
+        return new PooledSipResponseIOEventImpl(connection, msg, arrivalTime, index, buffer);
+    }
+
     default SipTimerEvent toSipTimerEvent() {
         throw new ClassCastException("Cannot case " + getClass().getName() + " into a " + SipTimerEvent.class.getName());
     }
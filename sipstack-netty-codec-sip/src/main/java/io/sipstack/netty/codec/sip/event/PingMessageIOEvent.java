@@ -0,0 +1,69 @@
+package io.sipstack.netty.codec.sip.event;
+
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.StunMessage;
+import io.sipstack.netty.codec.sip.event.impl.IOEventImpl;
+
+import java.util.Optional;
+
+/**
+ * A keep-alive ping (RFC 5626) received over, or about to be sent across, a connection.
+ * Over UDP, the ping is a STUN binding request and over a stream based
+ * transport it is a double CRLF.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public interface PingMessageIOEvent extends IOEvent {
+
+    @Override
+    default boolean isPingMessageIOEvent() {
+        return true;
+    }
+
+    @Override
+    default PingMessageIOEvent toPingMessageIOEvent() {
+        return this;
+    }
+
+    /**
+     * If this ping is a STUN binding request then this is that request.
+     *
+     * @return
+     */
+    Optional<StunMessage> stun();
+
+    default boolean isStun() {
+        return stun().isPresent();
+    }
+
+    /**
+     * Create a CRLF based ping. Note that these events carry no state other than the connection
+     * so they can be, and are, shared for all the pings over the same connection, in which case
+     * the arrival time is that of the first one.
+     *
+     * @param connection
+     * @param arrivalTime
+     * @return
+     */
+    static PingMessageIOEvent create(final Connection connection, final long arrivalTime) {
+        return new PingMessageIOEventImpl(connection, arrivalTime, null);
+    }
+
+    static PingMessageIOEvent create(final Connection connection, final long arrivalTime, final StunMessage stun) {
+        return new PingMessageIOEventImpl(connection, arrivalTime, stun);
+    }
+
+    class PingMessageIOEventImpl extends IOEventImpl implements PingMessageIOEvent {
+        private final Optional<StunMessage> stun;
+
+        private PingMessageIOEventImpl(final Connection connection, final long arrivalTime, final StunMessage stun) {
+            super(connection, arrivalTime);
+            this.stun = Optional.ofNullable(stun);
+        }
+
+        @Override
+        public Optional<StunMessage> stun() {
+            return stun;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.sipstack.netty.codec.sip.event;
+
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.StunMessage;
+import io.sipstack.netty.codec.sip.event.impl.IOEventImpl;
+
+import java.util.Optional;
+
+/**
+ * The response to a keep-alive ping (RFC 5626), received over, or about to be sent across, a connection.
+ * Over UDP, the pong is a STUN binding success response and over a stream
+ * based transport it is a single CRLF.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public interface PongMessageIOEvent extends IOEvent {
+
+    @Override
+    default boolean isPongMessageIOEvent() {
+        return true;
+    }
+
+    @Override
+    default PongMessageIOEvent toPongMessageIOEvent() {
+        return this;
+    }
+
+    /**
+     * If this pong is a STUN binding success response then this is that response.
+     *
+     * @return
+     */
+    Optional<StunMessage> stun();
+
+    default boolean isStun() {
+        return stun().isPresent();
+    }
+
+    /**
+     * Create a CRLF based pong. Note that these events carry no state other than the connection
+     * so they can be, and are, shared for all the pongs over the same connection, in which case
+     * the arrival time is that of the first one.
+     *
+     * @param connection
+     * @param arrivalTime
+     * @return
+     */
+    static PongMessageIOEvent create(final Connection connection, final long arrivalTime) {
+        return new PongMessageIOEventImpl(connection, arrivalTime, null);
+    }
+
+    static PongMessageIOEvent create(final Connection connection, final long arrivalTime, final StunMessage stun) {
+        return new PongMessageIOEventImpl(connection, arrivalTime, stun);
+    }
+
+    class PongMessageIOEventImpl extends IOEventImpl implements PongMessageIOEvent {
+        private final Optional<StunMessage> stun;
+
+        private PongMessageIOEventImpl(final Connection connection, final long arrivalTime, final StunMessage stun) {
+            super(connection, arrivalTime);
+            this.stun = Optional.ofNullable(stun);
+        }
+
+        @Override
+        public Optional<StunMessage> stun() {
+            return stun;
+        }
+    }
+}
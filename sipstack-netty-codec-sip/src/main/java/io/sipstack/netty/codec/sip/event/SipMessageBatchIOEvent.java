@@ -0,0 +1,35 @@
+package io.sipstack.netty.codec.sip.event;
+
+import java.util.List;
+
+/**
+ * A batch of {@link SipMessageIOEvent}s that were all framed out of the same read
+ * on the same stream based connection. Passing them up the pipeline as a single
+ * event saves a pipeline traversal per message and allows a handler to e.g. look up
+ * the flow once for the entire batch.
+ *
+ * The events are in the order in which they were received on the connection.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public interface SipMessageBatchIOEvent extends IOEvent {
+
+    @Override
+    default boolean isSipMessageBatchIOEvent() {
+        return true;
+    }
+
+    @Override
+    default SipMessageBatchIOEvent toSipMessageBatchIOEvent() {
+        return this;
+    }
+
+    /**
+     * @return the events of this batch, which always contains at least two events.
+     */
+    List<SipMessageIOEvent> events();
+
+    default int size() {
+        return events().size();
+    }
+}
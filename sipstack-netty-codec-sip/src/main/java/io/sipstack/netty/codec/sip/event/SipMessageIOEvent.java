@@ -3,6 +3,8 @@ package io.sipstack.netty.codec.sip.event;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipRequest;
 import io.pkts.packet.sip.SipResponse;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+import io.sipstack.netty.codec.sip.TransactionKey;
 
 /**
  * @author jonas@jonasborjesson.com
@@ -19,6 +21,32 @@ public interface SipMessageIOEvent extends IOEvent {
 
     SipMessage message();
 
+    /**
+     * The index of where the Via branch, Call-ID, CSeq and From/To tags are located
+     * within the raw message. For messages that came off of the network the index was
+     * built as the message was framed.
+     *
+     * @return
+     */
+    HeaderIndex headerIndex();
+
+    /**
+     * The key of the transaction this message belongs to. For messages that came off of
+     * the network, the branch was located and hashed as the message was framed.
+     *
+     * @return
+     */
+    TransactionKey transactionKey();
+
+    /**
+     * The size of the message as it was framed off of the network, which is known without
+     * having to encode the message again. For messages that didn't come off of the network
+     * this is the size of the message as it would be encoded right now.
+     *
+     * @return
+     */
+    int frameLength();
+
     default SipRequest request() {
         return toSipRequestIOEvent().request();
     }
@@ -0,0 +1,65 @@
+package io.sipstack.netty.codec.sip.event.impl;
+
+import io.netty.util.ReferenceCounted;
+import io.pkts.packet.sip.SipMessage;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+
+/**
+ * A {@link SipRequestIOEventImpl} whose request has been framed straight on top of
+ * the network buffer it was read from. The event is holding on to that buffer and
+ * it must be released once the request is no longer needed, which is the case
+ * for any {@link ReferenceCounted} message in Netty.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PooledSipRequestIOEventImpl extends SipRequestIOEventImpl implements ReferenceCounted {
+
+    private final ReferenceCounted buffer;
+
+    public PooledSipRequestIOEventImpl(final Connection connection, final SipMessage request,
+                                       final long arrivalTime, final HeaderIndex index,
+                                       final ReferenceCounted buffer) {
+        super(connection, request, arrivalTime, index);
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int refCnt() {
+        return buffer.refCnt();
+    }
+
+    @Override
+    public ReferenceCounted retain() {
+        buffer.retain();
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted retain(final int increment) {
+        buffer.retain(increment);
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted touch() {
+        buffer.touch();
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted touch(final Object hint) {
+        buffer.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return buffer.release();
+    }
+
+    @Override
+    public boolean release(final int decrement) {
+        return buffer.release(decrement);
+    }
+}
@@ -0,0 +1,26 @@
+package io.sipstack.netty.codec.sip.event.impl;
+
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
+
+import java.util.List;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public final class SipMessageBatchIOEventImpl extends IOEventImpl implements SipMessageBatchIOEvent {
+
+    private final List<SipMessageIOEvent> events;
+
+    public SipMessageBatchIOEventImpl(final Connection connection, final long arrivalTime,
+                                      final List<SipMessageIOEvent> events) {
+        super(connection, arrivalTime);
+        this.events = events;
+    }
+
+    @Override
+    public List<SipMessageIOEvent> events() {
+        return events;
+    }
+}
@@ -7,6 +7,8 @@ import io.netty.channel.ChannelPipeline;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.header.ViaHeader;
 import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
+import io.sipstack.netty.codec.sip.TransactionKey;
 import io.sipstack.netty.codec.sip.event.SipMessageIOEvent;
 
 /**
@@ -23,12 +25,26 @@ public class SipMessageIOEventImpl extends IOEventImpl implements SipMessageIOEv
 
     private final SipMessage msg;
 
+    /**
+     * Built during framing or, for messages that didn't come off of the network
+     * through one of our decoders, lazily the first time it is asked for.
+     */
+    private HeaderIndex index;
+
+    private TransactionKey transactionKey;
+
     /**
      *
      */
     public SipMessageIOEventImpl(final Connection connection, final SipMessage msg, final long arrivalTime) {
+        this(connection, msg, arrivalTime, null);
+    }
+
+    public SipMessageIOEventImpl(final Connection connection, final SipMessage msg, final long arrivalTime,
+                                 final HeaderIndex index) {
         super(connection, arrivalTime);
         this.msg = msg;
+        this.index = index;
     }
 
     /**
@@ -73,4 +89,31 @@ public class SipMessageIOEventImpl extends IOEventImpl implements SipMessageIOEv
         return this.msg;
     }
 
+    @Override
+    public HeaderIndex headerIndex() {
+        if (this.index == null) {
+            this.index = HeaderIndex.index(this.msg);
+        }
+        return this.index;
+    }
+
+    @Override
+    public int frameLength() {
+        return this.index != null ? this.index.getLength() : this.msg.toBuffer().getReadableBytes();
+    }
+
+    /**
+     * If the message was indexed during framing the key is created from the index,
+     * otherwise (e.g. for messages we created ourselves) we go to the Via header
+     * of the message directly since indexing it first would be more expensive.
+     */
+    @Override
+    public TransactionKey transactionKey() {
+        if (this.transactionKey == null) {
+            final TransactionKey key = this.index != null ? TransactionKey.create(this.index) : null;
+            this.transactionKey = key != null ? key : TransactionKey.create(this.msg);
+        }
+        return this.transactionKey;
+    }
+
 }
@@ -2,6 +2,7 @@ package io.sipstack.netty.codec.sip.event.impl;
 
 import io.pkts.packet.sip.SipMessage;
 import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
 import io.sipstack.netty.codec.sip.event.SipRequestIOEvent;
 
 /**
@@ -17,4 +18,9 @@ public class SipRequestIOEventImpl extends SipMessageIOEventImpl implements SipR
     public SipRequestIOEventImpl(final Connection connection, final SipMessage request, long arrivalTime) {
         super(connection, request, arrivalTime);
     }
+
+    public SipRequestIOEventImpl(final Connection connection, final SipMessage request, final long arrivalTime,
+                                 final HeaderIndex index) {
+        super(connection, request, arrivalTime, index);
+    }
 }
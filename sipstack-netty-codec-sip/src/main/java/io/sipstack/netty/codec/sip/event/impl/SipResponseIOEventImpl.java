@@ -2,6 +2,7 @@ package io.sipstack.netty.codec.sip.event.impl;
 
 import io.pkts.packet.sip.SipMessage;
 import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.HeaderIndex;
 import io.sipstack.netty.codec.sip.event.SipResponseIOEvent;
 
 /**
@@ -17,4 +18,9 @@ public class SipResponseIOEventImpl extends SipMessageIOEventImpl implements Sip
     public SipResponseIOEventImpl(final Connection connection, final SipMessage response, long arrivalTime) {
         super(connection, response, arrivalTime);
     }
+
+    public SipResponseIOEventImpl(final Connection connection, final SipMessage response, final long arrivalTime,
+                                  final HeaderIndex index) {
+        super(connection, response, arrivalTime, index);
+    }
 }
@@ -0,0 +1,62 @@
+package io.sipstack.netty.codec.sip;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class AdaptiveEncodeBufferSizerTest {
+
+    @Test
+    public void testInitial() throws Exception {
+        assertThat(new AdaptiveEncodeBufferSizer().nextSize(), is(2048));
+        assertThat(new AdaptiveEncodeBufferSizer(64, 1000, 4096).nextSize(), is(1024));
+    }
+
+    /**
+     * A single chunk that filled up the buffer is enough to grow, and we grow fast.
+     */
+    @Test
+    public void testGrow() throws Exception {
+        final AdaptiveEncodeBufferSizer sizer = new AdaptiveEncodeBufferSizer();
+        sizer.record(2048);
+        assertThat(sizer.nextSize(), is(32768));
+
+        // but never beyond the max
+        sizer.record(32768);
+        assertThat(sizer.nextSize(), is(65536));
+        sizer.record(65536);
+        assertThat(sizer.nextSize(), is(65536));
+    }
+
+    /**
+     * It takes two small chunks in a row to shrink and we shrink slowly.
+     */
+    @Test
+    public void testShrink() throws Exception {
+        final AdaptiveEncodeBufferSizer sizer = new AdaptiveEncodeBufferSizer();
+        sizer.record(100);
+        assertThat(sizer.nextSize(), is(2048));
+        sizer.record(100);
+        assertThat(sizer.nextSize(), is(1024));
+
+        // something in between resets the shrinking
+        sizer.record(100);
+        sizer.record(1000);
+        sizer.record(100);
+        assertThat(sizer.nextSize(), is(1024));
+
+        for (int i = 0; i < 100; ++i) {
+            sizer.record(10);
+        }
+        assertThat(sizer.nextSize(), is(AdaptiveEncodeBufferSizer.DEFAULT_MINIMUM));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialAboveMax() throws Exception {
+        new AdaptiveEncodeBufferSizer(256, 4096, 2048);
+    }
+}
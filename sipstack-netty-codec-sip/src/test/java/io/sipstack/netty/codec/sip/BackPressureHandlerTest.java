@@ -0,0 +1,119 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class BackPressureHandlerTest {
+
+    private BackPressureHandler handler;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new BackPressureHandler(2, true);
+        channel = new EmbeddedChannel(handler);
+        channel.config().setWriteBufferLowWaterMark(8);
+        channel.config().setWriteBufferHighWaterMark(16);
+    }
+
+    /**
+     * Once the channel is unwritable we start queueing, stop reading and
+     * drop whatever doesn't fit in the queue.
+     */
+    @Test
+    public void testQueueWhileUnwritable() throws Exception {
+        channel.write(buffer(32));
+        channel.runPendingTasks();
+        assertThat(channel.isWritable(), is(false));
+        assertThat(channel.config().isAutoRead(), is(false));
+
+        final ChannelFuture f1 = channel.write(buffer(1));
+        final ChannelFuture f2 = channel.write(buffer(2));
+        final ByteBuf dropped = buffer(3);
+        final ChannelFuture f3 = channel.write(dropped);
+
+        assertThat(handler.getQueuedWrites(), is(2));
+        assertThat(handler.getDroppedWrites(), is(1L));
+        assertThat(f1.isDone(), is(false));
+        assertThat(f2.isDone(), is(false));
+        assertThat(f3.cause(), instanceOf(WriteQueueFullException.class));
+        assertThat(dropped.refCnt(), is(0));
+    }
+
+    /**
+     * When the channel is writable again, the queue is drained, in order,
+     * and we start reading again.
+     */
+    @Test
+    public void testDrainWhenWritable() throws Exception {
+        channel.write(buffer(32));
+        channel.runPendingTasks();
+        final ChannelFuture f1 = channel.write(buffer(1));
+        final ChannelFuture f2 = channel.write(buffer(2));
+
+        channel.flush();
+        channel.runPendingTasks();
+
+        assertThat(channel.isWritable(), is(true));
+        assertThat(channel.config().isAutoRead(), is(true));
+        assertThat(handler.getQueuedWrites(), is(0));
+        assertThat(f1.isSuccess(), is(true));
+        assertThat(f2.isSuccess(), is(true));
+        assertThat(readOutbound().readableBytes(), is(32));
+        assertThat(readOutbound().readableBytes(), is(1));
+        assertThat(readOutbound().readableBytes(), is(2));
+    }
+
+    /**
+     * A UDP channel is shared by all flows so we must never stop reading from it.
+     */
+    @Test
+    public void testDontPauseReads() throws Exception {
+        channel = new EmbeddedChannel(new BackPressureHandler(2, false));
+        channel.config().setWriteBufferLowWaterMark(8);
+        channel.config().setWriteBufferHighWaterMark(16);
+        channel.write(buffer(32));
+        channel.runPendingTasks();
+        assertThat(channel.isWritable(), is(false));
+        assertThat(channel.config().isAutoRead(), is(true));
+    }
+
+    /**
+     * Whatever is queued when the channel goes away must be failed and released.
+     */
+    @Test
+    public void testFailQueuedOnClose() throws Exception {
+        channel.write(buffer(32));
+        channel.runPendingTasks();
+        final ByteBuf queued = buffer(1);
+        final ChannelFuture f1 = channel.write(queued);
+
+        channel.pipeline().fireChannelInactive();
+        assertThat(f1.isSuccess(), is(false));
+        assertThat(f1.isDone(), is(true));
+        assertThat(queued.refCnt(), is(0));
+        assertThat(handler.getQueuedWrites(), is(0));
+    }
+
+    private ByteBuf readOutbound() {
+        final ByteBuf buffer = channel.readOutbound();
+        buffer.release();
+        return buffer;
+    }
+
+    private static ByteBuf buffer(final int size) {
+        return Unpooled.buffer(size).writeZero(size);
+    }
+}
@@ -0,0 +1,150 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of a {@link ConnectionId}, which e.g. the proxy examples
+ * are doing for every single response through a Via parameter, with the hex based
+ * encoding we used to have. The old encoding is kept here, as it was, just so that
+ * we have something to compare against.
+ *
+ * Run it through its main method or through the JMH runner, e.g.
+ * <code>java -cp target/test-classes:... org.openjdk.jmh.Main ConnectionIdBenchmark</code>
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionIdBenchmark {
+
+    private static final char[] HEX_ALPHABET = { 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
+            'O', 'P' };
+
+    private ConnectionId id;
+
+    private Buffer encoded;
+
+    private Buffer hexEncoded;
+
+    @Setup
+    public void setup() {
+        id = ConnectionId.create(Transport.udp, new InetSocketAddress("192.168.0.101", 5060),
+                new InetSocketAddress("10.36.10.11", 8765));
+        encoded = Buffers.wrap(id.encodeAsString());
+        hexEncoded = Buffers.wrap(hexEncode(id));
+    }
+
+    @Benchmark
+    public Buffer encodeCompact() {
+        return Buffers.wrap(ConnectionId.create(Transport.udp, id.getLocalAddress(), id.getRemoteAddress()).encodeAsString());
+    }
+
+    @Benchmark
+    public Buffer encodeHex() {
+        return Buffers.wrap(hexEncode(ConnectionId.create(Transport.udp, id.getLocalAddress(), id.getRemoteAddress())));
+    }
+
+    @Benchmark
+    public ConnectionId decodeCompact() {
+        return ConnectionId.decode(encoded);
+    }
+
+    @Benchmark
+    public Object[] decodeHex() {
+        return hexDecode(hexEncoded);
+    }
+
+    /**
+     * Decoding is typically followed by a lookup of the flow, which needs the hash code
+     * of the remote endpoint.
+     */
+    @Benchmark
+    public int decodeCompactAndHash() {
+        return ConnectionId.decode(encoded).getRemoteConnectionEndpointId().hashCode();
+    }
+
+    private static String hexEncode(final ConnectionId id) {
+        final byte[] remoteIp = id.getRawRemoteIpAddress();
+        final byte[] localIp = id.getRawLocalIpAddress();
+        final int remotePort = id.getRemotePort();
+        final int localPort = id.getLocalPort();
+        final byte[] toEncode = new byte[17];
+        System.arraycopy(remoteIp, 0, toEncode, 0, remoteIp.length);
+
+        toEncode[4] = (byte) (remotePort >>> 24);
+        toEncode[5] = (byte) (remotePort >>> 16);
+        toEncode[6] = (byte) (remotePort >>> 8);
+        toEncode[7] = (byte) remotePort;
+
+        System.arraycopy(localIp, 0, toEncode, 8, localIp.length);
+
+        toEncode[12] = (byte) (localPort >>> 24);
+        toEncode[13] = (byte) (localPort >>> 16);
+        toEncode[14] = (byte) (localPort >>> 8);
+        toEncode[15] = (byte) localPort;
+        toEncode[16] = 0x01;
+
+        int pos = 0;
+        final char[] array = new char[toEncode.length * 2];
+        for (final byte value : toEncode) {
+            array[pos++] = HEX_ALPHABET[value >>> 4 & 0x0F];
+            array[pos++] = HEX_ALPHABET[value & 0x0f];
+        }
+        return new String(array);
+    }
+
+    /**
+     * This is what the decoding used to do, i.e., go through a string and then create
+     * the socket addresses straight away.
+     */
+    private static Object[] hexDecode(final Buffer buffer) {
+        final String encoded = buffer.toString();
+        final byte[] decoded = new byte[encoded.length() / 2];
+        for (int i = 0; i < decoded.length; ++i) {
+            final int l = encoded.charAt(i * 2) - 'A';
+            final int h = encoded.charAt(i * 2 + 1) - 'A';
+            decoded[i] = (byte) ((l << 4 | h) & 0xFF);
+        }
+
+        final byte[] remoteIp = new byte[4];
+        System.arraycopy(decoded, 0, remoteIp, 0, 4);
+        final int remotePort = (decoded[4] & 0xFF) << 24 | (decoded[5] & 0xFF) << 16 | (decoded[6] & 0xFF) << 8
+                | decoded[7] & 0xFF;
+
+        final byte[] localIp = new byte[4];
+        System.arraycopy(decoded, 8, localIp, 0, 4);
+        final int localPort = (decoded[12] & 0xFF) << 24 | (decoded[13] & 0xFF) << 16 | (decoded[14] & 0xFF) << 8
+                | decoded[15] & 0xFF;
+
+        final String localIpAsString = ConnectionId.convertToStringIP(localIp);
+        final String remoteIpAsString = ConnectionId.convertToStringIP(remoteIp);
+        final InetSocketAddress localAddress = new InetSocketAddress(localIpAsString, localPort);
+        final InetSocketAddress remoteAddress = new InetSocketAddress(remoteIpAsString, remotePort);
+        return new Object[] {localAddress, remoteAddress, localIp, remoteIp};
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(ConnectionIdBenchmark.class.getSimpleName()).build()).run();
+    }
+}
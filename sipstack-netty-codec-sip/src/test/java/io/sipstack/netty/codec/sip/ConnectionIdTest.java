@@ -5,15 +5,23 @@ package io.sipstack.netty.codec.sip;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.mockito.Matchers.any;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.DefaultAttributeMap;
 
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
 import io.pkts.packet.sip.Transport;
 import org.junit.After;
 import org.junit.Before;
@@ -63,6 +71,36 @@ public class ConnectionIdTest {
         assertThat(remoteId1.toString(), is("udp:10.36.10.11:8765"));
     }
 
+    /**
+     * The endpoint ids are used as keys for looking up flows so the same connection id
+     * should always hand out the same instance.
+     */
+    @Test
+    public void testConnectionEndpointIdIsCached() throws Exception {
+        final ConnectionId id = createConnection(Transport.tcp, "192.168.0.101", 7777, "10.36.10.11", 8765);
+        assertThat(id.getRemoteConnectionEndpointId(), sameInstance(id.getRemoteConnectionEndpointId()));
+        assertThat(id.getLocalConnectionEndpointId(), sameInstance(id.getLocalConnectionEndpointId()));
+    }
+
+    /**
+     * There should only ever be one {@link TcpConnection} per channel.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEnsureTcpConnection() throws Exception {
+        final DefaultAttributeMap attributes = new DefaultAttributeMap();
+        final Channel channel = mock(Channel.class);
+        when(channel.localAddress()).thenReturn(new InetSocketAddress("192.168.0.101", 5060));
+        when(channel.remoteAddress()).thenReturn(new InetSocketAddress("10.36.10.11", 8765));
+        when(channel.attr(any(AttributeKey.class))).then(i -> attributes.attr((AttributeKey<Object>) i.getArguments()[0]));
+
+        final Connection connection = TcpConnection.ensureConnection(channel, Optional.empty());
+        assertThat(connection.isTCP(), is(true));
+        assertThat(connection.getRemotePort(), is(8765));
+        assertThat(TcpConnection.ensureConnection(channel, Optional.empty()), sameInstance(connection));
+        assertThat(TcpConnection.ensureConnection(channel, Optional.empty()).id(), sameInstance(connection.id()));
+    }
+
     @Test
     public void testRemoteConnectionEndpointIdHashCode() throws Exception {
         final Map<ConnectionEndpointId, String> ids = new HashMap<>();
@@ -137,6 +175,67 @@ public class ConnectionIdTest {
         assertThat(id2udp, not(id3));
     }
 
+    @Test
+    public void testEncodeIsCompact() throws Exception {
+        final ConnectionId id = createConnection(Transport.udp, "192.168.0.101", 7777, "10.36.10.11", 8765);
+        assertThat(id.encode().getReadableBytes(), is(18));
+        assertThat(id.encodeAsString(), is(id.encode().toString()));
+    }
+
+    @Test
+    public void testIPv6() throws Exception {
+        final ConnectionId id = createConnection(Transport.tcp, "fe80:0:0:0:0:0:0:1", 5060, "2001:db8:0:0:0:ff00:42:8329", 5061);
+        assertThat(id.getRawRemoteIpAddress().length, is(16));
+        assertThat(id.getRemoteConnectionEndpointId().getIpAddress(), is("2001:db8:0:0:0:ff00:42:8329"));
+        assertConnectionIdEncodeDecodeCorrectly(id);
+
+        final ConnectionId decoded = encodeDecode(id);
+        assertThat(decoded.getLocalIpAddress(), is("fe80:0:0:0:0:0:0:1"));
+        assertThat(decoded.getRemoteIpAddress(), is("2001:db8:0:0:0:ff00:42:8329"));
+        assertThat(decoded.getRemotePort(), is(5061));
+        assertThat(decoded.getRemoteAddress(), is(new InetSocketAddress("2001:db8:0:0:0:ff00:42:8329", 5061)));
+        assertThat(decoded.isTCP(), is(true));
+
+        // and mixing the two
+        final ConnectionId mixed = createConnection(Transport.udp, "10.0.0.1", 5060, "0:0:0:0:0:0:0:1", 5062);
+        assertConnectionIdEncodeDecodeCorrectly(mixed);
+        assertThat(encodeDecode(mixed).getLocalIpAddress(), is("10.0.0.1"));
+    }
+
+    /**
+     * The encoded id is typically a parameter of e.g. a Via header, i.e., a slice
+     * of a larger buffer, so make sure we decode from the correct place.
+     */
+    @Test
+    public void testDecodeFromSlice() throws Exception {
+        final ConnectionId id = createConnection(Transport.tcp, "192.168.0.101", 7777, "10.36.10.11", 8765);
+        final Buffer buffer = Buffers.wrap("branch=z9hG4bK-123;flow=" + id.encodeAsString() + ";rport");
+        final Buffer slice = buffer.slice(24, 24 + 18);
+        final ConnectionId decoded = ConnectionId.decode(slice);
+        assertThat(decoded, is(id));
+        assertThat(decoded.getRemoteAddress(), is(new InetSocketAddress("10.36.10.11", 8765)));
+        assertThat(decoded.getLocalAddress(), is(new InetSocketAddress("192.168.0.101", 7777)));
+        assertThat(decoded.getRemoteConnectionEndpointId(), is(id.getRemoteConnectionEndpointId()));
+    }
+
+    @Test
+    public void testDecodeGarbage() throws Exception {
+        final String encoded = createConnection(Transport.tcp, "192.168.0.101", 7777, "10.36.10.11", 8765).encodeAsString();
+        ensureDecodeFails(encoded.substring(0, 10));
+        ensureDecodeFails(encoded + "AAAA");
+        ensureDecodeFails(encoded.replace(encoded.charAt(3), '.'));
+        ensureDecodeFails("hello world");
+    }
+
+    private static void ensureDecodeFails(final String encoded) {
+        try {
+            ConnectionId.decode(encoded);
+            fail("Expected an IllegalArgumentException for " + encoded);
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     /**
      * Helper method for creating a {@link NetworkConnection}.
      * 
@@ -0,0 +1,98 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class EncodedMessageCacheTest {
+
+    private EncodedMessageCache cache;
+
+    private SipMessage invite;
+
+    private SipMessage bye;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new EncodedMessageCache(4);
+        invite = SipMessage.frame(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE));
+        bye = SipMessage.frame(Buffers.wrap(SipMessageStreamFramerTest.BYE));
+    }
+
+    /**
+     * Encoding the same message twice should give us the same underlying buffer
+     * but each with their own indexes.
+     */
+    @Test
+    public void testRetransmissionIsReusingEncodedBuffer() throws Exception {
+        final ByteBuf first = cache.encode(PooledByteBufAllocator.DEFAULT, invite);
+        assertThat(first.toString(CharsetUtil.UTF_8), is(SipMessageDatagramDecoderTest.INVITE));
+
+        // as if it was written to the socket
+        first.skipBytes(first.readableBytes());
+        first.release();
+
+        final ByteBuf second = cache.encode(PooledByteBufAllocator.DEFAULT, invite);
+        assertThat(second.unwrap() == first.unwrap(), is(true));
+        assertThat(second.toString(CharsetUtil.UTF_8), is(SipMessageDatagramDecoderTest.INVITE));
+        second.release();
+
+        // the only one left is the one held by the cache itself
+        assertThat(second.refCnt(), is(1));
+        cache.clear();
+        assertThat(second.refCnt(), is(0));
+    }
+
+    @Test
+    public void testDifferentMessages() throws Exception {
+        final ByteBuf a = cache.encode(PooledByteBufAllocator.DEFAULT, invite);
+        final ByteBuf b = cache.encode(PooledByteBufAllocator.DEFAULT, bye);
+        assertThat(a.unwrap() == b.unwrap(), is(false));
+        assertThat(b.toString(CharsetUtil.UTF_8), is(SipMessageStreamFramerTest.BYE));
+        assertThat(a.toString(CharsetUtil.UTF_8), not(b.toString(CharsetUtil.UTF_8)));
+        a.release();
+        b.release();
+        cache.clear();
+        assertThat(a.refCnt(), is(0));
+        assertThat(b.refCnt(), is(0));
+    }
+
+    /**
+     * In zero-copy mode, messages are views into pooled arrays that are re-used once
+     * recycled. A new message framed out of the same array, at the same offset and
+     * with the same length, must not be given the encoded version of the old one.
+     */
+    @Test
+    public void testRecycledArrayIsNotMistakenForRetransmission() throws Exception {
+        final String first = SipMessageStreamFramerTest.BYE;
+        final String second = first.replace("bob@", "bib@");
+        assertThat(second.length(), is(first.length()));
+        assertThat(second, not(first));
+
+        final byte[] array = first.getBytes(CharsetUtil.UTF_8);
+        final SipMessage old = SipMessage.frame(Buffers.wrap(array));
+        final ByteBuf a = cache.encode(PooledByteBufAllocator.DEFAULT, old);
+        assertThat(a.toString(CharsetUtil.UTF_8), is(first));
+        a.release();
+
+        // the pool recycles the array and a new message is framed into it
+        System.arraycopy(second.getBytes(CharsetUtil.UTF_8), 0, array, 0, array.length);
+        final SipMessage recycled = SipMessage.frame(Buffers.wrap(array));
+        final ByteBuf b = cache.encode(PooledByteBufAllocator.DEFAULT, recycled);
+        assertThat(b.toString(CharsetUtil.UTF_8), is(second));
+        b.release();
+        cache.clear();
+    }
+
+}
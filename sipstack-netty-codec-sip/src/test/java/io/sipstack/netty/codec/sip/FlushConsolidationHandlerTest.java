@@ -0,0 +1,121 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FlushConsolidationHandlerTest {
+
+    /**
+     * Everything written and flushed while processing a read goes out in one flush
+     * once the read is complete.
+     */
+    @Test
+    public void testFlushOnReadComplete() throws Exception {
+        final Echo echo = new Echo();
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushConsolidationHandler(), echo);
+
+        channel.writeInbound("one", "two", "three");
+        assertThat(echo.flushedDuringRead, is(0));
+        assertThat(channel.outboundMessages().size(), is(3));
+    }
+
+    /**
+     * We never hold back more flushes than the read policy allows for, even
+     * if the read isn't complete.
+     */
+    @Test
+    public void testMaxPendingFlushesDuringRead() throws Exception {
+        final Echo echo = new Echo();
+        final FlushPolicy policy = FlushPolicy.consolidate(2, 0, TimeUnit.NANOSECONDS);
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new FlushConsolidationHandler(policy, FlushPolicy.defaultTimerPolicy()), echo);
+
+        channel.writeInbound("one", "two", "three");
+        assertThat(echo.flushedDuringRead, is(2));
+        assertThat(channel.outboundMessages().size(), is(3));
+    }
+
+    /**
+     * Outside of a read, with no delay, the flush goes out once the event loop
+     * gets around to it.
+     */
+    @Test
+    public void testFlushOutsideOfRead() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushConsolidationHandler(
+                FlushPolicy.defaultReadPolicy(), FlushPolicy.consolidate(10, 0, TimeUnit.NANOSECONDS)));
+
+        channel.writeAndFlush("one");
+        channel.writeAndFlush("two");
+        assertThat(channel.outboundMessages().size(), is(0));
+
+        channel.runPendingTasks();
+        assertThat(channel.outboundMessages().size(), is(2));
+    }
+
+    /**
+     * Outside of a read, the timer policy's max delay is enforced by a scheduled flush
+     * and the max number of pending flushes is enforced right away.
+     */
+    @Test
+    public void testTimerPolicy() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushConsolidationHandler(
+                FlushPolicy.defaultReadPolicy(), FlushPolicy.consolidate(3, 5, TimeUnit.MILLISECONDS)));
+
+        channel.writeAndFlush("one");
+        channel.runPendingTasks();
+        assertThat(channel.outboundMessages().size(), is(0));
+
+        Thread.sleep(20);
+        channel.runPendingTasks();
+        assertThat(channel.outboundMessages().size(), is(1));
+
+        channel.writeAndFlush("two");
+        channel.writeAndFlush("three");
+        assertThat(channel.outboundMessages().size(), is(1));
+        channel.writeAndFlush("four");
+        assertThat(channel.outboundMessages().size(), is(4));
+    }
+
+    @Test
+    public void testImmediate() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new FlushConsolidationHandler(FlushPolicy.immediate(), FlushPolicy.immediate()));
+        channel.writeAndFlush("one");
+        assertThat(channel.outboundMessages().size(), is(1));
+    }
+
+    /**
+     * Nothing held back may be left behind when the channel is closed.
+     */
+    @Test
+    public void testFlushOnClose() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushConsolidationHandler());
+        channel.writeAndFlush("one");
+        channel.close();
+        assertThat(channel.outboundMessages().size(), is(1));
+    }
+
+    /**
+     * Writes back whatever is read and keeps track of how much of it was actually
+     * flushed before the read was complete.
+     */
+    private static class Echo extends ChannelInboundHandlerAdapter {
+        private int flushedDuringRead;
+
+        @Override
+        public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+            ctx.writeAndFlush(msg);
+            flushedDuringRead = ((EmbeddedChannel) ctx.channel()).outboundMessages().size();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class HeaderIndexTest {
+
+    @Test
+    public void testIndex() throws Exception {
+        final HeaderIndex index = HeaderIndex.index(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE));
+        assertIndex(index, "z9hG4bK-123", "abc123@10.0.0.1", 1, "INVITE", "1234", null);
+        assertThat(index.getLength(), is(SipMessageDatagramDecoderTest.INVITE.length()));
+    }
+
+    /**
+     * The index must agree with what the parser finds for all of our test messages.
+     */
+    @Test
+    public void testIndexAgreesWithParser() throws Exception {
+        for (final String msg : new String[] {SipMessageFramingBenchmark.INVITE, SipMessageFramingBenchmark.OK,
+                SipMessageFramingBenchmark.REGISTER, SipMessageStreamFramerTest.BYE}) {
+            final SipMessage sip = SipMessage.frame(Buffers.wrap(msg));
+            final HeaderIndex index = HeaderIndex.index(Buffers.wrap(msg));
+            assertThat(index.getViaBranch().toString(), is(sip.getViaHeader().getBranch().toString()));
+            assertThat(index.getCallId().toString(), is(sip.getCallIDHeader().getCallId().toString()));
+            assertThat(index.getCSeqNumber(), is(sip.getCSeqHeader().getSeqNumber()));
+            assertThat(index.getCSeqMethod().toString(), is(sip.getCSeqHeader().getMethod().toString()));
+            assertThat(toString(index.getFromTag()), is(toString(sip.getFromHeader().getTag())));
+            assertThat(toString(index.getToTag()), is(toString(sip.getToHeader().getTag())));
+        }
+    }
+
+    /**
+     * Compact headers, odd casing and white space, several Via values on the same line
+     * and parameters that only look like tags since they are part of the URI.
+     */
+    @Test
+    public void testTrickyHeaders() throws Exception {
+        final String msg = "BYE sip:bob@example.com SIP/2.0\r\n"
+                + "v : SIP/2.0/UDP 10.0.0.1;rport ; BRANCH = z9hG4bK-top , SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK-2\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.3;branch=z9hG4bK-3\r\n"
+                + "f: \"Alice;tag=no\" <sip:alice@example.com;tag=nope>;tagx=1;tag=alice-tag\r\n"
+                + "TO:<sip:bob@example.com;tag=nope>\r\n"
+                + "i:   call-id-1   \r\n"
+                + "cseq:  42   BYE\r\n"
+                + "l: 0\r\n"
+                + "\r\n";
+        final HeaderIndex index = HeaderIndex.index(Buffers.wrap(msg));
+        assertIndex(index, "z9hG4bK-top", "call-id-1", 42, "BYE", "alice-tag", null);
+    }
+
+    @Test
+    public void testMissingHeaders() throws Exception {
+        final String msg = "OPTIONS sip:bob@example.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.1\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK-not-the-top-most\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n"
+                + "Call-ID: not-a-header";
+        final HeaderIndex index = HeaderIndex.index(Buffers.wrap(msg));
+        assertIndex(index, null, null, -1, null, null, null);
+    }
+
+    /**
+     * The offsets are absolute so make sure we're fine when the message isn't at
+     * the start of the array.
+     */
+    @Test
+    public void testOffsets() throws Exception {
+        final String msg = SipMessageStreamFramerTest.BYE;
+        final byte[] data = ("garbage" + msg).getBytes();
+        final HeaderIndex index = HeaderIndex.index(data, 7, data.length);
+        assertIndex(index, "z9hG4bK-456", "abc123@10.0.0.1", 2, "BYE", "1234", "5678");
+        assertThat(index.getArray() == data, is(true));
+        assertThat(index.getCallIdStart(), is(7 + msg.indexOf("abc123@10.0.0.1")));
+        assertThat(index.getCallIdEnd(), is(7 + msg.indexOf("abc123@10.0.0.1") + "abc123@10.0.0.1".length()));
+    }
+
+    private static void assertIndex(final HeaderIndex index, final String branch, final String callId,
+                                    final long cseq, final String method, final String fromTag, final String toTag) {
+        assertThat(toString(index.getViaBranch()), is(branch));
+        assertThat(toString(index.getCallId()), is(callId));
+        assertThat(index.getCSeqNumber(), is(cseq));
+        assertThat(toString(index.getCSeqMethod()), is(method));
+        assertThat(toString(index.getFromTag()), is(fromTag));
+        assertThat(toString(index.getToTag()), is(toTag));
+    }
+
+    private static String toString(final Buffer buffer) {
+        return buffer == null ? null : buffer.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.impl.SipParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per message cost of getting hold of the values needed for looking up
+ * the transaction (Via branch) and the dialog (Call-ID, CSeq and the From/To tags) of
+ * a freshly framed message, either through the lazy parsing of the {@link SipMessage}
+ * or through the {@link HeaderIndex}.
+ *
+ * Both cases include the framing itself since that is when the index is built and
+ * since the {@link SipMessage} caches the headers once parsed.
+ *
+ * Run it through its main method or through the JMH runner, e.g.
+ * <code>java -cp target/test-classes:... org.openjdk.jmh.Main HeaderLookupBenchmark</code>
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderLookupBenchmark {
+
+    @Param({"INVITE", "200", "REGISTER"})
+    public String message;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        final String msg = "INVITE".equals(message) ? SipMessageFramingBenchmark.INVITE
+                : "200".equals(message) ? SipMessageFramingBenchmark.OK : SipMessageFramingBenchmark.REGISTER;
+        data = msg.getBytes();
+    }
+
+    @Benchmark
+    public void frameOnly(final Blackhole bh) throws Exception {
+        bh.consume(SipParser.frame(Buffers.wrap(data)));
+    }
+
+    @Benchmark
+    public void lazyParsing(final Blackhole bh) throws Exception {
+        final SipMessage msg = SipParser.frame(Buffers.wrap(data));
+        bh.consume(msg.getViaHeader().getBranch());
+        bh.consume(msg.getCallIDHeader().getCallId());
+        bh.consume(msg.getCSeqHeader().getSeqNumber());
+        bh.consume(msg.getCSeqHeader().getMethod());
+        bh.consume(msg.getFromHeader().getTag());
+        bh.consume(msg.getToHeader().getTag());
+    }
+
+    @Benchmark
+    public void headerIndex(final Blackhole bh) throws Exception {
+        final Buffer buffer = Buffers.wrap(data);
+        final HeaderIndex index = HeaderIndex.index(data, 0, data.length);
+        bh.consume(SipParser.frame(buffer));
+        bh.consume(index.getViaBranch());
+        bh.consume(index.getCallId());
+        bh.consume(index.getCSeqNumber());
+        bh.consume(index.getCSeqMethod());
+        bh.consume(index.getFromTag());
+        bh.consume(index.getToTag());
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(HeaderLookupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.pkts.packet.sip.SipResponse;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class ServiceUnavailableTemplateTest {
+
+    private final ServiceUnavailableTemplate template = ServiceUnavailableTemplate.create(7);
+
+    /**
+     * The response must echo back the transaction and dialog identifying headers
+     * of the request and add a To-tag since there wasn't one.
+     */
+    @Test
+    public void testEncodeInvite() throws Exception {
+        final SipMessage invite = SipMessage.frame(Buffers.wrap(SipMessageFramingBenchmark.INVITE));
+        final SipResponse response = encode(invite);
+
+        assertThat(response.getStatus(), is(503));
+        assertThat(response.getViaHeader().getBranch().toString(), is("z9hG4bK776asdhds"));
+        assertThat(response.getCallIDHeader().getCallId().toString(), is("a84b4c76e66710@pc33.atlanta.example.com"));
+        assertThat(response.getCSeqHeader().getSeqNumber(), is(314159L));
+        assertThat(response.getCSeqHeader().getMethod().toString(), is("INVITE"));
+        assertThat(response.getFromHeader().getTag().toString(), is("1928301774"));
+        assertThat(response.getToHeader().getTag(), notNullValue());
+        assertThat(response.getHeader("Retry-After").get().getValue().toString(), is("7"));
+        assertThat(response.getHeader("Contact").isPresent(), is(false));
+        assertThat(response.getContent() == null || response.getContent().isEmpty(), is(true));
+    }
+
+    /**
+     * Compact headers, folded lines and every single Via header must be copied as is
+     * and an existing To-tag must not be replaced.
+     */
+    @Test
+    public void testEncodeCompactAndFolded() throws Exception {
+        final String msg = "REGISTER sip:example.com SIP/2.0\r\n"
+                + "v: SIP/2.0/UDP 10.0.0.1;branch=z9hG4bK-1\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK-2,\r\n"
+                + " SIP/2.0/UDP 10.0.0.3;branch=z9hG4bK-3\r\n"
+                + "f: <sip:alice@example.com>;tag=a\r\n"
+                + "t: <sip:alice@example.com>;tag=b\r\n"
+                + "i: call-id-2\r\n"
+                + "CSeq: 2 REGISTER\r\n"
+                + "Contact: <sip:alice@10.0.0.1>\r\n"
+                + "l: 0\r\n"
+                + "\r\n";
+
+        final String expected = "SIP/2.0 503 Service Unavailable\r\n"
+                + "v: SIP/2.0/UDP 10.0.0.1;branch=z9hG4bK-1\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK-2,\r\n"
+                + " SIP/2.0/UDP 10.0.0.3;branch=z9hG4bK-3\r\n"
+                + "f: <sip:alice@example.com>;tag=a\r\n"
+                + "t: <sip:alice@example.com>;tag=b\r\n"
+                + "i: call-id-2\r\n"
+                + "CSeq: 2 REGISTER\r\n"
+                + "Retry-After: 7\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n";
+
+        assertThat(encodeToString(SipMessage.frame(Buffers.wrap(msg))), is(expected));
+    }
+
+    @Test
+    public void testNoRetryAfter() throws Exception {
+        final SipMessage invite = SipMessage.frame(Buffers.wrap(SipMessageFramingBenchmark.INVITE));
+        final ByteBuf buffer = ServiceUnavailableTemplate.create(0).encode(UnpooledByteBufAllocator.DEFAULT, invite);
+        final SipResponse response = SipMessage.frame(Buffers.wrap(toBytes(buffer))).toResponse();
+        assertThat(response.getHeader("Retry-After").isPresent(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeResponse() throws Exception {
+        final SipMessage ok = SipMessage.frame(Buffers.wrap(SipMessageFramingBenchmark.OK));
+        template.encode(UnpooledByteBufAllocator.DEFAULT, ok);
+    }
+
+    private SipResponse encode(final SipMessage request) throws Exception {
+        return SipMessage.frame(Buffers.wrap(toBytes(template.encode(UnpooledByteBufAllocator.DEFAULT, request))))
+                .toResponse();
+    }
+
+    private String encodeToString(final SipMessage request) {
+        return new String(toBytes(template.encode(UnpooledByteBufAllocator.DEFAULT, request)), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(final ByteBuf buffer) {
+        final byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        buffer.release();
+        return bytes;
+    }
+}
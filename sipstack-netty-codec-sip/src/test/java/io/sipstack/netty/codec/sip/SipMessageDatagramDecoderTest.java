@@ -0,0 +1,144 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCounted;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class SipMessageDatagramDecoderTest {
+
+    public static final String INVITE = "INVITE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK-123\r\n"
+            + "From: <sip:alice@example.com>;tag=1234\r\n"
+            + "To: <sip:bob@example.com>\r\n"
+            + "Call-ID: abc123@10.0.0.1\r\n"
+            + "CSeq: 1 INVITE\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    private ChannelHandlerContext ctx;
+    private final InetSocketAddress local = new InetSocketAddress("127.0.0.1", 5060);
+    private final InetSocketAddress remote = new InetSocketAddress("10.0.0.1", 5060);
+    private List<Object> out;
+
+    @Before
+    public void setUp() throws Exception {
+        final Channel channel = mock(Channel.class);
+        when(channel.localAddress()).thenReturn(local);
+        ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        out = new ArrayList<>();
+    }
+
+    @Test
+    public void testCopyFraming() throws Exception {
+        final SipMessageDatagramDecoder decoder = new SipMessageDatagramDecoder(new SystemClock(), null);
+        final DatagramPacket packet = new DatagramPacket(Unpooled.copiedBuffer(INVITE, CharsetUtil.UTF_8), local, remote);
+        decoder.decode(ctx, packet, out);
+
+        final IOEvent event = (IOEvent) out.get(0);
+        assertThat(event.isSipRequestIOEvent(), is(true));
+        assertThat(event instanceof ReferenceCounted, is(false));
+        assertThat(event.toSipMessageIOEvent().message().getCallIDHeader().getValue().toString(), is("abc123@10.0.0.1"));
+        assertThat(event.toSipMessageIOEvent().headerIndex().getViaBranch().toString(), is("z9hG4bK-123"));
+    }
+
+    /**
+     * When framing without copying the content the event must keep the buffer alive
+     * until the event itself has been released.
+     */
+    @Test
+    public void testZeroCopyFraming() throws Exception {
+        final SipMessageDatagramDecoder decoder = new SipMessageDatagramDecoder(new SystemClock(), null, true);
+
+        // make sure that we are not starting at the beginning of the backing array
+        final ByteBuf content = PooledByteBufAllocator.DEFAULT.heapBuffer(2048);
+        content.writeBytes("garbage".getBytes());
+        content.readerIndex(content.writerIndex());
+        content.writeBytes(INVITE.getBytes());
+        final DatagramPacket packet = new DatagramPacket(content, local, remote);
+
+        decoder.decode(ctx, packet, out);
+
+        // the MessageToMessageDecoder would release the packet once we return
+        packet.release();
+        assertThat(content.refCnt(), is(1));
+
+        final IOEvent event = (IOEvent) out.get(0);
+        assertThat(event.isSipRequestIOEvent(), is(true));
+        assertThat(event.toSipMessageIOEvent().message().getCallIDHeader().getValue().toString(), is("abc123@10.0.0.1"));
+        assertThat(event.toSipMessageIOEvent().message().getMethod().toString(), is("INVITE"));
+        assertThat(event.toSipMessageIOEvent().headerIndex().getCallId().toString(), is("abc123@10.0.0.1"));
+
+        final ReferenceCounted counted = (ReferenceCounted) event;
+        assertThat(counted.release(), is(true));
+        assertThat(content.refCnt(), is(0));
+    }
+
+    /**
+     * If the content isn't array backed we have no choice but to copy.
+     */
+    @Test
+    public void testZeroCopyFallbackOnDirectBuffer() throws Exception {
+        final SipMessageDatagramDecoder decoder = new SipMessageDatagramDecoder(new SystemClock(), null, true);
+        final ByteBuf content = Unpooled.directBuffer(2048).writeBytes(INVITE.getBytes());
+        final DatagramPacket packet = new DatagramPacket(content, local, remote);
+        decoder.decode(ctx, packet, out);
+        packet.release();
+
+        final IOEvent event = (IOEvent) out.get(0);
+        assertThat(event instanceof ReferenceCounted, is(false));
+        assertThat(event.toSipMessageIOEvent().message().getCallIDHeader().getValue().toString(), is("abc123@10.0.0.1"));
+    }
+
+    /**
+     * STUN binding requests and responses are the UDP keep-alive traffic and must
+     * turn into pings and pongs without going anywhere near the SIP parser.
+     */
+    @Test
+    public void testStunPingPong() throws Exception {
+        final SipMessageDatagramDecoder decoder = new SipMessageDatagramDecoder(new SystemClock(), null);
+        final ByteBuf request = StunMessageTest.bindingRequest();
+        decoder.decode(ctx, new DatagramPacket(request, local, remote), out);
+
+        final IOEvent ping = (IOEvent) out.get(0);
+        assertThat(ping.isPingMessageIOEvent(), is(true));
+        assertThat(ping.toPingMessageIOEvent().isStun(), is(true));
+        assertThat(ping.connection().getRemoteAddress(), is(remote));
+
+        final StunMessage stun = ping.toPingMessageIOEvent().stun().get();
+        final ByteBuf response = stun.createBindingResponse().encode(PooledByteBufAllocator.DEFAULT, remote);
+        decoder.decode(ctx, new DatagramPacket(response, local, remote), out);
+        final IOEvent pong = (IOEvent) out.get(1);
+        assertThat(pong.isPongMessageIOEvent(), is(true));
+        assertThat(pong.toPongMessageIOEvent().stun().get().isSameTransaction(stun), is(true));
+        response.release();
+
+        // any other STUN message is just dropped
+        final ByteBuf indication = StunMessageTest.bindingRequest();
+        indication.setShort(0, 0x0011);
+        decoder.decode(ctx, new DatagramPacket(indication, local, remote), out);
+        assertThat(out.size(), is(2));
+    }
+
+}
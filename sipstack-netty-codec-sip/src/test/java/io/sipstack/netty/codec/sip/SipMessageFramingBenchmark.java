@@ -0,0 +1,157 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.pkts.packet.sip.impl.SipMessageStreamBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the various ways we have had of framing a SIP message off of a stream:
+ * the byte-by-byte {@link RawMessage} state machine, the pkts {@link SipMessageStreamBuilder}
+ * (which is what the {@link SipMessageStreamDecoder} used to use) and the
+ * {@link SipMessageStreamFramer}.
+ *
+ * Run it through its main method or through the JMH runner, e.g.
+ * <code>java -cp target/test-classes:... org.openjdk.jmh.Main SipMessageFramingBenchmark</code>
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipMessageFramingBenchmark {
+
+    public static final String INVITE = "INVITE sip:+14155550123@sip.example.com;user=phone SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 192.168.1.100:5060;branch=z9hG4bK776asdhds;rport\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: <sip:+14155550123@sip.example.com;user=phone>\r\n"
+            + "From: \"Alice\" <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:alice@192.168.1.100:5060;transport=tcp>\r\n"
+            + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO, UPDATE\r\n"
+            + "Supported: replaces, timer, 100rel\r\n"
+            + "User-Agent: Linphone/3.8.1 (belle-sip/1.4.0)\r\n"
+            + "Session-Expires: 1800\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "Content-Length: 244\r\n"
+            + "\r\n"
+            + "v=0\r\n"
+            + "o=alice 2890844526 2890844526 IN IP4 192.168.1.100\r\n"
+            + "s=-\r\n"
+            + "c=IN IP4 192.168.1.100\r\n"
+            + "t=0 0\r\n"
+            + "m=audio 49170 RTP/AVP 0 8 101\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n"
+            + "a=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:101 telephone-event/8000\r\n"
+            + "a=fmtp:101 0-15\r\n"
+            + "a=sendrecv\r\n"
+            + "a=ptime:20\r\n";
+
+    public static final String OK = "SIP/2.0 200 OK\r\n"
+            + "Via: SIP/2.0/TCP 192.168.1.100:5060;branch=z9hG4bK776asdhds;rport=5060;received=192.168.1.100\r\n"
+            + "To: <sip:+14155550123@sip.example.com;user=phone>;tag=a6c85cf\r\n"
+            + "From: \"Alice\" <sip:alice@atlanta.example.com>;tag=1928301774\r\n"
+            + "Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n"
+            + "CSeq: 314159 INVITE\r\n"
+            + "Contact: <sip:+14155550123@10.0.0.20:5060;transport=tcp>\r\n"
+            + "Record-Route: <sip:10.0.0.1;transport=tcp;lr>\r\n"
+            + "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE\r\n"
+            + "Server: Asterisk PBX 13.1.0\r\n"
+            + "Content-Type: application/sdp\r\n"
+            + "Content-Length: 217\r\n"
+            + "\r\n"
+            + "v=0\r\n"
+            + "o=root 1102302352 1102302352 IN IP4 10.0.0.20\r\n"
+            + "s=Asterisk PBX 13.1.0\r\n"
+            + "c=IN IP4 10.0.0.20\r\n"
+            + "t=0 0\r\n"
+            + "m=audio 12804 RTP/AVP 0 101\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n"
+            + "a=rtpmap:101 telephone-event/8000\r\n"
+            + "a=fmtp:101 0-16\r\n"
+            + "a=ptime:20\r\n";
+
+    public static final String REGISTER = "REGISTER sip:registrar.biloxi.example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP bobspc.biloxi.example.com:5060;branch=z9hG4bKnashds7;alias\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "To: Bob <sip:bob@biloxi.example.com>\r\n"
+            + "From: Bob <sip:bob@biloxi.example.com>;tag=456248\r\n"
+            + "Call-ID: 843817637684230@998sdasdh09\r\n"
+            + "CSeq: 1826 REGISTER\r\n"
+            + "Contact: <sip:bob@192.0.2.4;transport=tcp>;+sip.instance=\"<urn:uuid:00000000-0000-1000-8000-AABBCCDDEEFF>\";reg-id=1\r\n"
+            + "Supported: path, outbound, gruu\r\n"
+            + "User-Agent: Bria 3 release 3.5.5 stamp 71243\r\n"
+            + "Expires: 3600\r\n"
+            + "l: 0\r\n"
+            + "\r\n";
+
+    @Param({"INVITE", "200", "REGISTER"})
+    public String message;
+
+    private byte[] data;
+
+    private ByteBuf buffer;
+
+    private SipMessageStreamFramer framer;
+
+    private SipMessageStreamBuilder.DefaultConfiguration config;
+
+    @Setup
+    public void setup() {
+        final String msg = "INVITE".equals(message) ? INVITE : "200".equals(message) ? OK : REGISTER;
+        data = msg.getBytes(CharsetUtil.UTF_8);
+        buffer = Unpooled.directBuffer(data.length).writeBytes(data);
+        framer = new SipMessageStreamFramer(SipMessageStreamDecoder.MAX_ALLOWED_INITIAL_LINE_SIZE,
+                SipMessageStreamDecoder.MAX_ALLOWED_HEADERS_SIZE, SipMessageStreamDecoder.MAX_ALLOWED_CONTENT_LENGTH);
+        config = new SipMessageStreamBuilder.DefaultConfiguration();
+        config.setMaxAllowedHeadersSize(SipMessageStreamDecoder.MAX_ALLOWED_HEADERS_SIZE);
+        config.setMaxAllowedContentLength(SipMessageStreamDecoder.MAX_ALLOWED_CONTENT_LENGTH);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public boolean rawMessage() throws Exception {
+        final RawMessage raw = new RawMessage(SipMessageStreamDecoder.MAX_ALLOWED_INITIAL_LINE_SIZE,
+                SipMessageStreamDecoder.MAX_ALLOWED_HEADERS_SIZE, SipMessageStreamDecoder.MAX_ALLOWED_CONTENT_LENGTH);
+        for (int i = 0; i < data.length && !raw.isComplete(); ++i) {
+            raw.write(data[i]);
+        }
+        return raw.isComplete();
+    }
+
+    @Benchmark
+    public boolean streamBuilder() throws Exception {
+        final SipMessageStreamBuilder builder = new SipMessageStreamBuilder(config);
+        return builder.process(data);
+    }
+
+    @Benchmark
+    public ByteBuf streamFramer() throws Exception {
+        buffer.readerIndex(0);
+        return framer.frame(buffer);
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(SipMessageFramingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
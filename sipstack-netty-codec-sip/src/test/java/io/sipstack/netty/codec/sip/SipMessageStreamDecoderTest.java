@@ -0,0 +1,164 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class SipMessageStreamDecoderTest {
+
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 5060);
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("10.0.0.1", 5060);
+
+    /**
+     * By default, every message is its own event even though they all arrived
+     * in the same read.
+     */
+    @Test
+    public void testDecodeOneEventPerMessage() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null));
+        channel.writeInbound(Unpooled.copiedBuffer(messages(3), CharsetUtil.UTF_8));
+
+        for (int i = 0; i < 3; ++i) {
+            final IOEvent event = channel.readInbound();
+            assertThat(event.isSipRequestIOEvent(), is(true));
+            assertThat(event.toSipMessageIOEvent().headerIndex().getViaBranch().toString(), is("z9hG4bK-" + i));
+        }
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    @Test
+    public void testDecodeBatch() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null, 16));
+        channel.writeInbound(Unpooled.copiedBuffer(messages(3), CharsetUtil.UTF_8));
+
+        final IOEvent event = channel.readInbound();
+        assertThat(event.isSipMessageBatchIOEvent(), is(true));
+        final SipMessageBatchIOEvent batch = event.toSipMessageBatchIOEvent();
+        assertThat(batch.size(), is(3));
+        for (int i = 0; i < 3; ++i) {
+            assertThat(batch.events().get(i).message().getViaHeader().getBranch().toString(), is("z9hG4bK-" + i));
+            assertThat(batch.events().get(i).connection() == batch.connection(), is(true));
+        }
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    /**
+     * A read with a single message in it should just result in a regular event.
+     */
+    @Test
+    public void testDecodeBatchOfOne() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null, 16));
+        final String msg = messages(1);
+        channel.writeInbound(Unpooled.copiedBuffer(msg.substring(0, 20), CharsetUtil.UTF_8));
+        assertThat(channel.readInbound(), nullValue());
+
+        channel.writeInbound(Unpooled.copiedBuffer(msg.substring(20), CharsetUtil.UTF_8));
+        final IOEvent event = channel.readInbound();
+        assertThat(event.isSipMessageBatchIOEvent(), is(false));
+        assertThat(event.isSipRequestIOEvent(), is(true));
+    }
+
+    /**
+     * Once we hit the max messages per read, the rest must be decoded later on
+     * without there being another read on the channel. Note that the embedded channel
+     * runs the pending tasks as part of the write so the event loop has already come
+     * back to the decoder once the write returns.
+     */
+    @Test
+    public void testMaxMessagesPerRead() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null, 2));
+        channel.writeInbound(Unpooled.copiedBuffer(messages(5), CharsetUtil.UTF_8));
+
+        IOEvent event = channel.readInbound();
+        assertThat(event.toSipMessageBatchIOEvent().size(), is(2));
+        assertThat(event.toSipMessageBatchIOEvent().events().get(0).message().getViaHeader().getBranch().toString(),
+                is("z9hG4bK-0"));
+
+        event = channel.readInbound();
+        assertThat(event.toSipMessageBatchIOEvent().size(), is(2));
+        assertThat(event.toSipMessageBatchIOEvent().events().get(0).message().getViaHeader().getBranch().toString(),
+                is("z9hG4bK-2"));
+
+        event = channel.readInbound();
+        assertThat(event.isSipRequestIOEvent(), is(true));
+        assertThat(event.toSipMessageIOEvent().message().getViaHeader().getBranch().toString(), is("z9hG4bK-4"));
+
+        channel.runPendingTasks();
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    /**
+     * A double CRLF in between messages is a ping and a single CRLF a pong and the
+     * same ping and pong events are used over and over again for the same connection.
+     */
+    @Test
+    public void testKeepAlive() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null));
+        channel.writeInbound(Unpooled.copiedBuffer("\r\n\r\n", CharsetUtil.UTF_8));
+        final IOEvent ping = channel.readInbound();
+        assertThat(ping.isPingMessageIOEvent(), is(true));
+        assertThat(ping.toPingMessageIOEvent().isStun(), is(false));
+        assertThat(ping.connection().getRemoteAddress(), is(REMOTE));
+
+        channel.writeInbound(Unpooled.copiedBuffer("\r\n", CharsetUtil.UTF_8));
+        final IOEvent pong = channel.readInbound();
+        assertThat(pong.isPongMessageIOEvent(), is(true));
+
+        // ping, message, pong, message and then yet another ping
+        channel.writeInbound(Unpooled.copiedBuffer("\r\n\r\n" + messages(1) + "\r\n" + messages(1) + "\r\n\r\n",
+                CharsetUtil.UTF_8));
+        assertThat(channel.readInbound() == ping, is(true));
+        assertThat(((IOEvent) channel.readInbound()).isSipRequestIOEvent(), is(true));
+        assertThat(channel.readInbound() == pong, is(true));
+        assertThat(((IOEvent) channel.readInbound()).isSipRequestIOEvent(), is(true));
+        assertThat(channel.readInbound() == ping, is(true));
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    /**
+     * In pipelined mode the keep-alives are passed up ahead of the batch.
+     */
+    @Test
+    public void testKeepAliveInBatch() throws Exception {
+        final EmbeddedChannel channel = createChannel(new SipMessageStreamDecoder(new SystemClock(), null, 16));
+        channel.writeInbound(Unpooled.copiedBuffer(messages(1) + "\r\n\r\n" + messages(1), CharsetUtil.UTF_8));
+        assertThat(((IOEvent) channel.readInbound()).isPingMessageIOEvent(), is(true));
+        assertThat(((IOEvent) channel.readInbound()).toSipMessageBatchIOEvent().size(), is(2));
+        assertThat(channel.readInbound(), nullValue());
+    }
+
+    private static String messages(final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            sb.append(SipMessageDatagramDecoderTest.INVITE.replace("z9hG4bK-123", "z9hG4bK-" + i));
+        }
+        return sb.toString();
+    }
+
+    private static EmbeddedChannel createChannel(final SipMessageStreamDecoder decoder) {
+        return new EmbeddedChannel(decoder) {
+            @Override
+            protected SocketAddress localAddress0() {
+                return LOCAL;
+            }
+
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return REMOTE;
+            }
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import io.sipstack.netty.codec.sip.event.IOEvent;
+import io.sipstack.netty.codec.sip.event.PingMessageIOEvent;
+import io.sipstack.netty.codec.sip.event.PongMessageIOEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class SipMessageStreamEncoderTest {
+
+    private final Connection connection = mock(Connection.class);
+
+    /**
+     * The keep-alives are written straight from shared read-only direct buffers
+     * and writing them over and over again must not affect the shared buffer.
+     */
+    @Test
+    public void testKeepAlive() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder());
+        final PingMessageIOEvent ping = PingMessageIOEvent.create(connection, 0);
+        final PongMessageIOEvent pong = PongMessageIOEvent.create(connection, 0);
+
+        for (int i = 0; i < 3; ++i) {
+            channel.writeOutbound(ping, pong);
+            final ByteBuf pingBuffer = channel.readOutbound();
+            assertThat(pingBuffer.isDirect(), is(true));
+            assertThat(pingBuffer.toString(CharsetUtil.UTF_8), is("\r\n\r\n"));
+            pingBuffer.release();
+
+            final ByteBuf pongBuffer = channel.readOutbound();
+            assertThat(pongBuffer.toString(CharsetUtil.UTF_8), is("\r\n"));
+            pongBuffer.skipBytes(2);
+            pongBuffer.release();
+        }
+    }
+
+    /**
+     * All the messages written in between two flushes end up in the same chunk
+     * and every write is completed once that chunk has been written.
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder());
+        final ChannelFuture f1 = channel.write(IOEvent.create(connection, invite("1")));
+        final ChannelFuture f2 = channel.write(IOEvent.create(connection, invite("2")));
+        assertThat(channel.readOutbound(), nullValue());
+        assertThat(f1.isDone(), is(false));
+
+        channel.flush();
+        final ByteBuf chunk = channel.readOutbound();
+        assertThat(chunk.toString(CharsetUtil.UTF_8), is(invite("1").toString() + invite("2").toString()));
+        chunk.release();
+        assertThat(channel.readOutbound(), nullValue());
+        assertThat(f1.isSuccess(), is(true));
+        assertThat(f2.isSuccess(), is(true));
+    }
+
+    /**
+     * A message bigger than the chunk size is written on its own and since order must
+     * be preserved, it also forces out whatever was already in the chunk.
+     */
+    @Test
+    public void testMessageBiggerThanChunk() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder(
+                new AdaptiveEncodeBufferSizer(256, 512, 512)));
+        final SipMessage small = invite("1");
+        final SipMessage big = bigInvite(512);
+        channel.writeOutbound(IOEvent.create(connection, small), IOEvent.create(connection, big));
+
+        final ByteBuf first = channel.readOutbound();
+        assertThat(first.toString(CharsetUtil.UTF_8), is(small.toString()));
+        final ByteBuf second = channel.readOutbound();
+        assertThat(second.toString(CharsetUtil.UTF_8), is(big.toString()));
+        assertThat(second.capacity(), is(second.readableBytes()));
+        first.release();
+        second.release();
+    }
+
+    /**
+     * A flow that keeps sending messages bigger than the chunk size must make the chunk
+     * grow or every one of those messages would end up in a uniquely sized buffer of its own.
+     */
+    @Test
+    public void testChunkGrowsWithLargeMessages() throws Exception {
+        final AdaptiveEncodeBufferSizer sizer = new AdaptiveEncodeBufferSizer(256, 512, 65536);
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder(sizer));
+        final SipMessage big = bigInvite(1024);
+
+        for (int i = 0; i < 10; ++i) {
+            channel.write(IOEvent.create(connection, big));
+        }
+        channel.flush();
+        assertThat(sizer.nextSize() > big.toBuffer().getReadableBytes(), is(true));
+
+        // only the first one had to go out on its own, the rest shared chunks
+        int buffers = 0;
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            ++buffers;
+            buffer.release();
+        }
+        assertThat(buffers < 10, is(true));
+    }
+
+    /**
+     * Messages that fit in the chunk one by one but not two at a time must also
+     * make the chunk grow, which means that what we tried to fit into the chunk
+     * is what is recorded and not what actually ended up in it.
+     */
+    @Test
+    public void testChunkGrowsWhenOverflowing() throws Exception {
+        final AdaptiveEncodeBufferSizer sizer = new AdaptiveEncodeBufferSizer(256, 2048, 65536);
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder(sizer));
+        final SipMessage msg = bigInvite(800);
+        assertThat(msg.toBuffer().getReadableBytes() < 2048, is(true));
+        assertThat(msg.toBuffer().getReadableBytes() * 2 > 2048, is(true));
+
+        channel.write(IOEvent.create(connection, msg));
+        channel.write(IOEvent.create(connection, msg));
+        assertThat(sizer.nextSize() > 2048, is(true));
+
+        channel.flush();
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * The listener gets to know the size of every SIP message as it was encoded,
+     * no matter if it was written as a message or a builder, but not about the keep-alives.
+     */
+    @Test
+    public void testEncodeListener() throws Exception {
+        final List<Integer> sizes = new ArrayList<>();
+        final EmbeddedChannel channel = new EmbeddedChannel(new SipMessageStreamEncoder((c, bytes) -> {
+            assertThat(c, sameInstance(connection));
+            sizes.add(bytes);
+        }));
+        final SipMessage invite = invite("1");
+        channel.writeOutbound(IOEvent.create(connection, invite),
+                IOEvent.create(connection, invite.toRequest().createResponse(180)),
+                PingMessageIOEvent.create(connection, 0));
+
+        int total = 0;
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            total += buffer.readableBytes();
+            buffer.release();
+        }
+        assertThat(sizes.size(), is(2));
+        assertThat(sizes.get(0), is(invite.toBuffer().getReadableBytes()));
+        assertThat(sizes.get(0) + sizes.get(1), is(total - 4));
+    }
+
+    private static SipMessage invite(final String branch) throws Exception {
+        return SipMessage.frame(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE.replace("z9hG4bK-123", "z9hG4bK-" + branch)));
+    }
+
+    private static SipMessage bigInvite(final int padding) throws Exception {
+        return SipMessage.frame(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE
+                .replace("Max-Forwards: 70\r\n", "Max-Forwards: 70\r\nX-Padding: " + padding(padding) + "\r\n")));
+    }
+
+    private static String padding(final int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            sb.append('a');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class SipMessageStreamFramerTest {
+
+    public static final String BYE = "BYE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK-456\r\n"
+            + "From: <sip:alice@example.com>;tag=1234\r\n"
+            + "To: <sip:bob@example.com>;tag=5678\r\n"
+            + "Call-ID: abc123@10.0.0.1\r\n"
+            + "CSeq: 2 BYE\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+
+    public static final String MESSAGE = "MESSAGE sip:bob@example.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK-789\r\n"
+            + "Call-ID: def456@10.0.0.1\r\n"
+            + "CSeq: 1 MESSAGE\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "l: 11\r\n"
+            + "\r\n"
+            + "hello world";
+
+    private SipMessageStreamFramer framer;
+
+    @Before
+    public void setUp() throws Exception {
+        framer = new SipMessageStreamFramer(1024, 2048, 1024);
+    }
+
+    @Test
+    public void testFrameSingleMessage() throws Exception {
+        final ByteBuf buffer = toBuffer(BYE);
+        assertThat(toString(framer.frame(buffer)), is(BYE));
+        assertThat(buffer.isReadable(), is(false));
+        assertThat(framer.frame(buffer), nullValue());
+    }
+
+    /**
+     * Make sure we find the compact form of the Content-Length header and that the
+     * payload is included in the frame.
+     */
+    @Test
+    public void testFrameMessageWithPayload() throws Exception {
+        final ByteBuf buffer = toBuffer(MESSAGE + BYE);
+        assertThat(toString(framer.frame(buffer)), is(MESSAGE));
+        assertThat(toString(framer.frame(buffer)), is(BYE));
+        assertThat(framer.frame(buffer), nullValue());
+    }
+
+    /**
+     * Any CRLF before a message should just be consumed.
+     */
+    @Test
+    public void testLeadingCRLF() throws Exception {
+        final ByteBuf buffer = toBuffer("\r\n\r\n");
+        assertThat(framer.frame(buffer), nullValue());
+        assertThat(buffer.isReadable(), is(false));
+        assertThat(framer.isFraming(), is(false));
+
+        final ByteBuf buffer2 = toBuffer("\r\n" + BYE);
+        assertThat(toString(framer.frame(buffer2)), is(BYE));
+    }
+
+    /**
+     * The framer keeps track of the line feeds it skipped in between messages
+     * since those are the keep-alives.
+     */
+    @Test
+    public void testSkippedLineFeeds() throws Exception {
+        final ByteBuf buffer = toBuffer("\r\n\r\n" + BYE + "\r\n");
+        assertThat(toString(framer.frame(buffer)), is(BYE));
+        assertThat(framer.drainSkippedLineFeeds(), is(2));
+        assertThat(framer.drainSkippedLineFeeds(), is(0));
+
+        assertThat(framer.frame(buffer), nullValue());
+        assertThat(framer.drainSkippedLineFeeds(), is(1));
+    }
+
+    /**
+     * Feed the message one byte at a time, which is the worst case, and make sure
+     * that nothing is consumed until the entire message is available.
+     */
+    @Test
+    public void testFrameByteByByte() throws Exception {
+        final byte[] data = (MESSAGE + BYE).getBytes(CharsetUtil.UTF_8);
+        final ByteBuf buffer = Unpooled.buffer();
+        int framed = 0;
+        for (int i = 0; i < data.length; ++i) {
+            buffer.writeByte(data[i]);
+            final ByteBuf frame = framer.frame(buffer);
+            if (frame != null) {
+                assertThat(toString(frame), is(framed == 0 ? MESSAGE : BYE));
+                ++framed;
+            }
+        }
+        assertThat(framed, is(2));
+    }
+
+    /**
+     * The line feed can be in any of the 8 positions of a word as well as in the
+     * tail that is shorter than a word.
+     */
+    @Test
+    public void testIndexOfLF() throws Exception {
+        for (int length = 1; length < 40; ++length) {
+            for (int lf = 0; lf < length; ++lf) {
+                final ByteBuf buffer = Unpooled.buffer(length);
+                for (int i = 0; i < length; ++i) {
+                    // 0x0B would trip up the non-exact version of the zero byte check
+                    buffer.writeByte(i == lf ? '\n' : 0x0B);
+                }
+                assertThat(SipMessageStreamFramer.indexOfLF(buffer, 0, length), is(lf));
+                assertThat(SipMessageStreamFramer.indexOfLF(buffer, lf + 1, length), is(-1));
+            }
+        }
+    }
+
+    @Test
+    public void testParseContentLength() throws Exception {
+        assertContentLength("Content-Length: 123", 123);
+        assertContentLength("content-length:123", 123);
+        assertContentLength("CONTENT-LENGTH \t:   7", 7);
+        assertContentLength("l: 42", 42);
+        assertContentLength("L:0", 0);
+        assertContentLength("Content-Type: application/sdp", -1);
+        assertContentLength("Call-ID: l: 12", -1);
+        assertContentLength("Content-Lengthy: 12", -1);
+        assertContentLength("lr: 12", -1);
+    }
+
+    @Test
+    public void testContentLengthExceeded() throws Exception {
+        ensureExceeded(MESSAGE.replace("l: 11", "l: 1025"));
+    }
+
+    @Test
+    public void testInitialLineExceeded() throws Exception {
+        final StringBuilder sb = new StringBuilder("INVITE sip:");
+        for (int i = 0; i < 1024; ++i) {
+            sb.append('a');
+        }
+        // note, no line break so we must detect it without one
+        ensureExceeded(sb.toString());
+    }
+
+    @Test
+    public void testHeadersExceeded() throws Exception {
+        final StringBuilder sb = new StringBuilder("INVITE sip:bob@example.com SIP/2.0\r\n");
+        for (int i = 0; i < 100; ++i) {
+            sb.append("X-Header-").append(i).append(": some value that is fairly long\r\n");
+        }
+        ensureExceeded(sb.toString());
+    }
+
+    private void ensureExceeded(final String msg) throws Exception {
+        try {
+            framer.frame(toBuffer(msg));
+            fail("Expected a MaxMessageSizeExceededException");
+        } catch (final MaxMessageSizeExceededException e) {
+            // expected
+        }
+    }
+
+    private void assertContentLength(final String header, final int expected) throws Exception {
+        final ByteBuf buffer = toBuffer(header);
+        assertThat(framer.parseContentLength(buffer, 0, buffer.writerIndex()), is(expected));
+    }
+
+    private static ByteBuf toBuffer(final String s) {
+        return Unpooled.copiedBuffer(s, CharsetUtil.UTF_8);
+    }
+
+    private static String toString(final ByteBuf buffer) {
+        return buffer.toString(CharsetUtil.UTF_8);
+    }
+}
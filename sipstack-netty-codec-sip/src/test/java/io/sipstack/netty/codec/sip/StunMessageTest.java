@@ -0,0 +1,128 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The expected XOR-MAPPED-ADDRESS attributes are taken from the
+ * test vectors in RFC 5769.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class StunMessageTest {
+
+    private static final byte[] TRANSACTION_ID = bytes(
+            0xb7, 0xe7, 0xa7, 0x01, 0xbc, 0x34, 0xd6, 0x86, 0xfa, 0x87, 0xdf, 0xae);
+
+    @Test
+    public void testFrameBindingRequest() throws Exception {
+        final ByteBuf buffer = bindingRequest();
+        final StunMessage stun = StunMessage.frame(buffer);
+        assertThat(stun.isBindingRequest(), is(true));
+        assertThat(stun.toString(), is("Binding Request b7e7a701bc34d686fa87dfae"));
+
+        // framing must not move the reader index
+        assertThat(buffer.readableBytes(), is(20));
+    }
+
+    /**
+     * A SIP message must never be mistaken for a STUN message, not even one with leading
+     * CRLFs, and neither must a STUN message with the wrong length or magic cookie.
+     */
+    @Test
+    public void testIsStun() throws Exception {
+        assertThat(StunMessage.isStun(bindingRequest()), is(true));
+        assertThat(StunMessage.isStun(Unpooled.copiedBuffer(SipMessageDatagramDecoderTest.INVITE, CharsetUtil.UTF_8)), is(false));
+        assertThat(StunMessage.isStun(Unpooled.copiedBuffer("\r\n\r\n" + SipMessageDatagramDecoderTest.INVITE, CharsetUtil.UTF_8)), is(false));
+
+        final ByteBuf wrongLength = bindingRequest();
+        wrongLength.setShort(2, 4);
+        assertThat(StunMessage.isStun(wrongLength), is(false));
+
+        final ByteBuf wrongCookie = bindingRequest();
+        wrongCookie.setInt(4, 0x12345678);
+        assertThat(StunMessage.isStun(wrongCookie), is(false));
+
+        assertThat(StunMessage.isStun(bindingRequest().writerIndex(19)), is(false));
+    }
+
+    @Test
+    public void testEncodeBindingResponseIPv4() throws Exception {
+        final ByteBuf encoded = encodeResponse(new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 32853));
+        assertThat(encoded.readableBytes(), is(32));
+        assertThat(encoded.getUnsignedShort(0), is(StunMessage.BINDING_SUCCESS_RESPONSE));
+        assertThat(encoded.getUnsignedShort(2), is(12));
+        assertThat(slice(encoded, 20), is(bytes(0x00, 0x20, 0x00, 0x08, 0x00, 0x01, 0xa1, 0x47, 0xe1, 0x12, 0xa6, 0x43)));
+    }
+
+    @Test
+    public void testEncodeBindingResponseIPv6() throws Exception {
+        final InetAddress address = InetAddress.getByName("2001:db8:1234:5678:11:2233:4455:6677");
+        final ByteBuf encoded = encodeResponse(new InetSocketAddress(address, 32853));
+        assertThat(encoded.readableBytes(), is(44));
+        assertThat(encoded.getUnsignedShort(2), is(24));
+        assertThat(slice(encoded, 20), is(bytes(0x00, 0x20, 0x00, 0x14, 0x00, 0x02, 0xa1, 0x47,
+                0x01, 0x13, 0xa9, 0xfa, 0xa5, 0xd3, 0xf1, 0x79,
+                0xbc, 0x25, 0xf4, 0xb5, 0xbe, 0xd2, 0xb9, 0xd9)));
+    }
+
+    /**
+     * Make sure that we can frame what we encode and that the binding response
+     * is matched to the binding request.
+     */
+    @Test
+    public void testBindingRequestResponse() throws Exception {
+        final InetSocketAddress remote = new InetSocketAddress("10.0.0.1", 5060);
+        final StunMessage request = StunMessage.createBindingRequest();
+        final StunMessage framedRequest = StunMessage.frame(request.encode(UnpooledByteBufAllocator.DEFAULT, remote));
+        assertThat(framedRequest, is(request));
+
+        final StunMessage response = framedRequest.createBindingResponse();
+        final StunMessage framedResponse = StunMessage.frame(response.encode(UnpooledByteBufAllocator.DEFAULT, remote));
+        assertThat(framedResponse.isBindingSuccessResponse(), is(true));
+        assertThat(request.isSameTransaction(framedResponse), is(true));
+        assertThat(StunMessage.createBindingRequest().isSameTransaction(framedResponse), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoResponseToResponse() throws Exception {
+        StunMessage.frame(encodeResponse(new InetSocketAddress("10.0.0.1", 5060))).createBindingResponse();
+    }
+
+    private static ByteBuf encodeResponse(final InetSocketAddress mappedAddress) {
+        return StunMessage.frame(bindingRequest()).createBindingResponse()
+                .encode(UnpooledByteBufAllocator.DEFAULT, mappedAddress);
+    }
+
+    public static ByteBuf bindingRequest() {
+        final ByteBuf buffer = Unpooled.buffer(20);
+        buffer.writeShort(StunMessage.BINDING_REQUEST);
+        buffer.writeShort(0);
+        buffer.writeInt(StunMessage.MAGIC_COOKIE);
+        buffer.writeBytes(TRANSACTION_ID);
+        return buffer;
+    }
+
+    private static byte[] slice(final ByteBuf buffer, final int index) {
+        final byte[] bytes = new byte[buffer.readableBytes() - index];
+        buffer.getBytes(index, bytes);
+        return bytes;
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
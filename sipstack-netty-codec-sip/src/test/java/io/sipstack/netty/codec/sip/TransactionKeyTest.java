@@ -0,0 +1,67 @@
+package io.sipstack.netty.codec.sip;
+
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class TransactionKeyTest {
+
+    private static final String CANCEL = SipMessageDatagramDecoderTest.INVITE
+            .replace("INVITE sip", "CANCEL sip")
+            .replace("CSeq: 1 INVITE", "CSeq: 1 CANCEL");
+
+    /**
+     * The key built from the index during framing must be the same as the one
+     * we get by asking the message for its Via header.
+     */
+    @Test
+    public void testKeyFromIndexEqualsKeyFromMessage() throws Exception {
+        for (final String msg : new String[] {SipMessageDatagramDecoderTest.INVITE, SipMessageFramingBenchmark.OK,
+                SipMessageFramingBenchmark.REGISTER, SipMessageStreamFramerTest.BYE, CANCEL}) {
+            final TransactionKey fromIndex = TransactionKey.create(HeaderIndex.index(Buffers.wrap(msg)));
+            final TransactionKey fromMessage = TransactionKey.create(SipMessage.frame(Buffers.wrap(msg)));
+            assertThat(fromIndex, is(fromMessage));
+            assertThat(fromIndex.hashCode(), is(fromMessage.hashCode()));
+            assertThat(fromIndex.toString(), is(fromMessage.toString()));
+            assertThat(fromIndex.matches(SipMessage.frame(Buffers.wrap(msg))), is(true));
+        }
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        final byte[] branch = "z9hG4bK-123".getBytes();
+        assertThat(TransactionKey.hash(branch, 0, branch.length), is(Arrays.hashCode(branch)));
+
+        final HeaderIndex index = HeaderIndex.index(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE));
+        assertThat(index.getViaBranchHash(), is(Arrays.hashCode(branch)));
+    }
+
+    /**
+     * A CANCEL has the same branch as the INVITE it is cancelling but is a
+     * transaction of its own.
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final TransactionKey invite = TransactionKey.create(HeaderIndex.index(Buffers.wrap(SipMessageDatagramDecoderTest.INVITE)));
+        final TransactionKey cancel = TransactionKey.create(HeaderIndex.index(Buffers.wrap(CANCEL)));
+        assertThat(invite, not(cancel));
+        assertThat(cancel.toString(), is("z9hG4bK-123-CANCEL"));
+        assertThat(invite.matches(SipMessage.frame(Buffers.wrap(CANCEL))), is(false));
+        assertThat(cancel.matches(SipMessage.frame(Buffers.wrap(CANCEL))), is(true));
+    }
+
+    @Test
+    public void testNoBranch() throws Exception {
+        final String msg = SipMessageDatagramDecoderTest.INVITE.replace(";branch=z9hG4bK-123", "");
+        assertThat(TransactionKey.create(HeaderIndex.index(Buffers.wrap(msg))), is((TransactionKey) null));
+    }
+}
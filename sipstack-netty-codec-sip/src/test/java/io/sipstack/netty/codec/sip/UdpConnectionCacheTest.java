@@ -0,0 +1,137 @@
+package io.sipstack.netty.codec.sip;
+
+import io.netty.channel.Channel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class UdpConnectionCacheTest {
+
+    private Channel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        channel = mock(Channel.class);
+        when(channel.localAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 5060));
+    }
+
+    @Test
+    public void testSameRemoteSameConnection() throws Exception {
+        final UdpConnectionCache cache = new UdpConnectionCache(channel, Optional.empty());
+        final UdpConnection c1 = cache.ensureConnection(new InetSocketAddress("10.0.0.1", 5060), 0);
+        final UdpConnection c2 = cache.ensureConnection(new InetSocketAddress("10.0.0.1", 5060), 1);
+        final UdpConnection c3 = cache.ensureConnection(new InetSocketAddress("10.0.0.1", 5070), 2);
+        final UdpConnection c4 = cache.ensureConnection(new InetSocketAddress("10.0.0.2", 5060), 3);
+
+        assertThat(c2, sameInstance(c1));
+        assertThat(c2.id(), sameInstance(c1.id()));
+        assertThat(c3, not(sameInstance(c1)));
+        assertThat(c4, not(sameInstance(c1)));
+        assertThat(c3.getRemotePort(), is(5070));
+        assertThat(c4.getRemoteIpAddress(), is("10.0.0.2"));
+        assertThat(cache.size(), is(3));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        final long key = UdpConnectionCache.toKey(InetAddress.getByName("10.1.2.3"), 5061);
+        assertThat(key, is(0x0A010203L << 16 | 5061));
+        assertThat(UdpConnectionCache.toKey(InetAddress.getByName("255.255.255.255"), 65535), is(0xFFFFFFFFFFFFL));
+    }
+
+    @Test
+    public void testIPv6IsNotCached() throws Exception {
+        final UdpConnectionCache cache = new UdpConnectionCache(channel, Optional.empty());
+        final InetSocketAddress remote = new InetSocketAddress("::1", 5060);
+        assertThat(cache.ensureConnection(remote, 0), not(sameInstance(cache.ensureConnection(remote, 0))));
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * Make sure that the table grows as needed and that everything still can be found
+     * after it has grown.
+     */
+    @Test
+    public void testGrow() throws Exception {
+        final UdpConnectionCache cache = new UdpConnectionCache(channel, Optional.empty(), 4, 1024, 1000);
+        final UdpConnection[] connections = new UdpConnection[500];
+        for (int i = 0; i < connections.length; ++i) {
+            connections[i] = cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000 + i), 0);
+        }
+        assertThat(cache.size(), is(500));
+        for (int i = 0; i < connections.length; ++i) {
+            assertThat(cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000 + i), 0), sameInstance(connections[i]));
+        }
+    }
+
+    /**
+     * Once full, idle entries are evicted to make room for new ones and if nothing
+     * is idle the new remote simply isn't cached.
+     */
+    @Test
+    public void testIdleEviction() throws Exception {
+        final UdpConnectionCache cache = new UdpConnectionCache(channel, Optional.empty(), 4, 4, 1000);
+        for (int i = 0; i < 3; ++i) {
+            cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000 + i), 0);
+        }
+        assertThat(cache.size(), is(3));
+
+        // full and nothing is idle
+        final InetSocketAddress remote = new InetSocketAddress("10.0.0.2", 5060);
+        assertThat(cache.ensureConnection(remote, 500), not(sameInstance(cache.ensureConnection(remote, 500))));
+        assertThat(cache.size(), is(3));
+
+        // keep one of them alive
+        final UdpConnection alive = cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000), 1500);
+
+        final UdpConnection c = cache.ensureConnection(remote, 2000);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.ensureConnection(remote, 2001), sameInstance(c));
+        assertThat(cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000), 2002), sameInstance(alive));
+
+        cache.evictIdle(10000);
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * A table that is full of live entries must not be re-built for every datagram
+     * from a new source, which would be a trivial way of burning our CPU by spoofing
+     * source addresses. Eviction is only attempted again once an entry can have
+     * gone idle.
+     */
+    @Test
+    public void testFullOfLiveEntriesDoesNotRehashPerDatagram() throws Exception {
+        final UdpConnectionCache cache = new UdpConnectionCache(channel, Optional.empty(), 4, 8, 1000);
+        for (int i = 0; i < 6; ++i) {
+            cache.ensureConnection(new InetSocketAddress("10.0.0.1", 1000 + i), 100);
+        }
+        assertThat(cache.size(), is(6));
+
+        // the table has reached its max capacity and nothing can have gone idle yet
+        final int rehashes = cache.rehashes();
+
+        for (int i = 0; i < 10000; ++i) {
+            cache.ensureConnection(new InetSocketAddress("10.0.0.3", i), 600);
+        }
+        assertThat(cache.size(), is(6));
+        assertThat(cache.rehashes(), is(rehashes));
+
+        // once the oldest entries can have gone idle we try again
+        final UdpConnection c = cache.ensureConnection(new InetSocketAddress("10.0.0.4", 5060), 1101);
+        assertThat(cache.rehashes(), is(rehashes + 1));
+        assertThat(cache.ensureConnection(new InetSocketAddress("10.0.0.4", 5060), 1102), sameInstance(c));
+    }
+}
@@ -1,5 +1,10 @@
 package io.sipstack.netty.codec.sip;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.sip.SipMessage;
 import org.junit.Test;
 
 import java.time.Duration;
@@ -30,4 +35,18 @@ public class UtilsTest {
         assertThat(Utils.calculateBackoffTimer(6, 500, 4000), is(Duration.ofMillis(4000)));
     }
 
-}
\ No newline at end of file
+    /**
+     * Only the visible portion of the message must be encoded, which is not necessarily
+     * the entire array backing the message.
+     */
+    @Test
+    public void testToByteBuf() throws Exception {
+        final String garbage = "garbage";
+        final byte[] data = (garbage + SipMessageStreamFramerTest.BYE + garbage).getBytes(CharsetUtil.UTF_8);
+        final SipMessage msg = SipMessage.frame(Buffers.wrap(data, garbage.length(), data.length - garbage.length()));
+        final ByteBuf buffer = Utils.toByteBuf(UnpooledByteBufAllocator.DEFAULT, msg);
+        assertThat(buffer.toString(CharsetUtil.UTF_8), is(SipMessageStreamFramerTest.BYE));
+        assertThat(buffer.capacity(), is(SipMessageStreamFramerTest.BYE.length()));
+    }
+
+}
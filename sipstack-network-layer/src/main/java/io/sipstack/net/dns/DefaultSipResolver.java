@@ -0,0 +1,681 @@
+package io.sipstack.net.dns;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsServerAddresses;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.Future;
+import io.pkts.packet.sip.Transport;
+import io.sipstack.config.DnsConfiguration;
+import io.sipstack.netty.codec.sip.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotEmpty;
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * An RFC 3263 resolver on top of the asynchronous DNS client of Netty. We only use
+ * Netty to send the queries and match up the responses, the NAPTR, SRV and A records
+ * are parsed, cached and combined here.
+ *
+ * The procedure is the one of RFC 3263 section 4:
+ * <ul>
+ *     <li>If the host is an IP address, there is nothing to resolve.</li>
+ *     <li>If a port is given, the host is looked up through A records and the
+ *         transport is the given one, or UDP.</li>
+ *     <li>If a transport (but no port) is given, the SRV records for that transport
+ *         are looked up and then the A records for each of the SRV targets. If there
+ *         are no SRV records we fall back to the A records of the host and the
+ *         default port of the transport.</li>
+ *     <li>If neither is given, the NAPTR records tell us which transports the
+ *         server supports and where to find the SRV records for each of them. Only
+ *         transports we support ourselves are considered. Without NAPTR records we
+ *         try the SRV records of every transport we support and as a last resort,
+ *         the A records of the host over UDP.</li>
+ * </ul>
+ *
+ * Every lookup is cached for as long as the TTL of the records says (clamped to the
+ * configured min and max TTL) and lookups that came back empty, or with NXDOMAIN, are
+ * cached for the negative TTL. Expired entries are dropped when they are asked for
+ * and, since many names are only ever asked for once, the cache is also swept for
+ * expired entries every once in a while as new entries are added. If someone asks for a name that we are already waiting
+ * on an answer for, they simply get to wait on the same answer, which is important
+ * since it is common for a burst of requests to go to the very same domain.
+ *
+ * Only IPv4 (A records) is supported, just like the rest of the stack.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class DefaultSipResolver implements SipResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultSipResolver.class);
+
+    /**
+     * The transports in the order we prefer them when there are no NAPTR records
+     * telling us what the server prefers.
+     */
+    private static final Transport[] SRV_FALLBACK_ORDER = {
+            Transport.udp, Transport.tcp, Transport.tls, Transport.sctp, Transport.ws, Transport.wss
+    };
+
+    /**
+     * How often, at most, the cache is swept for expired entries.
+     */
+    private static final long SWEEP_INTERVAL_MS = 60000;
+
+    private final DnsNameResolver dns;
+
+    private final DnsConfiguration config;
+
+    private final Clock clock;
+
+    private final Predicate<Transport> supported;
+
+    private final ConcurrentMap<Question, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Question, CompletableFuture<List<?>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSweep;
+
+    public DefaultSipResolver(final DnsNameResolver dns, final DnsConfiguration config, final Clock clock,
+                              final Predicate<Transport> supported) {
+        this.dns = ensureNotNull(dns, "The DNS client cannot be null");
+        this.config = ensureNotNull(config, "The DNS configuration cannot be null");
+        this.clock = ensureNotNull(clock, "The clock cannot be null");
+        this.supported = ensureNotNull(supported, "You must specify which transports are supported");
+        this.nextSweep = new AtomicLong(clock.getCurrentTimeMillis() + SWEEP_INTERVAL_MS);
+    }
+
+    /**
+     * Create a new resolver whose queries will be sent from a datagram channel
+     * registered with the given event loop.
+     *
+     * @param eventLoop
+     * @param config
+     * @param clock
+     * @param supported which transports we support, only those will be considered
+     *                  when following NAPTR records.
+     * @return
+     */
+    public static DefaultSipResolver create(final EventLoop eventLoop, final DnsConfiguration config,
+                                            final Clock clock, final Predicate<Transport> supported) {
+        final DnsServerAddresses servers = config.getServers().isEmpty()
+                ? DnsServerAddresses.defaultAddresses()
+                : DnsServerAddresses.rotational(toSocketAddresses(config.getServers()));
+
+        final DnsNameResolver dns = new DnsNameResolver(eventLoop, NioDatagramChannel.class, servers);
+        dns.setQueryTimeoutMillis(config.getQueryTimeout().toMillis());
+        dns.setRecursionDesired(true);
+        return new DefaultSipResolver(dns, config, clock, supported);
+    }
+
+    private static List<InetSocketAddress> toSocketAddresses(final List<String> servers) {
+        final List<InetSocketAddress> addresses = new ArrayList<>(servers.size());
+        for (final String server : servers) {
+            final int colon = server.lastIndexOf(':');
+            final boolean hasPort = colon != -1 && server.indexOf(':') == colon;
+            final String ip = hasPort ? server.substring(0, colon) : server;
+            final int port = hasPort ? Integer.parseInt(server.substring(colon + 1)) : 53;
+            final byte[] raw = NetUtil.createByteArrayFromIpAddressString(ip);
+            if (raw == null) {
+                throw new IllegalArgumentException("The DNS server must be given as an IP address: " + server);
+            }
+
+            try {
+                addresses.add(new InetSocketAddress(InetAddress.getByAddress(raw), port));
+            } catch (final UnknownHostException e) {
+                throw new IllegalArgumentException("Illegal DNS server address " + server, e);
+            }
+        }
+        return addresses;
+    }
+
+    @Override
+    public CompletableFuture<List<SipTarget>> resolve(final String host, final int port, final Transport transport) {
+        ensureNotEmpty(host, "The host cannot be empty");
+
+        final byte[] ip = NetUtil.createByteArrayFromIpAddressString(host);
+        if (ip != null) {
+            final Transport t = transport == null ? Transport.udp : transport;
+            final int p = port > 0 ? port : defaultPort(t);
+            try {
+                final InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(host, ip), p);
+                return CompletableFuture.completedFuture(Collections.singletonList(SipTarget.create(t, address)));
+            } catch (final UnknownHostException e) {
+                return failed(e);
+            }
+        }
+
+        final String name = normalize(host);
+        final CompletableFuture<List<SipTarget>> targets;
+        if (port > 0) {
+            targets = lookupAddresses(name, port, transport == null ? Transport.udp : transport);
+        } else if (transport != null) {
+            targets = lookupSrv(name, transport).thenCompose(srv -> srv.isEmpty()
+                    ? lookupAddresses(name, defaultPort(transport), transport)
+                    : CompletableFuture.completedFuture(srv));
+        } else {
+            targets = lookupNaptr(name);
+        }
+
+        return targets.thenCompose(list -> list.isEmpty()
+                ? failed(new UnknownHostException("Unable to resolve " + host))
+                : CompletableFuture.completedFuture(list));
+    }
+
+    @Override
+    public void close() {
+        dns.close();
+    }
+
+    private CompletableFuture<List<SipTarget>> lookupNaptr(final String host) {
+        if (!config.isNaptr()) {
+            return lookupSrvForAllTransports(host);
+        }
+
+        return lookup(host, DnsRecordType.NAPTR, DefaultSipResolver::parseNaptr).thenCompose(records -> {
+            final List<Naptr> naptrs = new ArrayList<>(records.size());
+            for (final Naptr naptr : records) {
+                if (naptr.transport != null && "s".equalsIgnoreCase(naptr.flags) && supported.test(naptr.transport)) {
+                    naptrs.add(naptr);
+                }
+            }
+
+            if (naptrs.isEmpty()) {
+                return lookupSrvForAllTransports(host);
+            }
+
+            naptrs.sort(Comparator.comparingInt((Naptr n) -> n.order).thenComparingInt(n -> n.preference));
+            final List<CompletableFuture<List<SipTarget>>> futures = new ArrayList<>(naptrs.size());
+            for (final Naptr naptr : naptrs) {
+                futures.add(lookupSrvTargets(naptr.replacement, naptr.transport));
+            }
+            return concat(futures).thenCompose(targets -> targets.isEmpty()
+                    ? lookupSrvForAllTransports(host)
+                    : CompletableFuture.completedFuture(targets));
+        });
+    }
+
+    private CompletableFuture<List<SipTarget>> lookupSrvForAllTransports(final String host) {
+        final List<CompletableFuture<List<SipTarget>>> futures = new ArrayList<>(SRV_FALLBACK_ORDER.length);
+        Transport fallback = null;
+        for (final Transport transport : SRV_FALLBACK_ORDER) {
+            if (supported.test(transport)) {
+                fallback = fallback == null ? transport : fallback;
+                futures.add(lookupSrv(host, transport));
+            }
+        }
+
+        if (fallback == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        final Transport transport = fallback;
+        return concat(futures).thenCompose(targets -> targets.isEmpty()
+                ? lookupAddresses(host, defaultPort(transport), transport)
+                : CompletableFuture.completedFuture(targets));
+    }
+
+    private CompletableFuture<List<SipTarget>> lookupSrv(final String host, final Transport transport) {
+        if (!config.isSrv()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return lookupSrvTargets(srvPrefix(transport) + host, transport);
+    }
+
+    /**
+     * Look up the SRV records with the given name and then the addresses of every
+     * SRV target, in the order given by the priority and weight of the SRV records.
+     */
+    private CompletableFuture<List<SipTarget>> lookupSrvTargets(final String name, final Transport transport) {
+        return lookup(name, DnsRecordType.SRV, DefaultSipResolver::parseSrv).thenCompose(records -> {
+            final List<Srv> ordered = order(records);
+            final List<CompletableFuture<List<SipTarget>>> futures = new ArrayList<>(ordered.size());
+            for (final Srv srv : ordered) {
+                futures.add(lookupAddresses(srv.target, srv.port, transport));
+            }
+            return concat(futures);
+        });
+    }
+
+    private CompletableFuture<List<SipTarget>> lookupAddresses(final String host, final int port,
+                                                               final Transport transport) {
+        return lookup(host, DnsRecordType.A, DefaultSipResolver::parseA).thenApply(addresses -> {
+            final List<SipTarget> targets = new ArrayList<>(addresses.size());
+            for (final InetAddress address : addresses) {
+                targets.add(SipTarget.create(transport, new InetSocketAddress(address, port)));
+            }
+            return targets;
+        });
+    }
+
+    /**
+     * Look up all records of the given type, from the cache if possible and if not,
+     * from DNS, unless someone else already is asking for the very same thing in which
+     * case we simply wait for the same answer.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<List<T>> lookup(final String name, final DnsRecordType type,
+                                                  final Function<DnsRawRecord, T> parser) {
+        final Question question = new Question(name, type);
+        if (config.isCache()) {
+            final CacheEntry entry = cache.get(question);
+            if (entry != null) {
+                if (entry.expires > clock.getCurrentTimeMillis()) {
+                    return CompletableFuture.completedFuture((List<T>) entry.records);
+                }
+                cache.remove(question, entry);
+            }
+        }
+
+        final CompletableFuture<List<?>> promise = new CompletableFuture<>();
+        final CompletableFuture<List<?>> existing = inFlight.putIfAbsent(question, promise);
+        if (existing != null) {
+            return (CompletableFuture<List<T>>) (CompletableFuture<?>) existing;
+        }
+
+        query(question, parser, promise);
+        return (CompletableFuture<List<T>>) (CompletableFuture<?>) promise;
+    }
+
+    private <T> void query(final Question question, final Function<DnsRawRecord, T> parser,
+                           final CompletableFuture<List<?>> promise) {
+        final Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future;
+        try {
+            future = dns.query(new DefaultDnsQuestion(question.name, question.type));
+        } catch (final Throwable t) {
+            inFlight.remove(question, promise);
+            promise.completeExceptionally(t);
+            return;
+        }
+
+        future.addListener((final Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> f) -> {
+            if (!f.isSuccess()) {
+                logger.debug("DNS query for {} {} failed", question.type, question.name, f.cause());
+                inFlight.remove(question, promise);
+                promise.completeExceptionally(f.cause());
+                return;
+            }
+
+            final AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = f.getNow();
+            try {
+                final List<T> records = processResponse(question, envelope.content(), parser);
+                inFlight.remove(question, promise);
+                promise.complete(records);
+            } catch (final Throwable t) {
+                inFlight.remove(question, promise);
+                promise.completeExceptionally(t);
+            } finally {
+                envelope.release();
+            }
+        });
+    }
+
+    private <T> List<T> processResponse(final Question question, final DnsResponse response,
+                                        final Function<DnsRawRecord, T> parser) throws UnknownHostException {
+        final DnsResponseCode code = response.code();
+        if (!code.equals(DnsResponseCode.NOERROR) && !code.equals(DnsResponseCode.NXDOMAIN)) {
+            throw new UnknownHostException("DNS query for " + question.type + " " + question.name + " failed: " + code);
+        }
+
+        final int count = response.count(DnsSection.ANSWER);
+        final List<T> records = new ArrayList<>(count);
+        long ttl = Long.MAX_VALUE;
+        for (int i = 0; i < count; ++i) {
+            final DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+            // a recursive server will also give us e.g. the CNAMEs leading up to the records
+            if (record.type().equals(question.type) && record instanceof DnsRawRecord) {
+                records.add(parser.apply((DnsRawRecord) record));
+                ttl = Math.min(ttl, record.timeToLive());
+            }
+        }
+
+        if (config.isCache()) {
+            final long ttlMillis = records.isEmpty() ? config.getNegativeTtl().toMillis() : clampTtl(ttl * 1000);
+            if (ttlMillis > 0) {
+                final long now = clock.getCurrentTimeMillis();
+                cache.put(question, new CacheEntry(Collections.unmodifiableList(records), now + ttlMillis));
+                sweep(now);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Drop every expired entry from the cache, unless we did so recently. Only one of the
+     * threads that happen to get here at the same time will do the actual sweeping.
+     */
+    private void sweep(final long now) {
+        final long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + SWEEP_INTERVAL_MS)) {
+            return;
+        }
+        cache.values().removeIf(entry -> entry.expires <= now);
+    }
+
+    /**
+     * The number of entries in the cache, expired or not. Only for testing.
+     */
+    int cacheSize() {
+        return cache.size();
+    }
+
+    private long clampTtl(final long ttlMillis) {
+        return Math.max(config.getMinTtl().toMillis(), Math.min(config.getMaxTtl().toMillis(), ttlMillis));
+    }
+
+    /**
+     * Order the SRV records according to RFC 2782, i.e., by priority and within the same
+     * priority, randomly but weighted so that records with a higher weight are more likely
+     * to come first.
+     */
+    private static List<Srv> order(final List<Srv> records) {
+        if (records.size() < 2) {
+            return records;
+        }
+
+        final List<Srv> sorted = new ArrayList<>(records);
+        // zero weights first within each priority, which is what RFC 2782 asks for
+        sorted.sort(Comparator.comparingInt((Srv s) -> s.priority).thenComparingInt(s -> s.weight == 0 ? 0 : 1));
+
+        final List<Srv> ordered = new ArrayList<>(sorted.size());
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start;
+            while (end < sorted.size() && sorted.get(end).priority == sorted.get(start).priority) {
+                ++end;
+            }
+
+            final List<Srv> group = new ArrayList<>(sorted.subList(start, end));
+            while (!group.isEmpty()) {
+                int sum = 0;
+                for (final Srv srv : group) {
+                    sum += srv.weight;
+                }
+
+                final int pick = random.nextInt(sum + 1);
+                int running = 0;
+                for (int i = 0; i < group.size(); ++i) {
+                    running += group.get(i).weight;
+                    if (running >= pick) {
+                        ordered.add(group.remove(i));
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return ordered;
+    }
+
+    /**
+     * Wait for all the lookups and combine the targets, in order. A lookup that failed
+     * (e.g. timed out) simply doesn't contribute any targets.
+     */
+    private static CompletableFuture<List<SipTarget>> concat(final List<CompletableFuture<List<SipTarget>>> futures) {
+        if (futures.size() == 1) {
+            return futures.get(0).exceptionally(t -> Collections.emptyList());
+        }
+
+        final List<CompletableFuture<List<SipTarget>>> safe = new ArrayList<>(futures.size());
+        for (final CompletableFuture<List<SipTarget>> future : futures) {
+            safe.add(future.exceptionally(t -> Collections.emptyList()));
+        }
+
+        return CompletableFuture.allOf(safe.toArray(new CompletableFuture<?>[safe.size()])).thenApply(v -> {
+            final List<SipTarget> targets = new ArrayList<>();
+            for (final CompletableFuture<List<SipTarget>> future : safe) {
+                targets.addAll(future.join());
+            }
+            return targets;
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable t) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private static String normalize(final String host) {
+        final String name = host.toLowerCase(Locale.US);
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * Same default ports as the transport layer uses when no port is given.
+     */
+    static int defaultPort(final Transport transport) {
+        switch (transport) {
+            case tls:
+                return 5061;
+            case ws:
+                return 5062;
+            case wss:
+                return 5063;
+            default:
+                return 5060;
+        }
+    }
+
+    private static String srvPrefix(final Transport transport) {
+        switch (transport) {
+            case tls:
+                return "_sips._tcp.";
+            case tcp:
+                return "_sip._tcp.";
+            case sctp:
+                return "_sip._sctp.";
+            case ws:
+                return "_sip._ws.";
+            case wss:
+                return "_sips._ws.";
+            default:
+                return "_sip._udp.";
+        }
+    }
+
+    private static Transport naptrServiceToTransport(final String service) {
+        switch (service.toUpperCase(Locale.US)) {
+            case "SIP+D2U":
+                return Transport.udp;
+            case "SIP+D2T":
+                return Transport.tcp;
+            case "SIPS+D2T":
+                return Transport.tls;
+            case "SIP+D2S":
+                return Transport.sctp;
+            case "SIP+D2W":
+                return Transport.ws;
+            case "SIPS+D2W":
+                return Transport.wss;
+            default:
+                return null;
+        }
+    }
+
+    // -----------------------------------------------------------------------
+    // Parsing of the raw records. The content of a raw record is a view of the
+    // entire DNS message with the reader index at the start of the RDATA, which
+    // means that we can follow any compression pointers in the domain names.
+    // -----------------------------------------------------------------------
+
+    private static InetAddress parseA(final DnsRawRecord record) {
+        final ByteBuf content = record.content();
+        if (content.readableBytes() != 4) {
+            throw new IllegalArgumentException("Malformed A record for " + record.name());
+        }
+
+        final byte[] ip = new byte[4];
+        content.getBytes(content.readerIndex(), ip);
+        try {
+            return InetAddress.getByAddress(normalize(record.name()), ip);
+        } catch (final UnknownHostException e) {
+            // only thrown for an address of the wrong length
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Srv parseSrv(final DnsRawRecord record) {
+        final ByteBuf content = record.content();
+        final int index = content.readerIndex();
+        final int priority = content.getUnsignedShort(index);
+        final int weight = content.getUnsignedShort(index + 2);
+        final int port = content.getUnsignedShort(index + 4);
+        final String target = decodeName(content, index + 6);
+        return new Srv(priority, weight, port, target);
+    }
+
+    private static Naptr parseNaptr(final DnsRawRecord record) {
+        final ByteBuf content = record.content();
+        int index = content.readerIndex();
+        final int order = content.getUnsignedShort(index);
+        final int preference = content.getUnsignedShort(index + 2);
+        index += 4;
+
+        final String flags = characterString(content, index);
+        index += 1 + content.getUnsignedByte(index);
+        final String service = characterString(content, index);
+        index += 1 + content.getUnsignedByte(index);
+        // the regexp, which is never used for SIP
+        index += 1 + content.getUnsignedByte(index);
+
+        final String replacement = decodeName(content, index);
+        return new Naptr(order, preference, flags, naptrServiceToTransport(service), replacement);
+    }
+
+    private static String characterString(final ByteBuf buffer, final int index) {
+        final int length = buffer.getUnsignedByte(index);
+        return buffer.toString(index + 1, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decode a domain name starting at the given (absolute) index, following any
+     * compression pointers.
+     */
+    static String decodeName(final ByteBuf buffer, final int start) {
+        final StringBuilder sb = new StringBuilder(64);
+        int index = start;
+        int jumps = 0;
+        while (true) {
+            final int length = buffer.getUnsignedByte(index);
+            if ((length & 0xC0) == 0xC0) {
+                if (++jumps > 32) {
+                    throw new IllegalArgumentException("Too many compression pointers in domain name");
+                }
+                index = (length & 0x3F) << 8 | buffer.getUnsignedByte(index + 1);
+                continue;
+            }
+
+            if (length == 0) {
+                break;
+            }
+
+            if (sb.length() > 0) {
+                sb.append('.');
+            }
+            sb.append(buffer.toString(index + 1, length, StandardCharsets.US_ASCII));
+            index += 1 + length;
+        }
+
+        return sb.toString().toLowerCase(Locale.US);
+    }
+
+    private static final class Question {
+        private final String name;
+        private final DnsRecordType type;
+
+        private Question(final String name, final DnsRecordType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Question)) {
+                return false;
+            }
+            final Question other = (Question) o;
+            return type.equals(other.type) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + type.hashCode();
+        }
+    }
+
+    private static final class CacheEntry {
+        private final List<?> records;
+        private final long expires;
+
+        private CacheEntry(final List<?> records, final long expires) {
+            this.records = records;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Srv {
+        private final int priority;
+        private final int weight;
+        private final int port;
+        private final String target;
+
+        private Srv(final int priority, final int weight, final int port, final String target) {
+            this.priority = priority;
+            this.weight = weight;
+            this.port = port;
+            this.target = target;
+        }
+    }
+
+    private static final class Naptr {
+        private final int order;
+        private final int preference;
+        private final String flags;
+        private final Transport transport;
+        private final String replacement;
+
+        private Naptr(final int order, final int preference, final String flags, final Transport transport,
+                      final String replacement) {
+            this.order = order;
+            this.preference = preference;
+            this.flags = flags;
+            this.transport = transport;
+            this.replacement = replacement;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.sipstack.net.dns;
+
+import io.pkts.packet.sip.Transport;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Locates SIP servers as described by RFC 3263, i.e., turns a host, and optionally
+ * a port and transport, into an ordered list of IP:port + transport to try.
+ *
+ * All implementations must be asynchronous since resolving a name typically
+ * involves several round trips to a DNS server and whoever is asking is very
+ * often running on one of the event loops, which must never be blocked.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public interface SipResolver {
+
+    /**
+     * Resolve the given host into the targets to try, in order.
+     *
+     * @param host the host, which may be a domain name or an IP address.
+     * @param port the port or -1 if none was specified, which means that we
+     *             should look for SRV records.
+     * @param transport the transport or null if none was specified, which means
+     *                  that we should look for NAPTR records.
+     * @return a future that completes with a list of at least one target or fails
+     *         with an {@link java.net.UnknownHostException} if the host couldn't be resolved.
+     */
+    CompletableFuture<List<SipTarget>> resolve(String host, int port, Transport transport);
+
+    /**
+     * Release any resources held by this resolver.
+     */
+    default void close() {
+        // nothing by default
+    }
+}
@@ -0,0 +1,61 @@
+package io.sipstack.net.dns;
+
+import io.pkts.packet.sip.Transport;
+
+import java.net.InetSocketAddress;
+
+import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
+
+/**
+ * A resolved IP:port and the transport to use to reach it, which is what
+ * RFC 3263 calls a target.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class SipTarget {
+
+    private final Transport transport;
+
+    private final InetSocketAddress address;
+
+    private SipTarget(final Transport transport, final InetSocketAddress address) {
+        this.transport = transport;
+        this.address = address;
+    }
+
+    public static SipTarget create(final Transport transport, final InetSocketAddress address) {
+        ensureNotNull(transport, "The transport cannot be null");
+        ensureNotNull(address, "The address cannot be null");
+        return new SipTarget(transport, address);
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final SipTarget other = (SipTarget) o;
+        return transport == other.transport && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * transport.hashCode() + address.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return address.getAddress().getHostAddress() + ":" + address.getPort() + ";transport=" + transport;
+    }
+}
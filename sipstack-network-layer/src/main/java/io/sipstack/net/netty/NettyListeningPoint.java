@@ -20,7 +20,7 @@ import java.net.InetSocketAddress;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static io.pkts.packet.sip.impl.PreConditions.assertNotNull;
 
@@ -104,10 +104,18 @@ public abstract class NettyListeningPoint implements ListeningPoint {
         private final Bootstrap bootstrap;
 
         /**
-         * For UDP we will use this channel for all {@link Connection}s we create
-         * since we won't actually connect for real.
+         * The number of channels to bind to the listening point. Anything but one
+         * requires the bootstrap to be configured with SO_REUSEPORT so that all
+         * the channels can share the same port.
          */
-        private AtomicReference<Channel> udpChannel = new AtomicReference<>();
+        private final int channels;
+
+        /**
+         * For UDP we will use these channels for all {@link Connection}s we create
+         * since we won't actually connect for real. Typically there is only a single
+         * one but with SO_REUSEPORT there is one per event loop.
+         */
+        private final AtomicReferenceArray<Channel> udpChannels;
 
         /**
          * @param transport
@@ -117,17 +125,24 @@ public abstract class NettyListeningPoint implements ListeningPoint {
         private NettyUdpListeningPoint(final SipURI listenAddress,
                                        final SipURI vipAddress,
                                        final Bootstrap bootstrap,
+                                       final int channels,
                                        final Clock clock) {
             super(Transport.udp, listenAddress, vipAddress, clock);
             this.bootstrap = bootstrap;
-        }
-
-        private void setChannel(final Channel channel) {
-            this.udpChannel.set(channel);
+            this.channels = channels;
+            this.udpChannels = new AtomicReferenceArray<>(channels);
         }
 
         @Override
         public CompletableFuture<Void> up() {
+            final CompletableFuture<?>[] futures = new CompletableFuture<?>[channels];
+            for (int i = 0; i < channels; ++i) {
+                futures[i] = bind(i);
+            }
+            return CompletableFuture.allOf(futures);
+        }
+
+        private CompletableFuture<Void> bind(final int index) {
             final CompletableFuture<Void> future = new CompletableFuture<>();
 
             final ChannelFuture channelFuture = this.bootstrap.bind(getLocalAddress());
@@ -136,8 +151,9 @@ public abstract class NettyListeningPoint implements ListeningPoint {
                 @Override
                 public void operationComplete(final ChannelFuture channelFuture) throws Exception {
                     if (channelFuture.isSuccess()) {
-                        setChannel(channelFuture.channel());
-                        NettyListeningPoint.logger.info("Successfully bound to listening point: " + getListenAddress());
+                        udpChannels.set(index, channelFuture.channel());
+                        NettyListeningPoint.logger.info("Successfully bound to listening point: " + getListenAddress()
+                                + (channels > 1 ? " (channel " + (index + 1) + " of " + channels + ")" : ""));
                         future.complete(null);
                     } else {
                         NettyListeningPoint.logger.info("Unable to bind to listening point: " + getListenAddress());
@@ -160,13 +176,40 @@ public abstract class NettyListeningPoint implements ListeningPoint {
             // Note: since we don't know when the connection goes away, this can
             // only be one part of the overall solution. For the full stack, this
             // is being handled by the transport layer...
-            final Channel channel = udpChannel.get();
+            final Channel channel = selectChannel(remoteAddress);
             final ChannelHandlerContext ctx = channel.pipeline().firstContext();
             final Connection connection = new UdpConnection(channel, remoteAddress, getVipAddress());
             final Long arrivalTime = clock.getCurrentTimeMillis();
             ctx.fireUserEventTriggered(ConnectionActiveIOEvent.create(connection, arrivalTime));
             return CompletableFuture.completedFuture(connection);
         }
+
+        /**
+         * When there are several channels sharing the port, any of them will do since they
+         * all have the same local address. Which one the kernel will deliver the responses
+         * to is a different story. Linux picks the SO_REUSEPORT socket through a hash of the
+         * 4-tuple seeded with a secret, which we can't reproduce, so hashing the remote
+         * address here is merely a way of spreading the new flows across the channels and
+         * most of the time the traffic coming back will arrive on another channel.
+         *
+         * That is fine since the transport layer binds every flow to a single channel and
+         * hands over whatever shows up on any of the other channels to the event loop of
+         * that channel. Also, this is only ever used for remote endpoints we don't have a
+         * flow to. For everyone else the existing flow, and therefore the channel the remote
+         * endpoint was first seen on, is used for the replies as well.
+         *
+         * The hash code of an address is merely the IP plus the port, so its lower bits are
+         * far from random. E.g. if the IP and port both step by one the hash stays even and
+         * only every other channel would get used. Hence the multiplication, which spreads
+         * all the bits into the upper half of the hash, which is the half we use.
+         */
+        private Channel selectChannel(final InetSocketAddress remoteAddress) {
+            if (channels == 1) {
+                return udpChannels.get(0);
+            }
+            final int hash = remoteAddress.hashCode() * 0x9E3779B9;
+            return udpChannels.get((hash >>> 16) % channels);
+        }
     }
 
     /**
@@ -227,7 +270,7 @@ public abstract class NettyListeningPoint implements ListeningPoint {
                 public void operationComplete(final ChannelFuture future) throws Exception {
                     if (future.isSuccess()) {
                         final Channel channel = channelFuture.channel();
-                        final Connection c = new TcpConnection(channel, remoteAddress);
+                        final Connection c = TcpConnection.ensureConnection(channel, getVipAddress());
                         f.complete(c);
                     } else {
                         f.completeExceptionally(future.cause());
@@ -245,6 +288,8 @@ public abstract class NettyListeningPoint implements ListeningPoint {
 
         private Bootstrap udpBootstrap;
 
+        private int udpChannels = 1;
+
         private Bootstrap tcpBootstrap;
 
         private ServerBootstrap tcpServerBootstrap;
@@ -280,6 +325,18 @@ public abstract class NettyListeningPoint implements ListeningPoint {
             return this;
         }
 
+        /**
+         * The number of UDP channels to bind to the same port, which requires the UDP
+         * bootstrap to have SO_REUSEPORT enabled. Default is one.
+         */
+        public Builder withUdpChannels(final int channels) {
+            if (channels < 1) {
+                throw new IllegalArgumentException("You must bind at least one UDP channel");
+            }
+            this.udpChannels = channels;
+            return this;
+        }
+
         public Builder withTcpBootstrap(final Bootstrap bootstrap) {
             this.tcpBootstrap = bootstrap;
             return this;
@@ -299,7 +356,7 @@ public abstract class NettyListeningPoint implements ListeningPoint {
                 return new NettyTcpListeningPoint(listenAddress, vipAddress, tcpBootstrap, tcpServerBootstrap, clock);
             } else if (transport.isUDP()) {
                 assertNotNull(udpBootstrap, "You must specify the UDP bootstrap");
-                return new NettyUdpListeningPoint(listenAddress, vipAddress, udpBootstrap, clock);
+                return new NettyUdpListeningPoint(listenAddress, vipAddress, udpBootstrap, udpChannels, clock);
             }
 
             throw new IllegalTransportException("Currently we only support UDP and TCP");
@@ -211,6 +211,8 @@ public final class NettyNetworkInterface implements NetworkInterface, ChannelFut
          */
         private Bootstrap udpBootstrap;
 
+        private int udpChannels = 1;
+
         private Bootstrap tcpBootstrap;
 
         private ServerBootstrap tcpServerBootstrap;
@@ -232,6 +234,15 @@ public final class NettyNetworkInterface implements NetworkInterface, ChannelFut
             return this;
         }
 
+        /**
+         * The number of UDP channels to bind to the same port. See
+         * {@link NettyListeningPoint.Builder#withUdpChannels(int)}.
+         */
+        public Builder udpChannels(final int channels) {
+            this.udpChannels = channels;
+            return this;
+        }
+
         public Builder tcpBootstrap(final Bootstrap bootstrap) {
             this.tcpBootstrap = bootstrap;
             return this;
@@ -267,6 +278,7 @@ public final class NettyNetworkInterface implements NetworkInterface, ChannelFut
                         .withTcpBootstrap(tcpBootstrap)
                         .withTcpServerBootstrap(tcpServerBootstrap)
                         .withUdpBootstrap(udpBootstrap)
+                        .withUdpChannels(udpChannels)
                         .build();
                 lps.add(lp);
             });
@@ -5,7 +5,12 @@ package io.sipstack.net.netty;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.SocketChannel;
@@ -14,6 +19,8 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.pkts.packet.sip.Transport;
 import io.pkts.packet.sip.address.SipURI;
+import io.sipstack.config.EventLoopConfiguration;
+import io.sipstack.config.EventLoopGroupConfiguration;
 import io.sipstack.config.NetworkInterfaceConfiguration;
 import io.sipstack.net.ListeningPoint;
 import io.sipstack.net.NetworkInterface;
@@ -31,6 +38,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 import static io.pkts.packet.sip.impl.PreConditions.ensureNotEmpty;
 import static io.pkts.packet.sip.impl.PreConditions.ensureNotNull;
@@ -61,12 +69,21 @@ public class NettyNetworkLayer implements NetworkLayer {
 
     private final NettyNetworkInterface defaultInterface;
 
+    /**
+     * The event loop groups that were created by the {@link Builder} and as such are
+     * owned by us. Groups handed to the builder are owned by whoever created them and
+     * are left alone when we stop.
+     */
+    private final List<EventLoopGroup> groups;
+
     /**
      * 
      */
-    private NettyNetworkLayer(final CountDownLatch latch, final List<NettyNetworkInterface> ifs) {
+    private NettyNetworkLayer(final CountDownLatch latch, final List<NettyNetworkInterface> ifs,
+                              final List<EventLoopGroup> groups) {
         this.latch = latch;
         this.interfaces = ifs;
+        this.groups = groups;
 
         // TODO: make this configurable. For now, it is simply the
         // first one...
@@ -80,6 +97,29 @@ public class NettyNetworkLayer implements NetworkLayer {
         CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
     }
 
+    /**
+     * Stop the network layer by gracefully shutting down all the event loop groups
+     * it created, which also closes all the channels registered with them.
+     *
+     * @return a future that completes once all those groups have terminated.
+     */
+    public CompletableFuture<Void> stop() {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        groups.forEach(group -> {
+            final CompletableFuture<Void> f = new CompletableFuture<>();
+            group.shutdownGracefully().addListener(future -> f.complete(null));
+            futures.add(f);
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * The event loop groups that will be shut down when this network layer is stopped.
+     */
+    List<EventLoopGroup> getEventLoopGroups() {
+        return groups;
+    }
+
     @Override
     public CompletableFuture<Connection> connect(final Transport transport, final InetSocketAddress address) {
         return this.defaultInterface.connect(transport, address);
@@ -126,22 +166,76 @@ public class NettyNetworkLayer implements NetworkLayer {
 
     public static class Builder {
 
+        /**
+         * When using native epoll, this is how many datagrams we will read off of a socket
+         * before giving the other channels on the same event loop a chance. The default
+         * for datagram channels is 16, which is a bit low for a busy SIP server and there
+         * is only a single UDP channel per event loop anyway.
+         */
+        public static final int EPOLL_MAX_DATAGRAMS_PER_READ = 64;
+
         private final List<NetworkInterfaceConfiguration> ifs;
 
         private EventLoopGroup bossGroup;
         private EventLoopGroup workerGroup;
         private EventLoopGroup udpGroup;
+        private EventLoopGroup epollUdpGroup;
+
+        /**
+         * All the groups we create ourselves, as opposed to those given to us,
+         * since those are the ones the network layer has to shut down again.
+         */
+        private final List<EventLoopGroup> createdGroups = new ArrayList<>();
+        private EventLoopConfiguration eventLoopConfig;
         private Clock clock;
 
         /**
-         * The TCP based bootstrap.
+         * Whether or not incoming UDP packets should be framed without copying them.
+         * See {@link #withZeroCopyUdpFraming()}.
+         */
+        private boolean zeroCopyUdpFraming;
+
+        /**
+         * The max number of messages the stream decoder will decode per read when in
+         * pipelined mode or zero if not. See {@link #withPipelinedStreamDecoding(int)}.
+         */
+        private int maxMessagesPerRead;
+
+        /**
+         * The flush policies of the {@link FlushConsolidationHandler} or null if flushes
+         * shouldn't be consolidated. See {@link #withFlushConsolidation(FlushPolicy, FlushPolicy)}.
+         */
+        private FlushPolicy readFlushPolicy;
+        private FlushPolicy timerFlushPolicy;
+
+        /**
+         * The write buffer water marks and the max number of writes to queue while a channel
+         * is unwritable or zero if back-pressure isn't turned on. See
+         * {@link #withBackPressure(int, int, int)}.
+         */
+        private int lowWaterMark;
+        private int highWaterMark;
+        private int maxQueuedWrites;
+
+        /**
+         * Told about the size of every encoded SIP message. See {@link #withEncodeListener(EncodeListener)}.
+         */
+        private EncodeListener encodeListener = EncodeListener.NONE;
+
+        /**
+         * The TCP based server bootstraps, one per worker group.
          */
-        private ServerBootstrap serverBootstrap;
+        private final Map<EventLoopGroup, ServerBootstrap> serverBootstraps = new IdentityHashMap<>();
 
         /**
-         * Our UDP based bootstrap.
+         * Our UDP based bootstraps, one per event loop group.
          */
-        private Bootstrap bootstrap;
+        private final Map<EventLoopGroup, Bootstrap> bootstraps = new IdentityHashMap<>();
+
+        /**
+         * Our UDP based bootstrap for those interfaces that are using native epoll.
+         */
+        private Bootstrap epollBootstrap;
 
         private final Channel udpListeningPoint = null;
 
@@ -167,6 +261,93 @@ public class NettyNetworkLayer implements NetworkLayer {
             return this;
         }
 
+        /**
+         * Frame incoming UDP packets directly on top of the pooled buffers Netty read
+         * them into instead of first copying each packet into a new byte-array.
+         *
+         * Note that the {@link io.sipstack.netty.codec.sip.event.SipMessageIOEvent}s are then
+         * {@link io.netty.util.ReferenceCounted} and your handler must release them once done,
+         * which is the case if it e.g. extends {@link SimpleChannelInboundHandler}. See
+         * {@link SipMessageDatagramDecoder} for more details.
+         *
+         * @return
+         */
+        public Builder withZeroCopyUdpFraming() {
+            this.zeroCopyUdpFraming = true;
+            return this;
+        }
+
+        /**
+         * Have the stream decoders (TCP) pass all messages framed out of the same read
+         * up the pipeline as a single {@link io.sipstack.netty.codec.sip.event.SipMessageBatchIOEvent},
+         * which your handler then must be able to handle. See {@link SipMessageStreamDecoder}
+         * for more details.
+         *
+         * @param maxMessagesPerRead the max number of messages decoded per read (and therefore the
+         *        max size of a batch) in order to be fair to the other connections.
+         * @return
+         */
+        public Builder withPipelinedStreamDecoding(final int maxMessagesPerRead) {
+            if (maxMessagesPerRead < 1) {
+                throw new IllegalArgumentException("The max number of messages per read must be at least one");
+            }
+            this.maxMessagesPerRead = maxMessagesPerRead;
+            return this;
+        }
+
+        /**
+         * Consolidate the flushes on every channel so that the messages written while processing
+         * a read (or in a burst of timers) go out to the socket in one go instead of one syscall
+         * per message. See {@link FlushConsolidationHandler} for the details.
+         *
+         * @param readPolicy the policy for the flushes while a read is in progress.
+         * @param timerPolicy the policy for all other flushes, such as those from timers.
+         * @return
+         */
+        public Builder withFlushConsolidation(final FlushPolicy readPolicy, final FlushPolicy timerPolicy) {
+            this.readFlushPolicy = ensureNotNull(readPolicy, "The read flush policy cannot be null");
+            this.timerFlushPolicy = ensureNotNull(timerPolicy, "The timer flush policy cannot be null");
+            return this;
+        }
+
+        /**
+         * Protect the stack from peers that aren't reading what we send them. A channel becomes
+         * unwritable once more than the high-water mark is waiting to be written to it and stays so
+         * until it gets below the low-water mark again. While unwritable, writes are queued
+         * up to the given max and anything beyond that is dropped, and for TCP we also stop
+         * reading from the peer. See {@link BackPressureHandler}.
+         *
+         * @param lowWaterMark in bytes
+         * @param highWaterMark in bytes
+         * @param maxQueuedWrites the max number of writes to hold back per channel while it is unwritable.
+         * @return
+         */
+        public Builder withBackPressure(final int lowWaterMark, final int highWaterMark, final int maxQueuedWrites) {
+            if (lowWaterMark < 0 || highWaterMark < lowWaterMark) {
+                throw new IllegalArgumentException("The high-water mark must be greater than or equal to "
+                        + "the low-water mark, which cannot be negative");
+            }
+            if (maxQueuedWrites < 1) {
+                throw new IllegalArgumentException("The max number of queued writes must be at least one");
+            }
+            this.lowWaterMark = lowWaterMark;
+            this.highWaterMark = highWaterMark;
+            this.maxQueuedWrites = maxQueuedWrites;
+            return this;
+        }
+
+        /**
+         * Have the encoders tell the given listener how big every SIP message written
+         * ended up being once encoded, e.g. for keeping traffic statistics.
+         *
+         * @param listener
+         * @return
+         */
+        public Builder withEncodeListener(final EncodeListener listener) {
+            this.encodeListener = ensureNotNull(listener, "The encode listener cannot be null");
+            return this;
+        }
+
         public Builder withBossEventLoopGroup(final EventLoopGroup group) {
             this.bossGroup = group;
             return this;
@@ -182,24 +363,64 @@ public class NettyNetworkLayer implements NetworkLayer {
             return this;
         }
 
+        /**
+         * The {@link EventLoopGroup} to use for those network interfaces that have been
+         * configured to use native epoll (see {@link NetworkInterfaceConfiguration#isEpoll()}).
+         * If not specified, an {@link EpollEventLoopGroup} with as many event loops as the
+         * most UDP channels any of those interfaces will bind is created.
+         *
+         * @param group must be an {@link EpollEventLoopGroup}
+         * @return
+         */
+        public Builder withEpollUDPEventLoopGroup(final EpollEventLoopGroup group) {
+            this.epollUdpGroup = group;
+            return this;
+        }
+
+        /**
+         * Configure the event loop topology, i.e., how many event loops to use for the boss,
+         * UDP and TCP groups and whether or not any of the network interfaces should have
+         * groups of their own. See {@link EventLoopConfiguration} for details.
+         *
+         * Any group explicitly given through e.g. {@link #withUDPEventLoopGroup(EventLoopGroup)}
+         * takes precedence over the configured shared group but the network interfaces that
+         * have been configured to have their own groups will still get them.
+         *
+         * @param config
+         * @return
+         */
+        public Builder withEventLoopConfiguration(final EventLoopConfiguration config) {
+            this.eventLoopConfig = ensureNotNull(config, "The event loop configuration cannot be null");
+            return this;
+        }
+
         public NettyNetworkLayer build() {
 
             // TODO: check that if you e.g. specify dialog layer then you must also specify transaction layer
 
             if (bossGroup == null) {
-                bossGroup = new NioEventLoopGroup();
+                bossGroup = eventLoopConfig != null
+                        ? createEventLoopGroup(eventLoopConfig.getBoss()) : created(new NioEventLoopGroup());
             }
 
-            if (workerGroup == null && udpGroup == null) {
-                workerGroup = new NioEventLoopGroup();
+            if (eventLoopConfig != null) {
+                if (workerGroup == null) {
+                    workerGroup = createEventLoopGroup(eventLoopConfig.getTcp());
+                }
+                if (udpGroup == null) {
+                    udpGroup = createEventLoopGroup(eventLoopConfig.getUdp());
+                }
+            } else if (workerGroup == null && udpGroup == null) {
+                workerGroup = created(new NioEventLoopGroup());
                 udpGroup = workerGroup;
-            } else if (workerGroup != null && udpGroup == null) {
+            } else if (udpGroup == null) {
                 udpGroup = workerGroup;
-            } else if (udpGroup != null && workerGroup != null) {
+            } else if (workerGroup == null) {
                 workerGroup = udpGroup;
             }
 
             final Clock clock = this.clock != null ? this.clock : new SystemClock();
+            final boolean epoll = ensureEpollUDPGroup();
 
             final List<NettyNetworkInterface.Builder> builders = new ArrayList<NettyNetworkInterface.Builder>();
             if (this.ifs.isEmpty()) {
@@ -209,9 +430,15 @@ public class NettyNetworkLayer implements NetworkLayer {
             } else {
                 this.ifs.forEach(i -> {
                     final NettyNetworkInterface.Builder ifBuilder = NettyNetworkInterface.with(i);
-                    ifBuilder.udpBootstrap(ensureUDPBootstrap(clock, i.getVipAddress()));
-                    ifBuilder.tcpBootstrap(ensureTCPBootstrap(clock, i.getVipAddress()));
-                    ifBuilder.tcpServerBootstrap(ensureTCPServerBootstrap(clock, i.getVipAddress()));
+                    if (epoll && i.isEpoll()) {
+                        ifBuilder.udpBootstrap(ensureEpollUDPBootstrap(clock, i.getVipAddress()));
+                        ifBuilder.udpChannels(getUdpChannels(i));
+                    } else {
+                        ifBuilder.udpBootstrap(ensureUDPBootstrap(getUdpGroup(i), clock, i.getVipAddress()));
+                    }
+                    final EventLoopGroup tcpGroup = getTcpGroup(i);
+                    ifBuilder.tcpBootstrap(ensureTCPBootstrap(tcpGroup, clock, i.getVipAddress()));
+                    ifBuilder.tcpServerBootstrap(ensureTCPServerBootstrap(tcpGroup, clock, i.getVipAddress()));
                     builders.add(ifBuilder);
                 });
             }
@@ -219,41 +446,210 @@ public class NettyNetworkLayer implements NetworkLayer {
             final CountDownLatch latch = new CountDownLatch(builders.size());
             final List<NettyNetworkInterface> ifs = new ArrayList<>();
             builders.forEach(ifBuilder -> ifs.add(ifBuilder.latch(latch).build()));
-            return new NettyNetworkLayer(latch, Collections.unmodifiableList(ifs));
+            return new NettyNetworkLayer(latch, Collections.unmodifiableList(ifs),
+                    Collections.unmodifiableList(new ArrayList<>(createdGroups)));
+        }
+
+        /**
+         * Create a new NIO based event loop group as described by the given configuration.
+         */
+        private EventLoopGroup createEventLoopGroup(final EventLoopGroupConfiguration config) {
+            final int threads = config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors();
+            final NioEventLoopGroup group = new NioEventLoopGroup(threads);
+            group.setIoRatio(config.getIoRatio());
+            return created(group);
+        }
+
+        private <T extends EventLoopGroup> T created(final T group) {
+            createdGroups.add(group);
+            return group;
+        }
+
+        /**
+         * The UDP group for the given network interface, which is the shared UDP group
+         * unless the interface has been configured to have one of its own.
+         */
+        private EventLoopGroup getUdpGroup(final NetworkInterfaceConfiguration config) {
+            if (eventLoopConfig != null && eventLoopConfig.hasDedicatedUdp(config.getName())) {
+                return createEventLoopGroup(eventLoopConfig.getUdp(config.getName()));
+            }
+            return udpGroup;
+        }
+
+        /**
+         * The TCP group for the given network interface, which is the shared TCP group
+         * unless the interface has been configured to have one of its own.
+         */
+        private EventLoopGroup getTcpGroup(final NetworkInterfaceConfiguration config) {
+            if (eventLoopConfig != null && eventLoopConfig.hasDedicatedTcp(config.getName())) {
+                return createEventLoopGroup(eventLoopConfig.getTcp(config.getName()));
+            }
+            return workerGroup;
+        }
+
+        /**
+         * Check whether any of the network interfaces wants to use native epoll and if so,
+         * whether or not it is available on this platform, in which case we will make
+         * sure that we have an {@link EpollEventLoopGroup} to use.
+         *
+         * @return true if native epoll should be used for those interfaces asking for it.
+         */
+        private boolean ensureEpollUDPGroup() {
+            final int channels = this.ifs.stream()
+                    .filter(i -> i.isEpoll() && i.hasUDP())
+                    .mapToInt(this::getUdpChannels)
+                    .max()
+                    .orElse(0);
+            if (channels == 0) {
+                return false;
+            }
+
+            if (!Epoll.isAvailable()) {
+                logger.warn("Native epoll has been configured but is not available on this platform, "
+                        + "falling back to NIO for UDP", Epoll.unavailabilityCause());
+                return false;
+            }
+
+            if (this.epollUdpGroup == null) {
+                try {
+                    final EpollEventLoopGroup group = new EpollEventLoopGroup(channels);
+                    if (eventLoopConfig != null) {
+                        group.setIoRatio(eventLoopConfig.getUdp().getIoRatio());
+                    }
+                    this.epollUdpGroup = created(group);
+                } catch (final IllegalStateException e) {
+                    // the native library loaded fine but the event loops still couldn't
+                    // be created, e.g. because the JVM doesn't give access to sun.misc.Unsafe
+                    logger.warn("Unable to create the native epoll event loops, falling back to NIO for UDP", e);
+                    return false;
+                }
+            }
+            return true;
         }
 
-        private Bootstrap ensureUDPBootstrap(final Clock clock, final SipURI vipAddress) {
+        private int getUdpChannels(final NetworkInterfaceConfiguration config) {
+            final int channels = config.getUdpChannels();
+            return channels > 0 ? channels : Runtime.getRuntime().availableProcessors();
+        }
+
+        private ChannelInitializer<DatagramChannel> createUDPInitializer(final Clock clock, final SipURI vipAddress) {
+            return new ChannelInitializer<DatagramChannel>() {
+                @Override
+                protected void initChannel(final DatagramChannel ch) throws Exception {
+                    final ChannelPipeline pipeline = ch.pipeline();
+                    pipeline.addLast("decoder", new SipMessageDatagramDecoder(clock, vipAddress, zeroCopyUdpFraming));
+                    pipeline.addLast("encoder", new SipMessageDatagramEncoder(encodeListener));
+                    addFlushConsolidation(pipeline);
+                    addBackPressure(pipeline, false);
+                    for (int i = 0; i < handlers.size(); ++i) {
+                        pipeline.addLast(handlerNames.get(i), handlers.get(i));
+                    }
+                }
+            };
+        }
+
+        /**
+         * The flush consolidation handler goes in between the encoder and the handlers
+         * so that the encoder gets to see all the held back writes in one go.
+         */
+        private void addFlushConsolidation(final ChannelPipeline pipeline) {
+            if (readFlushPolicy != null) {
+                pipeline.addLast("flush-consolidation", new FlushConsolidationHandler(readFlushPolicy, timerFlushPolicy));
+            }
+        }
+
+        /**
+         * The back-pressure handler goes after the flush consolidation so that it is the
+         * events that are held back and not the encoded bytes. For UDP, the channel is
+         * shared by all the flows so we will never stop reading from it.
+         */
+        private void addBackPressure(final ChannelPipeline pipeline, final boolean pauseReads) {
+            if (maxQueuedWrites > 0) {
+                pipeline.addLast("back-pressure", new BackPressureHandler(maxQueuedWrites, pauseReads));
+            }
+        }
+
+        /**
+         * Set the write buffer water marks, if back-pressure is turned on. Netty refuses a low-water
+         * mark above the current high-water mark (and vice versa) so the order in which they are
+         * set depends on how they relate to the defaults (32 kB and 64 kB).
+         */
+        private void setWaterMarks(final BiConsumer<ChannelOption<Integer>, Integer> option) {
+            if (maxQueuedWrites == 0) {
+                return;
+            }
+
+            if (highWaterMark >= 32 * 1024) {
+                option.accept(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark);
+                option.accept(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark);
+            } else {
+                option.accept(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark);
+                option.accept(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark);
+            }
+        }
+
+        /**
+         * The native epoll version of the UDP bootstrap. All the channels of a listening point
+         * are bound to the same port through SO_REUSEPORT, which makes the kernel spread the
+         * incoming datagrams across them (based on a hash of the 4-tuple) and since each channel
+         * is registered with the next event loop in the group, every event loop gets its own
+         * socket to read from.
+         *
+         * Note that the native transport reads into direct memory so zero copy framing
+         * (see {@link #withZeroCopyUdpFraming()}) does not apply here and the decoder will
+         * simply copy the datagrams.
+         */
+        private Bootstrap ensureEpollUDPBootstrap(final Clock clock, final SipURI vipAddress) {
+            // TODO: same as for the NIO bootstrap, this won't be correct when we listen
+            // to multiple ports with different vip addresses.
+            if (this.epollBootstrap == null) {
+                final RecvByteBufAllocator allocator =
+                        new FixedRecvByteBufAllocator(HeapRecvByteBufAllocator.DEFAULT_DATAGRAM_SIZE)
+                                .maxMessagesPerRead(EPOLL_MAX_DATAGRAMS_PER_READ);
+
+                final Bootstrap b = new Bootstrap();
+                b.group(this.epollUdpGroup)
+                .channel(EpollDatagramChannel.class)
+                .handler(createUDPInitializer(clock, vipAddress))
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, allocator);
+
+                this.epollBootstrap = b;
+            }
+            return this.epollBootstrap;
+        }
+
+        private Bootstrap ensureUDPBootstrap(final EventLoopGroup group, final Clock clock, final SipURI vipAddress) {
             // TODO: this won't be correct when we listen to multiple ports
             // and they may have different vip addresses etc. we'll deal with that
             // later...
-            if (this.bootstrap == null) {
+            Bootstrap bootstrap = this.bootstraps.get(group);
+            if (bootstrap == null) {
                 final Bootstrap b = new Bootstrap();
-                b.group(this.udpGroup)
+                b.group(group)
                 .channel(NioDatagramChannel.class)
-                .handler(new ChannelInitializer<DatagramChannel>() {
-                    @Override
-                    protected void initChannel(final DatagramChannel ch) throws Exception {
-                        final ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast("decoder", new SipMessageDatagramDecoder(clock, vipAddress));
-                        pipeline.addLast("encoder", new SipMessageDatagramEncoder());
-                        for (int i = 0; i < handlers.size(); ++i) {
-                            pipeline.addLast(handlerNames.get(i), handlers.get(i));
-                        }
-                    }
-                });
+                .handler(createUDPInitializer(clock, vipAddress));
+
+                if (zeroCopyUdpFraming) {
+                    // the decoder can only frame on top of array backed buffers
+                    b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                     .option(ChannelOption.RCVBUF_ALLOCATOR, new HeapRecvByteBufAllocator());
+                }
 
                 // this allows you to setup connections from the
                 // same listening point
                 // .option(ChannelOption.SO_REUSEADDR, true);
 
-                this.bootstrap = b;
+                bootstrap = b;
+                this.bootstraps.put(group, b);
             }
-            return this.bootstrap;
+            return bootstrap;
         }
 
-        private Bootstrap ensureTCPBootstrap(final Clock clock, final SipURI vipAddress) {
+        private Bootstrap ensureTCPBootstrap(final EventLoopGroup group, final Clock clock, final SipURI vipAddress) {
             final Bootstrap tcpBootstrap = new Bootstrap();
-            tcpBootstrap.group(workerGroup)
+            tcpBootstrap.group(group)
                     .channel(NioSocketChannel.class)
                     .option(ChannelOption.SO_KEEPALIVE, true)
                     .option(ChannelOption.TCP_NODELAY, true)
@@ -261,28 +657,35 @@ public class NettyNetworkLayer implements NetworkLayer {
                         @Override
                         protected void initChannel(final SocketChannel ch) throws Exception {
                             final ChannelPipeline pipeline = ch.pipeline();
-                            pipeline.addLast("decoder", new SipMessageStreamDecoder(clock, vipAddress));
-                            pipeline.addLast("encoder", new SipMessageStreamEncoder());
+                            pipeline.addLast("decoder", new SipMessageStreamDecoder(clock, vipAddress, maxMessagesPerRead));
+                            pipeline.addLast("encoder", new SipMessageStreamEncoder(encodeListener));
+                            addFlushConsolidation(pipeline);
+                            addBackPressure(pipeline, true);
                             for (int i = 0; i < handlers.size(); ++i) {
                                 pipeline.addLast(handlerNames.get(i), handlers.get(i));
                             }
                         }
                     });
+            setWaterMarks(tcpBootstrap::option);
             return tcpBootstrap;
         }
 
-        private ServerBootstrap ensureTCPServerBootstrap(final Clock clock, final SipURI vipAddress) {
-            if (this.serverBootstrap == null) {
+        private ServerBootstrap ensureTCPServerBootstrap(final EventLoopGroup group, final Clock clock,
+                                                         final SipURI vipAddress) {
+            ServerBootstrap serverBootstrap = this.serverBootstraps.get(group);
+            if (serverBootstrap == null) {
                 final ServerBootstrap b = new ServerBootstrap();
 
-                b.group(this.bossGroup, this.workerGroup)
+                b.group(this.bossGroup, group)
                 .channel(NioServerSocketChannel.class)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(final SocketChannel ch) throws Exception {
                         final ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast("decoder", new SipMessageStreamDecoder(clock, vipAddress));
-                        pipeline.addLast("encoder", new SipMessageStreamEncoder());
+                        pipeline.addLast("decoder", new SipMessageStreamDecoder(clock, vipAddress, maxMessagesPerRead));
+                        pipeline.addLast("encoder", new SipMessageStreamEncoder(encodeListener));
+                        addFlushConsolidation(pipeline);
+                        addBackPressure(pipeline, true);
                         for (int i = 0; i < handlers.size(); ++i) {
                             pipeline.addLast(handlerNames.get(i), handlers.get(i));
                         }
@@ -292,10 +695,12 @@ public class NettyNetworkLayer implements NetworkLayer {
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
                 .childOption(ChannelOption.TCP_NODELAY, true);
+                setWaterMarks(b::childOption);
                 // TODO: should make all the above TCP options configurable
-                this.serverBootstrap = b;
+                serverBootstrap = b;
+                this.serverBootstraps.put(group, b);
             }
-            return this.serverBootstrap;
+            return serverBootstrap;
         }
 
         private Inet4Address findPrimaryAddress() {
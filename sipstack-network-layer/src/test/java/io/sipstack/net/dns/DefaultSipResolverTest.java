@@ -0,0 +1,419 @@
+package io.sipstack.net.dns;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsServerAddresses;
+import io.pkts.packet.sip.Transport;
+import io.sipstack.config.DnsConfiguration;
+import io.sipstack.netty.codec.sip.Clock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link DefaultSipResolver} against a small stub DNS server running
+ * on the loopback interface.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class DefaultSipResolverTest {
+
+    private static final int A = 1;
+    private static final int SRV = 33;
+    private static final int NAPTR = 35;
+
+    private StubDnsServer server;
+
+    private NioEventLoopGroup group;
+
+    private TestClock clock;
+
+    private DnsConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubDnsServer();
+        server.start();
+        group = new NioEventLoopGroup(1);
+        clock = new TestClock();
+        config = new DnsConfiguration();
+
+        server.naptr("example.com", 10, 10, "s", "SIP+D2T", "_sip._tcp.example.com", 300);
+        server.naptr("example.com", 20, 10, "s", "SIP+D2U", "_sip._udp.example.com", 300);
+        server.srv("_sip._tcp.example.com", 10, 0, 5070, "sip1.example.com", 300);
+        server.srv("_sip._udp.example.com", 10, 0, 5080, "sip2.example.com", 300);
+        server.a("sip1.example.com", "10.0.0.1", 60);
+        server.a("sip2.example.com", "10.0.0.2", 60);
+        server.a("plain.example.com", "10.0.0.3", 60);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        server.stop();
+    }
+
+    /**
+     * Neither transport nor port so we should go NAPTR -> SRV -> A and end up with
+     * the targets in the order of the NAPTR records.
+     */
+    @Test(timeout = 5000)
+    public void testNaptrSrvA() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> true), "example.com", -1, null);
+        assertThat(targets, is(Arrays.asList(
+                target(Transport.tcp, "10.0.0.1", 5070),
+                target(Transport.udp, "10.0.0.2", 5080))));
+    }
+
+    /**
+     * NAPTR records for transports we don't support must be skipped.
+     */
+    @Test(timeout = 5000)
+    public void testNaptrUnsupportedTransport() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> t == Transport.udp), "example.com", -1, null);
+        assertThat(targets, is(Collections.singletonList(target(Transport.udp, "10.0.0.2", 5080))));
+        assertThat(server.count(SRV, "_sip._tcp.example.com"), is(0));
+    }
+
+    /**
+     * If the transport is given we go straight to SRV.
+     */
+    @Test(timeout = 5000)
+    public void testSrvWhenTransportGiven() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> true), "example.com", -1, Transport.tcp);
+        assertThat(targets, is(Collections.singletonList(target(Transport.tcp, "10.0.0.1", 5070))));
+        assertThat(server.count(NAPTR, "example.com"), is(0));
+    }
+
+    /**
+     * If the port is given we only look up the A records.
+     */
+    @Test(timeout = 5000)
+    public void testOnlyAWhenPortGiven() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> true), "sip1.example.com", 5090, null);
+        assertThat(targets, is(Collections.singletonList(target(Transport.udp, "10.0.0.1", 5090))));
+        assertThat(server.total(), is(1));
+    }
+
+    /**
+     * No NAPTR nor SRV records so we should end up on the A records and UDP on 5060.
+     */
+    @Test(timeout = 5000)
+    public void testFallbackToA() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> t == Transport.udp || t == Transport.tcp),
+                "plain.example.com", -1, null);
+        assertThat(targets, is(Collections.singletonList(target(Transport.udp, "10.0.0.3", 5060))));
+        assertThat(server.count(NAPTR, "plain.example.com"), is(1));
+        assertThat(server.count(SRV, "_sip._udp.plain.example.com"), is(1));
+        assertThat(server.count(SRV, "_sip._tcp.plain.example.com"), is(1));
+    }
+
+    @Test(timeout = 5000)
+    public void testIpAddress() throws Exception {
+        final List<SipTarget> targets = resolve(resolver(t -> true), "10.1.2.3", -1, Transport.tls);
+        assertThat(targets, is(Collections.singletonList(target(Transport.tls, "10.1.2.3", 5061))));
+        assertThat(server.total(), is(0));
+    }
+
+    /**
+     * The second lookup must be served from the cache until the TTL runs out.
+     */
+    @Test(timeout = 5000)
+    public void testCache() throws Exception {
+        final SipResolver resolver = resolver(t -> true);
+        resolve(resolver, "example.com", -1, null);
+        final int queries = server.total();
+
+        resolve(resolver, "example.com", -1, null);
+        assertThat(server.total(), is(queries));
+
+        // the A records have a TTL of 60 seconds, everything else 300
+        clock.plusSeconds(61);
+        resolve(resolver, "example.com", -1, null);
+        assertThat(server.total(), is(queries + 2));
+        assertThat(server.count(A, "sip1.example.com"), is(2));
+        assertThat(server.count(NAPTR, "example.com"), is(1));
+    }
+
+    /**
+     * A name that doesn't exist is remembered for the negative TTL.
+     */
+    @Test(timeout = 5000)
+    public void testNegativeCache() throws Exception {
+        config.setNegativeTtl(Duration.ofSeconds(10));
+        final SipResolver resolver = resolver(t -> true);
+        ensureUnknownHost(resolver, "nowhere.example.com");
+        ensureUnknownHost(resolver, "nowhere.example.com");
+        assertThat(server.count(A, "nowhere.example.com"), is(1));
+
+        clock.plusSeconds(11);
+        ensureUnknownHost(resolver, "nowhere.example.com");
+        assertThat(server.count(A, "nowhere.example.com"), is(2));
+    }
+
+    /**
+     * Names that are only ever asked for once must not stay in the cache forever
+     * just because no one comes back to find them expired.
+     */
+    @Test(timeout = 5000)
+    public void testExpiredEntriesAreSwept() throws Exception {
+        config.setNegativeTtl(Duration.ofSeconds(10));
+        final DefaultSipResolver resolver = resolver(t -> true);
+        for (int i = 0; i < 5; ++i) {
+            ensureUnknownHost(resolver, "nowhere" + i + ".example.com");
+        }
+        assertThat(resolver.cacheSize(), is(5));
+
+        // expired but not yet time to sweep
+        clock.plusSeconds(11);
+        resolve(resolver, "sip1.example.com", 5060, Transport.udp);
+        assertThat(resolver.cacheSize(), is(6));
+
+        clock.plusSeconds(50);
+        resolve(resolver, "sip2.example.com", 5060, Transport.udp);
+        assertThat(resolver.cacheSize(), is(2));
+    }
+
+    /**
+     * Many lookups for the same name at the same time should only result in one query.
+     */
+    @Test(timeout = 5000)
+    public void testCoalesceInFlightQueries() throws Exception {
+        server.delay = 200;
+        final SipResolver resolver = resolver(t -> true);
+        final List<CompletableFuture<List<SipTarget>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(resolver.resolve("sip2.example.com", 5060, Transport.udp));
+        }
+
+        for (final CompletableFuture<List<SipTarget>> future : futures) {
+            assertThat(future.get(), is(Collections.singletonList(target(Transport.udp, "10.0.0.2", 5060))));
+        }
+        assertThat(server.count(A, "sip2.example.com"), is(1));
+    }
+
+    private void ensureUnknownHost(final SipResolver resolver, final String host) throws Exception {
+        try {
+            resolve(resolver, host, 5060, Transport.udp);
+            fail("Expected the lookup to fail");
+        } catch (final ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(UnknownHostException.class));
+        }
+    }
+
+    private DefaultSipResolver resolver(final Predicate<Transport> supported) {
+        final DnsNameResolver dns = new DnsNameResolver(group.next(), NioDatagramChannel.class,
+                DnsServerAddresses.singleton(server.address()));
+        dns.setQueryTimeoutMillis(2000);
+        return new DefaultSipResolver(dns, config, clock, supported);
+    }
+
+    private static List<SipTarget> resolve(final SipResolver resolver, final String host, final int port,
+                                           final Transport transport) throws Exception {
+        return resolver.resolve(host, port, transport).get(4, TimeUnit.SECONDS);
+    }
+
+    private static SipTarget target(final Transport transport, final String ip, final int port) throws Exception {
+        return SipTarget.create(transport, new InetSocketAddress(InetAddress.getByName(ip), port));
+    }
+
+    private static class TestClock implements Clock {
+        private volatile long now = 1000000;
+
+        @Override
+        public long getCurrentTimeMillis() {
+            return now;
+        }
+
+        void plusSeconds(final int seconds) {
+            now += seconds * 1000L;
+        }
+    }
+
+    /**
+     * A tiny DNS server that only knows how to answer questions about the records
+     * we have given it and answers NXDOMAIN for names it doesn't know anything about
+     * at all. Keeps track of how many queries it got for every name and type.
+     */
+    private static class StubDnsServer implements Runnable {
+
+        private final DatagramSocket socket;
+
+        private final Map<String, List<byte[]>> records = new ConcurrentHashMap<>();
+
+        private final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+
+        private final AtomicInteger total = new AtomicInteger();
+
+        private volatile long delay;
+
+        private Thread thread;
+
+        private StubDnsServer() throws Exception {
+            socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        }
+
+        private InetSocketAddress address() {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+        private void start() {
+            thread = new Thread(this, "stub-dns");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void stop() throws Exception {
+            socket.close();
+            thread.join(1000);
+        }
+
+        private int count(final int type, final String name) {
+            final AtomicInteger count = queries.get(type + " " + name);
+            return count == null ? 0 : count.get();
+        }
+
+        private int total() {
+            return total.get();
+        }
+
+        private void a(final String name, final String ip, final int ttl) throws Exception {
+            add(name, A, ttl, InetAddress.getByName(ip).getAddress());
+        }
+
+        private void srv(final String name, final int priority, final int weight, final int port,
+                         final String target, final int ttl) {
+            final ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+            writeShort(rdata, priority);
+            writeShort(rdata, weight);
+            writeShort(rdata, port);
+            writeName(rdata, target);
+            add(name, SRV, ttl, rdata.toByteArray());
+        }
+
+        private void naptr(final String name, final int order, final int preference, final String flags,
+                           final String service, final String replacement, final int ttl) {
+            final ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+            writeShort(rdata, order);
+            writeShort(rdata, preference);
+            writeString(rdata, flags);
+            writeString(rdata, service);
+            writeString(rdata, "");
+            writeName(rdata, replacement);
+            add(name, NAPTR, ttl, rdata.toByteArray());
+        }
+
+        /**
+         * Every record is kept as the type, class, ttl, rdlength and rdata, i.e., all
+         * that follows the (compressed) name in the answer section.
+         */
+        private void add(final String name, final int type, final int ttl, final byte[] rdata) {
+            final ByteBuffer record = ByteBuffer.allocate(10 + rdata.length);
+            record.putShort((short) type).putShort((short) 1).putInt(ttl).putShort((short) rdata.length).put(rdata);
+            records.computeIfAbsent(type + " " + name, k -> new ArrayList<>()).add(record.array());
+            // so that we know the name exists, even if it has no records of a particular type
+            records.computeIfAbsent(name, k -> new ArrayList<>());
+        }
+
+        @Override
+        public void run() {
+            final byte[] buffer = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    final byte[] response = answer(Arrays.copyOf(packet.getData(), packet.getLength()));
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                } catch (final Exception e) {
+                    // socket closed
+                }
+            }
+        }
+
+        private byte[] answer(final byte[] query) {
+            // the question always starts right after the 12 byte header
+            int index = 12;
+            final StringBuilder name = new StringBuilder();
+            while (query[index] != 0) {
+                final int length = query[index];
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                name.append(new String(query, index + 1, length, StandardCharsets.US_ASCII));
+                index += 1 + length;
+            }
+            final int questionEnd = index + 5;
+            final int type = (query[index + 1] & 0xFF) << 8 | query[index + 2] & 0xFF;
+            final String key = type + " " + name.toString().toLowerCase();
+
+            queries.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            total.incrementAndGet();
+
+            final boolean exists = records.containsKey(name.toString().toLowerCase());
+            final List<byte[]> answers = records.getOrDefault(key, Collections.emptyList());
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(query[0]);
+            out.write(query[1]);
+            writeShort(out, 0x8180 | (exists ? 0 : 3));
+            writeShort(out, 1);
+            writeShort(out, answers.size());
+            writeShort(out, 0);
+            writeShort(out, 0);
+            out.write(query, 12, questionEnd - 12);
+            for (final byte[] answer : answers) {
+                // pointer to the name in the question
+                writeShort(out, 0xC00C);
+                out.write(answer, 0, answer.length);
+            }
+            return out.toByteArray();
+        }
+
+        private static void writeShort(final ByteArrayOutputStream out, final int value) {
+            out.write(value >> 8 & 0xFF);
+            out.write(value & 0xFF);
+        }
+
+        private static void writeString(final ByteArrayOutputStream out, final String value) {
+            out.write(value.length());
+            out.write(value.getBytes(StandardCharsets.US_ASCII), 0, value.length());
+        }
+
+        private static void writeName(final ByteArrayOutputStream out, final String name) {
+            for (final String label : name.split("\\.")) {
+                writeString(out, label);
+            }
+            out.write(0);
+        }
+    }
+}
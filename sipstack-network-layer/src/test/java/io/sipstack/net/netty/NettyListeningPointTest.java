@@ -0,0 +1,175 @@
+package io.sipstack.net.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.pkts.packet.sip.Transport;
+import io.pkts.packet.sip.address.SipURI;
+import io.sipstack.netty.codec.sip.Connection;
+import io.sipstack.netty.codec.sip.event.ConnectionActiveIOEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class NettyListeningPointTest {
+
+    private final SipURI listen = SipURI.withHost("127.0.0.1").withPort(5060).build();
+
+    private final SipURI vip = SipURI.withHost("64.92.13.45").withPort(5060).build();
+
+    private NioEventLoopGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    /**
+     * The connections we establish ourselves must know about the VIP address just like
+     * the ones accepted from others do, or e.g. the Via and Contact headers of the requests
+     * sent over them would carry the local address.
+     */
+    @Test(timeout = 10000)
+    public void testTcpConnectionHasVipAddress() throws Exception {
+        try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .handler(new ChannelInboundHandlerAdapter());
+
+            final NettyListeningPoint lp = NettyListeningPoint.withListenAddress(listen)
+                    .withTransport(Transport.tcp)
+                    .withVipAddress(vip)
+                    .withTcpBootstrap(bootstrap)
+                    .withTcpServerBootstrap(new ServerBootstrap())
+                    .build();
+
+            final InetSocketAddress remote = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            final Connection connection = lp.connect(remote).get(5, TimeUnit.SECONDS);
+            assertThat(connection.getVipAddress().get().toString(), is(vip.toString()));
+
+            connection.close();
+        }
+    }
+
+    /**
+     * All the UDP channels are bound to the same port.
+     */
+    @Test(timeout = 10000)
+    public void testUdpBindsAllChannels() throws Exception {
+        final List<Channel> channels = new CopyOnWriteArrayList<>();
+        final NettyListeningPoint lp = udpListeningPoint(4, channels, new LinkedBlockingQueue<>());
+        lp.up().get(5, TimeUnit.SECONDS);
+
+        assertThat(channels.size(), is(4));
+        channels.forEach(channel -> {
+            assertThat(channel.isActive(), is(true));
+            assertThat(((InetSocketAddress) channel.localAddress()).getPort(), is(lp.getLocalPort()));
+        });
+        channels.forEach(Channel::close);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUdpNoChannels() throws Exception {
+        NettyListeningPoint.withListenAddress(listen).withUdpChannels(0);
+    }
+
+    /**
+     * The same remote address always ends up on the same channel but different
+     * remote addresses are spread across all of them.
+     */
+    @Test(timeout = 10000)
+    public void testUdpSelectChannel() throws Exception {
+        final List<Channel> channels = new CopyOnWriteArrayList<>();
+        final BlockingQueue<Channel> active = new LinkedBlockingQueue<>();
+        final NettyListeningPoint lp = udpListeningPoint(4, channels, active);
+        lp.up().get(5, TimeUnit.SECONDS);
+
+        final InetSocketAddress remote = new InetSocketAddress("10.0.0.1", 5060);
+        lp.connect(remote).get(5, TimeUnit.SECONDS);
+        final Channel first = active.poll(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; ++i) {
+            lp.connect(remote).get(5, TimeUnit.SECONDS);
+            assertThat(active.poll(5, TimeUnit.SECONDS), sameInstance(first));
+        }
+
+        final Set<Channel> used = new HashSet<>();
+        for (int i = 0; i < 100; ++i) {
+            lp.connect(new InetSocketAddress("10.0.1." + i, 5060 + i)).get(5, TimeUnit.SECONDS);
+            used.add(active.poll(5, TimeUnit.SECONDS));
+        }
+        assertThat(used, is(new HashSet<>(channels)));
+        channels.forEach(Channel::close);
+    }
+
+    /**
+     * A UDP listening point on a free port where every channel bound is added to the
+     * given list and the channel every new UDP connection was announced on to the queue.
+     */
+    private NettyListeningPoint udpListeningPoint(final int count, final List<Channel> channels,
+                                                  final BlockingQueue<Channel> active) throws Exception {
+        final int port;
+        try (final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        // without epoll, SO_REUSEADDR is what lets several UDP sockets share the port on Linux
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(final DatagramChannel ch) throws Exception {
+                        channels.add(ch);
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter());
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+                                if (evt instanceof ConnectionActiveIOEvent) {
+                                    active.add(ctx.channel());
+                                }
+                            }
+                        });
+                    }
+                });
+
+        return NettyListeningPoint.withListenAddress(SipURI.withHost("127.0.0.1").withPort(port).build())
+                .withTransport(Transport.udp)
+                .withUdpBootstrap(bootstrap)
+                .withUdpChannels(count)
+                .build();
+    }
+}
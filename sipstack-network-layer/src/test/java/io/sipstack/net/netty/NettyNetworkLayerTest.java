@@ -0,0 +1,74 @@
+package io.sipstack.net.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.pkts.packet.sip.Transport;
+import io.pkts.packet.sip.address.SipURI;
+import io.sipstack.config.EventLoopConfiguration;
+import io.sipstack.config.NetworkInterfaceConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class NettyNetworkLayerTest {
+
+    private NioEventLoopGroup own;
+
+    @After
+    public void tearDown() throws Exception {
+        if (own != null) {
+            own.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    /**
+     * All the groups the builder had to create must be shut down when the network layer stops.
+     */
+    @Test(timeout = 30000)
+    public void testStopShutsDownCreatedGroups() throws Exception {
+        final NettyNetworkLayer layer = NettyNetworkLayer.with(ifs())
+                .withEventLoopConfiguration(new EventLoopConfiguration())
+                .build();
+
+        // boss, UDP and TCP
+        final List<EventLoopGroup> groups = layer.getEventLoopGroups();
+        assertThat(groups.size(), is(3));
+
+        layer.stop().get(20, TimeUnit.SECONDS);
+        groups.forEach(group -> assertThat(group.isTerminated(), is(true)));
+    }
+
+    /**
+     * A group given to the builder belongs to whoever created it and it is
+     * up to them to shut it down.
+     */
+    @Test(timeout = 30000)
+    public void testStopLeavesGivenGroupsAlone() throws Exception {
+        own = new NioEventLoopGroup(1);
+        final NettyNetworkLayer layer = NettyNetworkLayer.with(ifs())
+                .withUDPEventLoopGroup(own)
+                .build();
+
+        // only the boss group, the TCP group falls back on the UDP group
+        assertThat(layer.getEventLoopGroups().size(), is(1));
+
+        layer.stop().get(20, TimeUnit.SECONDS);
+        assertThat(layer.getEventLoopGroups().get(0).isTerminated(), is(true));
+        assertThat(own.isShuttingDown(), is(false));
+    }
+
+    private static List<NetworkInterfaceConfiguration> ifs() {
+        final SipURI listen = SipURI.withHost("127.0.0.1").withPort(5060).build();
+        return Collections.singletonList(new NetworkInterfaceConfiguration("default", listen, null,
+                Transport.udp, Transport.tcp));
+    }
+}